@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-benchmarks
+ *
+ * opensearch-benchmarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-benchmarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.opensearch.repository.CorepoRecordContent;
+import dk.dbc.opensearch.repository.RecordContent;
+import dk.dbc.opensearch.xml.XMLCacheElement;
+import dk.dbc.opensearch.xml.XMLCacheReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static dk.dbc.opensearch.xml.XMLElementFilter.elementReader;
+import static dk.dbc.opensearch.xml.XMLEventFactories.I;
+
+/**
+ * Parsing of corepo-content-service responses: the streaming parser compared
+ * to the POJO/String/byte[] path it replaced
+ * <p>
+ * Heap allocation is the interesting number, run with:
+ * {@code java -jar benchmarks/target/benchmarks.jar CorepoRecordContent -prof gc}
+ * and compare {@code gc.alloc.rate.norm} (bytes per operation)
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorepoRecordContentBenchmark {
+
+    private static final ObjectMapper O = new ObjectMapper();
+
+    private static final Map<QName, String> FORMATS = formats();
+
+    @Param({"dkabm", "marcxchange"})
+    public String record;
+
+    /**
+     * Number of copies of the record in the dataStream, to simulate large
+     * records (holdings, many manifestations)
+     */
+    @Param({"1", "50"})
+    public int copies;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        String xml = new String(Records.bytes(record), StandardCharsets.UTF_8)
+                .replaceFirst("^<\\?xml[^>]*\\?>", "");
+        StringBuilder dataStream = new StringBuilder();
+        dataStream.append("<ting:container xmlns:ting=\"http://www.dbc.dk/ting\">");
+        for (int i = 0 ; i < copies ; i++) {
+            dataStream.append(xml);
+        }
+        dataStream.append("<adminData><recordStatus>active</recordStatus><creationDate>2018-10-01</creationDate></adminData>")
+                .append("</ting:container>");
+        LinkedHashMap<String, Object> payload = new LinkedHashMap<>();
+        payload.put("dataStream", dataStream.toString());
+        payload.put("pids", new String[] {"870970-basis:28183488"});
+        payload.put("primaryPid", "870970-basis:28183488");
+        json = O.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public RecordContent streaming(Sizes sizes) throws IOException, XMLStreamException {
+        return new CorepoRecordContent(new ByteArrayInputStream(json), FORMATS, Records.DEFAULT_PREFIX);
+    }
+
+    @Benchmark
+    public Map<String, XMLCacheReader> pojo(Sizes sizes) throws IOException, XMLStreamException {
+        Map<?, ?> payload = O.readValue(json, Map.class);
+        byte[] bytes = ( (String) payload.get("dataStream") ).getBytes(StandardCharsets.UTF_8);
+        XMLEventReader reader = elementReader(I.createXMLEventReader(new ByteArrayInputStream(bytes)));
+        HashMap<String, XMLCacheReader> formats = new HashMap<>();
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                String format = FORMATS.get(event.asStartElement().getName());
+                if (format != null)
+                    formats.put(format, XMLCacheElement.of((StartElement) event, reader, Records.DEFAULT_PREFIX).toReader());
+            }
+        }
+        reader.close();
+        return formats;
+    }
+
+    /**
+     * Size of the response, reported as a secondary result
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long jsonBytes;
+
+        @Setup(Level.Iteration)
+        public void setUp(CorepoRecordContentBenchmark benchmark) {
+            jsonBytes = benchmark.json.length;
+        }
+    }
+
+    private static Map<QName, String> formats() {
+        HashMap<QName, String> formats = new HashMap<>();
+        formats.put(new QName("http://biblstandard.dk/abm/namespace/dkabm/", "record"), "dkabm");
+        formats.put(new QName("info:lc/xmlns/marcxchange-v1", "record"), "marcxchange");
+        return formats;
+    }
+}
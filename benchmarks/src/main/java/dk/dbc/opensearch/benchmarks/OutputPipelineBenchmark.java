@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-benchmarks
+ *
+ * opensearch-benchmarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-benchmarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.benchmarks;
+
+import dk.dbc.opensearch.output.OpenSearchResponse;
+import dk.dbc.opensearch.output.OpenSearchResponseJSON;
+import dk.dbc.opensearch.output.OpenSearchResponseSOAP;
+import dk.dbc.opensearch.output.OpenSearchResponseXML;
+import dk.dbc.opensearch.output.Root;
+import dk.dbc.opensearch.output.SearchResponse;
+import dk.dbc.opensearch.output.SearchResult;
+import dk.dbc.opensearch.output.badgerfish.BadgerFishRules;
+import dk.dbc.opensearch.output.badgerfish.BadgerFishSingle;
+import dk.dbc.opensearch.xml.XMLCacheReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering of search responses: the generated output classes driven through
+ * the XML, SOAP and JSON (BadgerFish) responses, the same way the
+ * SearchProcessorBean does it. JSON is rendered with the plain and with the
+ * compiled (opensearch.xsd) BadgerFish rules, and natively by the generated
+ * output classes
+ * <p>
+ * Each invocation renders a page of {@link #RECORDS} collections, each with a
+ * record replayed from an {@link XMLCacheReader}. Scores are per record,
+ * throughput as records per millisecond. Allocation is the other interesting
+ * number, run with:
+ * {@code java -jar benchmarks/target/benchmarks.jar OutputPipeline -prof gc}
+ * and compare {@code gc.alloc.rate.norm} (bytes per record)
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(OutputPipelineBenchmark.RECORDS)
+public class OutputPipelineBenchmark {
+
+    /**
+     * Records in a response, the default stepValue
+     */
+    static final int RECORDS = 10;
+
+    private static final String IDENTIFIER = "870970-basis:28183488";
+    private static final String CREATION_DATE = "2018-10-01";
+
+    @Param({"dkabm", "marcxchange"})
+    public String record;
+
+    private XMLCacheReader reader;
+    private OpenSearchResponse xml;
+    private OpenSearchResponse soap;
+    private OpenSearchResponse json;
+    private OpenSearchResponse jsonCompiled;
+    private OpenSearchResponse jsonGenerated;
+    private final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    @Setup
+    public void setUp() throws IOException, XMLStreamException {
+        reader = new XMLCacheReader(Records.events(record));
+        Root.Scope<Root.EntryPoint> entryPoint = scope -> scope.searchResponse(this::searchResponse);
+        xml = new OpenSearchResponseXML(entryPoint);
+        soap = new OpenSearchResponseSOAP(entryPoint);
+        BadgerFishSingle single = badgerFishSingle();
+        json = new OpenSearchResponseJSON(entryPoint, null, BadgerFishRules.of(single));
+        try (InputStream is = resource("docroot/opensearch.xsd")) {
+            BadgerFishRules compiled = BadgerFishRules.compile(single, is);
+            jsonCompiled = new OpenSearchResponseJSON(entryPoint, null, compiled);
+            jsonGenerated = new OpenSearchResponseJSON(entryPoint, null, compiled, true);
+        }
+    }
+
+    @Benchmark
+    public int xml(Sizes sizes) throws IOException, XMLStreamException {
+        return render(xml);
+    }
+
+    @Benchmark
+    public int soap(Sizes sizes) throws IOException, XMLStreamException {
+        return render(soap);
+    }
+
+    @Benchmark
+    public int json(Sizes sizes) throws IOException, XMLStreamException {
+        return render(json);
+    }
+
+    @Benchmark
+    public int jsonCompiled(Sizes sizes) throws IOException, XMLStreamException {
+        return render(jsonCompiled);
+    }
+
+    @Benchmark
+    public int jsonGenerated(Sizes sizes) throws IOException, XMLStreamException {
+        return render(jsonGenerated);
+    }
+
+    /**
+     * Sizes of a rendered response, reported as secondary results
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long xmlBytes;
+        public long soapBytes;
+        public long jsonBytes;
+        public long jsonCompiledBytes;
+        public long jsonGeneratedBytes;
+
+        @Setup(Level.Iteration)
+        public void setUp(OutputPipelineBenchmark benchmark) throws IOException, XMLStreamException {
+            xmlBytes = benchmark.render(benchmark.xml);
+            soapBytes = benchmark.render(benchmark.soap);
+            jsonBytes = benchmark.render(benchmark.json);
+            jsonCompiledBytes = benchmark.render(benchmark.jsonCompiled);
+            jsonGeneratedBytes = benchmark.render(benchmark.jsonGenerated);
+        }
+    }
+
+    /**
+     * Render a response into the (reused) buffer
+     *
+     * @param response the response type
+     * @return number of bytes produced
+     * @throws IOException        if the output fails
+     * @throws XMLStreamException if the rendering fails
+     */
+    private int render(OpenSearchResponse response) throws IOException, XMLStreamException {
+        bos.reset();
+        response.stream(bos);
+        return bos.size();
+    }
+
+    private void searchResponse(SearchResponse response) throws XMLStreamException, IOException {
+        response.result(result -> result
+                .hitCount(RECORDS)
+                .collectionCount(RECORDS)
+                .more(false)
+                .searchResult(this::searchResult)
+        );
+    }
+
+    private void searchResult(SearchResult searchResult) throws XMLStreamException, IOException {
+        for (int i = 1 ; i <= RECORDS ; i++) {
+            int index = i;
+            searchResult
+                    .collection(collection -> collection
+                            .resultPosition(index)
+                            .numberOfObjects(1)
+                            ._delegate(objects -> objects
+                                    .object(object -> object
+                                            ._any_repeated(o -> o._any(reader.copy()))
+                                            .identifier(IDENTIFIER)
+                                            .creationDate(CREATION_DATE)
+                                            .formatsAvailable(formatsAvailable -> formatsAvailable.format(record))
+                                            .objectsAvailable(objectsAvailable -> objectsAvailable.identifier(IDENTIFIER))
+                                            ._delegate(explain -> {
+                                            }))));
+        }
+    }
+
+    private static BadgerFishSingle badgerFishSingle() throws IOException {
+        try (InputStream is = resource("opensearch-badgerfish-rules.yaml")) {
+            return BadgerFishSingle.from(is);
+        }
+    }
+
+    private static InputStream resource(String name) throws IOException {
+        InputStream is = OutputPipelineBenchmark.class.getClassLoader().getResourceAsStream(name);
+        if (is == null)
+            throw new IOException("Cannot find " + name);
+        return is;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-benchmarks
+ *
+ * opensearch-benchmarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-benchmarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import dk.dbc.opensearch.solr.SolrRules;
+import dk.dbc.opensearch.solr.config.SolrConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sample CQL queries for benchmarking
+ * <p>
+ * The queries named example-{section} are read from the example_requests.ini
+ * of the service, the rest are typical queries and worst cases.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public final class Queries {
+
+    /**
+     * Number of boolean operators in the worst case query - CQLParser rejects
+     * a query at its MAX_BOOLEAN_OPERATORS (200)
+     */
+    public static final int MAX_BOOLEANS = 199;
+
+    private static final Pattern SECTION = Pattern.compile("^\\[([^\\]]+)\\]$", Pattern.MULTILINE);
+    private static final Pattern QUERY = Pattern.compile("<os:query>([^<]*)</os:query>|\"query\"\\s*:\\s*\"([^\"]*)\"");
+
+    private static final Map<String, String> QUERIES = queries();
+
+    private Queries() {
+    }
+
+    /**
+     * Get a query by name
+     *
+     * @param name name of the query
+     * @return CQL
+     */
+    public static String query(String name) {
+        String query = QUERIES.get(name);
+        if (query == null)
+            throw new IllegalArgumentException("Unknown query: " + name + " known are: " + QUERIES.keySet());
+        return query;
+    }
+
+    /**
+     * The SolR rules from resources/queries
+     *
+     * @return rules
+     * @throws IOException if the rules cannot be read
+     */
+    public static SolrRules solrRules() throws IOException {
+        try (InputStream is = Queries.class.getClassLoader().getResourceAsStream("queries/solr-rules.yaml")) {
+            ObjectMapper o = new YAMLMapper();
+            SolrConfig config = o.readValue(is, SolrConfig.class);
+            return config.makeSolrRules();
+        }
+    }
+
+    private static Map<String, String> queries() {
+        HashMap<String, String> queries = new HashMap<>();
+        queries.put("fielded", "dkcclterm.ti=\"harry potter\" and term.creator=rowling and phrase.language=dansk");
+        queries.put("filtered", "(term.type=bog or term.type=ebog) and rec.collectionIdentifier=870970-basis and danmark");
+        queries.put("nested", "hest and holdingsitem.agencyId=710100 and (holdingsitem.status=onShelf or holdingsitem.status=onLoan)");
+        queries.put("complex", "(dkcclterm.ti=zorro or dkcclterm.ti=\"the mask of zorro\") not term.type=film" +
+                               " and (facet.subject=eventyr or facet.subject=\"historiske romaner\") and term.date > 1990" +
+                               " and holdingsitem.agencyId=710100 and rec.collectionIdentifier=870970-basis");
+        queries.put("max-booleans-and", maxBooleans(" and "));
+        queries.put("max-booleans-or", maxBooleans(" or "));
+        queries.put("max-booleans-nested", maxBooleansNested());
+        try {
+            queries.putAll(exampleQueries());
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read example_requests.ini", ex);
+        }
+        return queries;
+    }
+
+    /**
+     * The queries of the example requests of the service
+     *
+     * @return map of example-{section} to query
+     * @throws IOException if the file cannot be read
+     */
+    private static Map<String, String> exampleQueries() throws IOException {
+        HashMap<String, String> queries = new HashMap<>();
+        String content;
+        try (InputStream is = Queries.class.getClassLoader().getResourceAsStream("example_requests.ini")) {
+            if (is == null)
+                throw new IOException("example_requests.ini not found");
+            content = new String(Records.readAll(is), StandardCharsets.UTF_8);
+        }
+        Matcher section = SECTION.matcher(content);
+        int pos = section.find() ? section.start() : content.length();
+        while (pos < content.length()) {
+            String name = section.group(1);
+            int end = section.find() ? section.start() : content.length();
+            Matcher query = QUERY.matcher(content.substring(pos, end));
+            if (query.find())
+                queries.put("example-" + name, query.group(1) != null ? query.group(1) : query.group(2));
+            pos = end;
+        }
+        return queries;
+    }
+
+    private static String maxBooleans(String operator) {
+        StringBuilder sb = new StringBuilder("term.default=w0");
+        for (int i = 1 ; i <= MAX_BOOLEANS ; i++) {
+            sb.append(operator).append(i % 2 == 0 ? "dkcclterm.ti=w" : "term.subject=w").append(i);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Worst case for flattening: deeply nested parentheses, alternating
+     * and/or and nested (holdings) fields
+     */
+    private static String maxBooleansNested() {
+        StringBuilder sb = new StringBuilder();
+        int groups = ( MAX_BOOLEANS + 1 ) / 4;
+        for (int i = 0 ; i < groups ; i++) {
+            if (i > 0)
+                sb.append(i % 2 == 0 ? " and " : " or ");
+            sb.append("(w").append(i).append(" and (term.type=bog or term.type=ebog)")
+                    .append(" and holdingsitem.agencyId=7").append(i).append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-benchmarks
+ *
+ * opensearch-benchmarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-benchmarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.benchmarks;
+
+import dk.dbc.opensearch.cql.CQLParser;
+import dk.dbc.opensearch.cql.QueryNode;
+import dk.dbc.opensearch.solr.FilterQuery;
+import dk.dbc.opensearch.solr.NestedQueries;
+import dk.dbc.opensearch.solr.QueryBuilder;
+import dk.dbc.opensearch.solr.SolrQueryFields;
+import dk.dbc.opensearch.solr.SolrQueryFieldsCache;
+import dk.dbc.opensearch.solr.SolrRules;
+import dk.dbc.opensearch.solr.flatquery.FlatQuery;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The per-request query path: CQL to the SolR query, nested queries and
+ * filter queries
+ * <p>
+ * NestedQueries and FilterQuery rewrite the FlatQuery they are given, so
+ * their benchmarks include FlatQuery.from, subtract
+ * {@link #flatQuery(Sizes)} to get their own cost.
+ * {@link #solrQueryFieldsCached(Sizes)} is the cost of a hit in the node local
+ * query cache.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryPipelineBenchmark {
+
+    @Param({"example-simple-search",
+            "example-cql-search",
+            "example-boost-and-rank-json",
+            "fielded",
+            "filtered",
+            "nested",
+            "complex",
+            "max-booleans-and",
+            "max-booleans-or",
+            "max-booleans-nested"})
+    public String query;
+
+    private SolrRules solrRules;
+    private String cql;
+    private QueryNode cqlTree;
+    private FlatQuery processed;
+    private SolrQueryFieldsCache queryCache;
+    private int nestedQueries;
+    private int filterQueries;
+
+    @Setup
+    public void setUp() throws IOException {
+        solrRules = Queries.solrRules();
+        cql = Queries.query(query);
+        cqlTree = CQLParser.parse(cql);
+        processed = FlatQuery.from(solrRules, cqlTree);
+        nestedQueries = NestedQueries.from(processed).size() - 1;
+        filterQueries = FilterQuery.from(processed).size();
+        queryCache = new SolrQueryFieldsCache(1000);
+        queryCache.fromCQL(solrRules, cql, null);
+    }
+
+    @Benchmark
+    public QueryNode cqlParse(Sizes sizes) {
+        return CQLParser.parse(cql);
+    }
+
+    @Benchmark
+    public FlatQuery flatQuery(Sizes sizes) {
+        return FlatQuery.from(solrRules, cqlTree);
+    }
+
+    @Benchmark
+    public List<FlatQuery> flatQueryNestedQueries(Sizes sizes) {
+        return NestedQueries.from(FlatQuery.from(solrRules, cqlTree));
+    }
+
+    @Benchmark
+    public List<FlatQuery> flatQueryFilterQuery(Sizes sizes) {
+        return FilterQuery.from(FlatQuery.from(solrRules, cqlTree));
+    }
+
+    @Benchmark
+    public String queryBuilder(Sizes sizes) {
+        return QueryBuilder.queryFrom(processed);
+    }
+
+    @Benchmark
+    public void solrQueryFields(Sizes sizes, Blackhole bh) {
+        bh.consume(SolrQueryFields.fromCQL(solrRules, cql, null));
+    }
+
+    @Benchmark
+    public SolrQueryFields solrQueryFieldsCached(Sizes sizes) {
+        return queryCache.fromCQL(solrRules, cql, null);
+    }
+
+    /**
+     * Size of the query, reported as secondary results
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long cqlLength;
+        public long nestedQueries;
+        public long filterQueries;
+
+        @Setup(Level.Iteration)
+        public void setUp(QueryPipelineBenchmark benchmark) {
+            cqlLength = benchmark.cql.length();
+            nestedQueries = benchmark.nestedQueries;
+            filterQueries = benchmark.filterQueries;
+        }
+    }
+}
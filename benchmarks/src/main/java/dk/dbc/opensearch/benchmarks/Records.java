@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-benchmarks
+ *
+ * opensearch-benchmarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-benchmarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.benchmarks;
+
+import dk.dbc.opensearch.xml.DefaultPrefix;
+import dk.dbc.opensearch.xml.XMLCacheElement;
+import dk.dbc.opensearch.xml.XMLCacheReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import static dk.dbc.opensearch.xml.XMLEventFactories.I;
+
+/**
+ * Sample records (from resources/records) for benchmarking
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public final class Records {
+
+    public static final DefaultPrefix DEFAULT_PREFIX = new DefaultPrefix(defaultNamespaces());
+
+    private Records() {
+    }
+
+    /**
+     * Raw bytes of a sample record
+     *
+     * @param name record name (dkabm or marcxchange)
+     * @return file content
+     * @throws IOException if the record cannot be read
+     */
+    public static byte[] bytes(String name) throws IOException {
+        try (InputStream is = Records.class.getClassLoader().getResourceAsStream("records/" + name + ".xml")) {
+            if (is == null)
+                throw new IOException("Unknown record: " + name);
+            return readAll(is);
+        }
+    }
+
+    /**
+     * Read a stream to the end
+     *
+     * @param is the stream
+     * @return all the bytes
+     * @throws IOException if the stream cannot be read
+     */
+    static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int len = is.read(buffer) ; len > 0 ; len = is.read(buffer)) {
+            bos.write(buffer, 0, len);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * A sample record as the events the records cache holds
+     *
+     * @param name record name (dkabm or marcxchange)
+     * @return events (prefix normalized) of the root element
+     * @throws IOException        if the record cannot be read
+     * @throws XMLStreamException if the record cannot be parsed
+     */
+    public static XMLEvent[] events(String name) throws IOException, XMLStreamException {
+        XMLEventReader reader = I.createXMLEventReader(new ByteArrayInputStream(bytes(name)));
+        XMLCacheReader cached = XMLCacheElement.of((StartElement) reader.nextTag(), reader, DEFAULT_PREFIX).toReader();
+        ArrayList<XMLEvent> events = new ArrayList<>();
+        while (cached.hasNext()) {
+            events.add(cached.nextEvent());
+        }
+        return events.toArray(new XMLEvent[events.size()]);
+    }
+
+    private static HashMap<String, String> defaultNamespaces() {
+        HashMap<String, String> map = new HashMap<>();
+        map.put("ac", "http://biblstandard.dk/ac/namespace/");
+        map.put("dc", "http://purl.org/dc/elements/1.1/");
+        map.put("dcterms", "http://purl.org/dc/terms/");
+        map.put("dkabm", "http://biblstandard.dk/abm/namespace/dkabm/");
+        map.put("dkdcplus", "http://biblstandard.dk/abm/namespace/dkdcplus/");
+        map.put("marcx", "info:lc/xmlns/marcxchange-v1");
+        map.put("oss", "http://oss.dbc.dk/ns/osstypes");
+        map.put("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+        return map;
+    }
+}
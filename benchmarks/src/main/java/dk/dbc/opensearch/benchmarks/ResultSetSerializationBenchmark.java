@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-benchmarks
+ *
+ * opensearch-benchmarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-benchmarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.benchmarks;
+
+import dk.dbc.opensearch.solr.resultset.ResultSet;
+import dk.dbc.opensearch.solr.resultset.ResultSetWork;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.solr.common.SolrDocument;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resultset cache (de)serialization: the compact encoding compared to default
+ * serialization of the maps/sets/lists it replaced
+ * <p>
+ * The serialized size is what the resultset occupies in the cache, it is
+ * reported as the secondary results {@code mapsBytes} and
+ * {@code compactBytes}
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultSetSerializationBenchmark {
+
+    private static final String EXPLAIN = "queryDebug not enabled when search performed";
+
+    @Param({"100", "10000"})
+    public int works;
+
+    private GeneratedResultSet compact;
+    private MapsResultSet maps;
+    private byte[] compactBytes;
+    private byte[] mapsBytes;
+
+    @Setup
+    public void setUp() throws IOException, ClassNotFoundException {
+        compact = new GeneratedResultSet();
+        maps = new MapsResultSet();
+        generate(new Random(works));
+        compactBytes = serialize(compact);
+        mapsBytes = serialize(maps);
+    }
+
+    @Benchmark
+    public byte[] mapsWrite(Sizes sizes) throws IOException {
+        return serialize(maps);
+    }
+
+    @Benchmark
+    public Object mapsRead(Sizes sizes) throws IOException, ClassNotFoundException {
+        return deserialize(mapsBytes);
+    }
+
+    @Benchmark
+    public byte[] compactWrite(Sizes sizes) throws IOException {
+        return serialize(compact);
+    }
+
+    @Benchmark
+    public Object compactRead(Sizes sizes) throws IOException, ClassNotFoundException {
+        return deserialize(compactBytes);
+    }
+
+    /**
+     * Serialized sizes of the resultset, reported as secondary results
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long mapsBytes;
+        public long compactBytes;
+
+        @Setup(Level.Iteration)
+        public void setUp(ResultSetSerializationBenchmark benchmark) {
+            mapsBytes = benchmark.mapsBytes.length;
+            compactBytes = benchmark.compactBytes.length;
+        }
+    }
+
+    /**
+     * Fill both representations with the same work structure
+     * <p>
+     * 1-3 units per work and 1-4 manifestations per unit, with ids shaped as
+     * the corepo ids
+     *
+     * @param random source of the structure
+     */
+    private void generate(Random random) {
+        int unitNo = 100000;
+        int rowNo = 0;
+        while (maps.workOrder.size() < works) {
+            String work = "work:" + ( 1000000 + random.nextInt(9000000) );
+            if (maps.workToUnits.containsKey(work))
+                continue;
+            maps.workOrder.add(work);
+            maps.worksExpanded.add(work);
+            ArrayList<String> units = new ArrayList<>();
+            maps.workToUnits.put(work, units);
+            int unitCount = 1 + random.nextInt(3);
+            for (int u = 0 ; u < unitCount ; u++) {
+                String unit = "unit:" + unitNo++;
+                units.add(unit);
+                maps.unitExplain.put(unit, EXPLAIN);
+                HashSet<String> manifestations = new HashSet<>();
+                maps.unitToManifestations.put(unit, manifestations);
+                int manifestationCount = 1 + random.nextInt(4);
+                for (int m = 0 ; m < manifestationCount ; m++) {
+                    String manifestation = ( random.nextBoolean() ? "870970-basis:" : "870971-avis:" ) +
+                                           ( 20000000 + random.nextInt(70000000) );
+                    manifestations.add(manifestation);
+                    compact.add(String.valueOf(rowNo++), work, unit, manifestation);
+                }
+            }
+        }
+    }
+
+    private static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(object);
+        }
+        return bos.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return ois.readObject();
+        }
+    }
+
+    /**
+     * A resultset, that is filled without a SolR
+     * <p>
+     * No works are marked as expanded (only fetchWorks does that), this only
+     * saves the bitset - at most 1 bit per work
+     */
+    public static class GeneratedResultSet extends ResultSetWork {
+
+        private static final long serialVersionUID = -2154718391645104781L;
+
+        public GeneratedResultSet() {
+            super(null, false, false);
+        }
+
+        private void add(String id, String work, String unit, String manifestation) {
+            HashMap<String, Object> fields = new HashMap<>();
+            fields.put(ResultSet.ID, id);
+            fields.put(ResultSet.WORK_ID, work);
+            fields.put(ResultSet.UNIT_ID, unit);
+            fields.put(ResultSet.MANIFESTATION_ID, manifestation);
+            registerManifestation(new SolrDocument(fields), Collections.emptyMap());
+        }
+    }
+
+    /**
+     * The work structure as it was serialized before the compact encoding
+     */
+    public static class MapsResultSet implements Serializable {
+
+        private static final long serialVersionUID = 6475213780211245937L;
+
+        private final Map<String, List<String>> workToUnits = new HashMap<>();
+        private final Map<String, Set<String>> unitToManifestations = new HashMap<>();
+        private final List<String> workOrder = new ArrayList<>();
+        private final Set<String> worksExpanded = new HashSet<>();
+        private final Map<String, String> unitExplain = new HashMap<>();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-benchmarks
+ *
+ * opensearch-benchmarks is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-benchmarks is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.benchmarks;
+
+import dk.dbc.opensearch.xml.XMLCacheReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static dk.dbc.opensearch.xml.XMLElementFilter.elementReader;
+import static dk.dbc.opensearch.xml.XMLEventFactories.*;
+
+/**
+ * Records cache (de)serialization: the binary event encoding compared to
+ * writing the events as XML text and parsing them again
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XMLCacheReaderBenchmark {
+
+    @Param({"dkabm", "marcxchange"})
+    public String record;
+
+    private XMLEvent[] events;
+    private byte[] xml;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException, XMLStreamException {
+        events = Records.events(record);
+        xml = xmlEncode(events);
+        binary = binaryEncode(events);
+    }
+
+    @Benchmark
+    public byte[] xmlWrite(Sizes sizes) throws IOException, XMLStreamException {
+        return xmlEncode(events);
+    }
+
+    @Benchmark
+    public XMLEvent[] xmlRead(Sizes sizes) throws IOException, XMLStreamException {
+        return xmlDecode(xml, events.length);
+    }
+
+    @Benchmark
+    public XMLEvent[] xmlRoundTrip(Sizes sizes) throws IOException, XMLStreamException {
+        return xmlDecode(xmlEncode(events), events.length);
+    }
+
+    @Benchmark
+    public byte[] binaryWrite(Sizes sizes) throws IOException {
+        return binaryEncode(events);
+    }
+
+    @Benchmark
+    public XMLCacheReader binaryRead(Sizes sizes) throws IOException {
+        return binaryDecode(binary);
+    }
+
+    @Benchmark
+    public XMLCacheReader binaryRoundTrip(Sizes sizes) throws IOException {
+        return binaryDecode(binaryEncode(events));
+    }
+
+    /**
+     * Sizes of the encoded record, reported as secondary results
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long events;
+        public long xmlBytes;
+        public long binaryBytes;
+
+        @Setup(Level.Iteration)
+        public void setUp(XMLCacheReaderBenchmark benchmark) {
+            events = benchmark.events.length;
+            xmlBytes = benchmark.xml.length;
+            binaryBytes = benchmark.binary.length;
+        }
+    }
+
+    /**
+     * The encoding XMLCacheReader used before the binary codec
+     */
+    private static byte[] xmlEncode(XMLEvent[] events) throws IOException, XMLStreamException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            XMLEventWriter writer = O.createXMLEventWriter(bos);
+            for (XMLEvent event : events) {
+                writer.add(event);
+            }
+            writer.close();
+            return bos.toByteArray();
+        }
+    }
+
+    private static XMLEvent[] xmlDecode(byte[] xml, int count) throws XMLStreamException {
+        XMLEventReader reader = elementReader(I.createXMLEventReader(new ByteArrayInputStream(xml)));
+        XMLEvent[] events = new XMLEvent[count];
+        for (int i = 0 ; i < count ; i++) {
+            events[i] = reader.nextEvent();
+        }
+        return events;
+    }
+
+    private static byte[] binaryEncode(XMLEvent[] events) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(bos)) {
+            new XMLCacheReader(events).writeTo(dos);
+        }
+        return bos.toByteArray();
+    }
+
+    private static XMLCacheReader binaryDecode(byte[] binary) throws IOException {
+        return XMLCacheReader.readFrom(new DataInputStream(new ByteArrayInputStream(binary)));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch;
+
+import dk.dbc.opensearch.cache.BackendLimits;
+import dk.dbc.opensearch.cache.CircuitBreaker;
+import dk.dbc.opensearch.cache.CircuitBreakers;
+import dk.dbc.opensearch.cache.Coalescer;
+import dk.dbc.opensearch.cache.Prefetcher;
+import dk.dbc.opensearch.cache.ProfileRefresher;
+import dk.dbc.opensearch.cache.ResultSetKey;
+import dk.dbc.opensearch.setup.Settings;
+import dk.dbc.opensearch.solr.SolrQueryFieldsCache;
+import dk.dbc.opensearch.utils.MetricsRegistry;
+import dk.dbc.opensearch.utils.PrometheusWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prometheus endpoint
+ * <p>
+ * Exposes the timings aggregated from all requests, the JCache statistics
+ * (hits/misses), and the state of circuit breakers, backend limits,
+ * coalescing, prefetching, profile refreshing and query translation caches of
+ * this node.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@Stateless
+@Path("metrics")
+public class MetricsBean {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsBean.class);
+
+    private static final String CACHE_STATISTICS = "javax.cache:type=CacheStatistics,*";
+
+    @Inject
+    Settings settings;
+
+    @Inject
+    CircuitBreakers circuitBreakers;
+
+    @Inject
+    BackendLimits backendLimits;
+
+    @Inject
+    Coalescer<ResultSetKey> resultSetCoalescer;
+
+    @Inject
+    Prefetcher<ResultSetKey> prefetcher;
+
+    @Inject
+    ProfileRefresher profileRefresher;
+
+    @GET
+    @Produces(PrometheusWriter.CONTENT_TYPE)
+    public Response metrics() {
+        PrometheusWriter writer = new PrometheusWriter();
+        MetricsRegistry.getInstance().write(writer);
+        writeCaches(writer);
+        writeQueryCaches(writer);
+        writeCircuitBreakers(writer);
+        writeBackendLimits(writer);
+        writer.family("opensearch_coalescing_in_flight", "gauge", "Result set builds others can wait for")
+                .sample("opensearch_coalescing_in_flight", resultSetCoalescer.getInFlight());
+        writePrefetcher(writer);
+        writeProfileRefresher(writer);
+        return Response.ok(writer.toString(), PrometheusWriter.CONTENT_TYPE).build();
+    }
+
+    /**
+     * Output the JSR-107 statistics MXBeans of the caches
+     *
+     * @param writer where to output
+     */
+    private void writeCaches(PrometheusWriter writer) {
+        TreeMap<String, long[]> caches = new TreeMap<>();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName name : server.queryNames(new ObjectName(CACHE_STATISTICS), null)) {
+                caches.put(name.getKeyProperty("Cache"), new long[] {
+                    ( (Number) server.getAttribute(name, "CacheHits") ).longValue(),
+                    ( (Number) server.getAttribute(name, "CacheMisses") ).longValue()
+                });
+            }
+        } catch (JMException ex) {
+            log.error("Cannot read cache statistics: {}", ex.getMessage());
+            log.debug("Cannot read cache statistics: ", ex);
+        }
+        writer.family("opensearch_cache_hits_total", "counter", "Cache lookups that found an entry");
+        caches.forEach((cache, stats) -> writer.sample("opensearch_cache_hits_total", stats[0], "cache", cache));
+        writer.family("opensearch_cache_misses_total", "counter", "Cache lookups that didn't find an entry");
+        caches.forEach((cache, stats) -> writer.sample("opensearch_cache_misses_total", stats[1], "cache", cache));
+    }
+
+    private void writeQueryCaches(PrometheusWriter writer) {
+        TreeMap<String, SolrQueryFieldsCache> caches = new TreeMap<>();
+        settings.getRepositories().forEach((name, repository) -> caches.put(name, repository.abstraction().getQueryCache()));
+        writer.family("opensearch_query_cache_hits_total", "counter", "CQL translations found in the node local cache");
+        caches.forEach((repository, cache) -> writer.sample("opensearch_query_cache_hits_total", cache.getHits(), "repository", repository));
+        writer.family("opensearch_query_cache_misses_total", "counter", "CQL translations not found in the node local cache");
+        caches.forEach((repository, cache) -> writer.sample("opensearch_query_cache_misses_total", cache.getMisses(), "repository", repository));
+        writer.family("opensearch_query_cache_evictions_total", "counter", "CQL translations evicted from the node local cache");
+        caches.forEach((repository, cache) -> writer.sample("opensearch_query_cache_evictions_total", cache.getEvictions(), "repository", repository));
+        writer.family("opensearch_query_cache_size", "gauge", "CQL translations in the node local cache");
+        caches.forEach((repository, cache) -> writer.sample("opensearch_query_cache_size", cache.getSize(), "repository", repository));
+        writer.family("opensearch_query_cache_hit_ratio", "gauge", "Fraction of CQL translations served from the node local cache");
+        caches.forEach((repository, cache) -> writer.sample("opensearch_query_cache_hit_ratio", cache.getHitRatio(), "repository", repository));
+    }
+
+    private void writeCircuitBreakers(PrometheusWriter writer) {
+        TreeMap<String, CircuitBreaker> breakers = new TreeMap<>();
+        circuitBreakers.all().forEach(b -> breakers.put(b.getName(), b));
+        writer.family("opensearch_circuit_state", "gauge", "State of circuit breaker: 0=closed, 1=open, 2=half-open");
+        breakers.forEach((backend, breaker) -> writer.sample("opensearch_circuit_state", breaker.getState().ordinal(), "backend", backend));
+        writer.family("opensearch_circuit_opened_total", "counter", "Times a circuit has opened");
+        breakers.forEach((backend, breaker) -> writer.sample("opensearch_circuit_opened_total", breaker.getOpened(), "backend", backend));
+        writer.family("opensearch_circuit_rejected_total", "counter", "Requests rejected by an open circuit");
+        breakers.forEach((backend, breaker) -> writer.sample("opensearch_circuit_rejected_total", breaker.getRejected(), "backend", backend));
+    }
+
+    private void writeBackendLimits(PrometheusWriter writer) {
+        Map<String, BackendLimits.Limiter> limiters = new TreeMap<>(backendLimits.all());
+        writer.family("opensearch_backend_running", "gauge", "Requests in flight to a backend");
+        limiters.forEach((backend, limiter) -> writer.sample("opensearch_backend_running", limiter.getRunning(), "backend", backend));
+        writer.family("opensearch_backend_waiting", "gauge", "Requests waiting for a backend");
+        limiters.forEach((backend, limiter) -> writer.sample("opensearch_backend_waiting", limiter.getWaiting(), "backend", backend));
+        writer.family("opensearch_backend_rejected_total", "counter", "Requests rejected because too many were waiting for a backend");
+        limiters.forEach((backend, limiter) -> writer.sample("opensearch_backend_rejected_total", limiter.getRejected(), "backend", backend));
+        writer.family("opensearch_backend_expired_total", "counter", "Requests that timed out waiting for a backend");
+        limiters.forEach((backend, limiter) -> writer.sample("opensearch_backend_expired_total", limiter.getExpired(), "backend", backend));
+    }
+
+    private void writeProfileRefresher(PrometheusWriter writer) {
+        writer.family("opensearch_profile_loading", "gauge", "Profile loads others can wait for")
+                .sample("opensearch_profile_loading", profileRefresher.getLoading());
+        writer.family("opensearch_profile_refreshing", "gauge", "Profiles being refreshed in the background")
+                .sample("opensearch_profile_refreshing", profileRefresher.getRefreshing());
+        writer.family("opensearch_profile_refresh_started_total", "counter", "Background profile refreshes started")
+                .sample("opensearch_profile_refresh_started_total", profileRefresher.getStarted());
+        writer.family("opensearch_profile_refresh_failed_total", "counter", "Background profile refreshes that failed")
+                .sample("opensearch_profile_refresh_failed_total", profileRefresher.getFailed());
+    }
+
+    private void writePrefetcher(PrometheusWriter writer) {
+        writer.family("opensearch_prefetch_running", "gauge", "Prefetches in progress")
+                .sample("opensearch_prefetch_running", prefetcher.getRunning());
+        writer.family("opensearch_prefetch_started_total", "counter", "Prefetches started")
+                .sample("opensearch_prefetch_started_total", prefetcher.getStarted());
+        writer.family("opensearch_prefetch_rejected_total", "counter", "Prefetches not started, because too many were running")
+                .sample("opensearch_prefetch_rejected_total", prefetcher.getRejected());
+        writer.family("opensearch_prefetch_failed_total", "counter", "Prefetches that failed")
+                .sample("opensearch_prefetch_failed_total", prefetcher.getFailed());
+        writer.family("opensearch_prefetch_hits_total", "counter", "Page requests that had been prefetched")
+                .sample("opensearch_prefetch_hits_total", prefetcher.getHits());
+        writer.family("opensearch_prefetch_misses_total", "counter", "Page requests that hadn't been prefetched")
+                .sample("opensearch_prefetch_misses_total", prefetcher.getMisses());
+    }
+}
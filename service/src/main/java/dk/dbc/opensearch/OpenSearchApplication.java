@@ -34,7 +34,8 @@ import javax.ws.rs.core.Application;
 public class OpenSearchApplication extends Application {
 
     private static final Set<Class<?>> BEANS = new HashSet<>(Arrays.asList(
-            ServiceBean.class
+            ServiceBean.class,
+            MetricsBean.class
     ));
 
     @Override
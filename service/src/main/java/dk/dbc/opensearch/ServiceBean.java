@@ -31,13 +31,14 @@ import dk.dbc.opensearch.output.OpenSearchResponseXML;
 import dk.dbc.opensearch.output.Root;
 import dk.dbc.opensearch.output.Root.EntryPoint;
 import dk.dbc.opensearch.output.Root.Scope;
-import dk.dbc.opensearch.output.badgerfish.BadgerFishSingle;
+import dk.dbc.opensearch.output.badgerfish.BadgerFishRules;
 import dk.dbc.opensearch.reponse.GetObjectProcessorBean;
 import dk.dbc.opensearch.reponse.InfoProcessorBean;
 import dk.dbc.opensearch.reponse.SearchProcessorBean;
 import dk.dbc.opensearch.setup.Settings;
 import dk.dbc.opensearch.utils.MDCLog;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
+import dk.dbc.opensearch.utils.TimerSlot;
 import dk.dbc.opensearch.utils.Timing;
 import dk.dbc.opensearch.utils.UserMessageException;
 import java.io.BufferedInputStream;
@@ -83,8 +84,12 @@ public class ServiceBean {
 
     private static final Logger log = LoggerFactory.getLogger(ServiceBean.class);
 
+    private static final TimerSlot REQUEST_PARSE = TimerSlot.of("requestParse");
+
+    private static final String TIME_BUDGET_HEADER = "X-Time-Budget";
+
     @Inject
-    BadgerFishSingle badgerFishSingle;
+    BadgerFishRules badgerFishRules;
 
     @Inject
     Settings settings;
@@ -194,10 +199,10 @@ public class ServiceBean {
                     .withPeer(peer);
             StatisticsRecorder statistics = new StatisticsRecorder();
             RequestParser request;
-            try (Timing timerRequestParse = statistics.timer("requestParse")) {
+            try (Timing timerRequestParse = statistics.timer(REQUEST_PARSE)) {
                 request = requestProvider.parse(is);
             }
-            Root.Scope<Root.EntryPoint> builder = requestBuilder(request, statistics, mdc);
+            Root.Scope<Root.EntryPoint> builder = requestBuilder(request, headers, statistics, mdc);
             if (builder == null)
                 throw new BadRequestException("Don't know how to handle request");
             OpenSearchResponse response = responseWriter(request, builder, mdc);
@@ -225,7 +230,7 @@ public class ServiceBean {
         }
     }
 
-    private Root.Scope<Root.EntryPoint> requestBuilder(RequestParser request, StatisticsRecorder statistics, MDCLog mdc) {
+    private Root.Scope<Root.EntryPoint> requestBuilder(RequestParser request, HttpHeaders headers, StatisticsRecorder statistics, MDCLog mdc) {
         if (request.isGetObjectRequest()) {
             mdc.withAction("getObject");
             return getObjectProcessor.builder(request.asGetObjectRequest(),
@@ -236,19 +241,39 @@ public class ServiceBean {
                                          statistics, mdc);
         } else if (request.isSearchRequest()) {
             mdc.withAction("search");
-            return searchProcessor.builder(request.asSearchRequest(),
+            return searchProcessor.builder(request.asSearchRequest(), timeBudget(headers),
                                            statistics, mdc);
         }
         return null;
     }
 
+    /**
+     * The time budget of a request
+     * <p>
+     * The client can ask for a budget (between time-budget/min-budget and
+     * time-budget/max-budget) using the X-Time-Budget header ie. "1500ms" or
+     * "5s"
+     *
+     * @param headers Request headers
+     * @return number of milliseconds (0 = no limit)
+     */
+    private long timeBudget(HttpHeaders headers) {
+        String requested = headers.getHeaderString(TIME_BUDGET_HEADER);
+        try {
+            return settings.getTimeBudgetOrDefault().budgetMS(requested);
+        } catch (IllegalArgumentException ex) {
+            throw new BadRequestException("Invalid " + TIME_BUDGET_HEADER + " header: " + requested);
+        }
+    }
+
     private OpenSearchResponse responseWriter(RequestParser request, Scope<EntryPoint> builder, MDCLog mdc) {
         switch (request.asBaseRequest().getOutputType()) {
             case JSON:
                 mdc.withOutputType("json");
                 return new OpenSearchResponseJSON(builder,
                                                   request.asBaseRequest().getCallback(),
-                                                  badgerFishSingle);
+                                                  badgerFishRules,
+                                                  settings.getBadgerfishGeneratedOrDefault());
             case XML:
                 mdc.withOutputType("xml");
                 return new OpenSearchResponseXML(builder);
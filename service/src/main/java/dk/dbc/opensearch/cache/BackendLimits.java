@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import dk.dbc.opensearch.utils.Deadline;
+import dk.dbc.opensearch.utils.UserMessage;
+import dk.dbc.opensearch.utils.UserMessageException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.Collections.EMPTY_MAP;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Limits on the number of concurrent requests to each backend
+ * <p>
+ * Requests over the limit are queued (not blocking any thread), and started
+ * when a running request completes. If the queue for a backend is full, the
+ * request is rejected with {@link UserMessage#BACKEND_UNAVAILABLE}, so a slow
+ * backend doesn't pile up requests without bounds. A queued request, that
+ * hasn't started when its deadline passes, fails with
+ * {@link UserMessage#TIMEOUT}.
+ * <p>
+ * Each limited backend has its own thread pool, with as many threads as it
+ * may have requests running, for the blocking part of the requests. A slow
+ * backend can then only tie up its own threads. Backends without a limit
+ * share one pool.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BackendLimits {
+
+    private static final Logger log = LoggerFactory.getLogger(BackendLimits.class);
+
+    private static final int DEFAULT_UNLIMITED_THREADS = 16;
+
+    private final Map<String, Integer> maxConcurrent;
+    private final Map<String, Integer> maxQueued;
+    private final ThreadFactory threadFactory;
+    // Fails queued tasks when their deadline passes
+    private final ScheduledThreadPoolExecutor expiry;
+    private final Limiter unlimited;
+    private final ConcurrentHashMap<String, Limiter> limiters;
+
+    /**
+     * Setup limits
+     *
+     * @param maxConcurrent map of backend name to max concurrent requests
+     *                      (backends not mentioned are unlimited)
+     */
+    public BackendLimits(Map<String, Integer> maxConcurrent) {
+        this(maxConcurrent, EMPTY_MAP);
+    }
+
+    /**
+     * Setup limits
+     *
+     * @param maxConcurrent map of backend name to max concurrent requests
+     *                      (backends not mentioned are unlimited)
+     * @param maxQueued     map of backend name to max waiting requests
+     *                      (backends not mentioned have unbounded queues)
+     */
+    public BackendLimits(Map<String, Integer> maxConcurrent, Map<String, Integer> maxQueued) {
+        this(maxConcurrent, maxQueued, DEFAULT_UNLIMITED_THREADS, daemonThreads());
+    }
+
+    /**
+     * Setup limits
+     *
+     * @param maxConcurrent    map of backend name to max concurrent requests
+     *                         (backends not mentioned are unlimited)
+     * @param maxQueued        map of backend name to max waiting requests
+     *                         (backends not mentioned have unbounded queues)
+     * @param unlimitedThreads number of threads for the requests to backends
+     *                         without a limit
+     * @param threadFactory    where the threads come from
+     */
+    public BackendLimits(Map<String, Integer> maxConcurrent, Map<String, Integer> maxQueued, int unlimitedThreads, ThreadFactory threadFactory) {
+        this.maxConcurrent = maxConcurrent == null ? EMPTY_MAP : maxConcurrent;
+        this.maxQueued = maxQueued == null ? EMPTY_MAP : maxQueued;
+        this.threadFactory = threadFactory;
+        this.expiry = makeExpiryExecutor(threadFactory);
+        this.unlimited = new Limiter(null, Integer.MAX_VALUE, Integer.MAX_VALUE, makeExecutor(unlimitedThreads, threadFactory), expiry);
+        this.limiters = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the limiter for a backend
+     *
+     * @param backend name of backend (null is unlimited)
+     * @return limiter
+     */
+    public Limiter limiterFor(String backend) {
+        if (backend == null)
+            return unlimited;
+        Integer max = maxConcurrent.get(backend);
+        if (max == null || max <= 0)
+            return unlimited;
+        Integer queued = maxQueued.get(backend);
+        int maxWaiting = queued == null || queued < 0 ? Integer.MAX_VALUE : queued;
+        return limiters.computeIfAbsent(backend, b -> new Limiter(b, max, maxWaiting, makeExecutor(max, threadFactory), expiry));
+    }
+
+    /**
+     * All the limiters in use (for metrics)
+     *
+     * @return map of backend name to limiter
+     */
+    public Map<String, Limiter> all() {
+        return unmodifiableMap(limiters);
+    }
+
+    /**
+     * Stop all threads
+     * <p>
+     * Requests that are submitted afterwards fail
+     */
+    public void close() {
+        expiry.shutdownNow();
+        unlimited.executor.shutdownNow();
+        limiters.values().forEach(limiter -> limiter.executor.shutdownNow());
+    }
+
+    private static ScheduledThreadPoolExecutor makeExpiryExecutor(ThreadFactory threadFactory) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private static ThreadPoolExecutor makeExecutor(int threads, ThreadFactory threadFactory) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                                                             new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Threads for use outside a container
+     *
+     * @return thread factory that makes daemon threads
+     */
+    private static ThreadFactory daemonThreads() {
+        ThreadFactory threadFactory = Executors.defaultThreadFactory();
+        return r -> {
+            Thread thread = threadFactory.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "BackendLimits{" + "maxConcurrent=" + maxConcurrent + ", maxQueued=" + maxQueued + '}';
+    }
+
+    public static class Limiter {
+
+        private final String backend;
+        private final int max;
+        private final int maxWaiting;
+        private final ThreadPoolExecutor executor;
+        private final ScheduledExecutorService expiry;
+        private final ArrayDeque<Waiter> waiting;
+        private final LongAdder rejected;
+        private final LongAdder expired;
+        private int running;
+        private boolean draining;
+
+        Limiter(String backend, int max, int maxWaiting, ThreadPoolExecutor executor, ScheduledExecutorService expiry) {
+            this.backend = backend;
+            this.max = max;
+            this.maxWaiting = maxWaiting;
+            this.executor = executor;
+            this.expiry = expiry;
+            this.waiting = new ArrayDeque<>();
+            this.rejected = new LongAdder();
+            this.expired = new LongAdder();
+            this.running = 0;
+            this.draining = false;
+        }
+
+        /**
+         * Run an async task, when there's room for it
+         *
+         * @param <T>  type of the task result
+         * @param task supplier of the async task
+         * @return a stage that completes as the task
+         */
+        public <T> CompletionStage<T> submit(Supplier<CompletionStage<T>> task) {
+            return submit(Deadline.NONE, task);
+        }
+
+        /**
+         * Run an async task, when there's room for it
+         * <p>
+         * If the task is still waiting when the deadline passes, it is removed
+         * from the queue, and fails with {@link UserMessage#TIMEOUT}
+         *
+         * @param <T>      type of the task result
+         * @param deadline how long the task may wait
+         * @param task     supplier of the async task
+         * @return a stage that completes as the task
+         */
+        public <T> CompletionStage<T> submit(Deadline deadline, Supplier<CompletionStage<T>> task) {
+            return submitHolding(deadline, release -> task.get().whenComplete((value, ex) -> release.run()));
+        }
+
+        /**
+         * Run an async task, that keeps its place after it completes, when
+         * there's room for it
+         * <p>
+         * The task is given a handle, that frees its place, when run (more
+         * than once is harmless). This is for results that are still using
+         * the backend, like a response body that hasn't been read yet. If
+         * the task fails, its place is freed.
+         * <p>
+         * If the task is still waiting when the deadline passes, it is removed
+         * from the queue, and fails with {@link UserMessage#TIMEOUT}
+         *
+         * @param <T>      type of the task result
+         * @param deadline how long the task may wait
+         * @param task     function from release handle to the async task
+         * @return a stage that completes as the task
+         */
+        public <T> CompletionStage<T> submitHolding(Deadline deadline, Function<Runnable, CompletionStage<T>> task) {
+            if (max == Integer.MAX_VALUE)
+                return task.apply(() -> {
+                });
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Runnable start = () -> {
+                AtomicBoolean released = new AtomicBoolean();
+                Runnable release = () -> {
+                    if (released.compareAndSet(false, true))
+                        release();
+                };
+                try {
+                    task.apply(release).whenComplete((value, ex) -> {
+                        if (ex != null) {
+                            release.run();
+                            result.completeExceptionally(ex);
+                        } else {
+                            result.complete(value);
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    release.run();
+                    result.completeExceptionally(ex);
+                }
+            };
+            Waiter waiter = null;
+            synchronized (this) {
+                if (running < max) {
+                    running++;
+                } else if (waiting.size() >= maxWaiting) {
+                    rejected.increment();
+                    log.warn("Too many requests waiting for: {}, rejecting request", backend);
+                    result.completeExceptionally(new UserMessageException(UserMessage.BACKEND_UNAVAILABLE));
+                    return result;
+                } else {
+                    waiter = new Waiter(start, result);
+                    waiting.add(waiter);
+                }
+            }
+            if (waiter == null)
+                start.run();
+            else if (deadline.isLimited())
+                waiter.expireAt(this, deadline);
+            return result;
+        }
+
+        /**
+         * The threads for the blocking part of the tasks
+         * <p>
+         * There are as many threads as tasks allowed to run, so a task never
+         * waits for a thread
+         *
+         * @return executor
+         */
+        public Executor executor() {
+            return executor;
+        }
+
+        /**
+         * Number of tasks currently running
+         *
+         * @return count
+         */
+        public synchronized int getRunning() {
+            return running;
+        }
+
+        /**
+         * Number of tasks waiting to be started
+         *
+         * @return count
+         */
+        public synchronized int getWaiting() {
+            return waiting.size();
+        }
+
+        /**
+         * Number of tasks rejected, because the queue was full
+         *
+         * @return count
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * Number of tasks that timed out, while waiting to be started
+         *
+         * @return count
+         */
+        public long getExpired() {
+            return expired.sum();
+        }
+
+        /**
+         * A running task has completed, start waiting tasks
+         * <p>
+         * Tasks are started in a loop, and not from within the completion of
+         * the previous task, so a run of tasks that complete at once doesn't
+         * grow the stack. If another thread is already starting tasks, that
+         * one picks up the free slot.
+         */
+        private void release() {
+            synchronized (this) {
+                running--;
+                if (draining)
+                    return;
+                draining = true;
+            }
+            for (;;) {
+                Waiter next;
+                synchronized (this) {
+                    next = running < max ? waiting.poll() : null;
+                    if (next == null) {
+                        draining = false;
+                        return;
+                    }
+                    running++;
+                }
+                next.start();
+            }
+        }
+
+        private void expire(Waiter waiter) {
+            boolean removed;
+            synchronized (this) {
+                removed = waiting.remove(waiter);
+            }
+            if (removed) {
+                expired.increment();
+                log.warn("Deadline passed waiting for: {}", backend);
+                waiter.result.completeExceptionally(new UserMessageException(UserMessage.TIMEOUT));
+            }
+        }
+    }
+
+    /**
+     * A task waiting for room to start
+     */
+    private static final class Waiter {
+
+        private final Runnable start;
+        private final CompletableFuture<?> result;
+        private ScheduledFuture<?> expiry;
+
+        private Waiter(Runnable start, CompletableFuture<?> result) {
+            this.start = start;
+            this.result = result;
+            this.expiry = null;
+        }
+
+        private synchronized void expireAt(Limiter limiter, Deadline deadline) {
+            expiry = limiter.expiry.schedule(() -> limiter.expire(this),
+                                             deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        }
+
+        private void start() {
+            synchronized (this) {
+                if (expiry != null)
+                    expiry.cancel(false);
+            }
+            start.run();
+        }
+    }
+}
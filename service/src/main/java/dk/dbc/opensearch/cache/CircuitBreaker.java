@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for a backend
+ * <p>
+ * After a number of consecutive failures the circuit opens, and requests are
+ * rejected at once, instead of piling up waiting for a backend that is down or
+ * overloaded. When the open-time has passed, one trial request is let through
+ * (half-open), if it succeeds the circuit closes, if it fails the circuit is
+ * open for another open-time. Successes of slow requests, that were started
+ * before the circuit opened, are ignored.
+ * <p>
+ * A caller should call {@link #tryAcquire()} before a request, and
+ * {@link #success()} or {@link #failure()} with the outcome of the request.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * A circuit breaker that never opens
+     */
+    public static final CircuitBreaker NONE = new CircuitBreaker("none", 0, 0L);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongAdder rejected;
+    private final LongAdder opened;
+    private State state;
+    private int failures;
+    // System.nanoTime() when the next trial request is allowed
+    private long retryAt;
+
+    /**
+     * Setup a circuit breaker
+     *
+     * @param name             name of the backend (for logging)
+     * @param failureThreshold consecutive failures that opens the circuit (0
+     *                         = never open)
+     * @param openMs           milliseconds before a trial request is allowed
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMs) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.rejected = new LongAdder();
+        this.opened = new LongAdder();
+        this.state = State.CLOSED;
+        this.failures = 0;
+        this.retryAt = 0L;
+    }
+
+    /**
+     * Is a request allowed to the backend
+     *
+     * @return false if the request should fail at once
+     */
+    public boolean tryAcquire() {
+        if (failureThreshold <= 0)
+            return true;
+        synchronized (this) {
+            if (state == State.CLOSED)
+                return true;
+            long now = System.nanoTime();
+            if (now - retryAt >= 0) {
+                // Trial request - if it never reports back, another is let through after open-time
+                log.info("Circuit for {} is half open", name);
+                state = State.HALF_OPEN;
+                retryAt = now + openNanos;
+                return true;
+            }
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Report a successful request
+     * <p>
+     * Only the trial request (half-open) closes the circuit. A success while
+     * open is from a request started before the circuit opened, and doesn't
+     * tell if the backend has recovered.
+     */
+    public void success() {
+        if (failureThreshold <= 0)
+            return;
+        synchronized (this) {
+            switch (state) {
+                case HALF_OPEN:
+                    log.info("Circuit for {} is closed", name);
+                    state = State.CLOSED;
+                    failures = 0;
+                    break;
+                case CLOSED:
+                    failures = 0;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Report a failed request
+     */
+    public void failure() {
+        if (failureThreshold <= 0)
+            return;
+        synchronized (this) {
+            failures++;
+            if (state == State.HALF_OPEN || state == State.CLOSED && failures >= failureThreshold) {
+                if (state == State.CLOSED)
+                    opened.increment();
+                log.warn("Circuit for {} is open, after {} failures", name, failures);
+                state = State.OPEN;
+                retryAt = System.nanoTime() + openNanos;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Number of requests rejected, since the circuit was open
+     *
+     * @return count
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Number of times the circuit has gone from closed to open
+     *
+     * @return count
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" + "name=" + name + ", state=" + state + ", failures=" + failures + ", rejected=" + rejected + ", opened=" + opened + '}';
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Collections.unmodifiableCollection;
+
+/**
+ * The circuit breakers of the backends
+ * <p>
+ * All backends share the same failure-threshold and open-time, but each has
+ * its own circuit.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CircuitBreakers {
+
+    private final int failureThreshold;
+    private final long openMs;
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers;
+
+    /**
+     * Setup circuit breakers
+     *
+     * @param failureThreshold consecutive failures that opens a circuit (0 =
+     *                         disabled)
+     * @param openMs           milliseconds a circuit is open, before a trial
+     *                         request is allowed
+     */
+    public CircuitBreakers(int failureThreshold, long openMs) {
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+        this.breakers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the circuit breaker for a backend
+     *
+     * @param backend name of backend (null is never open)
+     * @return circuit breaker
+     */
+    public CircuitBreaker breakerFor(String backend) {
+        if (backend == null || failureThreshold <= 0)
+            return CircuitBreaker.NONE;
+        return breakers.computeIfAbsent(backend, b -> new CircuitBreaker(b, failureThreshold, openMs));
+    }
+
+    /**
+     * All the circuit breakers in use (for metrics)
+     *
+     * @return circuit breakers
+     */
+    public Collection<CircuitBreaker> all() {
+        return unmodifiableCollection(breakers.values());
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreakers{" + "failureThreshold=" + failureThreshold + ", openMs=" + openMs + ", breakers=" + breakers.values() + '}';
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import com.hazelcast.core.IMap;
+import dk.dbc.opensearch.utils.Deadline;
+import dk.dbc.opensearch.utils.UserMessage;
+import dk.dbc.opensearch.utils.UserMessageException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single-flight execution of identical work
+ * <p>
+ * The first caller with a given key (the leader) runs the task, concurrent
+ * callers with the same key (followers) wait for the leader to complete, and
+ * then run the task themselves. The task is expected to pick up the leaders
+ * result from a cache, making the followers run cheap.
+ * <p>
+ * If the leader fails, the followers fail with the same exception, instead of
+ * repeating the failing request. Unless the leader ran out of time (its own
+ * time budget), then the followers run the task with theirs. If the leader
+ * takes too long, the followers give up waiting and run the task. A follower
+ * never waits longer than its own deadline.
+ * <p>
+ * In cluster mode the leader also takes a cluster wide lock (Hazelcast) on the
+ * key, so that only one node does the work.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ * @param <K> type of key
+ */
+public class Coalescer<K> {
+
+    private static final Logger log = LoggerFactory.getLogger(Coalescer.class);
+
+    private final ConcurrentHashMap<K, CompletableFuture<Void>> inFlight;
+    private final boolean enabled;
+    private final IMap<K, ?> clusterLocks;
+    private final long waitTimeoutMs;
+    private final long lockLeaseMs;
+
+    /**
+     * Every caller runs the task
+     *
+     * @param <K> type of key
+     * @return disabled coalescer
+     */
+    public static <K> Coalescer<K> none() {
+        return new Coalescer<>(false, null, 0L, 0L);
+    }
+
+    /**
+     * Coalesce within this JVM
+     *
+     * @param <K>           type of key
+     * @param waitTimeoutMs how long a follower waits for the leader
+     * @return in-JVM coalescer
+     */
+    public static <K> Coalescer<K> local(long waitTimeoutMs) {
+        return new Coalescer<>(true, null, waitTimeoutMs, 0L);
+    }
+
+    /**
+     * Coalesce within this JVM, and lock across the cluster
+     *
+     * @param <K>           type of key
+     * @param clusterLocks  the map to lock keys in (no values are stored)
+     * @param waitTimeoutMs how long a follower waits for the leader
+     * @param lockLeaseMs   when a cluster lock is released, in case the node
+     *                      holding it dies
+     * @return cluster wide coalescer
+     */
+    public static <K> Coalescer<K> cluster(IMap<K, ?> clusterLocks, long waitTimeoutMs, long lockLeaseMs) {
+        return new Coalescer<>(true, clusterLocks, waitTimeoutMs, lockLeaseMs);
+    }
+
+    private Coalescer(boolean enabled, IMap<K, ?> clusterLocks, long waitTimeoutMs, long lockLeaseMs) {
+        this.inFlight = new ConcurrentHashMap<>();
+        this.enabled = enabled;
+        this.clusterLocks = clusterLocks;
+        this.waitTimeoutMs = waitTimeoutMs;
+        this.lockLeaseMs = lockLeaseMs;
+    }
+
+    /**
+     * Run a task, coalesced with other concurrent calls with the same key
+     *
+     * @param <T>  type of result
+     * @param key  what identifies identical tasks
+     * @param task the work (should be idempotent and cache its result)
+     * @return the outcome of the task
+     */
+    public <T> T execute(K key, Supplier<T> task) {
+        return execute(key, Deadline.NONE, task);
+    }
+
+    /**
+     * Run a task, coalesced with other concurrent calls with the same key,
+     * waiting for identical work no longer than the deadline
+     *
+     * @param <T>      type of result
+     * @param key      what identifies identical tasks
+     * @param deadline when this caller should be done
+     * @param task     the work (should be idempotent and cache its result)
+     * @return the outcome of the task
+     */
+    public <T> T execute(K key, Deadline deadline, Supplier<T> task) {
+        if (!enabled)
+            return task.get();
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        CompletableFuture<Void> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            awaitLeader(key, leader, waitMs(deadline));
+            return task.get();
+        }
+        try {
+            T value = clusterLocks == null ? task.get() : executeLocked(key, waitMs(deadline), task);
+            flight.complete(null);
+            return value;
+        } catch (RuntimeException ex) {
+            flight.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Number of keys currently being worked on in this JVM
+     *
+     * @return count
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * How long to wait for identical work
+     *
+     * @param deadline when the caller should be done
+     * @return the wait-timeout, capped at the time left before the deadline
+     */
+    private long waitMs(Deadline deadline) {
+        return Long.min(waitTimeoutMs, deadline.remaining(TimeUnit.MILLISECONDS));
+    }
+
+    private <T> T executeLocked(K key, long waitMs, Supplier<T> task) {
+        boolean locked = false;
+        try {
+            locked = clusterLocks.tryLock(key, waitMs, TimeUnit.MILLISECONDS, lockLeaseMs, TimeUnit.MILLISECONDS);
+            if (!locked)
+                log.warn("Timeout waiting for cluster lock on: {}", key);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted waiting for cluster lock: {}", ex.getMessage());
+            log.debug("Interrupted waiting for cluster lock: ", ex);
+            throw new UserMessageException(UserMessage.INTERNAL_SERVER_ERROR);
+        }
+        try {
+            return task.get();
+        } finally {
+            if (locked)
+                unlock(key);
+        }
+    }
+
+    private void unlock(K key) {
+        try {
+            clusterLocks.unlock(key);
+        } catch (IllegalMonitorStateException ex) {
+            log.warn("Cluster lock lease expired before work was done on: {}", key);
+        }
+    }
+
+    private void awaitLeader(K key, CompletableFuture<Void> leader, long waitMs) {
+        try {
+            leader.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (isTimeout(cause)) {
+                // The leader's time budget, not the follower's
+                log.debug("Identical request timed out on: {}", key);
+                return;
+            }
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        } catch (TimeoutException ex) {
+            log.warn("Timeout waiting for identical request on: {}", key);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted waiting for identical request: {}", ex.getMessage());
+            log.debug("Interrupted waiting for identical request: ", ex);
+            throw new UserMessageException(UserMessage.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static boolean isTimeout(Throwable cause) {
+        return cause instanceof UserMessageException &&
+               ( (UserMessageException) cause ).getUserMessage() == UserMessage.TIMEOUT;
+    }
+}
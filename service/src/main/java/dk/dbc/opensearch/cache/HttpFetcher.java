@@ -19,24 +19,37 @@
 package dk.dbc.opensearch.cache;
 
 import dk.dbc.opensearch.setup.Settings;
+import dk.dbc.opensearch.utils.Deadline;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
 import dk.dbc.opensearch.utils.Timing;
 import dk.dbc.opensearch.utils.UserMessage;
 import dk.dbc.opensearch.utils.UserMessageException;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.ws.rs.ClientErrorException;
-import javax.ws.rs.ServerErrorException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.SyncInvoker;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriBuilder;
+import org.glassfish.jersey.client.ClientProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static java.util.Collections.EMPTY_MAP;
+
 /**
  *
  * @author DBC {@literal <dbc.dk>}
@@ -52,6 +65,28 @@ public class HttpFetcher {
     @Inject
     Settings settings;
 
+    @Inject
+    BackendLimits limits;
+
+    @Inject
+    CircuitBreakers breakers;
+
+    public HttpFetcher() {
+    }
+
+    /**
+     * For use outside a container
+     *
+     * @param client   web client
+     * @param settings configuration
+     */
+    public HttpFetcher(Client client, Settings settings) {
+        this.client = client;
+        this.settings = settings;
+        this.limits = new BackendLimits(EMPTY_MAP);
+        this.breakers = settings.circuitBreakers() == null ? new CircuitBreakers(0, 0) : settings.circuitBreakers();
+    }
+
     /**
      * Make a post request
      *
@@ -61,7 +96,7 @@ public class HttpFetcher {
      */
     public PostContext post(String uriTemplate, String trackingId) {
         UriBuilder uriBuilder = UriBuilder.fromUri(uriTemplate);
-        return new PostContext(client, uriBuilder, settings.getUserAgentOrDrefault(), trackingId);
+        return new PostContext(client, limits, breakers, uriBuilder, settings.getUserAgentOrDrefault(), trackingId);
     }
 
     /**
@@ -73,87 +108,145 @@ public class HttpFetcher {
      */
     public GetContext get(String uriTemplate, String trackingId) {
         UriBuilder uriBuilder = UriBuilder.fromUri(uriTemplate);
-        return new GetContext(client, uriBuilder, settings.getUserAgentOrDrefault(), trackingId);
+        return new GetContext(client, limits, breakers, uriBuilder, settings.getUserAgentOrDrefault(), trackingId);
     }
 
-    public final static class GetContext {
+    public final static class GetContext extends Context<GetContext> {
 
-        private final Client client;
-        private final UriBuilder uriBuilder;
-        private final HashMap<String, String> values;
-        private final String userAgent;
-
-        private GetContext(Client client, UriBuilder uriBuilder, String userAgent, String trackingId) {
-            this.client = client;
-            this.uriBuilder = uriBuilder;
-            this.values = new HashMap<>();
-            this.userAgent = userAgent;
-            this.values.put("trackingId", trackingId);
+        private GetContext(Client client, BackendLimits limits, CircuitBreakers breakers, UriBuilder uriBuilder, String userAgent, String trackingId) {
+            super(client, limits, breakers, uriBuilder, userAgent, trackingId);
         }
 
         /**
-         * Set path parameters (substitution)
+         * Get the request as an InputStream
          *
-         * @param key   name of the parameter
-         * @param value what to place instead
-         * @return self for chaining
+         * @param stats Statistics module
+         * @param name  request name for statistics
+         * @return InputStream and throws runtime exception in case of an error
          */
-        public GetContext with(String key, String value) {
-            values.put(key, value);
-            return this;
+        public InputStream request(StatisticsRecorder stats, String name) {
+            return request(MediaType.APPLICATION_JSON_TYPE, stats, name);
         }
 
         /**
          * Get the request as an InputStream
          *
+         * @param acceptType the content type wanted from the remote server
+         * @param stats      Statistics module
+         * @param name       request name for statistics
+         * @return InputStream and throws runtime exception in case of an error
+         */
+        public InputStream request(MediaType acceptType, StatisticsRecorder stats, String name) {
+            return await(requestAsync(acceptType, stats, name));
+        }
+
+        /**
+         * Get the request as an InputStream, without blocking
+         *
          * @param stats Statistics module
          * @param name  request name for statistics
+         * @return stage that completes with the InputStream or exceptionally
+         *         with a runtime exception in case of an error
+         */
+        public CompletionStage<InputStream> requestAsync(StatisticsRecorder stats, String name) {
+            return requestAsync(MediaType.APPLICATION_JSON_TYPE, stats, name);
+        }
+
+        /**
+         * Get the request as an InputStream, without blocking
+         *
+         * @param acceptType the content type wanted from the remote server
+         * @param stats      Statistics module
+         * @param name       request name for statistics
+         * @return stage that completes with the InputStream or exceptionally
+         *         with a runtime exception in case of an error
+         */
+        public CompletionStage<InputStream> requestAsync(MediaType acceptType, StatisticsRecorder stats, String name) {
+            return requestAsync("GET", acceptType, stats, name,
+                                invoker -> invoker.get(InputStream.class));
+        }
+    }
+
+    public final static class PostContext extends Context<PostContext> {
+
+        private PostContext(Client client, BackendLimits limits, CircuitBreakers breakers, UriBuilder uriBuilder, String userAgent, String trackingId) {
+            super(client, limits, breakers, uriBuilder, userAgent, trackingId);
+        }
+
+        /**
+         * Get the request as an InputStream
+         *
+         * @param entity the entity to post
+         * @param stats  Statistics module
+         * @param name   request name for statistics
          * @return InputStream and throws runtime exception in case of an error
          */
-        public InputStream request(StatisticsRecorder stats, String name) {
-            return request(MediaType.APPLICATION_JSON_TYPE, stats, name);
+        public InputStream request(Entity entity, StatisticsRecorder stats, String name) {
+            return request(entity, MediaType.APPLICATION_JSON_TYPE, stats, name);
         }
 
         /**
          * Get the request as an InputStream
          *
+         * @param entity     the entity to post
          * @param acceptType the content type wanted from the remote server
          * @param stats      Statistics module
          * @param name       request name for statistics
          * @return InputStream and throws runtime exception in case of an error
          */
-        public InputStream request(MediaType acceptType, StatisticsRecorder stats, String name) {
-            InputStream is = null;
-            URI uri = uriBuilder.buildFromMap(values);
-            log.debug("Fetching: (GET) {}", uri);
-            try (final Timing timer = stats.timer(name)) {
-                is = client.target(uri)
-                        .request().accept(acceptType).header("User-Agent", userAgent).get(InputStream.class);
-            } catch (ClientErrorException | ServerErrorException ex) {
-                log.error("Error fetching resource: {}: {}", uri, ex.getMessage());
-                log.debug("Error fetching resource: ", ex);
-                throw new UserMessageException(UserMessage.BAD_RESPONSE);
-            }
-            if (is == null) {
-                log.error("Error fetching resource: {}: No content");
-                throw new UserMessageException(UserMessage.BAD_RESPONSE);
-            }
-            return is;
+        public InputStream request(Entity entity, MediaType acceptType, StatisticsRecorder stats, String name) {
+            return await(requestAsync(entity, acceptType, stats, name));
+        }
+
+        /**
+         * Get the request as an InputStream, without blocking
+         *
+         * @param entity the entity to post
+         * @param stats  Statistics module
+         * @param name   request name for statistics
+         * @return stage that completes with the InputStream or exceptionally
+         *         with a runtime exception in case of an error
+         */
+        public CompletionStage<InputStream> requestAsync(Entity entity, StatisticsRecorder stats, String name) {
+            return requestAsync(entity, MediaType.APPLICATION_JSON_TYPE, stats, name);
+        }
+
+        /**
+         * Get the request as an InputStream, without blocking
+         *
+         * @param entity     the entity to post
+         * @param acceptType the content type wanted from the remote server
+         * @param stats      Statistics module
+         * @param name       request name for statistics
+         * @return stage that completes with the InputStream or exceptionally
+         *         with a runtime exception in case of an error
+         */
+        public CompletionStage<InputStream> requestAsync(Entity entity, MediaType acceptType, StatisticsRecorder stats, String name) {
+            return requestAsync("POST", acceptType, stats, name,
+                                invoker -> invoker.post(entity, InputStream.class));
         }
     }
 
-    public final static class PostContext {
+    private static abstract class Context<T extends Context<T>> {
 
         private final Client client;
+        private final BackendLimits limits;
+        private final CircuitBreakers breakers;
         private final UriBuilder uriBuilder;
         private final HashMap<String, String> values;
         private final String userAgent;
+        private String backend;
+        private Deadline deadline;
 
-        private PostContext(Client client, UriBuilder uriBuilder, String userAgent, String trackingId) {
+        private Context(Client client, BackendLimits limits, CircuitBreakers breakers, UriBuilder uriBuilder, String userAgent, String trackingId) {
             this.client = client;
+            this.limits = limits;
+            this.breakers = breakers;
             this.uriBuilder = uriBuilder;
             this.values = new HashMap<>();
             this.userAgent = userAgent;
+            this.backend = null;
+            this.deadline = Deadline.NONE;
             this.values.put("trackingId", trackingId);
         }
 
@@ -164,52 +257,222 @@ public class HttpFetcher {
          * @param value what to place instead
          * @return self for chaining
          */
-        public PostContext with(String key, String value) {
+        public T with(String key, String value) {
             values.put(key, value);
-            return this;
+            return (T) this;
         }
 
         /**
-         * Get the request as an InputStream
+         * Set the backend name, for limiting the number of concurrent requests
+         * and for the circuit breaker
          *
-         * @param entity the entity to post
-         * @param stats  Statistics module
-         * @param name   request name for statistics
-         * @return InputStream and throws runtime exception in case of an error
+         * @param backend name of the backend (http-client/max-concurrent)
+         * @return self for chaining
          */
-        public InputStream request(Entity entity, StatisticsRecorder stats, String name) {
-            return request(entity, MediaType.APPLICATION_JSON_TYPE, stats, name);
+        public T backend(String backend) {
+            this.backend = backend;
+            return (T) this;
         }
 
         /**
-         * Get the request as an InputStream
+         * Set a deadline for the request
+         * <p>
+         * If the deadline has passed, when the backend limit allows the
+         * request to start, it fails at once, otherwise the remaining time is
+         * used as read timeout
          *
-         * @param entity     the entity to post
+         * @param deadline when the request should be done
+         * @return self for chaining
+         */
+        public T deadline(Deadline deadline) {
+            this.deadline = deadline;
+            return (T) this;
+        }
+
+        /**
+         * Start a request, when the backend limit allows it
+         * <p>
+         * The blocking call is made on the backend's own threads, and the
+         * request counts against the backend limit, until the response
+         * stream is closed (or read to the end)
+         *
+         * @param method     http method for logging
          * @param acceptType the content type wanted from the remote server
          * @param stats      Statistics module
          * @param name       request name for statistics
-         * @return InputStream and throws runtime exception in case of an error
+         * @param invocation how to start the request
+         * @return stage that completes with the InputStream
          */
-        public InputStream request(Entity entity, MediaType acceptType, StatisticsRecorder stats, String name) {
-            InputStream is = null;
+        CompletionStage<InputStream> requestAsync(String method, MediaType acceptType, StatisticsRecorder stats, String name, Invocation invocation) {
             URI uri = uriBuilder.buildFromMap(values);
-            log.debug("Fetching: (POST) {}", uri);
-            try (final Timing timer = stats.timer(name)) {
-                is = client.target(uri)
+            CircuitBreaker breaker = breakers.breakerFor(backend);
+            if (!breaker.tryAcquire()) {
+                log.warn("Circuit is open, not fetching resource: {}", uri);
+                stats.value("circuitOpen", backend);
+                CompletableFuture<InputStream> future = new CompletableFuture<>();
+                future.completeExceptionally(new UserMessageException(UserMessage.BACKEND_UNAVAILABLE));
+                return future;
+            }
+            BackendLimits.Limiter limiter = limits.limiterFor(backend);
+            return limiter.submitHolding(deadline, release -> {
+                log.debug("Fetching: ({}) {}", method, uri);
+                CompletableFuture<InputStream> future = new CompletableFuture<>();
+                if (deadline.hasExpired()) {
+                    log.warn("Deadline passed before fetching resource: {}", uri);
+                    future.completeExceptionally(new UserMessageException(UserMessage.TIMEOUT));
+                    return future;
+                }
+                Timing timer = stats.timer(name);
+                Builder builder = client.target(uri)
                         .request()
                         .accept(acceptType)
-                        .header("User-Agent", userAgent)
-                        .post(entity, InputStream.class);
-            } catch (ClientErrorException | ServerErrorException ex) {
-                log.error("Error fetching resource: {}: {}", uri, ex.getMessage());
-                log.debug("Error fetching resource: ", ex);
-                throw new UserMessageException(UserMessage.BAD_RESPONSE);
-            }
+                        .header("User-Agent", userAgent);
+                // When the deadline cuts the read timeout short, a timeout
+                // says nothing about the health of the backend
+                boolean deadlineBound = false;
+                if (deadline.isLimited()) {
+                    int readTimeout = Integer.max(1, deadline.remainingMs());
+                    int configured = configuredReadTimeout();
+                    deadlineBound = configured <= 0 || readTimeout < configured;
+                    if (deadlineBound)
+                        builder.property(ClientProperties.READ_TIMEOUT, readTimeout);
+                }
+                Callback callback = new Callback(uri, breaker, deadlineBound,
+                                                 is -> future.complete(new ReleasingInputStream(is, release)),
+                                                 future::completeExceptionally);
+                try {
+                    limiter.executor().execute(() -> {
+                        InputStream is;
+                        try {
+                            is = invocation.invoke(builder);
+                        } catch (RuntimeException ex) {
+                            callback.failed(ex);
+                            return;
+                        }
+                        callback.completed(is);
+                    });
+                } catch (RejectedExecutionException ex) {
+                    log.warn("Cannot start request for resource: {}: {}", uri, ex.getMessage());
+                    future.completeExceptionally(new UserMessageException(UserMessage.BACKEND_UNAVAILABLE));
+                }
+                return future.whenComplete((is, ex) -> timer.close());
+            });
+        }
+
+        /**
+         * The read timeout the client is configured with
+         *
+         * @return number of milliseconds (0 = no limit)
+         */
+        private int configuredReadTimeout() {
+            Object readTimeout = client.getConfiguration().getProperty(ClientProperties.READ_TIMEOUT);
+            return readTimeout instanceof Number ? ( (Number) readTimeout ).intValue() : 0;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Invocation {
+
+        InputStream invoke(SyncInvoker invoker);
+    }
+
+    private static class Callback {
+
+        private final URI uri;
+        private final CircuitBreaker breaker;
+        private final boolean deadlineBound;
+        private final Consumer<InputStream> success;
+        private final Consumer<Throwable> failure;
+
+        private Callback(URI uri, CircuitBreaker breaker, boolean deadlineBound, Consumer<InputStream> success, Consumer<Throwable> failure) {
+            this.uri = uri;
+            this.breaker = breaker;
+            this.deadlineBound = deadlineBound;
+            this.success = success;
+            this.failure = failure;
+        }
+
+        private void completed(InputStream is) {
             if (is == null) {
-                log.error("Error fetching resource: {}: No content");
-                throw new UserMessageException(UserMessage.BAD_RESPONSE);
+                log.error("Error fetching resource: {}: No content", uri);
+                breaker.failure();
+                failure.accept(new UserMessageException(UserMessage.BAD_RESPONSE));
+            } else {
+                breaker.success();
+                success.accept(is);
             }
-            return is;
+        }
+
+        private void failed(Throwable ex) {
+            boolean timeout = ex instanceof SocketTimeoutException || ex.getCause() instanceof SocketTimeoutException;
+            // A 4xx means the backend is answering, it's the request that's bad
+            if (ex instanceof ClientErrorException || ex.getCause() instanceof ClientErrorException)
+                breaker.success();
+            // A timeout from the request's own deadline isn't the backend's fault
+            else if (!( timeout && deadlineBound ))
+                breaker.failure();
+            log.error("Error fetching resource: {}: {}", uri, ex.getMessage());
+            log.debug("Error fetching resource: ", ex);
+            if (timeout)
+                failure.accept(new UserMessageException(UserMessage.TIMEOUT, ex));
+            else
+                failure.accept(new UserMessageException(UserMessage.BAD_RESPONSE, ex));
+        }
+    }
+
+    /**
+     * Response body, that frees the backend limit place of the request, when
+     * closed or read to the end
+     */
+    private static class ReleasingInputStream extends FilterInputStream {
+
+        private final Runnable release;
+
+        private ReleasingInputStream(InputStream in, Runnable release) {
+            super(in);
+            this.release = release;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c == -1)
+                release.run();
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1)
+                release.run();
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release.run();
+            }
+        }
+    }
+
+    /**
+     * Wait for an async request
+     *
+     * @param stage the request
+     * @return InputStream and throws runtime exception in case of an error
+     */
+    private static InputStream await(CompletionStage<InputStream> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw ex;
         }
     }
 }
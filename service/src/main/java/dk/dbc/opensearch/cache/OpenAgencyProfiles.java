@@ -22,15 +22,24 @@ import dk.dbc.opensearch.setup.Settings;
 import dk.dbc.opensearch.solr.SolrRules;
 import dk.dbc.opensearch.solr.profile.Profiles;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
+import dk.dbc.opensearch.utils.TimerSlot;
 import dk.dbc.opensearch.utils.Timing;
 import dk.dbc.opensearch.utils.UserMessage;
 import dk.dbc.opensearch.utils.UserMessageException;
+import fish.payara.cdi.jsr107.impl.NamedCache;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.Resource;
+import javax.cache.Cache;
 import javax.cache.annotation.CacheKey;
+import javax.cache.annotation.CachePut;
 import javax.cache.annotation.CacheResult;
+import javax.cache.annotation.CacheValue;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.ServerErrorException;
@@ -38,6 +47,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Open agency profiles, cached per agency and repository
+ * <p>
+ * Use {@link #profilesFor(int, java.lang.String, dk.dbc.opensearch.utils.StatisticsRecorder, java.lang.String, dk.dbc.opensearch.solr.SolrRules)},
+ * that protects open agency against a stampede when a profile expires, and
+ * refreshes profiles in the background before they expire.
  *
  * @author DBC {@literal <dbc.dk>}
  */
@@ -46,12 +60,59 @@ public class OpenAgencyProfiles {
 
     private static final Logger log = LoggerFactory.getLogger(OpenAgencyProfiles.class);
 
+    private static final TimerSlot PROFILE_BUILD = TimerSlot.of("openagency-profile-build");
+
+    private static final String BACKEND = "openagency";
+
     @Inject
     Settings settings;
 
     @Inject
     HttpFetcher fetcher;
 
+    @Inject
+    CircuitBreakers breakers;
+
+    @Inject
+    ProfileRefresher refresher;
+
+    @Resource
+    SessionContext context;
+
+    @Resource(type = ManagedExecutorService.class)
+    ExecutorService es;
+
+    @Inject
+    @NamedCache(cacheName = "profile_stale", managementEnabled = true, statisticsEnabled = true)
+    Cache<String, Profiles> staleProfileCache;
+
+    /**
+     * Open agency profile, from the cache if possible
+     * <p>
+     * Concurrent requests for a profile that isn't cached wait for the first
+     * one to load it. If the cached profile is due for a refresh, it is
+     * reloaded in the background.
+     *
+     * @param agencyId   Agency to fetch profiles for
+     * @param repository SolR rules are different for each repository
+     * @param stats      record HTTP timing
+     * @param trackingId Track which HTTP requests are produced by an enduser
+     *                   request
+     * @param solrRules  Rules for the SolR identified by "repository"
+     * @return Profiles object for the agency
+     */
+    public Profiles profilesFor(int agencyId, String repository,
+                                StatisticsRecorder stats, String trackingId, SolrRules solrRules) {
+        // Through the container, for the cache interceptors
+        OpenAgencyProfiles self = context.getBusinessObject(OpenAgencyProfiles.class);
+        String key = staleKey(agencyId, repository);
+        Profiles profiles = refresher.load(key, () -> self.getProfileFor(agencyId, repository, stats, trackingId, solrRules));
+        if (refresher.isDue(profiles.getCreated()) &&
+            refresher.refresh(key, es, () -> self.refreshProfileFor(agencyId, repository, trackingId, solrRules)))
+            stats.value("profile", "refresh");
+        return profiles;
+    }
+
     /**
      * Cached open agency profile
      *
@@ -71,11 +132,50 @@ public class OpenAgencyProfiles {
                                      UserMessageException.class})
     public Profiles getProfileFor(@CacheKey int agencyId, @CacheKey String repository,
                                   StatisticsRecorder stats, String trackingId, SolrRules solrRules) {
+        return fetchProfileFor(agencyId, repository, stats, trackingId, solrRules);
+    }
+
+    /**
+     * Reload a profile from open agency, and replace it in the cache
+     *
+     * @param agencyId   Agency to fetch profiles for
+     * @param repository SolR rules are different for each repository
+     * @param trackingId Track which HTTP requests are produced by an enduser
+     *                   request
+     * @param solrRules  Rules for the SolR identified by "repository"
+     */
+    public void refreshProfileFor(int agencyId, String repository, String trackingId, SolrRules solrRules) {
+        StatisticsRecorder stats = new StatisticsRecorder();
+        Profiles profiles = fetchProfileFor(agencyId, repository, stats, trackingId, solrRules);
+        context.getBusinessObject(OpenAgencyProfiles.class)
+                .putProfileFor(agencyId, repository, profiles);
+        log.debug("Refreshed profile for: {}/{}, timings = {}", agencyId, repository, stats);
+    }
+
+    /**
+     * Replace a profile in the cache
+     * <p>
+     * The key is the same as for
+     * {@link #getProfileFor(int, java.lang.String, dk.dbc.opensearch.utils.StatisticsRecorder, java.lang.String, dk.dbc.opensearch.solr.SolrRules)}
+     *
+     * @param agencyId   Agency the profiles are for
+     * @param repository The repository the profiles are for
+     * @param profiles   Profiles object for the agency
+     */
+    @CachePut(cacheName = "profile")
+    public void putProfileFor(@CacheKey int agencyId, @CacheKey String repository, @CacheValue Profiles profiles) {
+    }
+
+    private Profiles fetchProfileFor(int agencyId, String repository,
+                                     StatisticsRecorder stats, String trackingId, SolrRules solrRules) {
         try (InputStream is = fetcher.get(settings.getOpenagencyProfileUrl(), trackingId)
                 .with("agencyId", String.format(Locale.ROOT, "%06d", agencyId))
+                .backend(BACKEND)
                 .request(stats, "openagency-profile-fetch")) {
-            try (Timing timer = stats.timer("openagency-profile-build")) {
-                return Profiles.from(solrRules, is);
+            try (Timing timer = stats.timer(PROFILE_BUILD)) {
+                Profiles profiles = Profiles.from(solrRules, is);
+                staleProfileCache.put(staleKey(agencyId, repository), profiles);
+                return profiles;
             }
         } catch (IOException ex) {
             log.error("Cannot handle profile response for: {}: {}", agencyId, ex.getMessage());
@@ -84,4 +184,31 @@ public class OpenAgencyProfiles {
         }
     }
 
+    /**
+     * The last successfully fetched profile, regardless of the expiry of the
+     * profile cache
+     * <p>
+     * For use when open agency is unavailable
+     *
+     * @param agencyId   Agency to fetch profiles for
+     * @param repository SolR rules are different for each repository
+     * @return Profiles object for the agency or null if none has been fetched
+     */
+    public Profiles getStaleProfileFor(int agencyId, String repository) {
+        return staleProfileCache.get(staleKey(agencyId, repository));
+    }
+
+    /**
+     * Is the circuit for open agency open (or being tested)
+     *
+     * @return if open agency currently is considered unavailable
+     */
+    public boolean isUnavailable() {
+        return breakers.breakerFor(BACKEND).getState() != CircuitBreaker.State.CLOSED;
+    }
+
+    private static String staleKey(int agencyId, String repository) {
+        return agencyId + "/" + repository;
+    }
+
 }
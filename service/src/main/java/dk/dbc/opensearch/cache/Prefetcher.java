@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background prefetching of the next page of a search
+ * <p>
+ * The number of concurrent prefetches is limited, if none are available the
+ * prefetch is skipped (rejected). The pages prefetched on this node are
+ * remembered (the most recent ones), so a request can be counted as a hit or a
+ * miss.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ * @param <K> type of search key
+ */
+public class Prefetcher<K> {
+
+    private static final Logger log = LoggerFactory.getLogger(Prefetcher.class);
+
+    // Number of prefetched pages remembered for hit/miss accounting
+    private static final int REMEMBERED_PAGES = 10_000;
+
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final Map<Page<K>, Boolean> prefetched;
+    private final LongAdder started;
+    private final LongAdder rejected;
+    private final LongAdder failed;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * Setup a prefetcher
+     *
+     * @param maxConcurrent number of concurrent prefetches (0 or less disables
+     *                      prefetching)
+     */
+    public Prefetcher(int maxConcurrent) {
+        this.maxConcurrent = Integer.max(0, maxConcurrent);
+        this.permits = new Semaphore(this.maxConcurrent);
+        this.prefetched = new LinkedHashMap<Page<K>, Boolean>() {
+            private static final long serialVersionUID = 2216384517632945215L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Page<K>, Boolean> eldest) {
+                return size() > REMEMBERED_PAGES;
+            }
+        };
+        this.started = new LongAdder();
+        this.rejected = new LongAdder();
+        this.failed = new LongAdder();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    public boolean isEnabled() {
+        return maxConcurrent > 0;
+    }
+
+    /**
+     * Run a prefetch of a page in the background, if the budget allows it
+     * <p>
+     * The task is considered running until the returned stage completes.
+     *
+     * @param key      the search
+     * @param start    the first position of the page
+     * @param executor where to run the task
+     * @param task     the prefetch
+     * @return if the prefetch was started
+     */
+    public boolean prefetch(K key, int start, Executor executor, Supplier<CompletableFuture<?>> task) {
+        if (!isEnabled())
+            return false;
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            log.debug("Prefetch budget exhausted, skipping start={}", start);
+            return false;
+        }
+        Page<K> page = new Page<>(key, start);
+        synchronized (prefetched) {
+            prefetched.put(page, Boolean.TRUE);
+        }
+        started.increment();
+        try {
+            CompletableFuture.supplyAsync(task, executor)
+                    .thenCompose(f -> f)
+                    .whenComplete((r, ex) -> {
+                        permits.release();
+                        if (ex != null)
+                            failed(page, ex);
+                    });
+        } catch (RuntimeException ex) {
+            permits.release();
+            failed(page, ex);
+        }
+        return true;
+    }
+
+    /**
+     * Account for a request for a page, that could have been prefetched
+     *
+     * @param key   the search
+     * @param start the first position of the page
+     * @return if the page has been prefetched (or is being prefetched)
+     */
+    public boolean requested(K key, int start) {
+        Boolean hit;
+        synchronized (prefetched) {
+            hit = prefetched.remove(new Page<>(key, start));
+        }
+        if (hit != null) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        return false;
+    }
+
+    private void failed(Page<K> page, Throwable ex) {
+        failed.increment();
+        synchronized (prefetched) {
+            prefetched.remove(page);
+        }
+        log.warn("Prefetch failed: {}", ex.getMessage());
+        log.debug("Prefetch failed: ", ex);
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getRunning() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public long getStarted() {
+        return started.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Prefetcher{" + "maxConcurrent=" + maxConcurrent + ", started=" + started + ", rejected=" + rejected + ", failed=" + failed + ", hits=" + hits + ", misses=" + misses + '}';
+    }
+
+    private static final class Page<K> {
+
+        private final K key;
+        private final int start;
+
+        private Page(K key, int start) {
+            this.key = key;
+            this.start = start;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(key) + start;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            final Page<?> other = (Page<?>) obj;
+            return start == other.start &&
+                   Objects.equals(key, other.key);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stampede protection and refresh-ahead for cached open agency profiles
+ * <p>
+ * Loading of a profile is single-flight per key (agency/repository) on a
+ * node, so when an entry expires, only one request calls open agency, and
+ * the rest pick up the result from the cache.
+ * <p>
+ * When a cached profile gets older than the refresh age, it is reloaded in
+ * the background, while the cached one is still served. Only one refresh
+ * per key runs at a time.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ProfileRefresher {
+
+    private static final Logger log = LoggerFactory.getLogger(ProfileRefresher.class);
+
+    private final long refreshAfterMs;
+    private final Coalescer<String> loads;
+    private final ConcurrentHashMap<String, Boolean> refreshing;
+    private final LongAdder started;
+    private final LongAdder failed;
+
+    /**
+     * Setup a refresher
+     *
+     * @param refreshAfterMs age of a profile, where it should be refreshed (0
+     *                       or less disables refreshing)
+     * @param waitTimeoutMs  how long a request waits for another request
+     *                       loading the same profile
+     */
+    public ProfileRefresher(long refreshAfterMs, long waitTimeoutMs) {
+        this.refreshAfterMs = refreshAfterMs;
+        this.loads = Coalescer.local(waitTimeoutMs);
+        this.refreshing = new ConcurrentHashMap<>();
+        this.started = new LongAdder();
+        this.failed = new LongAdder();
+    }
+
+    public boolean isEnabled() {
+        return refreshAfterMs > 0;
+    }
+
+    /**
+     * Load a profile, coalesced with concurrent loads of the same key
+     *
+     * @param <T>  type of result
+     * @param key  agency/repository
+     * @param task the (cached) load
+     * @return the outcome of the task
+     */
+    public <T> T load(String key, Supplier<T> task) {
+        return loads.execute(key, task);
+    }
+
+    /**
+     * Should a profile be refreshed
+     *
+     * @param created when the profile was built (epoch ms)
+     * @return if it is older than the refresh age
+     */
+    public boolean isDue(long created) {
+        return isEnabled() && System.currentTimeMillis() - created >= refreshAfterMs;
+    }
+
+    /**
+     * Run a refresh in the background, unless one is running for this key
+     *
+     * @param key      agency/repository
+     * @param executor where to run the task
+     * @param task     the reload (puts the profile into the cache)
+     * @return if the refresh was started
+     */
+    public boolean refresh(String key, Executor executor, Runnable task) {
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null)
+            return false;
+        started.increment();
+        try {
+            CompletableFuture.runAsync(task, executor)
+                    .whenComplete((r, ex) -> {
+                        refreshing.remove(key);
+                        if (ex != null)
+                            failed(key, ex);
+                    });
+        } catch (RuntimeException ex) {
+            refreshing.remove(key);
+            failed(key, ex);
+        }
+        return true;
+    }
+
+    private void failed(String key, Throwable ex) {
+        failed.increment();
+        log.warn("Profile refresh failed for: {}: {}", key, ex.getMessage());
+        log.debug("Profile refresh failed for: {}: ", key, ex);
+    }
+
+    public long getRefreshAfterMs() {
+        return refreshAfterMs;
+    }
+
+    public int getLoading() {
+        return loads.getInFlight();
+    }
+
+    public int getRefreshing() {
+        return refreshing.size();
+    }
+
+    public long getStarted() {
+        return started.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ProfileRefresher{" + "refreshAfterMs=" + refreshAfterMs + ", started=" + started + ", failed=" + failed + '}';
+    }
+}
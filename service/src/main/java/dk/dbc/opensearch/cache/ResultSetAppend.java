@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import dk.dbc.opensearch.solr.resultset.ResultSet;
+import java.io.Serializable;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.MutableEntry;
+
+/**
+ * Entry processor that adds the changes made to a slice to the cached result
+ * set
+ * <p>
+ * This is run where the result set is stored, so only the changes are
+ * transferred. If the result set has expired, the changes are discarded.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ResultSetAppend implements EntryProcessor<ResultSetKey, ResultSet, Void>, Serializable {
+
+    private static final long serialVersionUID = -2380615468225541979L;
+
+    private final ResultSet.Delta delta;
+
+    public ResultSetAppend(ResultSet.Delta delta) {
+        this.delta = delta;
+    }
+
+    @Override
+    public Void process(MutableEntry<ResultSetKey, ResultSet> entry, Object... arguments) {
+        if (entry.exists()) {
+            ResultSet resultSet = entry.getValue();
+            resultSet.apply(delta);
+            entry.setValue(resultSet);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultSetAppend{" + "delta=" + delta + '}';
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import dk.dbc.opensearch.solr.resultset.ResultSet;
+import java.io.Serializable;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.MutableEntry;
+
+/**
+ * Entry processor that extracts a page of a cached result set
+ * <p>
+ * This is run where the result set is stored, so only the slice (see
+ * {@link ResultSet#slice(int, int)}) is transferred to the caller
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ResultSetSlice implements EntryProcessor<ResultSetKey, ResultSet, ResultSet>, Serializable {
+
+    private static final long serialVersionUID = 6153946101783625270L;
+
+    private final int start;
+    private final int step;
+
+    public ResultSetSlice(int start, int step) {
+        this.start = start;
+        this.step = step;
+    }
+
+    @Override
+    public ResultSet process(MutableEntry<ResultSetKey, ResultSet> entry, Object... arguments) {
+        if (!entry.exists())
+            return null;
+        return entry.getValue().slice(start, step);
+    }
+
+    @Override
+    public String toString() {
+        return "ResultSetSlice{" + "start=" + start + ", step=" + step + '}';
+    }
+}
@@ -18,7 +18,8 @@
  */
 package dk.dbc.opensearch.output;
 
-import dk.dbc.opensearch.output.badgerfish.BadgerFishSingle;
+import dk.dbc.opensearch.output.badgerfish.BadgerFishOutput;
+import dk.dbc.opensearch.output.badgerfish.BadgerFishRules;
 import dk.dbc.opensearch.output.badgerfish.BadgerFishWriter;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -30,14 +31,21 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class OpenSearchResponseJSON extends OpenSearchResponse {
 
-    private final BadgerFishSingle badgerFishSingle;
+    private final BadgerFishRules badgerFishRules;
 
     private final String callback;
 
-    public OpenSearchResponseJSON(Root.Scope<Root.EntryPoint> entryPoint, String callback, BadgerFishSingle badgerFishSingle) {
+    private final boolean generated;
+
+    public OpenSearchResponseJSON(Root.Scope<Root.EntryPoint> entryPoint, String callback, BadgerFishRules badgerFishRules) {
+        this(entryPoint, callback, badgerFishRules, false);
+    }
+
+    public OpenSearchResponseJSON(Root.Scope<Root.EntryPoint> entryPoint, String callback, BadgerFishRules badgerFishRules, boolean generated) {
         super(entryPoint);
         this.callback = callback == null || callback.isEmpty() ? null : callback;
-        this.badgerFishSingle = badgerFishSingle;
+        this.badgerFishRules = badgerFishRules;
+        this.generated = generated;
     }
 
     @Override
@@ -45,8 +53,12 @@ public class OpenSearchResponseJSON extends OpenSearchResponse {
         try {
             if (callback != null)
                 output.write(( callback + " && " + callback + "(" ).getBytes(UTF_8));
-            BadgerFishWriter writer = new BadgerFishWriter(output, badgerFishSingle);
-            new Root(writer).noEnvelope(this::handle);
+            if (generated) {
+                new Root(new BadgerFishOutput(output, badgerFishRules)).noEnvelope(this::handle);
+            } else {
+                BadgerFishWriter writer = new BadgerFishWriter(output, badgerFishRules);
+                new Root(writer).noEnvelope(this::handle);
+            }
             if (callback != null)
                 output.write(")".getBytes(UTF_8));
         } catch (XMLStreamException ex) {
@@ -18,6 +18,7 @@
  */
 package dk.dbc.opensearch.output;
 
+import dk.dbc.opensearch.xml.XMLPreRenderedStreamWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import javax.ws.rs.WebApplicationException;
@@ -31,7 +32,7 @@ public class OpenSearchResponseSOAP extends OpenSearchResponse {
 
     @Override
     public void stream(OutputStream output) throws XMLStreamException, IOException, WebApplicationException {
-        Root root = new Root(output);
+        Root root = new Root(new XMLPreRenderedStreamWriter(output), output);
         root.soapEnvelope(this::handle);
     }
 
@@ -24,6 +24,7 @@ import dk.dbc.opensearch.output.SearchResponse;
 import dk.dbc.opensearch.setup.Settings;
 import dk.dbc.opensearch.utils.MDCLog;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
+import dk.dbc.opensearch.utils.TimerSlot;
 import dk.dbc.opensearch.utils.Timing;
 import dk.dbc.opensearch.utils.UserMessage;
 import dk.dbc.opensearch.utils.UserMessageException;
@@ -43,6 +44,8 @@ public class GetObjectProcessorBean {
 
     private static final Logger log = LoggerFactory.getLogger(GetObjectProcessorBean.class);
 
+    private static final TimerSlot OUTPUT = TimerSlot.of("output");
+
     @Inject
     Settings settings;
 
@@ -81,7 +84,7 @@ public class GetObjectProcessorBean {
     }
 
     private void outputResponse(SearchResponse response) throws IOException, XMLStreamException {
-        try (Timing timerOutput = timings.timer("output")) {
+        try (Timing timerOutput = timings.timer(OUTPUT)) {
             response.error("NOT IMPLEMENTED");
         }
     }
@@ -29,6 +29,7 @@ import dk.dbc.opensearch.output.Root;
 import dk.dbc.opensearch.setup.Settings;
 import dk.dbc.opensearch.utils.MDCLog;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
+import dk.dbc.opensearch.utils.TimerSlot;
 import dk.dbc.opensearch.utils.Timing;
 import dk.dbc.opensearch.utils.UserMessageException;
 import java.io.IOException;
@@ -49,6 +50,8 @@ public class InfoProcessorBean {
 
     private static final Logger log = LoggerFactory.getLogger(InfoProcessorBean.class);
 
+    private static final TimerSlot OUTPUT = TimerSlot.of("output");
+
     @Inject
     Settings settings;
 
@@ -84,7 +87,7 @@ public class InfoProcessorBean {
     }
 
     private void outputResponse(InfoResponse response) throws IOException, XMLStreamException {
-        try (Timing timerOutput = statistics.timer("output")) {
+        try (Timing timerOutput = statistics.timer(OUTPUT)) {
             response.infoGeneral(infoGeneral -> infoGeneral
                     .defaultRepository(settings.getDefaultRepository()))
                     .infoRepositories(this::infoRepositories)
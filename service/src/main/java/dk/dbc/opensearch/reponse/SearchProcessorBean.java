@@ -18,41 +18,59 @@
  */
 package dk.dbc.opensearch.reponse;
 
+import dk.dbc.opensearch.cache.Coalescer;
 import dk.dbc.opensearch.cache.HttpFetcher;
 import dk.dbc.opensearch.cache.OpenAgencyProfiles;
+import dk.dbc.opensearch.cache.Prefetcher;
 import dk.dbc.opensearch.cache.RecordKey;
+import dk.dbc.opensearch.cache.ResultSetAppend;
 import dk.dbc.opensearch.cache.ResultSetKey;
+import dk.dbc.opensearch.cache.ResultSetSlice;
 import dk.dbc.opensearch.input.CollectionType;
+import dk.dbc.opensearch.input.OutputType;
 import dk.dbc.opensearch.input.SearchRequest;
 import dk.dbc.opensearch.output.Collection;
 import dk.dbc.opensearch.output.Object;
 import dk.dbc.opensearch.output.Root;
 import dk.dbc.opensearch.output.SearchResponse;
 import dk.dbc.opensearch.output.SearchResult;
+import dk.dbc.opensearch.output.badgerfish.BadgerFishSingle;
+import dk.dbc.opensearch.repository.PreRenderedRecordContent;
 import dk.dbc.opensearch.repository.RecordContent;
 import dk.dbc.opensearch.repository.RepositoryAbstraction;
 import dk.dbc.opensearch.setup.RepositorySettings;
 import dk.dbc.opensearch.setup.Settings;
 import dk.dbc.opensearch.solr.profile.Profile;
 import dk.dbc.opensearch.solr.profile.Profiles;
+import dk.dbc.opensearch.solr.resultset.HitCount;
 import dk.dbc.opensearch.solr.resultset.ResultSet;
+import dk.dbc.opensearch.utils.Deadline;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
+import dk.dbc.opensearch.utils.TimerSlot;
 import dk.dbc.opensearch.utils.Timing;
 import dk.dbc.opensearch.utils.MDCLog;
 import dk.dbc.opensearch.utils.UserMessage;
 import dk.dbc.opensearch.utils.UserMessageException;
 import dk.dbc.opensearch.xml.XMLCacheReader;
+import dk.dbc.opensearch.xml.XMLPreRendered;
 import fish.payara.cdi.jsr107.impl.NamedCache;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.Resource;
 import javax.cache.Cache;
+import javax.cache.processor.EntryProcessorException;
 import javax.ejb.Stateless;
 import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
@@ -60,9 +78,6 @@ import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static dk.dbc.opensearch.solr.resultset.ResultSet.EMPTY_RESULT_SET;
-import static java.util.Collections.EMPTY_LIST;
-
 /**
  *
  * @author DBC {@literal <dbc.dk>}
@@ -72,6 +87,10 @@ public class SearchProcessorBean {
 
     private static final Logger log = LoggerFactory.getLogger(SearchProcessorBean.class);
 
+    private static final TimerSlot RESULT_SET_APPEND = TimerSlot.of("resultSetAppend");
+    private static final TimerSlot RESULT_SET_SLICE = TimerSlot.of("resultSetSlice");
+    private static final TimerSlot OUTPUT = TimerSlot.of("output");
+
     @Inject
     Settings settings;
 
@@ -82,13 +101,26 @@ public class SearchProcessorBean {
     HttpFetcher fetcher;
 
     @Inject
-    @NamedCache(cacheName = "resultset", managementEnabled = true)
+    BadgerFishSingle badgerFishSingle;
+
+    @Inject
+    Coalescer<ResultSetKey> resultSetCoalescer;
+
+    @Inject
+    Prefetcher<ResultSetKey> prefetcher;
+
+    @Inject
+    @NamedCache(cacheName = "resultset", managementEnabled = true, statisticsEnabled = true)
     Cache<ResultSetKey, ResultSet> resultSetCache;
 
     @Inject
-    @NamedCache(cacheName = "records", managementEnabled = true)
+    @NamedCache(cacheName = "records", managementEnabled = true, statisticsEnabled = true)
     Cache<RecordKey, RecordContent> recordCache;
 
+    @Inject
+    @NamedCache(cacheName = "hitcount", managementEnabled = true, statisticsEnabled = true)
+    Cache<ResultSetKey, HitCount> hitCountCache;
+
     @Resource(type = ManagedExecutorService.class)
     ExecutorService es;
 
@@ -96,14 +128,35 @@ public class SearchProcessorBean {
     private StatisticsRecorder timings;
     private MDCLog mdc;
     private ResultSet resultSet;
+    private HitCount hitCount;
     private HashMap<String, Future<RecordContent>> recordFecthing;
+    // When the time budget of the request runs out
+    private Deadline deadline;
+    // When records, that aren't ready, are errors
+    private Deadline recordDeadline;
+    private int recordsTimedOut;
 
-    public Root.Scope<Root.EntryPoint> builder(SearchRequest request, StatisticsRecorder timings, MDCLog mdc) {
+    /**
+     * Set up a search request
+     *
+     * @param request    the search request
+     * @param timeBudget number of milliseconds the request may take (0 = no
+     *                   limit)
+     * @param timings    where timings are logged
+     * @param mdc        logging context
+     * @return output producer
+     */
+    public Root.Scope<Root.EntryPoint> builder(SearchRequest request, long timeBudget, StatisticsRecorder timings, MDCLog mdc) {
         this.request = request;
         this.timings = timings;
         this.mdc = mdc;
         this.resultSet = null;
+        this.hitCount = null;
         this.recordFecthing = new HashMap<>();
+        this.deadline = Deadline.in(timeBudget);
+        this.recordDeadline = Deadline.in(settings.getStreamingOrDefault().recordDeadlineMS())
+                .earliest(deadline);
+        this.recordsTimedOut = 0;
         this.mdc.withAgencyId(request.getAgency())
                 .withProfiles(request.getProfilesOrDefault())
                 .withTrackingId(request.getTrackingId());
@@ -126,79 +179,235 @@ public class SearchProcessorBean {
         }
         outputResponse(response);
         log.debug("timings = {}", timings);
+        prefetchNextPage();
     }
 
     private void compute() {
         String trackingId = request.getTrackingId();
         RepositorySettings repoSettings = getRepoSettings();
         ResultSetKey key = ResultSetKey.of(request);
-        resultSet = getResultSet(key, repoSettings, trackingId);
 
         int start = request.getStartOrDefault();
         int step = request.getStepValueOrDefault();
-        resultSet.fetchWorks(repoSettings.abstraction().getSolrClient(),
-                             timings, start, step,
-                             trackingId);
+        if (step == 0) {
+            hitCount = getHitCount(key, repoSettings, trackingId);
+            return;
+        }
+        if (start > 1 && prefetcher.isEnabled())
+            timings.value("prefetch", prefetcher.requested(key, start) ? "hit" : "miss");
+        resultSet = resultSetCoalescer.execute(
+                key, deadline, () -> getResultSet(key, repoSettings, start, step, deadline, timings, trackingId));
         log.trace("resultSet = {}", resultSet);
+        hitCount = HitCount.of(resultSet);
 
-        resultSetCache.put(key, resultSet);
+        recordFecthing.putAll(fetchRecords(resultSet, start, step, repoSettings,
+                                           request.getShowAgencyOrDefault(), getOpenFormatFormats(repoSettings),
+                                           deadline, timings, trackingId));
+    }
 
-        fetchRecordsAndFormatThem(step, start, repoSettings, trackingId);
+    /**
+     * Build the next page in the background, so it is cached when the client
+     * asks for it
+     * <p>
+     * This is only done when the client is paging (start &gt; 1), and there
+     * is a next page. The resultset is extended/expanded and the records of
+     * the page are put into the records cache.
+     */
+    private void prefetchNextPage() {
+        int start = request.getStartOrDefault();
+        int step = request.getStepValueOrDefault();
+        int next = start + step;
+        if (resultSet == null || start <= 1 || !prefetcher.isEnabled() ||
+            hitCount.getWorkCount() < next)
+            return;
+        ResultSetKey key = ResultSetKey.of(request);
+        RepositorySettings repoSettings = getRepoSettings();
+        int showAgency = request.getShowAgencyOrDefault();
+        List<String> openFormatFormats = getOpenFormatFormats(repoSettings);
+        String trackingId = request.getTrackingId();
+        prefetcher.prefetch(key, next, es, () -> {
+            StatisticsRecorder stats = new StatisticsRecorder();
+            ResultSet rs = resultSetCoalescer.execute(
+                    key, () -> getResultSet(key, repoSettings, next, step, Deadline.NONE, stats, trackingId));
+            Map<String, CompletableFuture<RecordContent>> records =
+                    fetchRecords(rs, next, step, repoSettings, showAgency, openFormatFormats, Deadline.NONE, stats, trackingId);
+            return CompletableFuture.allOf(records.values().toArray(new CompletableFuture[records.size()]))
+                    .whenComplete((r, ex) -> log.debug("prefetch timings = {}", stats));
+        });
     }
 
-    private void fetchRecordsAndFormatThem(int step, int start, RepositorySettings repoSettings, String trackingId) {
+    /**
+     * Start fetching the content of all the units on the page
+     * <p>
+     * Units that are cached are available at once, the rest are fetched in
+     * batches of {@link RepositoryAbstraction#contentBatchSize()} units
+     * <p>
+     * This doesn't use the state of the request, since it's also used for
+     * prefetching
+     *
+     * @param rs                the resultset with the page expanded
+     * @param start             first work on the page
+     * @param step              number of works on the page
+     * @param repoSettings      the repository descriptor
+     * @param showAgency        the agency the records are shown for
+     * @param openFormatFormats the formats that should be made by open format
+     * @param deadline          when the records should be fetched
+     * @param stats             where timings are logged
+     * @param trackingId        the tracking id for nested http calls
+     * @return map of unit to (future) content
+     */
+    private Map<String, CompletableFuture<RecordContent>> fetchRecords(ResultSet rs, int start, int step, RepositorySettings repoSettings, int showAgency, List<String> openFormatFormats, Deadline deadline, StatisticsRecorder stats, String trackingId) {
+        RepositoryAbstraction abstraction = repoSettings.abstraction();
+        HashMap<String, CompletableFuture<RecordContent>> records = new HashMap<>();
+        LinkedHashMap<String, RecordKey> missing = new LinkedHashMap<>();
         for (int index = start ; index < start + step ; index++) {
-            if (index > resultSet.getHitCount()) // Hitcount is dynamic depending of the progress of the work structure build
+            if (index > rs.getHitCount()) // Hitcount is dynamic depending of the progress of the work structure build
                 break;
-            String work = resultSet.workAtIndex(index);
-            List<String> units = resultSet.unitsForWork(work);
-            RepositoryAbstraction abstraction = repoSettings.abstraction();
-            boolean formatThisUnit = true;
-            boolean formatMoreThanOne = formatMoreThanOneUnit();
+            String work = rs.workAtIndex(index);
+            List<String> units = rs.unitsForWork(work);
             for (String unit : units) {
-                List<String> openFormatFormatsForThisUnit =
-                        formatThisUnit ? getOpenFormatFormats(repoSettings) : EMPTY_LIST;
-
-                RecordKey recordKey = abstraction.makeRecordKey(resultSet, request.getShowAgencyOrDefault(), unit);
+                RecordKey recordKey = abstraction.makeRecordKey(rs, showAgency, unit);
                 RecordContent cachedContent = recordCache.get(recordKey);
-                Future<RecordContent> future = es.submit(() -> {
-                    RecordContent recordContent = abstraction.recordContent(
-                            cachedContent, fetcher, timings, trackingId,
-                            resultSet, request.getShowAgencyOrDefault(), unit,
-                            openFormatFormatsForThisUnit);
-                    recordCache.put(recordKey, recordContent);
-                    return recordContent;
-                });
-                recordFecthing.put(unit, future);
-                formatThisUnit = formatMoreThanOne;
+                if (cachedContent != null) {
+                    records.put(unit, CompletableFuture.completedFuture(cachedContent));
+                } else {
+                    missing.put(unit, recordKey);
+                }
             }
         }
+        boolean preRender = repoSettings.getPreRenderRecordsOrDefault();
+        ArrayList<String> units = new ArrayList<>(missing.keySet());
+        int batchSize = Integer.max(1, abstraction.contentBatchSize());
+        for (int i = 0 ; i < units.size() ; i += batchSize) {
+            List<String> batch = units.subList(i, Integer.min(i + batchSize, units.size()));
+            Map<String, CompletableFuture<RecordContent>> contents = abstraction.recordContentsByUnit(
+                    fetcher, stats, trackingId, deadline, es,
+                    rs, showAgency, batch,
+                    openFormatFormats);
+            // Each unit on its own, so a broken unit doesn't take the others with it
+            contents.forEach((unit, content) -> records.put(unit, content.thenApplyAsync(recordContent -> {
+                RecordContent cached = preRender ? PreRenderedRecordContent.of(recordContent, badgerFishSingle) : recordContent;
+                recordCache.put(missing.get(unit), cached);
+                return cached;
+            }, es)));
+        }
+        return records;
     }
 
     /**
-     * This produces a resultset for the result-set-key.
+     * This produces a resultset for the result-set-key, with the works of the
+     * page expanded.
      * <p>
-     * If no resultset exists, a dummy is set in the map to lock the slot, and a
-     * new is generated.
+     * Identical concurrent requests are coalesced, so only one of them builds
+     * the resultset, the others pick it up from the cache afterwards.
      * <p>
-     * The resultset needs to be stored again if modified (most likely always)
+     * A cached resultset isn't transferred as a whole, only a slice with the
+     * works of the page is, and the changes made to it are appended to the
+     * cached resultset. A new resultset is stored as a whole.
      *
      * @param key          The resultset key
      * @param repoSettings the repository descriptor
+     * @param start        first work on the page
+     * @param step         number of works on the page
+     * @param deadline     when the SolR requests should be done
+     * @param stats        where timings are logged
      * @param trackingId   the tracking id for nested http calls
      * @return resultSet the resultset in question
      */
-    private ResultSet getResultSet(ResultSetKey key, RepositorySettings repoSettings, String trackingId) {
-        if (resultSetCache.putIfAbsent(key, EMPTY_RESULT_SET)) {
-            Profiles profiles = oaProfiles.getProfileFor(
+    private ResultSet getResultSet(ResultSetKey key, RepositorySettings repoSettings, int start, int step, Deadline deadline, StatisticsRecorder stats, String trackingId) {
+        ResultSet slice = getResultSetSlice(key, start, step, stats);
+        ResultSet rs = slice != null ? slice : newResultSet(key, repoSettings, stats, trackingId);
+        RepositoryAbstraction abstraction = repoSettings.abstraction();
+        rs.fetchWorks(abstraction.getSolrClient(),
+                      abstraction.rowsPerWorkFor(key),
+                      deadline, stats, start, step,
+                      trackingId);
+        if (slice == null) {
+            resultSetCache.put(key, rs);
+            return rs;
+        }
+        ResultSet.Delta delta = rs.takeDelta();
+        if (delta != null) {
+            try (Timing timer = stats.timer(RESULT_SET_APPEND)) {
+                resultSetCache.invoke(key, new ResultSetAppend(delta));
+            } catch (EntryProcessorException ex) {
+                // The cached resultset is just not extended, next request will redo the work
+                log.warn("Could not append to cached resultset: {}", ex.getMessage());
+                log.debug("Could not append to cached resultset: ", ex);
+            }
+        }
+        return rs;
+    }
+
+    /**
+     * Get the page of a cached resultset
+     *
+     * @param key   The resultset key
+     * @param start first work on the page
+     * @param step  number of works on the page
+     * @param stats where timings are logged
+     * @return slice of the resultset or null if not cached
+     */
+    private ResultSet getResultSetSlice(ResultSetKey key, int start, int step, StatisticsRecorder stats) {
+        try (Timing timer = stats.timer(RESULT_SET_SLICE)) {
+            return resultSetCache.invoke(key, new ResultSetSlice(start, step));
+        } catch (EntryProcessorException ex) {
+            log.warn("Could not get slice of cached resultset: {}", ex.getMessage());
+            log.debug("Could not get slice of cached resultset: ", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Make an empty resultset for a result-set-key
+     *
+     * @param key          The resultset key
+     * @param repoSettings the repository descriptor
+     * @param stats        where timings are logged
+     * @param trackingId   the tracking id for nested http calls
+     * @return new resultset
+     */
+    private ResultSet newResultSet(ResultSetKey key, RepositorySettings repoSettings, StatisticsRecorder stats, String trackingId) {
+        Profiles profiles;
+        try {
+            profiles = oaProfiles.profilesFor(
                     key.getAgencyId(), repoSettings.getName(),
-                    timings, trackingId, repoSettings.getSolrRules());
-            Profile profile = profiles.getProfile(key.getProfiles());
-            resultSet = repoSettings.abstraction().resultSetFor(key, profile);
-        } else {
-            resultSet = resultSetCache.get(key);
+                    stats, trackingId, repoSettings.getSolrRules());
+        } catch (UserMessageException ex) {
+            if (ex.getUserMessage() != UserMessage.BACKEND_UNAVAILABLE && !oaProfiles.isUnavailable())
+                throw ex;
+            profiles = oaProfiles.getStaleProfileFor(key.getAgencyId(), repoSettings.getName());
+            if (profiles == null)
+                throw ex;
+            log.warn("Using stale profile for: {}/{}", key.getAgencyId(), repoSettings.getName());
+            stats.value("profile", "stale");
         }
-        return resultSet;
+        Profile profile = profiles.getProfile(key.getProfiles());
+        return repoSettings.abstraction().resultSetFor(key, profile);
+    }
+
+    /**
+     * Get the hit counts for a search without any records (stepValue=0)
+     * <p>
+     * The counts are cached separately, and computed by a single SolR request
+     * that doesn't fetch any rows, and the content service isn't called.
+     *
+     * @param key          The resultset key
+     * @param repoSettings the repository descriptor
+     * @param trackingId   the tracking id for nested http calls
+     * @return the hit counts
+     */
+    private HitCount getHitCount(ResultSetKey key, RepositorySettings repoSettings, String trackingId) {
+        HitCount cached = hitCountCache.get(key);
+        if (cached != null) {
+            timings.value("hitCount", "cached");
+            return cached;
+        }
+        HitCount counts = newResultSet(key, repoSettings, timings, trackingId)
+                .countHits(repoSettings.abstraction().getSolrClient(), deadline, timings, trackingId);
+        log.trace("hitCount = {}", counts);
+        hitCountCache.put(key, counts);
+        return counts;
     }
 
     private List<String> getOpenFormatFormats(RepositorySettings repoSettings) {
@@ -209,21 +418,34 @@ public class SearchProcessorBean {
     }
 
     private void outputResponse(SearchResponse response) throws IOException, XMLStreamException {
-        try (Timing timerOutput = timings.timer("output")) {
+        try (Timing timerOutput = timings.timer(OUTPUT)) {
             int start = request.getStartOrDefault();
             int step = request.getStepValueOrDefault();
             response.result(result -> result
-                    .hitCount((int) resultSet.getSolrHitCount())
-                    .collectionCount((int) resultSet.getHitCount())
-                    .more(resultSet.getHitCount() >= start + step)
+                    .hitCount((int) hitCount.getSolrHitCount())
+                    .collectionCount((int) hitCount.getWorkCount())
+                    .more(hitCount.getWorkCount() >= start + step)
                     .searchResult(this::outputRecords)
             );
         }
     }
 
+    /**
+     * Output the collections in order
+     * <p>
+     * If streaming is enabled the output is flushed after each collection, so
+     * the client gets the records as soon as they are ready.
+     *
+     * @param searchResult The output writer
+     * @throws XMLStreamException If an XML error occurs (highly unlikely)
+     * @throws IOException        If connection is closed and so on
+     */
     private void outputRecords(SearchResult searchResult) throws XMLStreamException, IOException {
         int start = request.getStartOrDefault();
         int step = request.getStepValueOrDefault();
+        boolean flush = settings.getStreamingOrDefault().getFlushCollectionsOrDefault();
+        if (flush)
+            searchResult._flush();
         for (int i = 0 ; i < step ; i++) {
             int index = start + i;
             if (index > resultSet.getHitCount())
@@ -237,6 +459,12 @@ public class SearchProcessorBean {
                             ._delegate(objects -> {
                                 outputUnits(objects, units);
                             }));
+            if (flush)
+                searchResult._flush();
+        }
+        if (recordsTimedOut != 0) {
+            timings.value("recordsTimedOut", String.valueOf(recordsTimedOut));
+            timings.value("partial", "true");
         }
     }
 
@@ -263,7 +491,7 @@ public class SearchProcessorBean {
             log.trace("outputting unit: {}", unit);
             try {
                 boolean showContent = formatCurrent;
-                RecordContent content = recordFecthing.get(unit).get();
+                RecordContent content = awaitRecord(unit);
                 objects.object(object -> object.
                         _any_repeated(o -> outputObjects(o, content, showContent))
                         .identifier(content.getObjectsAvailable().get(0))
@@ -280,22 +508,86 @@ public class SearchProcessorBean {
                         })
                         ._delegate(objectsAvailable -> outputExplain(objectsAvailable, unit))
                 );
-            } catch (InterruptedException | ExecutionException ex) {
+            } catch (ExecutionException ex) {
+                if (isTimeout(ex.getCause())) {
+                    outputTimeout(objects, unit);
+                } else {
+                    log.error("Error fetching async record content: {}", ex.getMessage());
+                    log.debug("Error fetching async record content: ", ex);
+                    objects.object(object -> object.error("Internal error showing record"));
+                }
+            } catch (InterruptedException ex) {
                 log.error("Error fetching async record content: {}", ex.getMessage());
                 log.debug("Error fetching async record content: ", ex);
                 objects.object(object -> object.error("Internal error showing record"));
+            } catch (TimeoutException ex) {
+                outputTimeout(objects, unit);
             }
             formatCurrent = formatMoreThanOne;
         }
     }
 
+    /**
+     * Output an error for a unit, that wasn't fetched within the deadline
+     * <p>
+     * This makes the result partial
+     *
+     * @param objects The output writer
+     * @param unit    The unit
+     * @throws XMLStreamException If an XML error occurs (highly unlikely)
+     * @throws IOException        If connection is closed and so on
+     */
+    private void outputTimeout(Collection.Stage.NumberOfObjects objects, String unit) throws XMLStreamException, IOException {
+        log.warn("Timeout fetching record content for unit: {}", unit);
+        recordsTimedOut++;
+        objects.object(object -> object.error("Timeout fetching record"));
+    }
+
+    /**
+     * Wait for the content of a unit, until the record deadline
+     * <p>
+     * The record deadline is the earliest of the streaming record-deadline
+     * and the time budget of the request
+     *
+     * @param unit The unit
+     * @return The content
+     * @throws InterruptedException If the thread is interrupted
+     * @throws ExecutionException   If the fetching of the record failed
+     * @throws TimeoutException     If the deadline has passed
+     */
+    private RecordContent awaitRecord(String unit) throws InterruptedException, ExecutionException, TimeoutException {
+        Future<RecordContent> future = recordFecthing.get(unit);
+        if (!recordDeadline.isLimited())
+            return future.get();
+        return future.get(recordDeadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Did a record fail, because the backend didn't respond in time
+     *
+     * @param cause why the record fetching failed
+     * @return if it was a timeout
+     */
+    private static boolean isTimeout(Throwable cause) {
+        if (cause instanceof CompletionException)
+            cause = cause.getCause();
+        return cause instanceof UserMessageException &&
+               ( (UserMessageException) cause ).getUserMessage() == UserMessage.TIMEOUT;
+    }
+
     private boolean formatMoreThanOneUnit() {
         return request.getCollectionTypeOrDefault() != CollectionType.WORK1;
     }
 
     private void outputObjects(Object.Stage._any_repeated object, RecordContent content, boolean showContent) throws IOException, XMLStreamException {
         if (showContent) {
+            boolean json = request.getOutputType() == OutputType.JSON;
             for (String format : request.getObjectFormatOrDerault()) {
+                XMLPreRendered preRendered = content.getPreRenderedFormat(format);
+                if (preRendered != null && ( !json || preRendered.hasJson() )) {
+                    object._any(preRendered.reader());
+                    continue;
+                }
                 XMLCacheReader reader = content.getRawFormat(format);
                 if (reader != null)
                     object._any(reader);
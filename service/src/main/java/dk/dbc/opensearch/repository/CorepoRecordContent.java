@@ -18,19 +18,24 @@
  */
 package dk.dbc.opensearch.repository;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dk.dbc.opensearch.xml.DefaultPrefix;
 import dk.dbc.opensearch.xml.XMLCacheElement;
 import dk.dbc.opensearch.xml.XMLCacheReader;
 import dk.dbc.opensearch.xml.XMLElementFilter;
-import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
@@ -53,6 +58,8 @@ public class CorepoRecordContent implements RecordContent {
     private static final Logger log = LoggerFactory.getLogger(CorepoRecordContent.class);
 
     private static final ObjectMapper O = makeObjectMapper();
+    private static final TypeReference<List<String>> STRINGS = new TypeReference<List<String>>() {
+    };
 
     private final HashMap<String, XMLCacheReader> rawRecords;
     private final HashMap<String, XMLCacheReader> formattedRecords;
@@ -62,17 +69,128 @@ public class CorepoRecordContent implements RecordContent {
     private final String primaryObjectIdentifier;
 
     public CorepoRecordContent(InputStream is, Map<QName, String> formatSpecs, DefaultPrefix defaultPrefix) throws IOException, XMLStreamException {
+        this(O.getFactory().createParser(is), true, formatSpecs, defaultPrefix);
+    }
+
+    /**
+     * Parse a corepo-content-service response object from a JSON stream
+     * <p>
+     * The dataStream is parsed as XML directly from the parsers character
+     * buffer, so the XML isn't materialized as a String and a byte array
+     * before being parsed.
+     *
+     * @param parser        the JSON parser positioned before or at the start
+     *                      of the object
+     * @param closeParser   if the parser should be closed after the object
+     * @param formatSpecs   QName to format name
+     * @param defaultPrefix for namespace normalization of formats
+     * @throws IOException        If the JSON couldn't be parsed
+     * @throws XMLStreamException If the XML couldn't be parsed
+     */
+    private CorepoRecordContent(JsonParser parser, boolean closeParser, Map<QName, String> formatSpecs, DefaultPrefix defaultPrefix) throws IOException, XMLStreamException {
         this.rawRecords = new HashMap<>();
         this.formattedRecords = new HashMap<>();
-        Payload payload = O.readValue(is, Payload.class);
-        this.objectsAvailable = payload.getPids();
-        this.primaryObjectIdentifier = payload.getPrimaryPid();
-        log.trace("payload = {}", payload);
-        byte[] bytes = payload.getDataStream().getBytes(StandardCharsets.UTF_8);
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes)) {
-            XMLEventReader reader = XMLElementFilter.elementReader(I.createXMLEventReader(bis));
+        List<String> pids = null;
+        String primaryPid = null;
+        XMLStreamException xmlError = null;
+        try {
+            JsonToken token = parser.getCurrentToken();
+            if (token == null)
+                token = parser.nextToken();
+            if (token != JsonToken.START_OBJECT)
+                throw new JsonParseException(parser, "Expected an object");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                token = parser.nextToken();
+                switch (field) {
+                    case "dataStream":
+                        if (token != JsonToken.VALUE_NULL) {
+                            // Read the rest of the object, so a batch parser is past this unit
+                            try {
+                                parseDataStream(parser, formatSpecs, defaultPrefix);
+                            } catch (XMLStreamException ex) {
+                                xmlError = ex;
+                            }
+                        }
+                        break;
+                    case "pids":
+                        pids = O.readValue(parser, STRINGS);
+                        break;
+                    case "primaryPid":
+                        primaryPid = parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+        } finally {
+            if (closeParser)
+                parser.close();
+        }
+        if (xmlError != null)
+            throw xmlError;
+        this.objectsAvailable = pids;
+        this.primaryObjectIdentifier = primaryPid;
+        log.trace("pids = {}, primaryPid = {}, formats = {}", pids, primaryPid, rawRecords.keySet());
+    }
+
+    /**
+     * Parse a batch response from the corepo-content-service
+     * <p>
+     * The response is an object of unit-id to the same content as a single
+     * unit response. A unit with XML that cannot be parsed only fails that
+     * unit.
+     *
+     * @param is            the response body
+     * @param formatSpecs   QName to format name
+     * @param defaultPrefix for namespace normalization of formats
+     * @return map of unit-id to (completed) content in the order of the
+     *         response
+     * @throws IOException If the JSON couldn't be parsed
+     */
+    public static Map<String, CompletableFuture<RecordContent>> batchOf(InputStream is, Map<QName, String> formatSpecs, DefaultPrefix defaultPrefix) throws IOException {
+        LinkedHashMap<String, CompletableFuture<RecordContent>> contents = new LinkedHashMap<>();
+        try (JsonParser parser = O.getFactory().createParser(is)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonParseException(parser, "Expected an object");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String unit = parser.getCurrentName();
+                parser.nextToken();
+                CompletableFuture<RecordContent> content = new CompletableFuture<>();
+                try {
+                    content.complete(new CorepoRecordContent(parser, false, formatSpecs, defaultPrefix));
+                } catch (XMLStreamException ex) {
+                    log.error("Error parsing content of: {}: {}", unit, ex.getMessage());
+                    log.debug("Error parsing content: ", ex);
+                    content.completeExceptionally(ex);
+                }
+                contents.put(unit, content);
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Parse the XML of the current string value
+     * <p>
+     * The characters are only valid until the parser is advanced, so the XML
+     * is fully consumed here.
+     *
+     * @param parser        JSON parser positioned at the dataStream value
+     * @param formatSpecs   QName to format name
+     * @param defaultPrefix for namespace normalization of formats
+     * @throws IOException        If the JSON couldn't be parsed
+     * @throws XMLStreamException If the XML couldn't be parsed
+     */
+    private void parseDataStream(JsonParser parser, Map<QName, String> formatSpecs, DefaultPrefix defaultPrefix) throws IOException, XMLStreamException {
+        try (CharArrayReader chars = new CharArrayReader(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength())) {
+            XMLEventReader reader = XMLElementFilter.elementReader(I.createXMLEventReader(chars));
             parseXML(reader, formatSpecs, defaultPrefix);
             reader.close();
+        } catch (RuntimeException ex) {
+            // The filtered reader can fail this way on truncated XML
+            throw new XMLStreamException("Error parsing dataStream", ex);
         }
     }
 
@@ -95,6 +213,11 @@ public class CorepoRecordContent implements RecordContent {
         formattedRecords.put(format, content);
     }
 
+    @Override
+    public List<String> getFormattedRecordsAvailable() {
+        return formattedRecords.keySet().stream().sorted().collect(Collectors.toList());
+    }
+
     @Override
     public List<String> getFormatsAvailable() {
         return rawRecords.keySet().stream().sorted().collect(Collectors.toList());
@@ -145,15 +268,22 @@ public class CorepoRecordContent implements RecordContent {
 
     /**
      * Extract user exposed parts of the adminData element
+     * <p>
+     * Stops at the end of the adminData element, so formats can be placed on
+     * either side of it
      *
      * @param reader XML input stream
      * @throws XMLStreamException in case of syntax/semantic errors in the XML
      *                            stream
      */
     private void processAdminData(XMLEventReader reader) throws XMLStreamException {
+        int level = 1;
         while (reader.hasNext()) {
             XMLEvent tag = reader.nextEvent();
+            if (tag.isEndElement() && --level == 0)
+                return;
             if (tag.isStartElement()) {
+                level++;
                 StartElement start = tag.asStartElement();
                 QName name = start.getName();
                 switch (name.getLocalPart()) {
@@ -198,47 +328,4 @@ public class CorepoRecordContent implements RecordContent {
         return o;
     }
 
-    /**
-     * POJO representing corepo-content-service response
-     */
-    private static class Payload {
-
-        private String dataStream;
-        private List<String> pids;
-        private String primaryPid;
-
-        public Payload() {
-        }
-
-        public String getDataStream() {
-            return dataStream;
-        }
-
-        public void setDataStream(String dataStream) {
-            this.dataStream = dataStream;
-        }
-
-        public List<String> getPids() {
-            return pids;
-        }
-
-        public void setPids(List<String> pids) {
-            this.pids = pids;
-        }
-
-        public String getPrimaryPid() {
-            return primaryPid;
-        }
-
-        public void setPrimaryPid(String primaryPid) {
-            this.primaryPid = primaryPid;
-        }
-
-        @Override
-        public String toString() {
-            return "Payload{" + "dataStream=" + dataStream + ", pids=" + pids + ", primaryPid=" + primaryPid + '}';
-        }
-
-    }
-
 }
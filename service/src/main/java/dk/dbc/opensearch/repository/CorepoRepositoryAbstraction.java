@@ -18,6 +18,9 @@
  */
 package dk.dbc.opensearch.repository;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.opensearch.cache.CircuitBreaker;
 import dk.dbc.opensearch.cache.HttpFetcher;
 import dk.dbc.opensearch.cache.RecordKey;
 import dk.dbc.opensearch.cache.ResultSetKey;
@@ -25,21 +28,36 @@ import dk.dbc.opensearch.input.CollectionType;
 import dk.dbc.opensearch.setup.RepositorySettings;
 import dk.dbc.opensearch.solr.Solr;
 import dk.dbc.opensearch.solr.SolrQueryFields;
+import dk.dbc.opensearch.solr.SolrQueryFieldsCache;
 import dk.dbc.opensearch.solr.SolrRules;
 import dk.dbc.opensearch.solr.profile.Profile;
 import dk.dbc.opensearch.solr.resultset.ResultSet;
 import dk.dbc.opensearch.solr.resultset.ResultSetManifestation;
 import dk.dbc.opensearch.solr.resultset.ResultSetWork;
+import dk.dbc.opensearch.solr.resultset.RowsPerWork;
+import dk.dbc.opensearch.solr.resultset.WorkDiscovery;
+import dk.dbc.opensearch.utils.Deadline;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
 import dk.dbc.opensearch.utils.UserMessage;
 import dk.dbc.opensearch.utils.UserMessageException;
 import dk.dbc.opensearch.xml.DefaultPrefix;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import org.apache.solr.client.solrj.SolrClient;
@@ -55,20 +73,37 @@ public class CorepoRepositoryAbstraction implements RepositoryAbstraction {
 
     private static final Logger log = LoggerFactory.getLogger(CorepoRepositoryAbstraction.class);
 
+    private static final ObjectMapper O = new ObjectMapper();
+
+    private static final String CONTENT_SERVICE = "content-service";
+
     private final DefaultPrefix defaultPrefix;
     private final SolrRules solrRules;
     private final String repository;
     private final SolrClient solrClient;
     private final String contentUriTemplate;
+    private final String contentBatchUriTemplate;
+    private final int contentBatchSize;
     private final Map<QName, String> knownFormats;
+    private final WorkDiscovery workDiscovery;
+    private final RowsPerWork rowsPerWork;
+    private final SolrQueryFieldsCache queryCache;
+    private final AtomicBoolean batchUnsupported;
 
-    public CorepoRepositoryAbstraction(DefaultPrefix defaultPrefix, RepositorySettings repositorySettings) throws SolrServerException, IOException {
+    public CorepoRepositoryAbstraction(DefaultPrefix defaultPrefix, RepositorySettings repositorySettings, int solrSocketTimeout, CircuitBreaker solrCircuitBreaker) throws SolrServerException, IOException {
         this.defaultPrefix = defaultPrefix;
         this.solrRules = repositorySettings.getSolrRules();
         this.repository = repositorySettings.getName();
-        this.solrClient = Solr.client(repositorySettings.getSolrUrl());
+        this.solrClient = new GuardedSolrClient(Solr.client(repositorySettings.getSolrUrl(), solrSocketTimeout),
+                                                solrCircuitBreaker, repositorySettings.getSolrMaxConcurrentOrDefault());
         this.contentUriTemplate = repositorySettings.getContentServiceUrl();
+        this.contentBatchUriTemplate = repositorySettings.getContentServiceBatchUrl();
+        this.contentBatchSize = contentBatchUriTemplate == null ? 1 : repositorySettings.getContentServiceBatchSizeOrDefault();
         this.knownFormats = repositorySettings.getKnownFormatsByQName();
+        this.workDiscovery = repositorySettings.getWorkDiscoveryOrDefault();
+        this.rowsPerWork = new RowsPerWork(repositorySettings.getFetchRowsMarginOrDefault());
+        this.queryCache = new SolrQueryFieldsCache(repositorySettings.getSolrQueryCacheSizeOrDefault());
+        this.batchUnsupported = new AtomicBoolean();
     }
 
     @Override
@@ -77,15 +112,15 @@ public class CorepoRepositoryAbstraction implements RepositoryAbstraction {
         switch (key.getQueryLanguage()) {
             case "cql":
             case "cqleng":
-                solrQuery = SolrQueryFields.fromCQL(solrRules, key.getQuery(), profile);
+                solrQuery = queryCache.fromCQL(solrRules, key.getQuery(), profile);
                 break;
             default:
                 throw new UserMessageException(UserMessage.UNSUPPORTED_QUERY_LANGUAGE);
         }
         if (key.getCollectionType() == CollectionType.MANIFESTATION)
-            return new ResultSetManifestation(solrQuery, key.getAllObjects(), key.getQueryDebug());
+            return new ResultSetManifestation(solrQuery, key.getAllObjects(), key.getQueryDebug(), workDiscovery);
         else
-            return new ResultSetWork(solrQuery, key.getAllObjects(), key.getQueryDebug());
+            return new ResultSetWork(solrQuery, key.getAllObjects(), key.getQueryDebug(), workDiscovery);
     }
 
     @Override
@@ -93,23 +128,198 @@ public class CorepoRepositoryAbstraction implements RepositoryAbstraction {
         return solrClient;
     }
 
+    @Override
+    public RowsPerWork.Estimate rowsPerWorkFor(ResultSetKey key) {
+        return rowsPerWork.estimateFor(key.getAgencyId() + "/" + key.getProfiles() + "/" + key.getCollectionType());
+    }
+
+    @Override
+    public SolrQueryFieldsCache getQueryCache() {
+        return queryCache;
+    }
+
     @Override
     public RecordContent recordContent(RecordContent recordContent,
                                        HttpFetcher fetcher, StatisticsRecorder recorder, String trackingId,
                                        ResultSet resultSet, int showAgencyId, String unitId,
                                        List<String> openFormatFormats) throws IOException, XMLStreamException {
         if (recordContent == null) {
-            Set<String> manifestations = resultSet.manifestationsForUnit(unitId);
-            try (InputStream is = fetcher.get(contentUriTemplate, trackingId)
-                    .with("agency", String.format(Locale.ROOT, "%06d", showAgencyId))
-                    .with("unit", unitId)
-                    .with("manifestations", String.join(",", manifestations))
+            try (InputStream is = unitRequest(fetcher, trackingId, Deadline.NONE, resultSet, showAgencyId, unitId)
                     .request(recorder, "corepo-content-service")) {
                 recordContent = new CorepoRecordContent(is, knownFormats, defaultPrefix);
             }
         }
+        return withOpenFormats(recordContent, openFormatFormats);
+    }
+
+    @Override
+    public int contentBatchSize() {
+        return contentBatchSize;
+    }
+
+    @Override
+    public Map<String, CompletableFuture<RecordContent>> recordContentsByUnit(HttpFetcher fetcher, StatisticsRecorder recorder, String trackingId, Deadline deadline, Executor executor,
+                                                                              ResultSet resultSet, int showAgencyId, List<String> unitIds,
+                                                                              List<String> openFormatFormats) {
+        CompletableFuture<Map<String, CompletableFuture<RecordContent>>> batch;
+        if (contentBatchUriTemplate != null && unitIds.size() > 1 && !batchUnsupported.get()) {
+            batch = fetchBatch(fetcher, recorder, trackingId, deadline, executor, resultSet, showAgencyId, unitIds)
+                    .toCompletableFuture()
+                    .exceptionally(ex -> {
+                        if (!isBatchUnsupported(ex))
+                            throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+                        // Only a content-service without the batch endpoint makes it unit by unit
+                        log.warn("Batch fetch is not supported by content-service, fetching unit by unit: {}", ex.getMessage());
+                        batchUnsupported.set(true);
+                        return Collections.emptyMap();
+                    });
+        } else {
+            batch = CompletableFuture.completedFuture(Collections.emptyMap());
+        }
+        LinkedHashMap<String, CompletableFuture<RecordContent>> contents = new LinkedHashMap<>();
+        for (String unitId : unitIds) {
+            contents.put(unitId, batch.thenCompose(fetched -> unitContent(fetched.get(unitId), fetcher, recorder, trackingId, deadline, executor,
+                                                                          resultSet, showAgencyId, unitId))
+                    .thenApply(content -> withOpenFormats(content, openFormatFormats)));
+        }
+        return contents;
+    }
+
+    /**
+     * Add the formats that should come from the openformat service to the
+     * content
+     * <p>
+     * There's no openformat service, so the formats are not available, and
+     * are not output
+     *
+     * @param content           the content of a unit
+     * @param openFormatFormats list of formats to get from openFormat service
+     * @return the content
+     */
+    private RecordContent withOpenFormats(RecordContent content, List<String> openFormatFormats) {
         //! TODO openFormatFormats
-        return recordContent;
+        if (!openFormatFormats.isEmpty())
+            log.debug("Formats from openformat are not available: {}", openFormatFormats);
+        return content;
+    }
+
+    /**
+     * Check if a batch request failed because the content-service doesn't
+     * have the batch endpoint
+     *
+     * @param ex the failure
+     * @return if the response was Not Found, Method Not Allowed or Not
+     *         Implemented
+     */
+    private static boolean isBatchUnsupported(Throwable ex) {
+        for (Throwable cause = ex ; cause != null ; cause = cause.getCause()) {
+            if (cause instanceof WebApplicationException) {
+                int status = ( (WebApplicationException) cause ).getResponse().getStatus();
+                return status == 404 || status == 405 || status == 501;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Content of a unit, from the batch response or from a request for the
+     * unit alone
+     *
+     * @param content      the content from the batch response (null if none)
+     * @param fetcher      web access module
+     * @param recorder     timings for different actions
+     * @param trackingId   trackingId for sending to other services
+     * @param deadline     when the request should be done
+     * @param executor     where the response is parsed
+     * @param resultSet    the resultset knowing about the unit expansion
+     * @param showAgencyId which agency a resultset should be show as
+     * @param unitId       the unit to retrieve content for
+     * @return stage that completes with the content
+     */
+    private CompletionStage<RecordContent> unitContent(CompletableFuture<RecordContent> content, HttpFetcher fetcher, StatisticsRecorder recorder, String trackingId, Deadline deadline, Executor executor,
+                                                       ResultSet resultSet, int showAgencyId, String unitId) {
+        if (content != null)
+            return content;
+        return unitRequest(fetcher, trackingId, deadline, resultSet, showAgencyId, unitId)
+                .requestAsync(recorder, "corepo-content-service")
+                .thenApplyAsync(this::parseUnit, executor);
+    }
+
+    /**
+     * Build the request for a single unit
+     *
+     * @param fetcher      web access module
+     * @param trackingId   trackingId for sending to other services
+     * @param deadline     when the request should be done
+     * @param resultSet    the resultset knowing about the unit expansion
+     * @param showAgencyId which agency a resultset should be show as
+     * @param unitId       the unit to retrieve content for
+     * @return request context
+     */
+    private HttpFetcher.GetContext unitRequest(HttpFetcher fetcher, String trackingId, Deadline deadline,
+                                               ResultSet resultSet, int showAgencyId, String unitId) {
+        Set<String> manifestations = resultSet.manifestationsForUnit(unitId);
+        return fetcher.get(contentUriTemplate, trackingId)
+                .backend(CONTENT_SERVICE)
+                .deadline(deadline)
+                .with("agency", String.format(Locale.ROOT, "%06d", showAgencyId))
+                .with("unit", unitId)
+                .with("manifestations", String.join(",", manifestations));
+    }
+
+    private RecordContent parseUnit(InputStream response) {
+        try (InputStream is = response) {
+            return new CorepoRecordContent(is, knownFormats, defaultPrefix);
+        } catch (IOException | XMLStreamException ex) {
+            throw new CompletionException(ex);
+        }
+    }
+
+    /**
+     * Fetch a number of units in one request from the content-service
+     * <p>
+     * The request is a JSON object with agencyId and an object of unit-id to
+     * list of manifestations
+     *
+     * @param fetcher      web access module
+     * @param recorder     timings for different actions
+     * @param trackingId   trackingId for sending to other services
+     * @param deadline     when the request should be done
+     * @param executor     where the response is parsed
+     * @param resultSet    the resultset knowing about the unit expansion
+     * @param showAgencyId which agency a resultset should be show as
+     * @param unitIds      the units to retrieve content for
+     * @return stage that completes with a Map of unit to content (units
+     *         unknown to the content-service are missing)
+     */
+    private CompletionStage<Map<String, CompletableFuture<RecordContent>>> fetchBatch(HttpFetcher fetcher, StatisticsRecorder recorder, String trackingId, Deadline deadline, Executor executor,
+                                                                   ResultSet resultSet, int showAgencyId, List<String> unitIds) {
+        String agency = String.format(Locale.ROOT, "%06d", showAgencyId);
+        LinkedHashMap<String, Set<String>> units = new LinkedHashMap<>();
+        unitIds.forEach(unitId -> units.put(unitId, resultSet.manifestationsForUnit(unitId)));
+        HashMap<String, Object> body = new HashMap<>();
+        body.put("agencyId", agency);
+        body.put("units", units);
+        Entity<byte[]> entity;
+        try {
+            entity = Entity.entity(O.writeValueAsBytes(body), MediaType.APPLICATION_JSON_TYPE);
+        } catch (JsonProcessingException ex) {
+            CompletableFuture<Map<String, CompletableFuture<RecordContent>>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+        return fetcher.post(contentBatchUriTemplate, trackingId)
+                .backend(CONTENT_SERVICE)
+                .deadline(deadline)
+                .with("agency", agency)
+                .requestAsync(entity, recorder, "corepo-content-service-batch")
+                .thenApplyAsync(response -> {
+                    try (InputStream is = response) {
+                        return CorepoRecordContent.batchOf(is, knownFormats, defaultPrefix);
+                    } catch (IOException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }, executor);
     }
 
     @Override
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.repository;
+
+import dk.dbc.opensearch.cache.CircuitBreaker;
+import dk.dbc.opensearch.utils.UserMessage;
+import dk.dbc.opensearch.utils.UserMessageException;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SolrClient that protects the request threads from a failing or slow SolR
+ * <p>
+ * The number of requests in flight is limited (bulkhead), and a circuit
+ * breaker rejects requests, when SolR keeps failing. In both cases the request
+ * fails at once with {@link UserMessage#BACKEND_UNAVAILABLE}, instead of
+ * tying up a thread until SolR answers or times out.
+ * <p>
+ * A client error (4xx, fx. a malformed query) means SolR is answering, so it
+ * counts as a success for the circuit breaker.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class GuardedSolrClient extends SolrClient {
+
+    private static final Logger log = LoggerFactory.getLogger(GuardedSolrClient.class);
+
+    private static final long serialVersionUID = 7396231520641158263L;
+
+    private final SolrClient solrClient;
+    private final transient CircuitBreaker circuitBreaker;
+    private final transient Semaphore inFlight;
+
+    /**
+     * Wrap a SolrClient
+     *
+     * @param solrClient     the real client
+     * @param circuitBreaker the circuit breaker for this SolR
+     * @param maxConcurrent  max number of requests in flight (0 = unlimited)
+     */
+    public GuardedSolrClient(SolrClient solrClient, CircuitBreaker circuitBreaker, int maxConcurrent) {
+        this.solrClient = solrClient;
+        this.circuitBreaker = circuitBreaker;
+        this.inFlight = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    }
+
+    @Override
+    public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+        if (inFlight != null && !inFlight.tryAcquire()) {
+            log.warn("Too many SolR requests in flight, rejecting request");
+            throw new UserMessageException(UserMessage.BACKEND_UNAVAILABLE);
+        }
+        try {
+            if (!circuitBreaker.tryAcquire()) {
+                log.warn("Circuit for SolR is open, rejecting request");
+                throw new UserMessageException(UserMessage.BACKEND_UNAVAILABLE);
+            }
+            try {
+                NamedList<Object> response = solrClient.request(request, collection);
+                circuitBreaker.success();
+                return response;
+            } catch (SolrException ex) {
+                if (isClientError(ex))
+                    circuitBreaker.success();
+                else
+                    circuitBreaker.failure();
+                throw ex;
+            } catch (SolrServerException | IOException | RuntimeException ex) {
+                circuitBreaker.failure();
+                throw ex;
+            }
+        } finally {
+            if (inFlight != null)
+                inFlight.release();
+        }
+    }
+
+    private static boolean isClientError(SolrException ex) {
+        return ex.code() >= 400 && ex.code() <= 499;
+    }
+
+    @Override
+    public void close() throws IOException {
+        solrClient.close();
+    }
+
+}
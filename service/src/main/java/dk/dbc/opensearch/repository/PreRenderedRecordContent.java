@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.repository;
+
+import dk.dbc.opensearch.output.badgerfish.BadgerFishSingle;
+import dk.dbc.opensearch.output.badgerfish.BadgerFishWriter;
+import dk.dbc.opensearch.xml.XMLCacheReader;
+import dk.dbc.opensearch.xml.XMLPreRendered;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.xml.stream.XMLStreamException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record content, where the raw and formatted records are stored as
+ * serialized XML and BadgerFish JSON
+ * <p>
+ * This is a lot fewer objects to store and (de)serialize than the XMLEvents,
+ * and the output writers can copy the bytes directly into the response.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class PreRenderedRecordContent implements RecordContent {
+
+    private static final long serialVersionUID = 5280945310657032189L;
+    private static final Logger log = LoggerFactory.getLogger(PreRenderedRecordContent.class);
+
+    private final HashMap<String, XMLPreRendered> rawRecords;
+    private final HashMap<String, XMLPreRendered> formattedRecords;
+    private final String recordStatus;
+    private final String creationDate;
+    private final List<String> formatsAvailable;
+    private final List<String> objectsAvailable;
+    private final String primaryObjectIdentifier;
+
+    /**
+     * Convert a content object to pre-rendered form
+     *
+     * @param content the content to convert
+     * @param single  badgerfish rules for JSON rendering
+     * @return pre-rendered content or the content itself if it couldn't be
+     *         rendered
+     */
+    public static RecordContent of(RecordContent content, BadgerFishSingle single) {
+        if (content instanceof PreRenderedRecordContent)
+            return content;
+        try {
+            return new PreRenderedRecordContent(content, single);
+        } catch (XMLStreamException ex) {
+            log.error("Cannot pre-render record: {}: {}", content.getPrimaryObjectIdentifier(), ex.getMessage());
+            log.debug("Cannot pre-render record: ", ex);
+            return content;
+        }
+    }
+
+    private PreRenderedRecordContent(RecordContent content, BadgerFishSingle single) throws XMLStreamException {
+        this.rawRecords = new HashMap<>();
+        this.formattedRecords = new HashMap<>();
+        this.recordStatus = content.getRecordStatus();
+        this.creationDate = content.getCreationDate();
+        this.formatsAvailable = content.getFormatsAvailable();
+        this.objectsAvailable = content.getObjectsAvailable();
+        this.primaryObjectIdentifier = content.getPrimaryObjectIdentifier();
+        for (String format : formatsAvailable) {
+            XMLCacheReader reader = content.getRawFormat(format);
+            if (reader != null)
+                rawRecords.put(format, preRender(reader, single));
+        }
+        for (String format : content.getFormattedRecordsAvailable()) {
+            XMLCacheReader reader = content.getFormattedRecord(format);
+            if (reader != null)
+                formattedRecords.put(format, preRender(reader, single));
+        }
+    }
+
+    /**
+     * Render both XML and JSON
+     * <p>
+     * JSON is omitted if the record has namespaces without a default symbolic
+     * name or violates the single tag rules (then the event replay, will
+     * report an error in the response).
+     *
+     * @param reader the record
+     * @param single badgerfish rules for JSON rendering
+     * @return pre-rendered format
+     * @throws XMLStreamException if the record cannot be written as XML
+     */
+    private static XMLPreRendered preRender(XMLCacheReader reader, BadgerFishSingle single) throws XMLStreamException {
+        HashSet<String> namespaces = new HashSet<>();
+        byte[] json = null;
+        try {
+            json = BadgerFishWriter.renderValue(reader.copy(), single, namespaces);
+        } catch (IOException | XMLStreamException ex) {
+            log.debug("Cannot pre-render JSON: {}", ex.getMessage());
+        }
+        return new XMLPreRendered(reader.copy(), json, namespaces);
+    }
+
+    @Override
+    public String getCreationDate() {
+        return creationDate;
+    }
+
+    @Override
+    public XMLCacheReader getRawFormat(String format) {
+        return events(rawRecords.get(format));
+    }
+
+    @Override
+    public XMLPreRendered getPreRenderedFormat(String format) {
+        return rawRecords.get(format);
+    }
+
+    @Override
+    public XMLCacheReader getFormattedRecord(String format) {
+        return events(formattedRecords.get(format));
+    }
+
+    @Override
+    public List<String> getFormattedRecordsAvailable() {
+        return formattedRecords.keySet().stream().sorted().collect(Collectors.toList());
+    }
+
+    private static XMLCacheReader events(XMLPreRendered content) {
+        if (content == null)
+            return null;
+        try {
+            return content.events();
+        } catch (XMLStreamException ex) {
+            throw new IllegalStateException("Cannot parse pre-rendered XML", ex);
+        }
+    }
+
+    @Override
+    public List<String> getFormatsAvailable() {
+        return new ArrayList<>(formatsAvailable);
+    }
+
+    @Override
+    public List<String> getObjectsAvailable() {
+        return objectsAvailable;
+    }
+
+    @Override
+    public String getPrimaryObjectIdentifier() {
+        return primaryObjectIdentifier;
+    }
+
+    @Override
+    public String getRecordStatus() {
+        return recordStatus;
+    }
+
+    @Override
+    public String toString() {
+        return "PreRenderedRecordContent{" + "rawRecords=" + rawRecords + ", formattedRecords=" + formattedRecords + ", recordStatus=" + recordStatus + ", creationDate=" + creationDate + ", objectsAvailable=" + objectsAvailable + ", primaryObjectIdentifier=" + primaryObjectIdentifier + '}';
+    }
+}
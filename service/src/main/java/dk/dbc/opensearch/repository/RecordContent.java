@@ -19,6 +19,7 @@
 package dk.dbc.opensearch.repository;
 
 import dk.dbc.opensearch.xml.XMLCacheReader;
+import dk.dbc.opensearch.xml.XMLPreRendered;
 import java.io.Serializable;
 import java.util.List;
 
@@ -45,6 +46,19 @@ public interface RecordContent extends Serializable {
      */
     XMLCacheReader getRawFormat(String format);
 
+    /**
+     * Given a format supply it as serialized output, if available
+     * <p>
+     * This is only for the formats from the content-service directly
+     *
+     * @param format name of format
+     * @return pre-rendered content or null if the format should be taken from
+     *         {@link #getRawFormat(java.lang.String)}
+     */
+    default XMLPreRendered getPreRenderedFormat(String format) {
+        return null;
+    }
+
     /**
      * Given a format supply a XMLEventReader that contains the format
      * <p>
@@ -55,6 +69,14 @@ public interface RecordContent extends Serializable {
      */
     XMLCacheReader getFormattedRecord(String format);
 
+    /**
+     * List of format names for formats available in
+     * {@link #getFormattedRecord(java.lang.String)}
+     *
+     * @return List of names
+     */
+    List<String> getFormattedRecordsAvailable();
+
     List<String> getFormatsAvailable();
 
     /**
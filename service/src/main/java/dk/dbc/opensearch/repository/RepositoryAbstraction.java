@@ -21,11 +21,20 @@ package dk.dbc.opensearch.repository;
 import dk.dbc.opensearch.cache.HttpFetcher;
 import dk.dbc.opensearch.cache.RecordKey;
 import dk.dbc.opensearch.cache.ResultSetKey;
+import dk.dbc.opensearch.solr.SolrQueryFieldsCache;
 import dk.dbc.opensearch.solr.profile.Profile;
 import dk.dbc.opensearch.solr.resultset.ResultSet;
+import dk.dbc.opensearch.solr.resultset.RowsPerWork;
+import dk.dbc.opensearch.utils.Deadline;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import javax.xml.stream.XMLStreamException;
 import org.apache.solr.client.solrj.SolrClient;
 
@@ -54,6 +63,26 @@ public interface RepositoryAbstraction {
      */
     SolrClient getSolrClient();
 
+    /**
+     * Provides the rows per work statistics for a resultset
+     * <p>
+     * The statistics is shared between all the resultsets with the same
+     * agency, profiles and collection type
+     *
+     * @param key The cache key of the resultset
+     * @return estimator for use with ResultSet
+     */
+    RowsPerWork.Estimate rowsPerWorkFor(ResultSetKey key);
+
+    /**
+     * Provides the node local cache of translated queries
+     * <p>
+     * Used for exposing the hit ratio
+     *
+     * @return the query cache
+     */
+    SolrQueryFieldsCache getQueryCache();
+
     /**
      * Extract content for a given unit
      *
@@ -76,6 +105,105 @@ public interface RepositoryAbstraction {
                                 ResultSet resultSet, int showAgencyId, String unitId,
                                 List<String> openFormatFormats) throws IOException, XMLStreamException;
 
+    /**
+     * The number of units that should be requested in one
+     * {@link #recordContents(dk.dbc.opensearch.cache.HttpFetcher, dk.dbc.opensearch.utils.StatisticsRecorder, java.lang.String, dk.dbc.opensearch.solr.resultset.ResultSet, int, java.util.List, java.util.List) }
+     * call
+     *
+     * @return number of units (1 if the backend doesn't support batches)
+     */
+    int contentBatchSize();
+
+    /**
+     * Extract content for a number of units (cache misses) in one go, without
+     * blocking
+     * <p>
+     * If the backend cannot supply more than one unit per request, this falls
+     * back to a request per unit. The responses are parsed in the common
+     * pool, this is for use outside a container
+     *
+     * @param fetcher           web access module
+     * @param recorder          timings for different actions
+     * @param trackingId        trackingId for sending to other services
+     * @param resultSet         the resultset knowing about the unit expansion
+     * @param showAgencyId      which agency a resultset should be show as
+     *                          (ordering of manifestations)
+     * @param unitIds           the units to retrieve content for
+     * @param openFormatFormats list of formats to get from openFormat service
+     * @return stage that completes with a Map of unit to content object
+     *         representing this unit in the resultset, or exceptionally with
+     *         the communication/parse error
+     */
+    default CompletionStage<Map<String, RecordContent>> recordContents(HttpFetcher fetcher, StatisticsRecorder recorder, String trackingId,
+                                                                       ResultSet resultSet, int showAgencyId, List<String> unitIds,
+                                                                       List<String> openFormatFormats) {
+        return recordContents(fetcher, recorder, trackingId, Deadline.NONE, ForkJoinPool.commonPool(),
+                              resultSet, showAgencyId, unitIds,
+                              openFormatFormats);
+    }
+
+    /**
+     * Extract content for a number of units (cache misses) in one go, without
+     * blocking, within a time limit
+     * <p>
+     * Requests to the backend that cannot start before the deadline fail with
+     * {@link dk.dbc.opensearch.utils.UserMessage#TIMEOUT}
+     *
+     * @param fetcher           web access module
+     * @param recorder          timings for different actions
+     * @param trackingId        trackingId for sending to other services
+     * @param deadline          when the content should be fetched
+     * @param executor          where the responses are parsed (not on the
+     *                          threads making the requests)
+     * @param resultSet         the resultset knowing about the unit expansion
+     * @param showAgencyId      which agency a resultset should be show as
+     *                          (ordering of manifestations)
+     * @param unitIds           the units to retrieve content for
+     * @param openFormatFormats list of formats to get from openFormat service
+     * @return stage that completes with a Map of unit to content object
+     *         representing this unit in the resultset, or exceptionally with
+     *         the communication/parse error
+     */
+    default CompletionStage<Map<String, RecordContent>> recordContents(HttpFetcher fetcher, StatisticsRecorder recorder, String trackingId, Deadline deadline, Executor executor,
+                                                                       ResultSet resultSet, int showAgencyId, List<String> unitIds,
+                                                                       List<String> openFormatFormats) {
+        Map<String, CompletableFuture<RecordContent>> contents = recordContentsByUnit(fetcher, recorder, trackingId, deadline, executor,
+                                                                                      resultSet, showAgencyId, unitIds,
+                                                                                      openFormatFormats);
+        return CompletableFuture.allOf(contents.values().toArray(new CompletableFuture[contents.size()]))
+                .thenApply(v -> {
+                    LinkedHashMap<String, RecordContent> result = new LinkedHashMap<>();
+                    contents.forEach((unitId, content) -> result.put(unitId, content.join()));
+                    return result;
+                });
+    }
+
+    /**
+     * Extract content for a number of units (cache misses) in one go, without
+     * blocking, within a time limit
+     * <p>
+     * Each unit completes on its own, so a unit that cannot be fetched or
+     * parsed doesn't fail the other units of the batch
+     *
+     * @param fetcher           web access module
+     * @param recorder          timings for different actions
+     * @param trackingId        trackingId for sending to other services
+     * @param deadline          when the content should be fetched
+     * @param executor          where the responses are parsed (not on the
+     *                          threads making the requests)
+     * @param resultSet         the resultset knowing about the unit expansion
+     * @param showAgencyId      which agency a resultset should be show as
+     *                          (ordering of manifestations)
+     * @param unitIds           the units to retrieve content for
+     * @param openFormatFormats list of formats to get from openFormat service
+     * @return Map (in the order of unitIds) of unit to future content object
+     *         representing this unit in the resultset, that completes
+     *         exceptionally with the communication/parse error of the unit
+     */
+    Map<String, CompletableFuture<RecordContent>> recordContentsByUnit(HttpFetcher fetcher, StatisticsRecorder recorder, String trackingId, Deadline deadline, Executor executor,
+                                                                       ResultSet resultSet, int showAgencyId, List<String> unitIds,
+                                                                       List<String> openFormatFormats);
+
     /**
      * Make a records cache key for a unit from a resultset
      *
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.setup;
+
+/**
+ * Configuration of the circuit breakers of the backends
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CircuitBreaking {
+
+    private Integer failureThreshold;
+    private String openTime;
+
+    public Integer getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Number of consecutive failures, that opens the circuit of a backend
+     *
+     * @return number (0 = circuit breakers are disabled)
+     */
+    public int getFailureThresholdOrDefault() {
+        return failureThreshold == null ? 0 : failureThreshold;
+    }
+
+    public void setFailureThreshold(Integer failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public String getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * How long requests to a backend fail at once, before a trial request is
+     * let through
+     *
+     * @return number of milliseconds
+     */
+    public long openTimeMS() {
+        return openTime == null ? 15_000L : HttpClient.toMs(openTime);
+    }
+
+    public void setOpenTime(String openTime) {
+        this.openTime = openTime;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.setup;
+
+import java.util.Locale;
+
+/**
+ * Configuration of coalescing of identical concurrent searches
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class Coalescing {
+
+    public enum Mode {
+        NONE, LOCAL, CLUSTER
+    }
+
+    private String mode;
+    private String waitTimeout;
+    private String lockLease;
+
+    public String getMode() {
+        return mode;
+    }
+
+    public Mode getModeOrDefault() {
+        return mode == null ? Mode.LOCAL : Mode.valueOf(mode.toUpperCase(Locale.ROOT));
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    public long waitTimeoutMS() {
+        return waitTimeout == null ? 30_000L : HttpClient.toMs(waitTimeout);
+    }
+
+    public void setWaitTimeout(String waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    public String getLockLease() {
+        return lockLease;
+    }
+
+    public long lockLeaseMS() {
+        return lockLease == null ? 120_000L : HttpClient.toMs(lockLease);
+    }
+
+    public void setLockLease(String lockLease) {
+        this.lockLease = lockLease;
+    }
+
+}
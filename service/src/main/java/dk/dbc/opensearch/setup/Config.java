@@ -23,6 +23,13 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.cfg.MapperConfig;
 import com.fasterxml.jackson.databind.introspect.AnnotatedMethod;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import dk.dbc.opensearch.cache.BackendLimits;
+import dk.dbc.opensearch.cache.CircuitBreakers;
+import dk.dbc.opensearch.cache.Coalescer;
+import dk.dbc.opensearch.cache.Prefetcher;
+import dk.dbc.opensearch.cache.ProfileRefresher;
+import dk.dbc.opensearch.cache.ResultSetKey;
+import dk.dbc.opensearch.output.badgerfish.BadgerFishRules;
 import dk.dbc.opensearch.output.badgerfish.BadgerFishSingle;
 import dk.dbc.opensearch.setup.yaml.EnvExpander;
 import java.io.FileInputStream;
@@ -33,14 +40,23 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.ejb.EJBException;
 import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Produces;
+import javax.naming.NamingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,17 +72,40 @@ public class Config {
     @Resource(type = ManagedExecutorService.class)
     ExecutorService es;
 
+    @Resource(type = ManagedThreadFactory.class)
+    ThreadFactory threadFactory;
+
     private BadgerFishSingle badgerFishSingle;
+    private BadgerFishRules badgerFishRules;
     private Settings settings;
     private Client client;
+    private BackendLimits backendLimits;
+    private Coalescer<ResultSetKey> resultSetCoalescer;
+    private Prefetcher<ResultSetKey> prefetcher;
+    private ProfileRefresher profileRefresher;
 
     @PostConstruct
     public void init() {
         log.info("Creating Config");
         this.settings = readConfiguration();
         this.badgerFishSingle = makeBadgerFishSingle(settings);
-        this.client = ClientBuilder.newBuilder()
-                .build();
+        this.badgerFishRules = makeBadgerFishRules(settings, badgerFishSingle);
+        checkBadgerFishGenerated(settings);
+        this.client = makeClient(settings.getHttpClient());
+        this.backendLimits = new BackendLimits(settings.getHttpClient().getMaxConcurrentOrDefault(),
+                                               settings.getHttpClient().getMaxQueuedOrDefault(),
+                                               settings.getHttpClient().getAsyncThreadsOrDefault(),
+                                               threadFactory);
+        this.resultSetCoalescer = makeCoalescer(settings.getCoalescingOrDefault(), "resultset-coalescing");
+        this.prefetcher = new Prefetcher<>(settings.getPrefetchOrDefault().getMaxConcurrentOrDefault());
+        this.profileRefresher = new ProfileRefresher(settings.getProfileRefreshOrDefault().refreshAfterMS(),
+                                                     settings.getCoalescingOrDefault().waitTimeoutMS());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        backendLimits.close();
+        client.close();
     }
 
     @Produces
@@ -81,12 +120,97 @@ public class Config {
         return badgerFishSingle;
     }
 
+    // Not @ApplicationScoped, the type isn't proxyable, but it's a singleton
+    // owned by this
+    @Produces
+    public BadgerFishRules getBadgerFishRules() {
+        return badgerFishRules;
+    }
+
     @Produces
     @ApplicationScoped
     public Client getClient() {
         return client;
     }
 
+    // Not @ApplicationScoped, the type isn't proxyable, but it's a singleton
+    // owned by this
+    @Produces
+    public BackendLimits getBackendLimits() {
+        return backendLimits;
+    }
+
+    @Produces
+    public CircuitBreakers getCircuitBreakers() {
+        return settings.circuitBreakers();
+    }
+
+    @Produces
+    public Coalescer<ResultSetKey> getResultSetCoalescer() {
+        return resultSetCoalescer;
+    }
+
+    @Produces
+    public Prefetcher<ResultSetKey> getPrefetcher() {
+        return prefetcher;
+    }
+
+    @Produces
+    public ProfileRefresher getProfileRefresher() {
+        return profileRefresher;
+    }
+
+    /**
+     * Build a coalescer according to settings
+     *
+     * @param <K>        type of key
+     * @param coalescing settings
+     * @param lockMap    name of the Hazelcast map used for cluster locks
+     * @return coalescer
+     */
+    private static <K> Coalescer<K> makeCoalescer(Coalescing coalescing, String lockMap) {
+        switch (coalescing.getModeOrDefault()) {
+            case NONE:
+                return Coalescer.none();
+            case CLUSTER:
+                try {
+                    return Coalescer.cluster(JCacheConfig.hazelcastInstance().getMap(lockMap),
+                                             coalescing.waitTimeoutMS(), coalescing.lockLeaseMS());
+                } catch (NamingException ex) {
+                    log.error("Cannot find Hazelcast for cluster coalescing: {}", ex.getMessage());
+                    log.debug("Cannot find Hazelcast for cluster coalescing: ", ex);
+                    throw new EJBException("Cannot find Hazelcast for cluster coalescing", ex);
+                }
+            default:
+                return Coalescer.local(coalescing.waitTimeoutMS());
+        }
+    }
+
+    /**
+     * Build a web client with a pool of keep-alive connections
+     * <p>
+     * Requests are made from the threads of the backend limits, see
+     * {@link BackendLimits}
+     *
+     * @param httpClient settings for the client
+     * @return client
+     */
+    static Client makeClient(HttpClient httpClient) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(httpClient.getMaxConnectionsOrDefault());
+        connectionManager.setDefaultMaxPerRoute(httpClient.getMaxConnectionsPerHostOrDefault());
+        ClientConfig config = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+        if (httpClient.getConnectTimeout() != null)
+            config.property(ClientProperties.CONNECT_TIMEOUT, (int) httpClient.connectTimeoutMS());
+        if (httpClient.getReadTimeout() != null)
+            config.property(ClientProperties.READ_TIMEOUT, (int) httpClient.readTimeoutMS());
+        return ClientBuilder.newBuilder()
+                .withConfig(config)
+                .build();
+    }
+
     private static Settings readConfiguration() {
         try (InputStream is = openInputStream(System.getenv("CONFIG_FILE"),
                                               "classpath:settings.yaml")) {
@@ -121,6 +245,33 @@ public class Config {
         }
     }
 
+    private static BadgerFishRules makeBadgerFishRules(Settings settings, BadgerFishSingle single) {
+        if (!settings.getBadgerfishCompiledOrDefault())
+            return BadgerFishRules.of(single);
+        try (InputStream is = openInputStream("classpath:docroot/opensearch.xsd")) {
+            BadgerFishRules rules = BadgerFishRules.compile(single, is);
+            log.debug("rules = {}", rules);
+            return rules;
+        } catch (IOException ex) {
+            log.debug("Error compiling badgerfish rules: {}", ex.getMessage());
+            log.debug("Error compiling badgerfish rules: ", ex);
+            throw new EJBException("Error compiling badgerfish rules");
+        }
+    }
+
+    private static void checkBadgerFishGenerated(Settings settings) {
+        if (!settings.getBadgerfishGeneratedOrDefault())
+            return;
+        String location = System.getenv("BADGERFISH_RULES_LOCATION");
+        if (location == null || location.isEmpty())
+            location = settings.getBadgerfishRulesLocation();
+        if (location == null || location.isEmpty())
+            return;
+        // The generated output has the rules from the build compiled in
+        log.warn("Custom badgerfish rules ({}) - not using generated JSON output", location);
+        settings.setBadgerfishGenerated(false);
+    }
+
     static InputStream openInputStream(String... paths) throws FileNotFoundException {
         for (String path : paths) {
             if (path == null || path.isEmpty())
@@ -19,8 +19,11 @@
 package dk.dbc.opensearch.setup;
 
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import static java.util.Collections.EMPTY_MAP;
+
 /**
  *
  * @author DBC {@literal <dbc.dk>}
@@ -29,6 +32,11 @@ public class HttpClient {
 
     private String connectTimeout;
     private String readTimeout;
+    private Integer maxConnections;
+    private Integer maxConnectionsPerHost;
+    private Integer asyncThreads;
+    private Map<String, Integer> maxConcurrent;
+    private Map<String, Integer> maxQueued;
 
     public String getConnectTimeout() {
         return connectTimeout;
@@ -54,7 +62,78 @@ public class HttpClient {
         this.readTimeout = readTimeout;
     }
 
-    private static long toMs(String spec) {
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsOrDefault() {
+        return maxConnections == null ? 200 : maxConnections;
+    }
+
+    public void setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Integer getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getMaxConnectionsPerHostOrDefault() {
+        return maxConnectionsPerHost == null ? 50 : maxConnectionsPerHost;
+    }
+
+    public void setMaxConnectionsPerHost(Integer maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    public Integer getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public int getAsyncThreadsOrDefault() {
+        return asyncThreads == null ? 16 : asyncThreads;
+    }
+
+    public void setAsyncThreads(Integer asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    public Map<String, Integer> getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Maximum number of requests in flight per backend name
+     *
+     * @return map of backend name to limit (no entry means unlimited)
+     */
+    public Map<String, Integer> getMaxConcurrentOrDefault() {
+        return maxConcurrent == null ? EMPTY_MAP : maxConcurrent;
+    }
+
+    public void setMaxConcurrent(Map<String, Integer> maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public Map<String, Integer> getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Maximum number of requests waiting for a backend, that is at its
+     * max-concurrent limit
+     *
+     * @return map of backend name to limit (no entry means unlimited)
+     */
+    public Map<String, Integer> getMaxQueuedOrDefault() {
+        return maxQueued == null ? EMPTY_MAP : maxQueued;
+    }
+
+    public void setMaxQueued(Map<String, Integer> maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    static long toMs(String spec) {
         String[] split = spec.split("(?<=\\d)(?=\\D)");
         if (split.length == 2) {
             long units = Long.parseUnsignedLong(split[0], 10);
@@ -29,6 +29,7 @@ import com.hazelcast.config.CacheSimpleConfig.ExpiryPolicyFactoryConfig.TimedExp
 import com.hazelcast.config.EvictionConfig;
 import com.hazelcast.config.EvictionConfig.MaxSizePolicy;
 import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.core.HazelcastInstance;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.PostConstruct;
@@ -60,17 +61,11 @@ public class JCacheConfig {
     @Inject
     Settings config;
 
-    private CacheManager manager;
-
     @PostConstruct
     public void init() {
         log.info("Configuring cache");
         try {
-            Context ctx = new InitialContext();
-            manager = (CacheManager) ctx.lookup("payara/CacheManager");
-
-            HazelcastCacheManager obj = manager.unwrap(HazelcastServerCacheManager.class);
-            Config cacheConfigs = obj.getHazelcastInstance().getConfig();
+            Config cacheConfigs = hazelcastInstance().getConfig();
 
             config.getJCache()
                     .forEach((name, rule) -> setupCache(cacheConfigs, name, rule));
@@ -81,6 +76,19 @@ public class JCacheConfig {
         }
     }
 
+    /**
+     * Locate the Hazelcast instance behind the JCache
+     *
+     * @return hazelcast instance
+     * @throws NamingException if the cache manager cannot be looked up
+     */
+    static HazelcastInstance hazelcastInstance() throws NamingException {
+        Context ctx = new InitialContext();
+        CacheManager manager = (CacheManager) ctx.lookup("payara/CacheManager");
+        HazelcastCacheManager obj = manager.unwrap(HazelcastServerCacheManager.class);
+        return obj.getHazelcastInstance();
+    }
+
     private static void setupCache(Config cacheConfigs, String name, String rule) {
         CacheSimpleConfig config = cacheConfigs.getCacheConfig(name);
         if (config == null) {
@@ -108,7 +116,8 @@ public class JCacheConfig {
                 .setEvictionConfig(
                         new EvictionConfig(cacheSize(split),
                                            MaxSizePolicy.ENTRY_COUNT,
-                                           EvictionPolicy.LFU)); // Least Recently Used
+                                           EvictionPolicy.LFU)) // Least Recently Used
+                .setStatisticsEnabled(true); // Hits/misses for /metrics
     }
 
     public static int cacheSize(String[] split) throws NumberFormatException {
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.setup;
+
+import dk.dbc.opensearch.cache.OpenAgencyProfiles;
+import dk.dbc.opensearch.utils.StatisticsRecorder;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.DependsOn;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load the open agency profiles of the configured agencies, when the service
+ * starts, so that requests for these agencies don't wait for open agency
+ * <p>
+ * This runs in the background, the service is available while profiles are
+ * being loaded.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+@Singleton
+@Startup
+@DependsOn("JCacheConfig")
+public class ProfilePreloader {
+
+    private static final Logger log = LoggerFactory.getLogger(ProfilePreloader.class);
+
+    private static final String TRACKING_ID = "profile-preload";
+
+    @Inject
+    Settings settings;
+
+    @Inject
+    OpenAgencyProfiles oaProfiles;
+
+    @Resource(type = ManagedExecutorService.class)
+    ExecutorService es;
+
+    @PostConstruct
+    public void init() {
+        List<Integer> agencies = settings.getProfileRefreshOrDefault().getPreloadAgenciesOrDefault();
+        if (agencies.isEmpty())
+            return;
+        log.info("Preloading profiles for: {}", agencies);
+        es.execute(() -> preload(agencies));
+    }
+
+    private void preload(List<Integer> agencies) {
+        StatisticsRecorder stats = new StatisticsRecorder();
+        int failed = 0;
+        for (Integer agencyId : agencies) {
+            for (RepositorySettings repository : settings.getRepositories().values()) {
+                try {
+                    oaProfiles.profilesFor(agencyId, repository.getName(), stats, TRACKING_ID, repository.getSolrRules());
+                } catch (RuntimeException ex) {
+                    failed++;
+                    log.warn("Cannot preload profile for: {}/{}: {}", agencyId, repository.getName(), ex.getMessage());
+                    log.debug("Cannot preload profile for: {}/{}: ", agencyId, repository.getName(), ex);
+                }
+            }
+        }
+        log.info("Preloaded profiles for {} agencies ({} failed), timings = {}", agencies.size(), failed, stats);
+    }
+}
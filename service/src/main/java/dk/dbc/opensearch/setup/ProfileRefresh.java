@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.setup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import javax.cache.expiry.AccessedExpiryPolicy;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.EternalExpiryPolicy;
+import javax.cache.expiry.ExpiryPolicy;
+import javax.cache.expiry.ModifiedExpiryPolicy;
+import javax.cache.expiry.TouchedExpiryPolicy;
+
+/**
+ * Configuration of background refreshing and preloading of open agency
+ * profiles
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ProfileRefresh {
+
+    private String refreshAfter;
+    private List<Integer> preloadAgencies;
+
+    public String getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    /**
+     * Age of a cached profile, when it is reloaded in the background, while
+     * the cached one is still served. This should be less than the expiry of the
+     * profile cache, which should be MODIFIED or TOUCHED, so a refreshed profile
+     * gets a new lifetime
+     *
+     * @return number of milliseconds (0 = no refreshing)
+     */
+    public long refreshAfterMS() {
+        return refreshAfter == null ? 0L : HttpClient.toMs(refreshAfter);
+    }
+
+    public void setRefreshAfter(String refreshAfter) {
+        this.refreshAfter = refreshAfter;
+    }
+
+    public List<Integer> getPreloadAgencies() {
+        return preloadAgencies;
+    }
+
+    /**
+     * Agencies that have their profiles loaded (for all repositories) when
+     * the service starts
+     *
+     * @return list of agency ids
+     */
+    public List<Integer> getPreloadAgenciesOrDefault() {
+        return preloadAgencies == null ? Collections.emptyList() : preloadAgencies;
+    }
+
+    public void setPreloadAgencies(List<Integer> preloadAgencies) {
+        this.preloadAgencies = preloadAgencies;
+    }
+
+    /**
+     * Ensure that a refreshed profile gets a new lifetime in the profile cache
+     * <p>
+     * The refreshed profile is put into the cache, that only renews the
+     * expiry, when the cache has MODIFIED or TOUCHED (or ETERNAL) expiry. With
+     * CREATED expiry the refreshed profile would expire with the original.
+     *
+     * @param profileCacheRule the j-cache rule of the profile cache
+     * @throws IllegalArgumentException if refreshing is enabled, and the
+     *                                  expiry isn't renewed by a put
+     */
+    void validate(String profileCacheRule) {
+        if (refreshAfterMS() <= 0 || profileCacheRule == null)
+            return;
+        ExpiryPolicy policy = expiryPolicyOf(profileCacheRule);
+        if (policy.getExpiryForUpdate() == null && !policy.getExpiryForCreation().isEternal())
+            throw new IllegalArgumentException("profile-refresh requires the profile cache to have MODIFIED or TOUCHED expiry, not: " + profileCacheRule);
+    }
+
+    /**
+     * The JCache expiry policy of a cache rule
+     *
+     * @param rule ${ExpiryPolicyType}:\d+(time-unit(ms|s|m|h)):${MaxEntries}
+     * @return expiry policy
+     */
+    static ExpiryPolicy expiryPolicyOf(String rule) {
+        String[] split = rule.split(":", 3);
+        Duration duration = new Duration(TimeUnit.MILLISECONDS, HttpClient.toMs(split[1]));
+        switch (split[0].toUpperCase(Locale.ROOT)) {
+            case "CREATED":
+                return new CreatedExpiryPolicy(duration);
+            case "MODIFIED":
+                return new ModifiedExpiryPolicy(duration);
+            case "TOUCHED":
+                return new TouchedExpiryPolicy(duration);
+            case "ACCESSED":
+                return new AccessedExpiryPolicy(duration);
+            case "ETERNAL":
+                return new EternalExpiryPolicy();
+            default:
+                throw new IllegalArgumentException("Invalid expiry policy in: " + rule);
+        }
+    }
+}
@@ -20,10 +20,12 @@ package dk.dbc.opensearch.setup;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import dk.dbc.opensearch.cache.CircuitBreaker;
 import dk.dbc.opensearch.repository.RepositoryAbstraction;
 import dk.dbc.opensearch.repository.CorepoRepositoryAbstraction;
 import dk.dbc.opensearch.solr.SolrRules;
 import dk.dbc.opensearch.solr.config.SolrConfig;
+import dk.dbc.opensearch.solr.resultset.WorkDiscovery;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -48,10 +50,17 @@ public class RepositorySettings {
 
     private Set<String> aliases;
     private String contentServiceUrl;
+    private String contentServiceBatchUrl;
+    private Integer contentServiceBatchSize;
     private String solrUrl;
     private String solrRulesLocation;
     private Map<String, String> rawFormats;
     private Map<String, Object> solrFormats;
+    private WorkDiscovery workDiscovery;
+    private Integer fetchRowsMargin;
+    private Boolean preRenderRecords;
+    private Integer solrMaxConcurrent;
+    private Integer solrQueryCacheSize;
 
     public Set<String> getAliases() {
         return aliases;
@@ -69,6 +78,26 @@ public class RepositorySettings {
         this.contentServiceUrl = contentServiceUrl;
     }
 
+    public String getContentServiceBatchUrl() {
+        return contentServiceBatchUrl;
+    }
+
+    public void setContentServiceBatchUrl(String contentServiceBatchUrl) {
+        this.contentServiceBatchUrl = contentServiceBatchUrl;
+    }
+
+    public Integer getContentServiceBatchSize() {
+        return contentServiceBatchSize;
+    }
+
+    public int getContentServiceBatchSizeOrDefault() {
+        return contentServiceBatchSize == null ? 25 : contentServiceBatchSize;
+    }
+
+    public void setContentServiceBatchSize(Integer contentServiceBatchSize) {
+        this.contentServiceBatchSize = contentServiceBatchSize;
+    }
+
     public Map<String, String> getRawFormats() {
         return rawFormats;
     }
@@ -109,6 +138,76 @@ public class RepositorySettings {
         this.solrRulesLocation = solrRulesLocation;
     }
 
+    public WorkDiscovery getWorkDiscovery() {
+        return workDiscovery;
+    }
+
+    public WorkDiscovery getWorkDiscoveryOrDefault() {
+        return workDiscovery == null ? WorkDiscovery.FILTER : workDiscovery;
+    }
+
+    public void setWorkDiscovery(WorkDiscovery workDiscovery) {
+        this.workDiscovery = workDiscovery;
+    }
+
+    public Integer getFetchRowsMargin() {
+        return fetchRowsMargin;
+    }
+
+    public int getFetchRowsMarginOrDefault() {
+        return fetchRowsMargin == null ? 50 : fetchRowsMargin;
+    }
+
+    public void setFetchRowsMargin(Integer fetchRowsMargin) {
+        this.fetchRowsMargin = fetchRowsMargin;
+    }
+
+    public Boolean getPreRenderRecords() {
+        return preRenderRecords;
+    }
+
+    public boolean getPreRenderRecordsOrDefault() {
+        return preRenderRecords == null ? false : preRenderRecords;
+    }
+
+    public void setPreRenderRecords(Boolean preRenderRecords) {
+        this.preRenderRecords = preRenderRecords;
+    }
+
+    public Integer getSolrMaxConcurrent() {
+        return solrMaxConcurrent;
+    }
+
+    /**
+     * Maximum number of SolR requests in flight, further requests fail at once
+     *
+     * @return number (0 = unlimited)
+     */
+    public int getSolrMaxConcurrentOrDefault() {
+        return solrMaxConcurrent == null ? 0 : solrMaxConcurrent;
+    }
+
+    public void setSolrMaxConcurrent(Integer solrMaxConcurrent) {
+        this.solrMaxConcurrent = solrMaxConcurrent;
+    }
+
+    public Integer getSolrQueryCacheSize() {
+        return solrQueryCacheSize;
+    }
+
+    /**
+     * Number of CQL to SolR query translations kept on a node
+     *
+     * @return number (0 = no caching)
+     */
+    public int getSolrQueryCacheSizeOrDefault() {
+        return solrQueryCacheSize == null ? 10000 : solrQueryCacheSize;
+    }
+
+    public void setSolrQueryCacheSize(Integer solrQueryCacheSize) {
+        this.solrQueryCacheSize = solrQueryCacheSize;
+    }
+
     /*
      *      _____________   ____________  ___  ________________
      *     / ____/ ____/ | / / ____/ __ \/   |/_  __/ ____/ __ \
@@ -161,7 +260,9 @@ public class RepositorySettings {
         }
 
         try {
-            repositoryAbstraction = new CorepoRepositoryAbstraction(settings.getDefaultPrefix(), this);
+            int solrSocketTimeout = (int) settings.getTimeBudgetOrDefault().maxBudgetMS();
+            CircuitBreaker solrCircuitBreaker = settings.circuitBreakers().breakerFor("solr-" + name);
+            repositoryAbstraction = new CorepoRepositoryAbstraction(settings.getDefaultPrefix(), this, solrSocketTimeout, solrCircuitBreaker);
         } catch (SolrServerException | IOException ex) {
             log.error("Error creating repositoryAbstraction: {}", ex.getMessage());
             throw new EJBException("Error creating repositoryAbstraction: ", ex);
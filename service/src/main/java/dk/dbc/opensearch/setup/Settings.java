@@ -18,6 +18,7 @@
  */
 package dk.dbc.opensearch.setup;
 
+import dk.dbc.opensearch.cache.CircuitBreakers;
 import dk.dbc.opensearch.utils.UserMessage;
 import dk.dbc.opensearch.utils.UserMessageException;
 import dk.dbc.opensearch.xml.DefaultPrefix;
@@ -37,11 +38,19 @@ public class Settings {
 
     private String defaultRepository;
     private String badgerfishRulesLocation;
+    private Boolean badgerfishCompiled;
+    private Boolean badgerfishGenerated;
     private String solrRulesLocation;
     private Map<String, String> jCache;
     private Map<String, String> defaultNamespaces;
     private String xForwardedFor;
     private HttpClient httpClient;
+    private Coalescing coalescing;
+    private Prefetch prefetch;
+    private ProfileRefresh profileRefresh;
+    private Streaming streaming;
+    private TimeBudget timeBudget;
+    private CircuitBreaking circuitBreaking;
     private EnumMap<UserMessage, String> UserMessages;
     private String userAgent;
     private String openagencyProfileUrl;
@@ -67,6 +76,43 @@ public class Settings {
         this.badgerfishRulesLocation = badgerfishRulesLocation;
     }
 
+    public Boolean getBadgerfishCompiled() {
+        return badgerfishCompiled;
+    }
+
+    /**
+     * Should the badgerfish rules be compiled with the opensearch schema, for
+     * single pass JSON output
+     *
+     * @return if the rules should be compiled
+     */
+    public boolean getBadgerfishCompiledOrDefault() {
+        return badgerfishCompiled == null ? false : badgerfishCompiled;
+    }
+
+    public void setBadgerfishCompiled(Boolean badgerfishCompiled) {
+        this.badgerfishCompiled = badgerfishCompiled;
+    }
+
+    public Boolean getBadgerfishGenerated() {
+        return badgerfishGenerated;
+    }
+
+    /**
+     * Should JSON be written by the generated output classes directly, using
+     * the badgerfish rules that were fixed at build time, instead of
+     * converting the XML events
+     *
+     * @return if the generated JSON output should be used
+     */
+    public boolean getBadgerfishGeneratedOrDefault() {
+        return badgerfishGenerated == null ? false : badgerfishGenerated;
+    }
+
+    public void setBadgerfishGenerated(Boolean badgerfishGenerated) {
+        this.badgerfishGenerated = badgerfishGenerated;
+    }
+
     public String getSolrRulesLocation() {
         return solrRulesLocation;
     }
@@ -115,6 +161,78 @@ public class Settings {
         this.httpClient = httpClient;
     }
 
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    public Coalescing getCoalescingOrDefault() {
+        return coalescing == null ? new Coalescing() : coalescing;
+    }
+
+    public void setCoalescing(Coalescing coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public Prefetch getPrefetch() {
+        return prefetch;
+    }
+
+    public Prefetch getPrefetchOrDefault() {
+        return prefetch == null ? new Prefetch() : prefetch;
+    }
+
+    public void setPrefetch(Prefetch prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public ProfileRefresh getProfileRefresh() {
+        return profileRefresh;
+    }
+
+    public ProfileRefresh getProfileRefreshOrDefault() {
+        return profileRefresh == null ? new ProfileRefresh() : profileRefresh;
+    }
+
+    public void setProfileRefresh(ProfileRefresh profileRefresh) {
+        this.profileRefresh = profileRefresh;
+    }
+
+    public Streaming getStreaming() {
+        return streaming;
+    }
+
+    public Streaming getStreamingOrDefault() {
+        return streaming == null ? new Streaming() : streaming;
+    }
+
+    public void setStreaming(Streaming streaming) {
+        this.streaming = streaming;
+    }
+
+    public TimeBudget getTimeBudget() {
+        return timeBudget;
+    }
+
+    public TimeBudget getTimeBudgetOrDefault() {
+        return timeBudget == null ? new TimeBudget() : timeBudget;
+    }
+
+    public void setTimeBudget(TimeBudget timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public CircuitBreaking getCircuitBreaking() {
+        return circuitBreaking;
+    }
+
+    public CircuitBreaking getCircuitBreakingOrDefault() {
+        return circuitBreaking == null ? new CircuitBreaking() : circuitBreaking;
+    }
+
+    public void setCircuitBreaking(CircuitBreaking circuitBreaking) {
+        this.circuitBreaking = circuitBreaking;
+    }
+
     public EnumMap<UserMessage, String> getUserMessages() {
         return UserMessages;
     }
@@ -158,6 +276,8 @@ public class Settings {
 
     private Map<String, RepositorySettings> repositoryByAlias;
 
+    private CircuitBreakers circuitBreakers;
+
     /**
      * Given a repo name (from the request) get the configured repo name
      *
@@ -177,6 +297,16 @@ public class Settings {
         return defaultPrefix;
     }
 
+    /**
+     * The circuit breakers of the backends (shared by all users of the
+     * settings)
+     *
+     * @return circuit breakers
+     */
+    public CircuitBreakers circuitBreakers() {
+        return circuitBreakers;
+    }
+
     public void validateAndProcess() {
         defaultRepository = defaultRepository.trim();
         if (defaultRepository == null || defaultRepository.isEmpty())
@@ -187,8 +317,11 @@ public class Settings {
             throw new IllegalArgumentException("Required parameter openAgencyProfileUrl is missing from configuration.yaml");
         generateRepositoryByAlias();
         defaultPrefix = new DefaultPrefix(defaultNamespaces);
+        CircuitBreaking circuitBreaking = getCircuitBreakingOrDefault();
+        circuitBreakers = new CircuitBreakers(circuitBreaking.getFailureThresholdOrDefault(), circuitBreaking.openTimeMS());
         if (jCache == null)
             throw new IllegalArgumentException("Required parameter jCache is missing from configuration.yaml");
+        getProfileRefreshOrDefault().validate(jCache.get("profile"));
 
         // This requires everything to be validated / computed, since values are extracted
         repositories.forEach((name, settings) -> settings.validateAndProcess(this, name));
@@ -205,7 +338,7 @@ public class Settings {
 
     @Override
     public String toString() {
-        return "Settings{" + "defaultRepository=" + defaultRepository + ", badgerfishRulesLocation=" + badgerfishRulesLocation + ", solrRulesLocation=" + solrRulesLocation + ", jCache=" + jCache + ", defaultNamespaces=" + defaultNamespaces + ", xForwardedFor=" + xForwardedFor + ", httpClient=" + httpClient + ", UserMessages=" + UserMessages + ", userAgent=" + userAgent + ", openagencyProfileUrl=" + openagencyProfileUrl + ", repositories=" + repositories + '}';
+        return "Settings{" + "defaultRepository=" + defaultRepository + ", badgerfishRulesLocation=" + badgerfishRulesLocation + ", badgerfishCompiled=" + badgerfishCompiled + ", badgerfishGenerated=" + badgerfishGenerated + ", solrRulesLocation=" + solrRulesLocation + ", jCache=" + jCache + ", defaultNamespaces=" + defaultNamespaces + ", xForwardedFor=" + xForwardedFor + ", httpClient=" + httpClient + ", UserMessages=" + UserMessages + ", userAgent=" + userAgent + ", openagencyProfileUrl=" + openagencyProfileUrl + ", repositories=" + repositories + '}';
     }
 
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.setup;
+
+/**
+ * Configuration of how search results are streamed to the client
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class Streaming {
+
+    private Boolean flushCollections;
+    private String recordDeadline;
+
+    public Boolean getFlushCollections() {
+        return flushCollections;
+    }
+
+    /**
+     * Should each collection be sent to the client, as soon as it has been
+     * produced
+     *
+     * @return if the output should be flushed
+     */
+    public boolean getFlushCollectionsOrDefault() {
+        return flushCollections == null ? false : flushCollections;
+    }
+
+    public void setFlushCollections(Boolean flushCollections) {
+        this.flushCollections = flushCollections;
+    }
+
+    public String getRecordDeadline() {
+        return recordDeadline;
+    }
+
+    /**
+     * Time after the request has started, where records, that aren't ready,
+     * are reported as errors
+     *
+     * @return number of milliseconds (0 = no deadline)
+     */
+    public long recordDeadlineMS() {
+        return recordDeadline == null ? 0L : HttpClient.toMs(recordDeadline);
+    }
+
+    public void setRecordDeadline(String recordDeadline) {
+        this.recordDeadline = recordDeadline;
+    }
+
+}
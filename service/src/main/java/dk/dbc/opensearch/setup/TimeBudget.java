@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.setup;
+
+/**
+ * Configuration of how long a search request may take
+ * <p>
+ * The budget is shared between the SolR requests, the content service
+ * requests and the waiting for records. When it runs out, the records that
+ * aren't ready are reported as errors.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class TimeBudget {
+
+    private String defaultBudget;
+    private String maxBudget;
+    private String minBudget;
+
+    public String getDefaultBudget() {
+        return defaultBudget;
+    }
+
+    /**
+     * The budget used when the client doesn't ask for one
+     *
+     * @return number of milliseconds (0 = no limit)
+     */
+    public long defaultBudgetMS() {
+        return defaultBudget == null ? 0L : HttpClient.toMs(defaultBudget);
+    }
+
+    public void setDefaultBudget(String defaultBudget) {
+        this.defaultBudget = defaultBudget;
+    }
+
+    public String getMaxBudget() {
+        return maxBudget;
+    }
+
+    /**
+     * The largest budget a client can ask for
+     * <p>
+     * This is also used as socket timeout for the SolR clients
+     *
+     * @return number of milliseconds (0 = no limit)
+     */
+    public long maxBudgetMS() {
+        return maxBudget == null ? 0L : HttpClient.toMs(maxBudget);
+    }
+
+    public void setMaxBudget(String maxBudget) {
+        this.maxBudget = maxBudget;
+    }
+
+    public String getMinBudget() {
+        return minBudget;
+    }
+
+    /**
+     * The smallest budget a client can ask for
+     * <p>
+     * A tiny budget would make the backend requests time out, without it
+     * saying anything about the backends
+     *
+     * @return number of milliseconds (0 = no limit)
+     */
+    public long minBudgetMS() {
+        return minBudget == null ? 0L : HttpClient.toMs(minBudget);
+    }
+
+    public void setMinBudget(String minBudget) {
+        this.minBudget = minBudget;
+    }
+
+    /**
+     * The budget for a request
+     *
+     * @param requested the time spec the client asked for (null = default)
+     * @return number of milliseconds (0 = no limit)
+     * @throws IllegalArgumentException if the requested time spec is invalid
+     */
+    public long budgetMS(String requested) {
+        long max = maxBudgetMS();
+        long budget = requested == null ? defaultBudgetMS() : HttpClient.toMs(requested.trim());
+        if (max > 0 && ( budget == 0 || budget > max ))
+            return max;
+        long min = minBudgetMS();
+        if (budget > 0 && budget < min)
+            return min;
+        return budget;
+    }
+
+}
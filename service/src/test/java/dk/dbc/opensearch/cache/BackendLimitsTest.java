@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import dk.dbc.opensearch.utils.Deadline;
+import dk.dbc.opensearch.utils.UserMessage;
+import dk.dbc.opensearch.utils.UserMessageException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BackendLimitsTest {
+
+    @Test(timeout = 2_000L)
+    public void testLimitQueuesRequests() throws Exception {
+        System.out.println("testLimitQueuesRequests");
+        BackendLimits limits = new BackendLimits(Collections.singletonMap("content-service", 2));
+        BackendLimits.Limiter limiter = limits.limiterFor("content-service");
+
+        ArrayList<CompletableFuture<Integer>> tasks = new ArrayList<>();
+        ArrayList<CompletionStage<Integer>> results = new ArrayList<>();
+        for (int i = 0 ; i < 5 ; i++) {
+            CompletableFuture<Integer> task = new CompletableFuture<>();
+            tasks.add(task);
+            results.add(limiter.submit(() -> task));
+        }
+        assertThat(limiter.getRunning(), is(2));
+        assertThat(limiter.getWaiting(), is(3));
+
+        tasks.get(0).complete(0);
+        assertThat(results.get(0).toCompletableFuture().get(), is(0));
+        assertThat(limiter.getRunning(), is(2));
+        assertThat(limiter.getWaiting(), is(2));
+
+        tasks.get(1).completeExceptionally(new IllegalStateException());
+        assertThat(results.get(1).toCompletableFuture().isCompletedExceptionally(), is(true));
+        assertThat(limiter.getWaiting(), is(1));
+
+        for (int i = 2 ; i < 5 ; i++) {
+            tasks.get(i).complete(i);
+        }
+        for (int i = 2 ; i < 5 ; i++) {
+            assertThat(results.get(i).toCompletableFuture().get(), is(i));
+        }
+        assertThat(limiter.getRunning(), is(0));
+        assertThat(limiter.getWaiting(), is(0));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testFullQueueRejects() throws Exception {
+        System.out.println("testFullQueueRejects");
+        BackendLimits limits = new BackendLimits(Collections.singletonMap("content-service", 1),
+                                                 Collections.singletonMap("content-service", 1));
+        BackendLimits.Limiter limiter = limits.limiterFor("content-service");
+
+        CompletableFuture<Integer> task = new CompletableFuture<>();
+        CompletionStage<Integer> running = limiter.submit(() -> task);
+        CompletionStage<Integer> queued = limiter.submit(() -> CompletableFuture.completedFuture(1));
+        CompletionStage<Integer> rejected = limiter.submit(() -> CompletableFuture.completedFuture(2));
+        assertThat(limiter.getWaiting(), is(1));
+        assertThat(limiter.getRejected(), is(1L));
+        try {
+            rejected.toCompletableFuture().get();
+            fail("Expected rejection");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(UserMessageException.class));
+            assertThat(( (UserMessageException) ex.getCause() ).getUserMessage(), is(UserMessage.BACKEND_UNAVAILABLE));
+        }
+
+        task.complete(0);
+        assertThat(running.toCompletableFuture().get(), is(0));
+        assertThat(queued.toCompletableFuture().get(), is(1));
+        assertThat(limits.all().keySet(), contains("content-service"));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testManyQueuedRequestsCompletingAtOnce() throws Exception {
+        System.out.println("testManyQueuedRequestsCompletingAtOnce");
+        BackendLimits limits = new BackendLimits(Collections.singletonMap("content-service", 1));
+        BackendLimits.Limiter limiter = limits.limiterFor("content-service");
+
+        CompletableFuture<Integer> task = new CompletableFuture<>();
+        CompletionStage<Integer> running = limiter.submit(() -> task);
+        ArrayList<CompletionStage<Integer>> results = new ArrayList<>();
+        for (int i = 0 ; i < 50_000 ; i++) {
+            Integer value = i;
+            results.add(limiter.submit(() -> CompletableFuture.completedFuture(value)));
+        }
+        assertThat(limiter.getWaiting(), is(50_000));
+
+        // Each queued request completes at once, when started
+        task.complete(-1);
+        assertThat(running.toCompletableFuture().get(), is(-1));
+        for (int i = 0 ; i < 50_000 ; i++) {
+            assertThat(results.get(i).toCompletableFuture().get(), is(i));
+        }
+        assertThat(limiter.getRunning(), is(0));
+        assertThat(limiter.getWaiting(), is(0));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testExpiredWaiterFails() throws Exception {
+        System.out.println("testExpiredWaiterFails");
+        BackendLimits limits = new BackendLimits(Collections.singletonMap("content-service", 1));
+        BackendLimits.Limiter limiter = limits.limiterFor("content-service");
+
+        CompletableFuture<Integer> task = new CompletableFuture<>();
+        CompletionStage<Integer> running = limiter.submit(() -> task);
+        AtomicBoolean started = new AtomicBoolean();
+        CompletionStage<Integer> queued = limiter.submit(Deadline.in(50L), () -> {
+                                                         started.set(true);
+                                                         return CompletableFuture.completedFuture(1);
+                                                     });
+        try {
+            queued.toCompletableFuture().get();
+            fail("Expected timeout");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), instanceOf(UserMessageException.class));
+            assertThat(( (UserMessageException) ex.getCause() ).getUserMessage(), is(UserMessage.TIMEOUT));
+        }
+        assertThat(limiter.getWaiting(), is(0));
+        assertThat(limiter.getExpired(), is(1L));
+
+        task.complete(0);
+        assertThat(running.toCompletableFuture().get(), is(0));
+        assertThat(started.get(), is(false));
+        assertThat(limiter.getRunning(), is(0));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testHoldingTaskKeepsPlaceUntilReleased() throws Exception {
+        System.out.println("testHoldingTaskKeepsPlaceUntilReleased");
+        BackendLimits limits = new BackendLimits(Collections.singletonMap("content-service", 1));
+        BackendLimits.Limiter limiter = limits.limiterFor("content-service");
+
+        AtomicReference<Runnable> release = new AtomicReference<>();
+        CompletionStage<Integer> holding = limiter.submitHolding(Deadline.NONE, r -> {
+                                                                  release.set(r);
+                                                                  return CompletableFuture.completedFuture(0);
+                                                              });
+        CompletionStage<Integer> queued = limiter.submit(() -> CompletableFuture.completedFuture(1));
+        // Completed, but the result is still using the backend
+        assertThat(holding.toCompletableFuture().get(), is(0));
+        assertThat(limiter.getRunning(), is(1));
+        assertThat(limiter.getWaiting(), is(1));
+
+        release.get().run();
+        assertThat(queued.toCompletableFuture().get(), is(1));
+        // Releasing twice doesn't free a place that isn't held
+        release.get().run();
+        assertThat(limiter.getRunning(), is(0));
+        assertThat(limiter.getWaiting(), is(0));
+        limits.close();
+    }
+
+    @Test(timeout = 2_000L)
+    public void testFailedHoldingTaskIsReleased() throws Exception {
+        System.out.println("testFailedHoldingTaskIsReleased");
+        BackendLimits limits = new BackendLimits(Collections.singletonMap("content-service", 1));
+        BackendLimits.Limiter limiter = limits.limiterFor("content-service");
+
+        CompletableFuture<Integer> task = new CompletableFuture<>();
+        CompletionStage<Integer> holding = limiter.submitHolding(Deadline.NONE, r -> task);
+        task.completeExceptionally(new IllegalStateException());
+        assertThat(holding.toCompletableFuture().isCompletedExceptionally(), is(true));
+        assertThat(limiter.getRunning(), is(0));
+        limits.close();
+    }
+
+    @Test(timeout = 2_000L)
+    public void testEachLimitedBackendHasItsOwnThreads() throws Exception {
+        System.out.println("testEachLimitedBackendHasItsOwnThreads");
+        HashMap<String, Integer> maxConcurrent = new HashMap<>();
+        maxConcurrent.put("content-service", 2);
+        maxConcurrent.put("openagency", 1);
+        BackendLimits limits = new BackendLimits(maxConcurrent, Collections.emptyMap());
+
+        // Every thread of the content service is busy
+        CountDownLatch blocked = new CountDownLatch(1);
+        for (int i = 0 ; i < 2 ; i++) {
+            limits.limiterFor("content-service").executor().execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        CompletableFuture<String> openagency = CompletableFuture.supplyAsync(() -> "done", limits.limiterFor("openagency").executor());
+        assertThat(openagency.get(), is("done"));
+        blocked.countDown();
+        limits.close();
+    }
+
+    @Test(timeout = 2_000L)
+    public void testUnknownBackendIsUnlimited() throws Exception {
+        System.out.println("testUnknownBackendIsUnlimited");
+        BackendLimits limits = new BackendLimits(Collections.singletonMap("content-service", 2));
+        BackendLimits.Limiter limiter = limits.limiterFor("openagency");
+        for (int i = 0 ; i < 10 ; i++) {
+            limiter.submit(CompletableFuture::new);
+        }
+        assertThat(limiter.getWaiting(), is(0));
+        assertThat(limits.limiterFor(null), sameInstance(limiter));
+    }
+}
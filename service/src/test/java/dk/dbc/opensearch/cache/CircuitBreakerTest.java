@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CircuitBreakerTest {
+
+    @Test(timeout = 2_000L)
+    public void testOpensAfterThreshold() throws Exception {
+        System.out.println("testOpensAfterThreshold");
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60_000L);
+        breaker.failure();
+        breaker.failure();
+        breaker.success(); // Not consecutive
+        breaker.failure();
+        breaker.failure();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.tryAcquire(), is(true));
+        breaker.failure();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.tryAcquire(), is(false));
+        assertThat(breaker.tryAcquire(), is(false));
+        assertThat(breaker.getRejected(), is(2L));
+        assertThat(breaker.getOpened(), is(1L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testHalfOpen() throws Exception {
+        System.out.println("testHalfOpen");
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 100L);
+        breaker.failure();
+        assertThat(breaker.tryAcquire(), is(false));
+
+        Thread.sleep(150L);
+        assertThat(breaker.tryAcquire(), is(true));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(breaker.tryAcquire(), is(false)); // Only one trial request
+        breaker.failure();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.tryAcquire(), is(false));
+
+        Thread.sleep(150L);
+        assertThat(breaker.tryAcquire(), is(true));
+        breaker.success();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.tryAcquire(), is(true));
+        assertThat(breaker.getOpened(), is(1L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSlowSuccessDoesNotClose() throws Exception {
+        System.out.println("testSlowSuccessDoesNotClose");
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 100L);
+        assertThat(breaker.tryAcquire(), is(true)); // Slow request
+        assertThat(breaker.tryAcquire(), is(true));
+        breaker.failure();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        breaker.success(); // Slow request completes
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.tryAcquire(), is(false));
+
+        Thread.sleep(150L);
+        assertThat(breaker.tryAcquire(), is(true));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        breaker.success();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testDisabled() throws Exception {
+        System.out.println("testDisabled");
+        CircuitBreakers breakers = new CircuitBreakers(0, 100L);
+        CircuitBreaker breaker = breakers.breakerFor("solr");
+        assertThat(breaker, sameInstance(CircuitBreaker.NONE));
+        for (int i = 0 ; i < 10 ; i++) {
+            breaker.failure();
+        }
+        assertThat(breaker.tryAcquire(), is(true));
+        assertThat(breakers.all(), empty());
+    }
+}
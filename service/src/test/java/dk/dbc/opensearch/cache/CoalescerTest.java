@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import dk.dbc.opensearch.utils.Deadline;
+import dk.dbc.opensearch.utils.UserMessage;
+import dk.dbc.opensearch.utils.UserMessageException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CoalescerTest {
+
+    private static final int THREADS = 8;
+
+    @Test(timeout = 2_000L)
+    public void testIdenticalRequestsBuildOnce() throws Exception {
+        System.out.println("testIdenticalRequestsBuildOnce");
+        Coalescer<String> coalescer = Coalescer.local(1_000L);
+        AtomicReference<String> cache = new AtomicReference<>();
+        AtomicInteger builds = new AtomicInteger();
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Supplier<String> task = () -> {
+            String cached = cache.get();
+            if (cached != null)
+                return cached;
+            builds.incrementAndGet();
+            building.countDown();
+            await(release);
+            cache.set("result");
+            return "result";
+        };
+
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        try {
+            ArrayList<Future<String>> results = new ArrayList<>();
+            results.add(es.submit(() -> coalescer.execute("key", task)));
+            building.await();
+            for (int i = 1 ; i < THREADS ; i++) {
+                results.add(es.submit(() -> coalescer.execute("key", task)));
+            }
+            Thread.sleep(50); // Let the followers find the leader
+            release.countDown();
+            for (Future<String> result : results) {
+                assertThat(result.get(), is("result"));
+            }
+            assertThat(builds.get(), is(1));
+            assertThat(coalescer.getInFlight(), is(0));
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testFollowersGetLeadersError() throws Exception {
+        System.out.println("testFollowersGetLeadersError");
+        Coalescer<String> coalescer = Coalescer.local(1_000L);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = es.submit(() -> coalescer.execute("key", () -> {
+                                                  calls.incrementAndGet();
+                                                  building.countDown();
+                                                  await(release);
+                                                  throw new UserMessageException(UserMessage.BACKEND_SOLR);
+                                              }));
+            building.await();
+            Future<String> follower = es.submit(() -> coalescer.execute("key", () -> {
+                                                    calls.incrementAndGet();
+                                                    return "follower";
+                                                }));
+            Thread.sleep(50);
+            release.countDown();
+            assertThat(failure(leader), instanceOf(UserMessageException.class));
+            assertThat(failure(follower), instanceOf(UserMessageException.class));
+            assertThat(calls.get(), is(1));
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testFollowersRunAfterLeadersTimeout() throws Exception {
+        System.out.println("testFollowersRunAfterLeadersTimeout");
+        Coalescer<String> coalescer = Coalescer.local(1_000L);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = es.submit(() -> coalescer.execute("key", () -> {
+                                                  calls.incrementAndGet();
+                                                  building.countDown();
+                                                  await(release);
+                                                  throw new UserMessageException(UserMessage.TIMEOUT);
+                                              }));
+            building.await();
+            Future<String> follower = es.submit(() -> coalescer.execute("key", () -> {
+                                                    calls.incrementAndGet();
+                                                    return "follower";
+                                                }));
+            Thread.sleep(50);
+            release.countDown();
+            assertThat(failure(leader), instanceOf(UserMessageException.class));
+            assertThat(follower.get(), is("follower"));
+            assertThat(calls.get(), is(2));
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testFollowerWaitsNoLongerThanDeadline() throws Exception {
+        System.out.println("testFollowerWaitsNoLongerThanDeadline");
+        Coalescer<String> coalescer = Coalescer.local(10_000L);
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService es = Executors.newFixedThreadPool(1);
+        try {
+            Future<String> leader = es.submit(() -> coalescer.execute("key", () -> {
+                                                  building.countDown();
+                                                  await(release);
+                                                  return "leader";
+                                              }));
+            building.await();
+            long before = System.nanoTime();
+            String value = coalescer.execute("key", Deadline.in(100L), () -> "follower");
+            long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+            assertThat(value, is("follower"));
+            assertThat(waitedMs < 1_000L, is(true));
+            release.countDown();
+            assertThat(leader.get(), is("leader"));
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testNoneRunsEveryTime() throws Exception {
+        System.out.println("testNoneRunsEveryTime");
+        Coalescer<String> coalescer = Coalescer.none();
+        AtomicInteger calls = new AtomicInteger();
+        coalescer.execute("key", calls::incrementAndGet);
+        coalescer.execute("key", calls::incrementAndGet);
+        assertThat(calls.get(), is(2));
+    }
+
+    private static Throwable failure(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException ex) {
+            return ex.getCause();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class PrefetcherTest {
+
+    @Test(timeout = 2_000L)
+    public void testBudget() throws Exception {
+        System.out.println("testBudget");
+        ExecutorService es = Executors.newCachedThreadPool();
+        try {
+            Prefetcher<String> prefetcher = new Prefetcher<>(2);
+            CompletableFuture<Void> release = new CompletableFuture<>();
+            AtomicInteger runs = new AtomicInteger();
+
+            assertThat(prefetcher.prefetch("a", 11, es, () -> {
+                           runs.incrementAndGet();
+                           return release;
+                       }), is(true));
+            assertThat(prefetcher.prefetch("b", 11, es, () -> {
+                           runs.incrementAndGet();
+                           return release;
+                       }), is(true));
+            assertThat(prefetcher.prefetch("c", 11, es, () -> {
+                           runs.incrementAndGet();
+                           return release;
+                       }), is(false));
+            assertThat(prefetcher.getRunning(), is(2));
+            assertThat(prefetcher.getRejected(), is(1L));
+
+            release.complete(null);
+            while (prefetcher.getRunning() != 0) {
+                Thread.sleep(10);
+            }
+            assertThat(runs.get(), is(2));
+            assertThat(prefetcher.prefetch("c", 11, es, () -> CompletableFuture.completedFuture(null)), is(true));
+            assertThat(prefetcher.getStarted(), is(3L));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testHitMiss() throws Exception {
+        System.out.println("testHitMiss");
+        ExecutorService es = Executors.newCachedThreadPool();
+        try {
+            Prefetcher<String> prefetcher = new Prefetcher<>(2);
+            prefetcher.prefetch("a", 11, es, () -> CompletableFuture.completedFuture(null));
+
+            assertThat(prefetcher.requested("a", 21), is(false));
+            assertThat(prefetcher.requested("a", 11), is(true));
+            // Only once
+            assertThat(prefetcher.requested("a", 11), is(false));
+            assertThat(prefetcher.getHits(), is(1L));
+            assertThat(prefetcher.getMisses(), is(2L));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testFailedIsNotAHit() throws Exception {
+        System.out.println("testFailedIsNotAHit");
+        ExecutorService es = Executors.newCachedThreadPool();
+        try {
+            Prefetcher<String> prefetcher = new Prefetcher<>(1);
+            prefetcher.prefetch("a", 11, es, () -> {
+                throw new IllegalStateException("Test");
+            });
+            while (prefetcher.getRunning() != 0) {
+                Thread.sleep(10);
+            }
+            assertThat(prefetcher.getFailed(), is(1L));
+            assertThat(prefetcher.requested("a", 11), is(false));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testDisabled() throws Exception {
+        System.out.println("testDisabled");
+        Prefetcher<String> prefetcher = new Prefetcher<>(0);
+        assertThat(prefetcher.isEnabled(), is(false));
+        assertThat(prefetcher.prefetch("a", 11, Runnable::run, () -> CompletableFuture.completedFuture(null)), is(false));
+        assertThat(prefetcher.getRejected(), is(0L));
+    }
+}
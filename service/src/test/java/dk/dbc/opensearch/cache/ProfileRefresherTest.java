@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ProfileRefresherTest {
+
+    @Test(timeout = 2_000L)
+    public void testIsDue() throws Exception {
+        System.out.println("testIsDue");
+        ProfileRefresher refresher = new ProfileRefresher(60_000L, 1_000L);
+        long now = System.currentTimeMillis();
+        assertThat(refresher.isDue(now), is(false));
+        assertThat(refresher.isDue(now - 60_000L), is(true));
+
+        ProfileRefresher disabled = new ProfileRefresher(0L, 1_000L);
+        assertThat(disabled.isEnabled(), is(false));
+        assertThat(disabled.isDue(0L), is(false));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSingleFlightLoad() throws Exception {
+        System.out.println("testSingleFlightLoad");
+        ExecutorService es = Executors.newCachedThreadPool();
+        try {
+            ProfileRefresher refresher = new ProfileRefresher(60_000L, 1_000L);
+            CountDownLatch loading = new CountDownLatch(1);
+            CompletableFuture<Void> release = new CompletableFuture<>();
+            AtomicInteger loads = new AtomicInteger();
+            AtomicReference<String> cache = new AtomicReference<>();
+
+            Future<String> leader = es.submit(() -> refresher.load("1/repo", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                release.join();
+                cache.set("profile");
+                return cache.get();
+            }));
+            loading.await();
+            Future<String> follower = es.submit(() -> refresher.load("1/repo", () -> {
+                if (cache.get() == null)
+                    loads.incrementAndGet();
+                return cache.get();
+            }));
+            while (refresher.getLoading() != 1) {
+                Thread.sleep(10);
+            }
+            release.complete(null);
+            assertThat(leader.get(), is("profile"));
+            assertThat(follower.get(), is("profile"));
+            assertThat(loads.get(), is(1));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testOneRefreshPerKey() throws Exception {
+        System.out.println("testOneRefreshPerKey");
+        ExecutorService es = Executors.newCachedThreadPool();
+        try {
+            ProfileRefresher refresher = new ProfileRefresher(60_000L, 1_000L);
+            CompletableFuture<Void> release = new CompletableFuture<>();
+            AtomicInteger runs = new AtomicInteger();
+
+            assertThat(refresher.refresh("1/repo", es, () -> {
+                           runs.incrementAndGet();
+                           release.join();
+                       }), is(true));
+            assertThat(refresher.refresh("1/repo", es, runs::incrementAndGet), is(false));
+            assertThat(refresher.refresh("2/repo", es, runs::incrementAndGet), is(true));
+            release.complete(null);
+            while (refresher.getRefreshing() != 0) {
+                Thread.sleep(10);
+            }
+            assertThat(runs.get(), is(2));
+            assertThat(refresher.getStarted(), is(2L));
+            assertThat(refresher.refresh("1/repo", es, runs::incrementAndGet), is(true));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test(timeout = 2_000L)
+    public void testFailedRefresh() throws Exception {
+        System.out.println("testFailedRefresh");
+        ExecutorService es = Executors.newCachedThreadPool();
+        try {
+            ProfileRefresher refresher = new ProfileRefresher(60_000L, 1_000L);
+            refresher.refresh("1/repo", es, () -> {
+                throw new IllegalStateException("Test");
+            });
+            while (refresher.getRefreshing() != 0) {
+                Thread.sleep(10);
+            }
+            assertThat(refresher.getFailed(), is(1L));
+            assertThat(refresher.refresh("1/repo", es, () -> {
+                       }), is(true));
+        } finally {
+            es.shutdown();
+        }
+    }
+}
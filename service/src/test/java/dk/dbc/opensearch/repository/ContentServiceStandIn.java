@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the corepo-content-service
+ * <p>
+ * Serves /rest/opensearch/unit (single unit GET) and /rest/opensearch/units
+ * (batch POST) from a map of unit-id to record xml, and counts the requests
+ * made. It can be set to fail all requests, to simulate a backend that is
+ * down
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ContentServiceStandIn implements AutoCloseable {
+
+    private static final ObjectMapper O = new ObjectMapper();
+
+    private final HttpServer server;
+    private final Map<String, String> records;
+    private final boolean batchSupported;
+    private final AtomicInteger unitRequests;
+    private final AtomicInteger batchRequests;
+    private final AtomicBoolean failing;
+
+    public ContentServiceStandIn(Map<String, String> records, boolean batchSupported) throws IOException {
+        this.records = records;
+        this.batchSupported = batchSupported;
+        this.unitRequests = new AtomicInteger();
+        this.batchRequests = new AtomicInteger();
+        this.failing = new AtomicBoolean();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/rest/opensearch/unit", this::unit);
+        this.server.createContext("/rest/opensearch/units", this::units);
+        this.server.start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public int getUnitRequests() {
+        return unitRequests.get();
+    }
+
+    public int getBatchRequests() {
+        return batchRequests.get();
+    }
+
+    public void setFailing(boolean failing) {
+        this.failing.set(failing);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void unit(HttpExchange exchange) throws IOException {
+        unitRequests.incrementAndGet();
+        if (failing.get()) {
+            respond(exchange, 500, new byte[0]);
+            return;
+        }
+        Map<String, String> query = query(exchange);
+        String unit = query.get("unit");
+        if (!records.containsKey(unit)) {
+            respond(exchange, 404, new byte[0]);
+        } else {
+            respond(exchange, 200, O.writeValueAsBytes(payload(unit, query.get("pids").split(","))));
+        }
+    }
+
+    private void units(HttpExchange exchange) throws IOException {
+        batchRequests.incrementAndGet();
+        if (failing.get()) {
+            respond(exchange, 500, new byte[0]);
+            return;
+        }
+        if (!batchSupported || !"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 404, new byte[0]);
+            return;
+        }
+        Map<String, Object> body;
+        try (InputStream is = exchange.getRequestBody()) {
+            body = O.readValue(is, Map.class);
+        }
+        Map<String, List<String>> units = (Map<String, List<String>>) body.get("units");
+        LinkedHashMap<String, Object> response = new LinkedHashMap<>();
+        units.forEach((unit, manifestations) -> {
+            if (records.containsKey(unit))
+                response.put(unit, payload(unit, manifestations.toArray(new String[manifestations.size()])));
+        });
+        respond(exchange, 200, O.writeValueAsBytes(response));
+    }
+
+    private Map<String, Object> payload(String unit, String[] pids) {
+        HashMap<String, Object> payload = new HashMap<>();
+        payload.put("dataStream", records.get(unit));
+        payload.put("pids", Arrays.asList(pids));
+        payload.put("primaryPid", pids[0]);
+        return payload;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) throws IOException {
+        HashMap<String, String> query = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (String part : rawQuery.split("&")) {
+                String[] keyValue = part.split("=", 2);
+                query.put(URLDecoder.decode(keyValue[0], "UTF-8"),
+                          keyValue.length == 2 ? URLDecoder.decode(keyValue[1], "UTF-8") : "");
+            }
+        }
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=" + StandardCharsets.UTF_8.name());
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
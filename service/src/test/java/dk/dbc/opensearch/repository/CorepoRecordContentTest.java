@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.repository;
+
+import dk.dbc.opensearch.xml.DefaultPrefix;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventWriter;
+import org.junit.Test;
+
+import static dk.dbc.opensearch.xml.XMLEventFactories.O;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CorepoRecordContentTest {
+
+    private static final String DKABM = "http://biblstandard.dk/abm/namespace/dkabm/";
+    private static final Map<QName, String> FORMATS = Collections.singletonMap(new QName(DKABM, "record"), "dkabm");
+    private static final DefaultPrefix DEFAULT_PREFIX = new DefaultPrefix(Collections.singletonMap("dkabm", DKABM));
+
+    private static final String DATA_STREAM =
+            "<ting:container xmlns:ting=\\\"http://www.dbc.dk/ting\\\">" +
+            "<dkabm:record xmlns:dkabm=\\\"" + DKABM + "\\\"><dkabm:title>\\u00e6\\u00f8\\u00e5 &amp; \\\"x\\\"</dkabm:title></dkabm:record>" +
+            "<adminData><recordStatus>active</recordStatus><creationDate>2018-10-01</creationDate></adminData>" +
+            "</ting:container>";
+
+    @Test(timeout = 2_000L)
+    public void testFieldOrder() throws Exception {
+        System.out.println("testFieldOrder");
+        RecordContent content = parse("{\"dataStream\":\"" + DATA_STREAM + "\",\"unknown\":{\"a\":[1,{}]},\"pids\":[\"870970-basis:1\",\"870970-basis:2\"],\"primaryPid\":\"870970-basis:1\"}");
+        assertThat(content.getObjectsAvailable(), contains("870970-basis:1", "870970-basis:2"));
+        assertThat(content.getPrimaryObjectIdentifier(), is("870970-basis:1"));
+        assertThat(content.getRecordStatus(), is("active"));
+        assertThat(content.getCreationDate(), is("2018-10-01"));
+        assertThat(content.getFormatsAvailable(), contains("dkabm"));
+        assertThat(dkabm(content), containsString(">æøå &amp; \"x\"</"));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testBatch() throws Exception {
+        System.out.println("testBatch");
+        String unit = "{\"pids\":[\"870970-basis:1\"],\"primaryPid\":\"870970-basis:1\",\"dataStream\":\"" + DATA_STREAM + "\"}";
+        Map<String, CompletableFuture<RecordContent>> contents = CorepoRecordContent.batchOf(
+                new ByteArrayInputStream(( "{\"unit:1\":" + unit + ",\"unit:2\":" + unit + "}" ).getBytes(StandardCharsets.UTF_8)),
+                FORMATS, DEFAULT_PREFIX);
+        assertThat(contents.keySet(), contains("unit:1", "unit:2"));
+        assertThat(dkabm(contents.get("unit:2").get()), containsString(">æøå &amp; \"x\"</"));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testBrokenUnitInBatch() throws Exception {
+        System.out.println("testBrokenUnitInBatch");
+        String unit = "{\"pids\":[\"870970-basis:1\"],\"primaryPid\":\"870970-basis:1\",\"dataStream\":\"" + DATA_STREAM + "\"}";
+        String broken = "{\"pids\":[\"870970-basis:2\"],\"dataStream\":\"<ting:container xmlns:ting=\\\"http://www.dbc.dk/ting\\\"><adminData>\",\"primaryPid\":\"870970-basis:2\"}";
+        Map<String, CompletableFuture<RecordContent>> contents = CorepoRecordContent.batchOf(
+                new ByteArrayInputStream(( "{\"unit:1\":" + broken + ",\"unit:2\":" + unit + "}" ).getBytes(StandardCharsets.UTF_8)),
+                FORMATS, DEFAULT_PREFIX);
+        assertThat(contents.keySet(), contains("unit:1", "unit:2"));
+        assertThat(contents.get("unit:1").isCompletedExceptionally(), is(true));
+        assertThat(contents.get("unit:2").get().getPrimaryObjectIdentifier(), is("870970-basis:1"));
+    }
+
+    private static RecordContent parse(String json) throws Exception {
+        return new CorepoRecordContent(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FORMATS, DEFAULT_PREFIX);
+    }
+
+    private static String dkabm(RecordContent content) throws Exception {
+        StringWriter w = new StringWriter();
+        XMLEventWriter writer = O.createXMLEventWriter(w);
+        writer.add(content.getRawFormat("dkabm"));
+        writer.close();
+        return w.toString();
+    }
+}
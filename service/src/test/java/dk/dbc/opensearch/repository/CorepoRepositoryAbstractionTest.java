@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.repository;
+
+import dk.dbc.opensearch.cache.CircuitBreaker;
+import dk.dbc.opensearch.cache.HttpFetcher;
+import dk.dbc.opensearch.setup.CircuitBreaking;
+import dk.dbc.opensearch.setup.RepositorySettings;
+import dk.dbc.opensearch.setup.Settings;
+import dk.dbc.opensearch.solr.resultset.ResultSet;
+import dk.dbc.opensearch.solr.resultset.ResultSetWork;
+import dk.dbc.opensearch.utils.Deadline;
+import dk.dbc.opensearch.utils.StatisticsRecorder;
+import dk.dbc.opensearch.utils.UserMessage;
+import dk.dbc.opensearch.utils.UserMessageException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class CorepoRepositoryAbstractionTest {
+
+    private static final List<String> UNITS = Arrays.asList("unit:1", "unit:2", "unit:3", "unit:4", "unit:5");
+
+    @Test(timeout = 10_000L)
+    public void testBatchFetch() throws Exception {
+        System.out.println("testBatchFetch");
+        try (ContentServiceStandIn contentService = new ContentServiceStandIn(records(), true)) {
+            Map<String, RecordContent> contents = fetch(contentService, true);
+            assertThat(contents.keySet(), contains(UNITS.toArray()));
+            assertThat(contents.get("unit:3").getCreationDate(), is("2018-10-03"));
+            assertThat(contents.get("unit:3").getObjectsAvailable(), contains("870970-basis:3"));
+            assertThat(contents.get("unit:3").getFormatsAvailable(), contains("dkabm"));
+            assertThat(contentService.getBatchRequests(), is(3)); // 2 + 2 + 1
+            assertThat(contentService.getUnitRequests(), is(0));
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBatchFallback() throws Exception {
+        System.out.println("testBatchFallback");
+        try (ContentServiceStandIn contentService = new ContentServiceStandIn(records(), false)) {
+            Map<String, RecordContent> contents = fetch(contentService, true);
+            assertThat(contents.keySet(), contains(UNITS.toArray()));
+            assertThat(contents.get("unit:5").getCreationDate(), is("2018-10-05"));
+            assertThat(contentService.getBatchRequests(), is(1)); // Remembered as unsupported
+            assertThat(contentService.getUnitRequests(), is(5));
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBrokenUnitInBatch() throws Exception {
+        System.out.println("testBrokenUnitInBatch");
+        Map<String, String> records = records();
+        records.put("unit:3", "<ting:container xmlns:ting=\"http://www.dbc.dk/ting\"><adminData>");
+        try (ContentServiceStandIn contentService = new ContentServiceStandIn(records, true)) {
+            Settings settings = settings(contentService.getUrl(), true);
+            RepositoryAbstraction abstraction = settings.lookupRepositoryByAlias("corepo").abstraction();
+            Client client = ClientBuilder.newClient();
+            try {
+                HttpFetcher fetcher = new HttpFetcher(client, settings);
+                Map<String, CompletableFuture<RecordContent>> contents = abstraction.recordContentsByUnit(
+                        fetcher, new StatisticsRecorder(), "test", Deadline.NONE, ForkJoinPool.commonPool(), RESULT_SET, 870970, UNITS.subList(2, 4), Collections.EMPTY_LIST);
+                assertThat(contents.keySet(), contains("unit:3", "unit:4"));
+                assertThat(contents.get("unit:4").get().getCreationDate(), is("2018-10-04"));
+                try {
+                    contents.get("unit:3").get();
+                    fail("Expected fetch of unit:3 to fail");
+                } catch (ExecutionException ex) {
+                    assertThat(ex.getCause(), instanceOf(XMLStreamException.class));
+                }
+                // Only the broken unit fails, without any unit requests
+                assertThat(contentService.getBatchRequests(), is(1));
+                assertThat(contentService.getUnitRequests(), is(0));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFailingBatchFailsAllUnits() throws Exception {
+        System.out.println("testFailingBatchFailsAllUnits");
+        try (ContentServiceStandIn contentService = new ContentServiceStandIn(records(), true)) {
+            Settings settings = settings(contentService.getUrl(), true);
+            RepositoryAbstraction abstraction = settings.lookupRepositoryByAlias("corepo").abstraction();
+            Client client = ClientBuilder.newClient();
+            try {
+                HttpFetcher fetcher = new HttpFetcher(client, settings);
+                contentService.setFailing(true);
+                Map<String, CompletableFuture<RecordContent>> contents = abstraction.recordContentsByUnit(
+                        fetcher, new StatisticsRecorder(), "test", Deadline.NONE, ForkJoinPool.commonPool(), RESULT_SET, 870970, UNITS.subList(0, 2), Collections.EMPTY_LIST);
+                for (CompletableFuture<RecordContent> content : contents.values()) {
+                    try {
+                        content.get();
+                        fail("Expected fetch to fail");
+                    } catch (ExecutionException ex) {
+                        assertThat(( (UserMessageException) ex.getCause() ).getUserMessage(), is(UserMessage.BAD_RESPONSE));
+                    }
+                }
+                // A failing content-service doesn't get a request for each unit
+                assertThat(contentService.getBatchRequests(), is(1));
+                assertThat(contentService.getUnitRequests(), is(0));
+
+                // Still fetched as a batch, when the content-service recovers
+                contentService.setFailing(false);
+                contents = abstraction.recordContentsByUnit(
+                        fetcher, new StatisticsRecorder(), "test", Deadline.NONE, ForkJoinPool.commonPool(), RESULT_SET, 870970, UNITS.subList(0, 2), Collections.EMPTY_LIST);
+                assertThat(contents.get("unit:2").get().getCreationDate(), is("2018-10-02"));
+                assertThat(contentService.getBatchRequests(), is(2));
+                assertThat(contentService.getUnitRequests(), is(0));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testNoBatchConfigured() throws Exception {
+        System.out.println("testNoBatchConfigured");
+        try (ContentServiceStandIn contentService = new ContentServiceStandIn(records(), true)) {
+            Map<String, RecordContent> contents = fetch(contentService, false);
+            assertThat(contents.keySet(), contains(UNITS.toArray()));
+            assertThat(contentService.getBatchRequests(), is(0));
+            assertThat(contentService.getUnitRequests(), is(5));
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testCircuitOpensOnFailingContentService() throws Exception {
+        System.out.println("testCircuitOpensOnFailingContentService");
+        try (ContentServiceStandIn contentService = new ContentServiceStandIn(records(), false)) {
+            CircuitBreaking circuitBreaking = new CircuitBreaking();
+            circuitBreaking.setFailureThreshold(2);
+            circuitBreaking.setOpenTime("250ms");
+            Settings settings = settings(contentService.getUrl(), false, circuitBreaking);
+            RepositoryAbstraction abstraction = settings.lookupRepositoryByAlias("corepo").abstraction();
+            CircuitBreaker breaker = settings.circuitBreakers().breakerFor("content-service");
+            Client client = ClientBuilder.newClient();
+            try {
+                HttpFetcher fetcher = new HttpFetcher(client, settings);
+                contentService.setFailing(true);
+                for (String unit : UNITS.subList(0, 2)) {
+                    assertThat(fetchError(abstraction, fetcher, unit), is(UserMessage.BAD_RESPONSE));
+                }
+                assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+
+                // Rejected without calling the content service
+                assertThat(fetchError(abstraction, fetcher, UNITS.get(2)), is(UserMessage.BACKEND_UNAVAILABLE));
+                assertThat(contentService.getUnitRequests(), is(2));
+                assertThat(breaker.getRejected(), is(1L));
+
+                contentService.setFailing(false);
+                Thread.sleep(300L);
+                Map<String, RecordContent> contents = abstraction.recordContents(fetcher, new StatisticsRecorder(), "test", RESULT_SET, 870970, UNITS.subList(2, 3), Collections.EMPTY_LIST)
+                        .toCompletableFuture().get();
+                assertThat(contents.keySet(), contains(UNITS.get(2)));
+                assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static UserMessage fetchError(RepositoryAbstraction abstraction, HttpFetcher fetcher, String unit) throws Exception {
+        try {
+            abstraction.recordContents(fetcher, new StatisticsRecorder(), "test", RESULT_SET, 870970, Collections.singletonList(unit), Collections.EMPTY_LIST)
+                    .toCompletableFuture().get();
+            throw new AssertionError("Expected fetch of " + unit + " to fail");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            while (!( cause instanceof UserMessageException ) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            return ( (UserMessageException) cause ).getUserMessage();
+        }
+    }
+
+    /**
+     * Fetch all {@link #UNITS} in batches of the configured size
+     *
+     * @param contentService the stand-in
+     * @param batch          if the batch url should be configured
+     * @return all the content fetched
+     * @throws Exception in case of errors
+     */
+    private Map<String, RecordContent> fetch(ContentServiceStandIn contentService, boolean batch) throws Exception {
+        Settings settings = settings(contentService.getUrl(), batch);
+        RepositoryAbstraction abstraction = settings.lookupRepositoryByAlias("corepo").abstraction();
+        Client client = ClientBuilder.newClient();
+        try {
+            HttpFetcher fetcher = new HttpFetcher(client, settings);
+            HashMap<String, RecordContent> contents = new HashMap<>();
+            int batchSize = abstraction.contentBatchSize();
+            for (int i = 0 ; i < UNITS.size() ; i += batchSize) {
+                List<String> units = UNITS.subList(i, Integer.min(i + batchSize, UNITS.size()));
+                contents.putAll(abstraction.recordContents(fetcher, new StatisticsRecorder(), "test", RESULT_SET, 870970, units, Collections.EMPTY_LIST)
+                        .toCompletableFuture().get());
+            }
+            return new TreeMap<>(contents);
+        } finally {
+            client.close();
+        }
+    }
+
+    private static Settings settings(String url, boolean batch) {
+        return settings(url, batch, null);
+    }
+
+    private static Settings settings(String url, boolean batch, CircuitBreaking circuitBreaking) {
+        RepositorySettings repository = new RepositorySettings();
+        repository.setAliases(new HashSet<>(Arrays.asList("corepo")));
+        repository.setSolrUrl("http://localhost:1/solr/corepo");
+        repository.setSolrRulesLocation("classpath:solr-rules-corepo.yaml");
+        repository.setContentServiceUrl(url + "/rest/opensearch/unit?unit={unit}&pids={manifestations}&agencyId={agency}&trackingId={trackingId}");
+        if (batch) {
+            repository.setContentServiceBatchUrl(url + "/rest/opensearch/units?agencyId={agency}&trackingId={trackingId}");
+            repository.setContentServiceBatchSize(2);
+        }
+        repository.setRawFormats(Collections.singletonMap("dkabm", "http://biblstandard.dk/abm/namespace/dkabm/ record"));
+        Settings settings = new Settings();
+        settings.setDefaultRepository("corepo");
+        settings.setOpenagencyProfileUrl("http://localhost:1/oa");
+        settings.setJCache(Collections.EMPTY_MAP);
+        settings.setDefaultNamespaces(Collections.singletonMap("dkabm", "http://biblstandard.dk/abm/namespace/dkabm/"));
+        settings.setRepositories(Collections.singletonMap("corepo", repository));
+        settings.setCircuitBreaking(circuitBreaking);
+        settings.validateAndProcess();
+        return settings;
+    }
+
+    private static Map<String, String> records() {
+        HashMap<String, String> records = new HashMap<>();
+        for (String unit : UNITS) {
+            String n = unit.substring(5);
+            records.put(unit, "<ting:container xmlns:ting=\"http://www.dbc.dk/ting\">" +
+                              "<adminData><recordStatus>active</recordStatus><creationDate>2018-10-0" + n + "</creationDate></adminData>" +
+                              "<dkabm:record xmlns:dkabm=\"http://biblstandard.dk/abm/namespace/dkabm/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">" +
+                              "<dc:title>Title " + n + "</dc:title>" +
+                              "</dkabm:record>" +
+                              "</ting:container>");
+        }
+        return records;
+    }
+
+    private static final ResultSet RESULT_SET = new ResultSetWork(null, false, false) {
+        private static final long serialVersionUID = 0L;
+
+        @Override
+        public Set<String> manifestationsForUnit(String unit) {
+            return Collections.singleton("870970-basis:" + unit.substring(5));
+        }
+    };
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.repository;
+
+import dk.dbc.opensearch.cache.CircuitBreaker;
+import java.io.IOException;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class GuardedSolrClientTest {
+
+    @Test(timeout = 2_000L)
+    public void testClientErrorIsNotAFailure() throws Exception {
+        System.out.println("testClientErrorIsNotAFailure");
+        CircuitBreaker breaker = new CircuitBreaker("solr", 2, 60_000L);
+        GuardedSolrClient client = new GuardedSolrClient(
+                failing(new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Cannot parse query")), breaker, 0);
+        for (int i = 0 ; i < 5 ; i++) {
+            try {
+                client.request(null, null);
+                fail("Expected SolrException");
+            } catch (SolrException ex) {
+                assertThat(ex.code(), is(400));
+            }
+        }
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testServerErrorIsAFailure() throws Exception {
+        System.out.println("testServerErrorIsAFailure");
+        CircuitBreaker breaker = new CircuitBreaker("solr", 2, 60_000L);
+        GuardedSolrClient client = new GuardedSolrClient(
+                failing(new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Boom")), breaker, 0);
+        for (int i = 0 ; i < 2 ; i++) {
+            try {
+                client.request(null, null);
+                fail("Expected SolrException");
+            } catch (SolrException ex) {
+                assertThat(ex.code(), is(500));
+            }
+        }
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    private static SolrClient failing(RuntimeException ex) {
+        return new SolrClient() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+                throw ex;
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        };
+    }
+}
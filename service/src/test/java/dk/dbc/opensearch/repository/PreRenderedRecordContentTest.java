@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.repository;
+
+import dk.dbc.opensearch.output.badgerfish.BadgerFishSingle;
+import dk.dbc.opensearch.xml.DefaultPrefix;
+import dk.dbc.opensearch.xml.XMLCacheElement;
+import dk.dbc.opensearch.xml.XMLCacheReader;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.events.StartElement;
+import org.junit.Test;
+
+import static dk.dbc.opensearch.xml.XMLEventFactories.I;
+import static dk.dbc.opensearch.xml.XMLEventFactories.O;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class PreRenderedRecordContentTest {
+
+    private static final String DKABM = "http://biblstandard.dk/abm/namespace/dkabm/";
+    private static final Map<QName, String> FORMATS = Collections.singletonMap(new QName(DKABM, "record"), "dkabm");
+    private static final DefaultPrefix DEFAULT_PREFIX = new DefaultPrefix(Collections.singletonMap("dkabm", DKABM));
+
+    private static final String CONTENT =
+            "{\"pids\":[\"870970-basis:1\"],\"primaryPid\":\"870970-basis:1\",\"dataStream\":\"" +
+            "<ting:container xmlns:ting=\\\"http://www.dbc.dk/ting\\\">" +
+            "<dkabm:record xmlns:dkabm=\\\"" + DKABM + "\\\"><dkabm:title>Raw</dkabm:title></dkabm:record>" +
+            "<adminData><recordStatus>active</recordStatus><creationDate>2018-10-01</creationDate></adminData>" +
+            "</ting:container>\"}";
+
+    @Test(timeout = 2_000L)
+    public void testFormattedRecordsAreKept() throws Exception {
+        System.out.println("testFormattedRecordsAreKept");
+        CorepoRecordContent content = new CorepoRecordContent(new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.UTF_8)), FORMATS, DEFAULT_PREFIX);
+        content.addFormattedRecord("briefDisplay", record("<dkabm:briefDisplay xmlns:dkabm='" + DKABM + "'><dkabm:title>Brief</dkabm:title></dkabm:briefDisplay>"));
+
+        RecordContent preRendered = PreRenderedRecordContent.of(content, new BadgerFishSingle());
+        assertThat(preRendered, instanceOf(PreRenderedRecordContent.class));
+        assertThat(preRendered.getFormatsAvailable(), contains("dkabm"));
+        assertThat(preRendered.getFormattedRecordsAvailable(), contains("briefDisplay"));
+        assertThat(xml(preRendered.getFormattedRecord("briefDisplay")), containsString(">Brief</"));
+        assertThat(xml(preRendered.getRawFormat("dkabm")), containsString(">Raw</"));
+        assertThat(preRendered.getFormattedRecord("unknown"), nullValue());
+    }
+
+    private static XMLCacheReader record(String xml) throws Exception {
+        XMLEventReader reader = I.createXMLEventReader(new StringReader(xml));
+        return XMLCacheElement.of((StartElement) reader.nextTag(), reader, DEFAULT_PREFIX).toReader();
+    }
+
+    private static String xml(XMLCacheReader content) throws Exception {
+        StringWriter w = new StringWriter();
+        XMLEventWriter writer = O.createXMLEventWriter(w);
+        writer.add(content);
+        writer.close();
+        return w.toString();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.setup;
+
+import javax.cache.expiry.ExpiryPolicy;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ProfileRefreshTest {
+
+    @Test(timeout = 2_000L)
+    public void testRefreshedProfileOutlivesOriginalExpiry() throws Exception {
+        System.out.println("testRefreshedProfileOutlivesOriginalExpiry");
+        ProfileRefresh profileRefresh = refreshAfter("4h");
+        profileRefresh.validate("MODIFIED:5h:1000");
+
+        ExpiryPolicy policy = ProfileRefresh.expiryPolicyOf("MODIFIED:5h:1000");
+        long originalExpiry = policy.getExpiryForCreation().getTimeUnit()
+                .toMillis(policy.getExpiryForCreation().getDurationAmount());
+        long refreshedAt = profileRefresh.refreshAfterMS();
+        long refreshedExpiry = refreshedAt + policy.getExpiryForUpdate().getTimeUnit()
+                .toMillis(policy.getExpiryForUpdate().getDurationAmount());
+        assertThat(refreshedExpiry > originalExpiry, is(true));
+    }
+
+    @Test(timeout = 2_000L, expected = IllegalArgumentException.class)
+    public void testCreatedExpiryIsRejected() throws Exception {
+        System.out.println("testCreatedExpiryIsRejected");
+        refreshAfter("4h").validate("CREATED:5h:1000");
+    }
+
+    @Test(timeout = 2_000L)
+    public void testAnyExpiryWithoutRefresh() throws Exception {
+        System.out.println("testAnyExpiryWithoutRefresh");
+        new ProfileRefresh().validate("CREATED:5h:1000");
+        refreshAfter("0ms").validate("CREATED:5h:1000");
+        refreshAfter("4h").validate("TOUCHED:5h:1000");
+        refreshAfter("4h").validate("ETERNAL:5h:1000");
+    }
+
+    private static ProfileRefresh refreshAfter(String refreshAfter) {
+        ProfileRefresh profileRefresh = new ProfileRefresh();
+        profileRefresh.setRefreshAfter(refreshAfter);
+        return profileRefresh;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-service
+ *
+ * opensearch-service is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-service is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.setup;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class TimeBudgetTest {
+
+    @Test(timeout = 2_000L)
+    public void testUnconfigured() throws Exception {
+        System.out.println("testUnconfigured");
+        TimeBudget timeBudget = new TimeBudget();
+        assertThat(timeBudget.budgetMS(null), is(0L));
+        assertThat(timeBudget.budgetMS("5s"), is(5_000L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testBudget() throws Exception {
+        System.out.println("testBudget");
+        TimeBudget timeBudget = budget("20s", "1m");
+        assertThat(timeBudget.budgetMS(null), is(20_000L));
+        assertThat(timeBudget.budgetMS(" 1500ms "), is(1_500L));
+        assertThat(timeBudget.budgetMS("2m"), is(60_000L));
+        assertThat(timeBudget.budgetMS("0ms"), is(60_000L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testMinBudget() throws Exception {
+        System.out.println("testMinBudget");
+        TimeBudget timeBudget = budget("20s", "1m");
+        timeBudget.setMinBudget("2s");
+        assertThat(timeBudget.budgetMS("1ms"), is(2_000L));
+        assertThat(timeBudget.budgetMS("1500ms"), is(2_000L));
+        assertThat(timeBudget.budgetMS("5s"), is(5_000L));
+        assertThat(timeBudget.budgetMS("0ms"), is(60_000L));
+    }
+
+    @Test(timeout = 2_000L, expected = IllegalArgumentException.class)
+    public void testInvalidBudget() throws Exception {
+        System.out.println("testInvalidBudget");
+        budget("20s", "1m").budgetMS("soon");
+    }
+
+    private static TimeBudget budget(String defaultBudget, String maxBudget) {
+        TimeBudget timeBudget = new TimeBudget();
+        timeBudget.setDefaultBudget(defaultBudget);
+        timeBudget.setMaxBudget(maxBudget);
+        return timeBudget;
+    }
+}
@@ -39,7 +39,7 @@ public class NestedQueries implements Serializable {
 
     private static final long serialVersionUID = 8706346364547335984L;
 
-    static List<FlatQuery> from(FlatQuery query) {
+    public static List<FlatQuery> from(FlatQuery query) {
         return new NestedQueries(query).getQueries();
     }
 
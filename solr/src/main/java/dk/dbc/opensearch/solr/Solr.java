@@ -56,6 +56,25 @@ public class Solr {
      *                             (for zk:// urls)
      */
     public static SolrClient client(String solrUrl) throws SolrServerException, IOException {
+        return client(solrUrl, 0);
+    }
+
+    /**
+     * Create a solr client with a socket timeout
+     * <p>
+     * The timeout is a safety net for requests where SolR doesn't honor
+     * timeAllowed, ie. it should be the longest time a request may take
+     *
+     * @param solrUrl       SolR collection location see
+     *                      {@link #client(java.lang.String)}
+     * @param socketTimeout milliseconds to wait for data (0 = client default)
+     * @return SolrClient
+     * @throws SolrServerException If there's a problem getting aliases list
+     *                             (for zk:// urls)
+     * @throws IOException         If there's a problem getting aliases list
+     *                             (for zk:// urls)
+     */
+    public static SolrClient client(String solrUrl, int socketTimeout) throws SolrServerException, IOException {
 
         Matcher zkMatcher = ZK.matcher(solrUrl);
         if (zkMatcher.matches()) {
@@ -64,7 +83,10 @@ public class Solr {
             if (zkMatcher.group(2) != null) {
                 zkChroot = Optional.of(zkMatcher.group(2));
             }
-            CloudSolrClient solrClient = new CloudSolrClient.Builder(zkHosts, zkChroot).build();
+            CloudSolrClient.Builder builder = new CloudSolrClient.Builder(zkHosts, zkChroot);
+            if (socketTimeout > 0)
+                builder.withSocketTimeout(socketTimeout);
+            CloudSolrClient solrClient = builder.build();
             String collectionName = zkMatcher.group(3);
             CollectionAdminRequest.ListAliases request = new CollectionAdminRequest.ListAliases();
             CollectionAdminResponse response = request.process(solrClient);
@@ -72,9 +94,11 @@ public class Solr {
             solrClient.setDefaultCollection(collectionName);
             return solrClient;
         } else {
-            return new HttpSolrClient.Builder(solrUrl)
-                    .allowCompression(true)
-                    .build();
+            HttpSolrClient.Builder builder = new HttpSolrClient.Builder(solrUrl)
+                    .allowCompression(true);
+            if (socketTimeout > 0)
+                builder.withSocketTimeout(socketTimeout);
+            return builder.build();
         }
     }
 
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr;
+
+import dk.dbc.opensearch.solr.profile.Profile;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node local cache of CQL translated into {@link SolrQueryFields}
+ * <p>
+ * Parsing, flattening and building the SolR queries is repeated for every
+ * result set built, even though the popular queries are the same, and differ
+ * only in agency or paging. The translation only depends upon the solr-rules,
+ * the query and the profile filter, so this is the key.
+ * <p>
+ * The cache is tied to one {@link SolrRules} instance. When asked with
+ * another instance (the rules have been reloaded), all the content is dropped.
+ * <p>
+ * Lookups and inserts are lock free. When the cache exceeds its size, entries
+ * are evicted in the (hash) order of the map, which is close to random.
+ * Failed translations are not cached.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class SolrQueryFieldsCache {
+
+    private final int maxSize;
+    private final AtomicReference<Generation> generation;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * Create a cache
+     *
+     * @param maxSize number of entries to keep (0 = caching is disabled)
+     */
+    public SolrQueryFieldsCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.generation = new AtomicReference<>(new Generation(null));
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Translate a CQL query, or take the translation from the cache
+     *
+     * @param rules   the solr-rules of the repository
+     * @param cql     the query
+     * @param profile the profile (filter), can be null
+     * @return SolR query
+     * @see SolrQueryFields#fromCQL(SolrRules, String, Profile)
+     */
+    public SolrQueryFields fromCQL(SolrRules rules, String cql, Profile profile) {
+        if (maxSize <= 0) {
+            misses.increment();
+            return SolrQueryFields.fromCQL(rules, cql, profile);
+        }
+        ConcurrentHashMap<Key, SolrQueryFields> entries = generationFor(rules).entries;
+        Key key = new Key(normalize(cql), profile == null ? null : profile.getSearchFilter());
+        SolrQueryFields fields = entries.get(key);
+        if (fields != null) {
+            hits.increment();
+            return fields;
+        }
+        misses.increment();
+        // Outside of the map, computeIfAbsent would lock the bin while parsing
+        fields = SolrQueryFields.fromCQL(rules, cql, profile);
+        SolrQueryFields existing = entries.putIfAbsent(key, fields);
+        if (existing != null)
+            return existing;
+        evict(entries);
+        return fields;
+    }
+
+    /**
+     * Drop all entries
+     */
+    public void invalidate() {
+        Generation current = generation.get();
+        generation.compareAndSet(current, new Generation(current.rules));
+    }
+
+    public int getSize() {
+        return generation.get().entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Fraction of lookups that were served from the cache
+     *
+     * @return ratio (0.0 if no lookups has been made)
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return "SolrQueryFieldsCache{" + "maxSize=" + maxSize + ", size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + '}';
+    }
+
+    /**
+     * Get the entries for a set of rules, if the rules differ from the last
+     * used, start over
+     *
+     * @param rules the solr-rules
+     * @return the generation for the rules
+     */
+    private Generation generationFor(SolrRules rules) {
+        for (;;) {
+            Generation current = generation.get();
+            if (current.rules == rules)
+                return current;
+            Generation next = new Generation(rules);
+            if (generation.compareAndSet(current, next))
+                return next;
+        }
+    }
+
+    private void evict(ConcurrentHashMap<Key, SolrQueryFields> entries) {
+        if (entries.size() <= maxSize)
+            return;
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (entries.size() > maxSize && keys.hasNext()) {
+            if (entries.remove(keys.next()) != null)
+                evictions.increment();
+        }
+    }
+
+    /**
+     * Normalize whitespace outside quoted strings, so that trivially different
+     * queries share an entry
+     *
+     * @param cql query
+     * @return query with whitespace collapsed and trimmed
+     */
+    static String normalize(String cql) {
+        StringBuilder sb = new StringBuilder(cql.length());
+        boolean quoted = false;
+        boolean escaped = false;
+        boolean space = false;
+        for (int i = 0 ; i < cql.length() ; i++) {
+            char c = cql.charAt(i);
+            if (quoted) {
+                sb.append(c);
+                if (escaped)
+                    escaped = false;
+                else if (c == '\\')
+                    escaped = true;
+                else if (c == '"')
+                    quoted = false;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length() != 0)
+                    sb.append(' ');
+                space = false;
+                sb.append(c);
+                if (c == '"')
+                    quoted = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Generation {
+
+        private final SolrRules rules;
+        private final ConcurrentHashMap<Key, SolrQueryFields> entries;
+
+        private Generation(SolrRules rules) {
+            this.rules = rules;
+            this.entries = new ConcurrentHashMap<>();
+        }
+    }
+
+    private static final class Key {
+
+        private final String cql;
+        private final String profileFilter;
+        private final int hash;
+
+        private Key(String cql, String profileFilter) {
+            this.cql = cql;
+            this.profileFilter = profileFilter;
+            this.hash = 31 * cql.hashCode() + Objects.hashCode(profileFilter);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            Key other = (Key) obj;
+            return hash == other.hash &&
+                   cql.equals(other.cql) &&
+                   Objects.equals(profileFilter, other.profileFilter);
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package dk.dbc.opensearch.solr.profile;
 
+import dk.dbc.opensearch.solr.QueryBuilder;
 import dk.dbc.opensearch.solr.flatquery.FlatQueryOr;
 import java.io.Serializable;
 import java.util.Collections;
@@ -48,6 +49,7 @@ public class Profile implements Serializable {
     private final FlatQueryOr searchFilterQuery;
     private final FlatQueryOr relationFilterQuery;
     private final Map<String, Set<String>> relations;
+    private transient volatile String searchFilter;
 
     /**
      * Store the values
@@ -66,6 +68,20 @@ public class Profile implements Serializable {
         return searchFilterQuery;
     }
 
+    /**
+     * The search filter as a SolR query
+     * <p>
+     * This identifies the profile, when caching queries translated with it
+     *
+     * @return SolR query string
+     */
+    public String getSearchFilter() {
+        String filter = searchFilter;
+        if (filter == null)
+            searchFilter = filter = QueryBuilder.queryFrom(searchFilterQuery);
+        return filter;
+    }
+
     public FlatQueryOr getRelationFilterQuery() {
         return relationFilterQuery;
     }
@@ -85,6 +85,7 @@ public class Profiles implements Serializable {
     private final FieldSpec collectionIdentifierSpec;
     private final String collectionIdentifierIndex;
     private final Map<String, Entry> profileSpecs;
+    private final long created;
 
     private Profiles(SolrRules solrRules, OAProfileResponse response) {
         // The field spec
@@ -99,6 +100,18 @@ public class Profiles implements Serializable {
                 .collect(Collectors.toMap(profile -> profile.profileName,
                                           this::makeProfileEntry));
         this.profiles = new HashMap<>();
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * When this was built from an open agency response
+     * <p>
+     * Used for refreshing cached profiles before they expire
+     *
+     * @return epoch milliseconds
+     */
+    public long getCreated() {
+        return created;
     }
 
     /**
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr.resultset;
+
+import java.io.Serializable;
+
+/**
+ * The counts of a search, without the work structure
+ * <p>
+ * This is what a search with stepValue=0 needs, and is cached separately from
+ * the result sets
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class HitCount implements Serializable {
+
+    private static final long serialVersionUID = 3551497722093215748L;
+
+    private final long solrHitCount;
+    private final long workCount;
+
+    public HitCount(long solrHitCount, long workCount) {
+        this.solrHitCount = solrHitCount;
+        this.workCount = workCount;
+    }
+
+    /**
+     * Construct from the current state of a result set
+     * <p>
+     * The work count is estimated until the result set is complete
+     *
+     * @param resultSet the result set
+     * @return hit counts
+     */
+    public static HitCount of(ResultSet resultSet) {
+        return new HitCount(resultSet.getSolrHitCount(), resultSet.getHitCount());
+    }
+
+    /**
+     * The number of rows in the SolR
+     *
+     * @return hit count
+     */
+    public long getSolrHitCount() {
+        return solrHitCount;
+    }
+
+    /**
+     * The number of works (collections)
+     *
+     * @return collection count
+     */
+    public long getWorkCount() {
+        return workCount;
+    }
+
+    @Override
+    public String toString() {
+        return "HitCount{" + "solrHitCount=" + solrHitCount + ", workCount=" + workCount + '}';
+    }
+}
@@ -18,26 +18,35 @@
  */
 package dk.dbc.opensearch.solr.resultset;
 
+import dk.dbc.opensearch.utils.TimerSlot;
+
 /**
  *
  * @author DBC {@literal <dbc.dk>}
  */
 public enum QueryType {
     BUILD_WORK("build work", "solrWorkBuild"),
-    EXPAND_WORK("expand work", "solrWorkExpand");
+    EXPAND_WORK("expand work", "solrWorkExpand"),
+    COUNT("count hits", "solrHitCount");
 
     private final String logName;
     private final String timingName;
+    private final TimerSlot timerSlot;
 
     private QueryType(String logName, String timingName) {
         this.logName = logName;
         this.timingName = timingName;
+        this.timerSlot = TimerSlot.of(timingName);
     }
 
     public String getTimingName() {
         return timingName;
     }
 
+    public TimerSlot getTimerSlot() {
+        return timerSlot;
+    }
+
     public String getLogName() {
         return logName;
     }
@@ -19,11 +19,14 @@
 package dk.dbc.opensearch.solr.resultset;
 
 import dk.dbc.opensearch.solr.SolrQueryFields;
+import dk.dbc.opensearch.utils.Deadline;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
 import dk.dbc.opensearch.utils.Timing;
 import dk.dbc.opensearch.utils.UserMessage;
 import dk.dbc.opensearch.utils.UserMessageException;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -31,14 +34,21 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.Group;
+import org.apache.solr.client.solrj.response.GroupCommand;
+import org.apache.solr.client.solrj.response.GroupResponse;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.GroupParams;
+import org.apache.solr.common.util.NamedList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,12 +72,20 @@ import static org.apache.solr.client.solrj.util.ClientUtils.escapeQueryChars;
  * <p>
  * The manifestations should not be ordered at this point. When presented, the
  * order is determined by OpenAgency showOrder.
+ * <p>
+ * When cached, the result set can be transferred in slices: A
+ * {@link #slice(int, int)} holds only the work structure of the works on a
+ * page, and if no more works has to be found for the page, only the work ids
+ * of the page (a window). The changes made to a slice are collected in a
+ * {@link Delta}, that can be {@link #apply(dk.dbc.opensearch.solr.resultset.ResultSet.Delta) applied}
+ * to the original result set. This way, only the page and the changes are
+ * transferred, not the entire result set.
  *
  * @author DBC {@literal <dbc.dk>}
  */
-public abstract class ResultSet implements Serializable {
+public abstract class ResultSet implements Serializable, Cloneable {
 
-    private static final long serialVersionUID = -6814210766876494993L;
+    private static final long serialVersionUID = 2284601937385517398L;
 
     private static final Logger log = LoggerFactory.getLogger(ResultSet.class);
 
@@ -75,32 +93,66 @@ public abstract class ResultSet implements Serializable {
     public static final String UNIT_ID = "rec.unitId";
     public static final String MANIFESTATION_ID = "rec.manifestationId";
     public static final String ID = "id";
+    public static final String SCORE = "score";
+
+    static final String NO_EXPLANATION = "No explanation";
+
+    // Name of the JSON facet counting distinct works
+    private static final String WORK_COUNT_FACET = "works";
 
     public static ResultSet EMPTY_RESULT_SET = new ResultSetEmpty();
 
     private static final int SOLR_CLOUD_MAX_ROWS = 10000;
+    // Rows fetched per work when grouping, works with more rows are expanded
+    private static final int GROUP_LIMIT = 100;
 
+    // The collections aren't final, since a slice is a clone with copies of
+    // (parts of) the collections
+    // They're transient, they're serialized by ResultSetCodec
     // The reason for the List is that we need the units in the order they appear
-    private final Map<String, List<String>> workToUnits;
-    private final Map<String, Set<String>> unitToManifestations;
+    private transient Map<String, List<String>> workToUnits;
+    private transient Map<String, Set<String>> unitToManifestations;
     // workOrder is the order in which work-id's are added to workToUnit.
     // They could be handled by a ordererd map, however some claim
     // that when a ordered map has been Serialized the order is not always kept
     // - this seems unlikely to me, however tracking an error like that will be
     // expensive and we need access to work-ids by position anyway.
-    private final List<String> workOrder;
-    private final Set<String> worksExpanded;
-    private final Map<String, String> unitExplain;
+    private transient List<String> workOrder;
+    private transient Set<String> worksExpanded;
+    private transient Map<String, String> unitExplain;
     private final SolrQueryFields solrQuery;
     private final boolean allObjects;
     private final boolean queryDebug;
+    private final WorkDiscovery workDiscovery;
+    // Where to continue from when workDiscovery is CURSOR
+    private String cursorMark;
+    private long rowsSeen;
     private boolean complete;
     // Estimated number of works until complete, then exact number of works
     private long hitCount;
     private long solrHitCount;
+    // Number of deltas applied
+    private long version;
+    // If this is a slice, where only the works of a page has a work structure
+    private boolean partial;
+    // In a slice with a window of the work order: the number of works before
+    // the first one in workOrder
+    private int windowStart;
+    // In a slice with a window of the work order: the number of expanded
+    // works, that aren't in worksExpanded
+    private int expandedOutsideWindow;
 
     private transient SolrClient client;
     private transient StatisticsRecorder recorder;
+    private transient Deadline deadline;
+    private transient RowsPerWork.Estimate rowsPerWork;
+    // Number of rounds in the current findWorks that came up short of works
+    private transient int shortfalls;
+    private transient int rowsFetched;
+    // Changes made to a slice, since it was made (or the last delta was taken)
+    private transient Delta delta;
+    // All the work ids of a slice, for telling works outside the page from new
+    private transient Set<String> knownWorks;
 
     private ResultSet() {
         this.workToUnits = EMPTY_MAP;
@@ -111,12 +163,23 @@ public abstract class ResultSet implements Serializable {
         this.solrQuery = null;
         this.allObjects = false;
         this.queryDebug = false;
+        this.workDiscovery = WorkDiscovery.FILTER;
+        this.cursorMark = null;
+        this.rowsSeen = 0;
         this.complete = true;
         this.hitCount = -1;
         this.solrHitCount = -1;
+        this.version = 0;
+        this.partial = false;
+        this.windowStart = 0;
+        this.expandedOutsideWindow = 0;
     }
 
     public ResultSet(SolrQueryFields solrQuery, boolean allObjects, boolean queryDebug) {
+        this(solrQuery, allObjects, queryDebug, WorkDiscovery.FILTER);
+    }
+
+    public ResultSet(SolrQueryFields solrQuery, boolean allObjects, boolean queryDebug, WorkDiscovery workDiscovery) {
         this.workToUnits = new HashMap<>();
         this.unitToManifestations = new HashMap<>();
         this.workOrder = new ArrayList<>();
@@ -125,7 +188,14 @@ public abstract class ResultSet implements Serializable {
         this.solrQuery = solrQuery;
         this.allObjects = allObjects;
         this.queryDebug = queryDebug;
+        this.workDiscovery = workDiscovery;
+        this.cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        this.rowsSeen = 0;
         this.complete = false;
+        this.version = 0;
+        this.partial = false;
+        this.windowStart = 0;
+        this.expandedOutsideWindow = 0;
     }
 
     /**
@@ -219,9 +289,11 @@ public abstract class ResultSet implements Serializable {
      * @return id of work
      */
     public String workAtIndex(int index) {
-        if (index - 1 >= worksExpanded.size())
+        if (index - 1 >= expandedOutsideWindow + worksExpanded.size())
             throw new IllegalStateException("Asking for a work that isn't expanded");
-        return workOrder.get(index - 1);
+        if (index - 1 < windowStart)
+            throw new IllegalStateException("Asking for a work that is outside the slice");
+        return workOrder.get(index - 1 - windowStart);
     }
 
     /**
@@ -241,7 +313,7 @@ public abstract class ResultSet implements Serializable {
      * @return Explanation
      */
     public String explainForUnit(String unit) {
-        return unitExplain.getOrDefault(unit, "No explanation");
+        return unitExplain.getOrDefault(unit, NO_EXPLANATION);
     }
 
     /**
@@ -260,8 +332,55 @@ public abstract class ResultSet implements Serializable {
      * @return List of work ids starting at position start (empty in no hits/no
      *         more)
      */
-    public synchronized List<String> fetchWorks(SolrClient client, StatisticsRecorder recorder, int start, int step, String trackingId) {
+    public List<String> fetchWorks(SolrClient client, StatisticsRecorder recorder, int start, int step, String trackingId) {
+        return fetchWorks(client, null, recorder, start, step, trackingId);
+    }
+
+    /**
+     * Fill in work structure and expand the wanted works
+     * <p>
+     * This is the main entry point for the class
+     * <p>
+     * It is synchronized, since multiple threads shouldn't compete for fetching
+     * data
+     *
+     * @param client      SolR client to perform queries with
+     * @param rowsPerWork Statistics for computing the number of rows needed to
+     *                    get a number of works (null for fixed row count)
+     * @param recorder    Where timings are logged
+     * @param start       The first result position wanted (origin=1)
+     * @param step        The number of results wanted
+     * @param trackingId  The tracking id - added to SolR requests
+     * @return List of work ids starting at position start (empty in no hits/no
+     *         more)
+     */
+    public List<String> fetchWorks(SolrClient client, RowsPerWork.Estimate rowsPerWork, StatisticsRecorder recorder, int start, int step, String trackingId) {
+        return fetchWorks(client, rowsPerWork, Deadline.NONE, recorder, start, step, trackingId);
+    }
+
+    /**
+     * Fill in work structure and expand the wanted works, within a time limit
+     * <p>
+     * The remaining time is sent to SolR as timeAllowed, and if the deadline
+     * has passed, or SolR reports partial results, the build is stopped with
+     * a {@link UserMessage#TIMEOUT}. The result set is left in a consistent
+     * state, the next request continues from where this stopped.
+     *
+     * @param client      SolR client to perform queries with
+     * @param rowsPerWork Statistics for computing the number of rows needed to
+     *                    get a number of works (null for fixed row count)
+     * @param deadline    When the SolR requests should be done
+     * @param recorder    Where timings are logged
+     * @param start       The first result position wanted (origin=1)
+     * @param step        The number of results wanted
+     * @param trackingId  The tracking id - added to SolR requests
+     * @return List of work ids starting at position start (empty in no hits/no
+     *         more)
+     */
+    public synchronized List<String> fetchWorks(SolrClient client, RowsPerWork.Estimate rowsPerWork, Deadline deadline, StatisticsRecorder recorder, int start, int step, String trackingId) {
         this.client = client;
+        this.rowsPerWork = rowsPerWork;
+        this.deadline = deadline;
         this.recorder = recorder;
         // Since start origin is 1 this produces atleast one work more than
         // wanted - which in turn allows for the "has more" value
@@ -269,14 +388,196 @@ public abstract class ResultSet implements Serializable {
         int workCount = worksFound();
         int first = Integer.min(start - 1, workCount);
         int last = Integer.min(start - 1 + step, workCount);
-        List<String> worksInRange = workOrder.subList(first, last);
+        if (first < windowStart)
+            throw new IllegalStateException("Asking for works that are outside the slice");
+        List<String> worksInRange = workOrder.subList(first - windowStart, last - windowStart);
         ensureWorksAreExpanded(worksInRange, trackingId);
-        worksExpanded.addAll(worksInRange);
+        markExpanded(worksInRange);
         return unmodifiableList(worksInRange);
     }
 
+    /**
+     * Make a copy of the result set, suitable for producing a page
+     * <p>
+     * The copy has the hit counts, and only the units/manifestations/explains
+     * of the works on the page. If more works has to be found for the page,
+     * and the work discovery needs to know all the works seen (FILTER excludes
+     * them in the query, CURSOR skips rows of works seen before), the copy has
+     * the entire work order. Otherwise it only has the works of the page and
+     * the number of works before them. Calling
+     * {@link #fetchWorks(org.apache.solr.client.solrj.SolrClient, dk.dbc.opensearch.solr.resultset.RowsPerWork.Estimate, dk.dbc.opensearch.utils.StatisticsRecorder, int, int, java.lang.String)}
+     * with the same start/step on the copy gives the same result as on the
+     * original, and the changes made are recorded, and can be taken using
+     * {@link #takeDelta()}
+     *
+     * @param start The first result position wanted (origin=1)
+     * @param step  The number of results wanted
+     * @return new result set
+     */
+    public synchronized ResultSet slice(int start, int step) {
+        if (partial)
+            throw new IllegalStateException("Cannot slice a slice");
+        int workCount = worksFound();
+        int first = Integer.min(start - 1, workCount);
+        int last = Integer.min(start - 1 + step, workCount);
+        // Same condition as in findWorks, when called from fetchWorks
+        boolean findsWorks = !complete && workCount <= start + step;
+        ResultSet slice;
+        try {
+            slice = (ResultSet) clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new IllegalStateException("ResultSet should be cloneable", ex);
+        }
+        if (findsWorks && workDiscovery != WorkDiscovery.GROUPED) {
+            slice.workOrder = new ArrayList<>(workOrder);
+            slice.worksExpanded = new HashSet<>(worksExpanded);
+            slice.windowStart = 0;
+            slice.expandedOutsideWindow = 0;
+        } else {
+            // GROUPED continues after the works found, so the window has to
+            // end there (at most one work after the page)
+            List<String> window = workOrder.subList(first, findsWorks ? workCount : last);
+            slice.workOrder = new ArrayList<>(window);
+            slice.worksExpanded = new HashSet<>();
+            for (String work : window) {
+                if (worksExpanded.contains(work))
+                    slice.worksExpanded.add(work);
+            }
+            slice.windowStart = first;
+            slice.expandedOutsideWindow = worksExpanded.size() - slice.worksExpanded.size();
+        }
+        slice.workToUnits = new HashMap<>();
+        slice.unitToManifestations = new HashMap<>();
+        slice.unitExplain = new HashMap<>();
+        for (String work : workOrder.subList(first, last)) {
+            List<String> units = workToUnits.get(work);
+            slice.workToUnits.put(work, new ArrayList<>(units));
+            for (String unit : units) {
+                slice.unitToManifestations.put(unit, new HashSet<>(unitToManifestations.get(unit)));
+                String explain = unitExplain.get(unit);
+                if (explain != null)
+                    slice.unitExplain.put(unit, explain);
+            }
+        }
+        slice.partial = true;
+        slice.delta = null;
+        slice.knownWorks = null;
+        return slice;
+    }
+
+    /**
+     * Take the changes made to a slice
+     * <p>
+     * The changes are forgotten, so the next call only returns changes made
+     * after this call
+     *
+     * @return The changes, or null if nothing has changed
+     */
+    public synchronized Delta takeDelta() {
+        if (!partial)
+            throw new IllegalStateException("Only a slice has changes recorded");
+        Delta changes = delta;
+        if (changes == null)
+            return null;
+        delta = null;
+        changes.cursorMark = cursorMark;
+        changes.rowsSeen = rowsSeen;
+        changes.complete = complete;
+        changes.hitCount = hitCount;
+        changes.solrHitCount = solrHitCount;
+        version++;
+        return changes;
+    }
+
+    /**
+     * Add the changes made to a slice to this result set
+     * <p>
+     * The manifestations and expanded works are merged. The query state (hit
+     * counts and where to continue from) is only taken, if nothing else has
+     * been applied since the slice was made. Otherwise the query state of this
+     * is kept, which at most results in rows being fetched (and merged) again.
+     *
+     * @param changes The delta taken from a slice of this
+     */
+    public synchronized void apply(Delta changes) {
+        if (partial)
+            throw new IllegalStateException("Cannot apply changes to a slice");
+        List<String> registrations = changes.registrations;
+        for (int i = 0 ; i < registrations.size() ; i += 4) {
+            registerManifestation(registrations.get(i), registrations.get(i + 1),
+                                  registrations.get(i + 2), registrations.get(i + 3));
+        }
+        worksExpanded.addAll(changes.expanded);
+        if (changes.baseVersion == version) {
+            cursorMark = changes.cursorMark;
+            rowsSeen = changes.rowsSeen;
+            complete = changes.complete;
+            hitCount = changes.hitCount;
+            solrHitCount = changes.solrHitCount;
+        } else {
+            log.debug("ResultSet has been updated since slice was made ({} vs {}), keeping query state", changes.baseVersion, version);
+        }
+        version++;
+    }
+
+    /**
+     * Count the hits and the works, without building the work structure
+     * <p>
+     * This is a single SolR request with rows=0, where the works are counted
+     * using a JSON facet: unique(work-field). The result set isn't modified,
+     * so it shouldn't be cached.
+     *
+     * @param client     SolR client to perform queries with
+     * @param recorder   Where timings are logged
+     * @param trackingId The tracking id - added to SolR requests
+     * @return the hit counts
+     */
+    public HitCount countHits(SolrClient client, StatisticsRecorder recorder, String trackingId) {
+        return countHits(client, Deadline.NONE, recorder, trackingId);
+    }
+
+    /**
+     * Count the hits of the query, without building the work structure,
+     * within a time limit
+     *
+     * @param client     SolR client to perform queries with
+     * @param deadline   When the SolR request should be done
+     * @param recorder   Where timings are logged
+     * @param trackingId The tracking id - added to SolR requests
+     * @return the hit counts
+     */
+    public synchronized HitCount countHits(SolrClient client, Deadline deadline, StatisticsRecorder recorder, String trackingId) {
+        this.client = client;
+        this.deadline = deadline;
+        this.recorder = recorder;
+        String workField = nameOfWorkField();
+        SolrQuery query = solrQuery.asSolrQuery();
+        query.set("trackingId", trackingId);
+        query.setFacet(false);
+        query.setHighlight(false);
+        query.setMoreLikeThis(false);
+        query.setShowDebugInfo(false);
+        query.setTerms(false);
+        query.setStart(0);
+        query.setRows(0);
+        query.setFields(nameOfIdField());
+        query.set("json.facet", "{" + WORK_COUNT_FACET + ":\"unique(" + workField + ")\"}");
+        QueryResponse response = performQuery(query, QueryType.COUNT);
+        long rows = response.getResults().getNumFound();
+        if (rows == 0)
+            return new HitCount(0, 0);
+        Object facets = response.getResponse().get("facets");
+        if (facets instanceof NamedList) {
+            Object works = ( (NamedList) facets ).get(WORK_COUNT_FACET);
+            if (works instanceof Number)
+                return new HitCount(rows, ( (Number) works ).longValue());
+        }
+        log.error("SolrError: {}: No unique count of field: {}", QueryType.COUNT.getLogName(), workField);
+        throw new UserMessageException(UserMessage.BACKEND_SOLR);
+    }
+
     private int worksFound() {
-        return workOrder.size();
+        return windowStart + workOrder.size();
     }
 
     /**
@@ -289,7 +590,7 @@ public abstract class ResultSet implements Serializable {
      * @return If this is before anything has been fetched
      */
     protected boolean noWorksFound() {
-        return workOrder.isEmpty();
+        return worksFound() == 0;
     }
 
     /**
@@ -344,6 +645,8 @@ public abstract class ResultSet implements Serializable {
      */
     private void registerManifestation(String work, String unit, String manifestation, String explain) {
         log.trace("registering: {}/{}/{}", work, unit, manifestation);
+        if (partial)
+            changes().registered(work, unit, manifestation, explain);
         Set<String> manifestationsInUnit = unitToManifestations
                 .computeIfAbsent(unit, u -> registerUnit(work, unit, explain));
         manifestationsInUnit.add(manifestation);
@@ -378,10 +681,47 @@ public abstract class ResultSet implements Serializable {
      * @return A new empty list of units
      */
     private List<String> registerWork(String work) {
-        workOrder.add(work);
+        // In a slice, the work could be outside the page, and shouldn't be
+        // added to the work order again
+        if (!partial || knownWorks().add(work))
+            workOrder.add(work);
         return new ArrayList<>();
     }
 
+    /**
+     * The work ids known by a slice
+     *
+     * @return set of work ids (modifiable)
+     */
+    private Set<String> knownWorks() {
+        if (knownWorks == null)
+            knownWorks = new HashSet<>(workOrder);
+        return knownWorks;
+    }
+
+    /**
+     * Mark works as fully expanded
+     *
+     * @param works The ids of the works
+     */
+    private void markExpanded(Collection<String> works) {
+        for (String work : works) {
+            if (worksExpanded.add(work) && partial)
+                changes().expanded.add(work);
+        }
+    }
+
+    /**
+     * The changes of a slice, since it was made or the last delta was taken
+     *
+     * @return delta object
+     */
+    private Delta changes() {
+        if (delta == null)
+            delta = new Delta(version);
+        return delta;
+    }
+
     /**
      * Find work ids until enough are seen
      *
@@ -392,24 +732,67 @@ public abstract class ResultSet implements Serializable {
      * @throws IOException         If there's a communication problem
      */
     private void findWorks(int workCount, String trackingId) {
+        shortfalls = 0;
         while (!complete && worksFound() <= workCount) {
             SolrQuery query = solrQuery.asSolrQuery();
             query.set("trackingId", trackingId);
-            query.setRows(getFetchRows(workCount - worksFound()));
+            int worksWanted = workCount - worksFound();
+            if (workDiscovery == WorkDiscovery.GROUPED)
+                query.setRows(worksWanted + 1);
+            else
+                query.setRows(getFetchRows(worksWanted));
             setQueryFields(query);
             boolean firstRun = noWorksFound();
+            int worksBefore = worksFound();
+            rowsFetched = 0;
             complete = fetchMore(query, firstRun);
+            learnRowsPerWork(worksFound() - worksBefore);
+            shortfalls++;
             if (complete) {
                 hitCount = worksFound(); // Exact work count
-                if (firstRun && !allObjects)
-                    // Not allAbjects and complete without skipping seen works (firstRun)
-                    // everything is fetched from SolR, all works are fully
-                    // expanded
-                    worksExpanded.addAll(workOrder);
+                if (allRowsRegistered(firstRun) && !allObjects)
+                    // Not allAbjects and complete without skipping seen works
+                    // (firstRun or cursor paging) everything is fetched from
+                    // SolR, all works are fully expanded
+                    markExpanded(workOrder);
             }
         }
     }
 
+    /**
+     * Feed the outcome of a SolR request into the rows per work statistics
+     *
+     * @param worksAdded The number of new works the request gave
+     */
+    private void learnRowsPerWork(int worksAdded) {
+        if (rowsPerWork == null || workDiscovery == WorkDiscovery.GROUPED)
+            return;
+        rowsPerWork.observed(rowsFetched, worksAdded);
+        double ratio = rowsPerWork.getRatio();
+        if (!Double.isNaN(ratio))
+            recorder.value("solrRowsPerWork", String.format(Locale.ROOT, "%.2f", ratio));
+    }
+
+    /**
+     * When the result set is complete, has every row of the SolR result set
+     * been registered
+     *
+     * @param firstRun If the result set was completed by the initial query
+     * @return if all works are fully expanded (given that allObjects isn't
+     *         set)
+     */
+    private boolean allRowsRegistered(boolean firstRun) {
+        switch (workDiscovery) {
+            case CURSOR:
+                return true;
+            case GROUPED:
+                // Works are marked as expanded group by group
+                return false;
+            default:
+                return firstRun;
+        }
+    }
+
     /**
      * Find work ids until enough are seen
      * <p>
@@ -422,6 +805,10 @@ public abstract class ResultSet implements Serializable {
      * @return if all rows in the SolR result set has been read
      */
     protected boolean fetchMore(SolrQuery query, boolean firstRun) {
+        if (workDiscovery == WorkDiscovery.CURSOR)
+            return fetchMoreFromCursor(query, firstRun);
+        if (workDiscovery == WorkDiscovery.GROUPED)
+            return fetchMoreGrouped(query, firstRun);
         if (!firstRun)
             filterOutSeenWorks(query);
         query.setStart(0);
@@ -432,12 +819,110 @@ public abstract class ResultSet implements Serializable {
         resultList.forEach(result -> registerManifestation(result, explainMap));
         long rowsFound = resultList.getNumFound();
         int rowsFetched = resultList.size();
+        this.rowsFetched = rowsFetched;
         if (firstRun)
             approximateHitCount(rowsFetched, rowsFound);
         boolean fetchedAllResults = rowsFound == rowsFetched;
         return fetchedAllResults;
     }
 
+    /**
+     * Find work ids by continuing from the cursorMark of the last request
+     * <p>
+     * Unlike {@link #filterOutSeenWorks(org.apache.solr.client.solrj.SolrQuery)}
+     * the query doesn't grow with the number of works seen, and SolR doesn't
+     * need to skip already seen rows
+     *
+     * @param query    The SolR query
+     * @param firstRun If this is the initial query and
+     *                 {@link #approximateHitCount(int, long)} should be called
+     * @return if all rows in the SolR result set has been read
+     */
+    private boolean fetchMoreFromCursor(SolrQuery query, boolean firstRun) {
+        query.setStart(0);
+        query.setShowDebugInfo(queryDebug);
+        // cursorMark requires a total ordering, ending with the uniqueKey
+        query.addSort(SCORE, SolrQuery.ORDER.desc);
+        query.addSort(nameOfIdField(), SolrQuery.ORDER.asc);
+        query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        QueryResponse response = performQuery(query, QueryType.BUILD_WORK);
+        SolrDocumentList resultList = response.getResults();
+        Map<String, String> explainMap = queryDebug ? response.getExplainMap() : EMPTY_MAP;
+        resultList.forEach(result -> registerManifestation(result, explainMap));
+        long rowsFound = resultList.getNumFound();
+        int rowsFetched = resultList.size();
+        this.rowsFetched = rowsFetched;
+        rowsSeen += rowsFetched;
+        if (firstRun)
+            approximateHitCount(rowsFetched, rowsFound);
+        String nextCursorMark = response.getNextCursorMark();
+        boolean fetchedAllResults = rowsSeen >= rowsFound ||
+                                    nextCursorMark == null ||
+                                    nextCursorMark.equals(cursorMark);
+        cursorMark = nextCursorMark;
+        return fetchedAllResults;
+    }
+
+    /**
+     * Find work ids by letting SolR group the rows by work
+     * <p>
+     * The rows of the query is the number of works wanted, and the works
+     * already seen are skipped by SolR. The hit counts are exact, and not
+     * approximated.
+     *
+     * @param query    The SolR query
+     * @param firstRun If this is the initial query and the hit counts should
+     *                 be set
+     * @return if all works in the SolR result set has been read
+     */
+    private boolean fetchMoreGrouped(SolrQuery query, boolean firstRun) {
+        String workField = nameOfWorkField();
+        query.setStart(worksFound());
+        query.setShowDebugInfo(queryDebug);
+        query.set(GroupParams.GROUP, true);
+        query.set(GroupParams.GROUP_FIELD, workField);
+        query.set(GroupParams.GROUP_LIMIT, GROUP_LIMIT);
+        query.set(GroupParams.GROUP_TOTAL_COUNT, true);
+        QueryResponse response = performQuery(query, QueryType.BUILD_WORK);
+        GroupCommand groups = groupCommand(response, workField);
+        Map<String, String> explainMap = queryDebug ? response.getExplainMap() : EMPTY_MAP;
+        for (Group group : groups.getValues()) {
+            SolrDocumentList resultList = group.getResult();
+            resultList.forEach(result -> registerManifestation(result, explainMap));
+            if (!allObjects && resultList.getNumFound() <= resultList.size())
+                markExpanded(singletonList(group.getGroupValue()));
+        }
+        Integer workCount = groups.getNGroups();
+        if (workCount == null) {
+            log.warn("SolR didn't supply ngroups - work count is approximated");
+            workCount = groups.getValues().size() < query.getRows() ? worksFound() : worksFound() + 1;
+        }
+        if (firstRun) {
+            this.solrHitCount = groups.getMatches();
+            this.hitCount = workCount;
+        }
+        return worksFound() >= workCount;
+    }
+
+    /**
+     * Locate the grouping of a given field in a SolR response
+     *
+     * @param response  The SolR response
+     * @param fieldName The field that has been grouped upon
+     * @return The grouping
+     */
+    private GroupCommand groupCommand(QueryResponse response, String fieldName) {
+        GroupResponse groupResponse = response.getGroupResponse();
+        if (groupResponse != null) {
+            for (GroupCommand command : groupResponse.getValues()) {
+                if (fieldName.equals(command.getName()))
+                    return command;
+            }
+        }
+        log.error("SolrError: {}: No grouping on field: {}", QueryType.BUILD_WORK.getLogName(), fieldName);
+        throw new UserMessageException(UserMessage.BACKEND_SOLR);
+    }
+
     /**
      * Given the works the user wants to see, make sure the entire work
      * structure for those ids is expanded
@@ -497,14 +982,28 @@ public abstract class ResultSet implements Serializable {
      */
     protected QueryResponse performQuery(SolrQuery query, QueryType queryType) {
         try {
+            if (deadline != null && deadline.isLimited()) {
+                if (deadline.hasExpired()) {
+                    log.warn("SolrError: {}: Deadline passed before query", queryType.getLogName());
+                    throw new UserMessageException(UserMessage.TIMEOUT);
+                }
+                query.setTimeAllowed(deadline.remainingMs());
+            }
             log.trace("fetching: {}", query);
+            if (partial)
+                changes(); // The query state changes
             QueryResponse response;
-            try (Timing timer = recorder.timer(queryType.getTimingName())) {
+            try (Timing timer = recorder.timer(queryType.getTimerSlot())) {
                 response = client.query(query, POST);
             }
             log.trace("retrieved: {}", response);
             if (response.getStatus() != 0)
                 throw new SolrServerException(String.valueOf(response.getResponse().get("error")));
+            if (isPartialResponse(response)) {
+                // Registering a partial response would make the work structure wrong
+                log.warn("SolrError: {}: timeAllowed exceeded", queryType.getLogName());
+                throw new UserMessageException(UserMessage.TIMEOUT);
+            }
             return response;
         } catch (SolrServerException | IOException ex) {
             String logName = queryType.getLogName();
@@ -515,6 +1014,17 @@ public abstract class ResultSet implements Serializable {
         }
     }
 
+    /**
+     * Has SolR given up on the query, due to timeAllowed
+     *
+     * @param response the SolR response
+     * @return if the documents found aren't all there is
+     */
+    private static boolean isPartialResponse(QueryResponse response) {
+        NamedList<Object> header = response.getResponseHeader();
+        return header != null && Boolean.TRUE.equals(header.get("partialResults"));
+    }
+
     /**
      * Expand the query to filter out already seen works
      *
@@ -547,11 +1057,13 @@ public abstract class ResultSet implements Serializable {
         String workField = nameOfWorkField();
         StringBuilder q = new StringBuilder();
         q.append(workField).append(":(");
-        for (Iterator<String> iterator = workOrder.iterator() ; iterator.hasNext() ;) {
-            String workId = iterator.next();
-            q.append(escapeQueryChars(workId));
-            if (iterator.hasNext())
-                q.append(" OR ");
+        // Only the wanted works, but in a predictable order
+        String sep = "";
+        for (String workId : workOrder) {
+            if (worksWanted.contains(workId)) {
+                q.append(sep).append(escapeQueryChars(workId));
+                sep = " OR ";
+            }
         }
         q.append(')');
         if (!allObjects)
@@ -603,6 +1115,9 @@ public abstract class ResultSet implements Serializable {
      * For optimization purposes (minimize the number of rows fetched, but still
      * get enough to build the works in one round trip, and estimate a hit
      * count)
+     * <p>
+     * If statistics has been supplied, the number is computed from the learned
+     * rows per work ratio, and grows for every round trip that came up short
      *
      * @param wantedWorkCount the number of works to create from a single SolR
      *                        query
@@ -610,12 +1125,70 @@ public abstract class ResultSet implements Serializable {
      *         works
      */
     protected int getFetchRows(int wantedWorkCount) {
-        return 1000;
+        int rows = rowsPerWork == null ?
+                   RowsPerWork.DEFAULT_ROWS :
+                   rowsPerWork.rowsFor(wantedWorkCount, shortfalls);
+        recorder.value("solrFetchRows", String.valueOf(rows));
+        return rows;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        ResultSetCodec.write(workOrder, worksExpanded, workToUnits, unitToManifestations, unitExplain, out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        workOrder = new ArrayList<>();
+        worksExpanded = new HashSet<>();
+        workToUnits = new HashMap<>();
+        unitToManifestations = new HashMap<>();
+        unitExplain = new HashMap<>();
+        ResultSetCodec.read(in, workOrder, worksExpanded, workToUnits, unitToManifestations, unitExplain);
     }
 
     @Override
     public String toString() {
-        return "ResultSet{" + "workToUnits=" + workToUnits + ", unitToManifestations=" + unitToManifestations + ", workOrder=" + workOrder + ", worksExpanded=" + worksExpanded + ", solrQuery=" + solrQuery + ", allObjects=" + allObjects + ", complete=" + complete + ", hitCount=" + hitCount + ", solrHitCount=" + solrHitCount + '}';
+        return "ResultSet{" + "workToUnits=" + workToUnits + ", unitToManifestations=" + unitToManifestations + ", workOrder=" + workOrder + ", worksExpanded=" + worksExpanded + ", solrQuery=" + solrQuery + ", allObjects=" + allObjects + ", workDiscovery=" + workDiscovery + ", cursorMark=" + cursorMark + ", complete=" + complete + ", hitCount=" + hitCount + ", solrHitCount=" + solrHitCount + ", version=" + version + ", partial=" + partial + ", windowStart=" + windowStart + '}';
+    }
+
+    /**
+     * The changes made to a slice of a result set
+     * <p>
+     * This is the manifestations registered (in order), the works that have
+     * been expanded, and the query state after the changes
+     */
+    public static final class Delta implements Serializable {
+
+        private static final long serialVersionUID = 2931536904157327615L;
+
+        private final long baseVersion;
+        // work, unit, manifestation, explain - for each registration
+        private final List<String> registrations;
+        private final Set<String> expanded;
+        private String cursorMark;
+        private long rowsSeen;
+        private boolean complete;
+        private long hitCount;
+        private long solrHitCount;
+
+        private Delta(long baseVersion) {
+            this.baseVersion = baseVersion;
+            this.registrations = new ArrayList<>();
+            this.expanded = new HashSet<>();
+        }
+
+        private void registered(String work, String unit, String manifestation, String explain) {
+            registrations.add(work);
+            registrations.add(unit);
+            registrations.add(manifestation);
+            registrations.add(explain);
+        }
+
+        @Override
+        public String toString() {
+            return "Delta{" + "baseVersion=" + baseVersion + ", registrations=" + registrations.size() / 4 + ", expanded=" + expanded + ", complete=" + complete + ", hitCount=" + hitCount + '}';
+        }
     }
 
     private static class ResultSetEmpty extends ResultSet {
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr.resultset;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary encoding of the work structure of a {@link ResultSet}
+ * <p>
+ * Layout:
+ * <ul>
+ * <li>version byte
+ * <li>varint number of works, followed by the work ids in order
+ * <li>the expanded works as a bitset (by position in the work order): varint
+ * number of longs, followed by the longs
+ * <li>per work (in order) a varint number of units (0 if the work structure
+ * isn't in a slice) and per unit: the unit id, the explain, a varint number of
+ * manifestations followed by the manifestation ids
+ * </ul>
+ * Ids are split after the last ':', the prefix (typically "work:", "unit:" or
+ * "870970-basis:") is written through a string table, that is built while
+ * writing, and the remainder is written as a varlong if it is a plain number,
+ * otherwise as length-prefixed UTF-8. The explains are written through the same
+ * string table, since they're usually the same.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+final class ResultSetCodec {
+
+    private static final int VERSION = 1;
+
+    // Longest number of digits, that always fit in a long
+    private static final int MAX_NUMERIC_DIGITS = 18;
+
+    private ResultSetCodec() {
+    }
+
+    /**
+     * Write a work structure to a stream
+     *
+     * @param workOrder            the work ids in order
+     * @param worksExpanded        the ids of the expanded works
+     * @param workToUnits          units of works (in order)
+     * @param unitToManifestations manifestations of units
+     * @param unitExplain          explain of units
+     * @param out                  where to write them
+     * @throws IOException if the output fails
+     */
+    static void write(List<String> workOrder, Set<String> worksExpanded,
+                      Map<String, List<String>> workToUnits, Map<String, Set<String>> unitToManifestations,
+                      Map<String, String> unitExplain, DataOutput out) throws IOException {
+        Writer writer = new Writer(out);
+        out.writeByte(VERSION);
+        writer.varInt(workOrder.size());
+        BitSet expanded = new BitSet(workOrder.size());
+        for (int i = 0 ; i < workOrder.size() ; i++) {
+            String work = workOrder.get(i);
+            writer.id(work);
+            if (worksExpanded.contains(work))
+                expanded.set(i);
+        }
+        long[] bits = expanded.toLongArray();
+        writer.varInt(bits.length);
+        for (long bit : bits) {
+            out.writeLong(bit);
+        }
+        for (String work : workOrder) {
+            List<String> units = workToUnits.getOrDefault(work, new ArrayList<>());
+            writer.varInt(units.size());
+            for (String unit : units) {
+                writer.id(unit);
+                writer.string(unitExplain.getOrDefault(unit, ResultSet.NO_EXPLANATION));
+                Set<String> manifestations = unitToManifestations.getOrDefault(unit, new HashSet<>());
+                writer.varInt(manifestations.size());
+                for (String manifestation : manifestations) {
+                    writer.id(manifestation);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a work structure from a stream
+     * <p>
+     * The collections should be empty, and are filled with the content of the
+     * stream
+     *
+     * @param in                   where to read from
+     * @param workOrder            the work ids in order
+     * @param worksExpanded        the ids of the expanded works
+     * @param workToUnits          units of works (in order)
+     * @param unitToManifestations manifestations of units
+     * @param unitExplain          explain of units
+     * @throws IOException if the input fails or is malformed
+     */
+    static void read(DataInput in, List<String> workOrder, Set<String> worksExpanded,
+                     Map<String, List<String>> workToUnits, Map<String, Set<String>> unitToManifestations,
+                     Map<String, String> unitExplain) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new StreamCorruptedException("Unknown ResultSet encoding version: " + version);
+        Reader reader = new Reader(in);
+        int workCount = reader.varInt();
+        for (int i = 0 ; i < workCount ; i++) {
+            workOrder.add(reader.id());
+        }
+        long[] bits = new long[reader.varInt()];
+        for (int i = 0 ; i < bits.length ; i++) {
+            bits[i] = in.readLong();
+        }
+        BitSet expanded = BitSet.valueOf(bits);
+        for (int i = expanded.nextSetBit(0) ; i >= 0 ; i = expanded.nextSetBit(i + 1)) {
+            if (i >= workCount)
+                throw new StreamCorruptedException("Expanded work out of range: " + i);
+            worksExpanded.add(workOrder.get(i));
+        }
+        for (String work : workOrder) {
+            int unitCount = reader.varInt();
+            if (unitCount == 0)
+                continue;
+            List<String> units = new ArrayList<>(unitCount);
+            for (int i = 0 ; i < unitCount ; i++) {
+                String unit = reader.id();
+                units.add(unit);
+                unitExplain.put(unit, reader.string());
+                int manifestationCount = reader.varInt();
+                Set<String> manifestations = new HashSet<>(manifestationCount * 4 / 3 + 1);
+                for (int j = 0 ; j < manifestationCount ; j++) {
+                    manifestations.add(reader.id());
+                }
+                unitToManifestations.put(unit, manifestations);
+            }
+            workToUnits.put(work, units);
+        }
+    }
+
+    private static final class Writer {
+
+        private final DataOutput out;
+        private final HashMap<String, Integer> strings;
+
+        private Writer(DataOutput out) {
+            this.out = out;
+            this.strings = new HashMap<>();
+        }
+
+        private void id(String id) throws IOException {
+            int split = id.lastIndexOf(':') + 1;
+            String suffix = id.substring(split);
+            boolean numeric = isNumeric(suffix);
+            Integer ref = strings.get(id.substring(0, split));
+            if (ref == null) {
+                varInt(strings.size() << 1 | ( numeric ? 1 : 0 ));
+                newString(id.substring(0, split));
+            } else {
+                varInt(ref << 1 | ( numeric ? 1 : 0 ));
+            }
+            if (numeric)
+                varLong(Long.parseLong(suffix));
+            else
+                text(suffix);
+        }
+
+        private void string(String s) throws IOException {
+            Integer ref = strings.get(s);
+            if (ref == null) {
+                varInt(strings.size());
+                newString(s);
+            } else {
+                varInt(ref);
+            }
+        }
+
+        private void newString(String s) throws IOException {
+            strings.put(s, strings.size());
+            text(s);
+        }
+
+        private void text(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void varInt(int value) throws IOException {
+            varLong(value & 0xffffffffL);
+        }
+
+        private void varLong(long value) throws IOException {
+            while (( value & ~0x7fL ) != 0) {
+                out.writeByte((int) ( value & 0x7f ) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        /**
+         * If the string can be written as a number, and read back as the
+         * same string
+         *
+         * @param s string
+         * @return if it is digits only, without leading zeros
+         */
+        private static boolean isNumeric(String s) {
+            int length = s.length();
+            if (length == 0 || length > MAX_NUMERIC_DIGITS)
+                return false;
+            if (s.charAt(0) == '0' && length != 1)
+                return false;
+            for (int i = 0 ; i < length ; i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9')
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static final class Reader {
+
+        private final DataInput in;
+        private final ArrayList<String> strings;
+
+        private Reader(DataInput in) {
+            this.in = in;
+            this.strings = new ArrayList<>();
+        }
+
+        private String id() throws IOException {
+            int value = varInt();
+            String prefix = string(value >>> 1);
+            if (( value & 1 ) != 0)
+                return prefix + varLong();
+            else
+                return prefix + text();
+        }
+
+        private String string() throws IOException {
+            return string(varInt());
+        }
+
+        private String string(int ref) throws IOException {
+            if (ref < strings.size())
+                return strings.get(ref);
+            if (ref != strings.size())
+                throw new StreamCorruptedException("Invalid string reference: " + ref);
+            String s = text();
+            strings.add(s);
+            return s;
+        }
+
+        private String text() throws IOException {
+            byte[] bytes = new byte[varInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int varInt() throws IOException {
+            long value = varLong();
+            if (value > Integer.MAX_VALUE)
+                throw new StreamCorruptedException("Malformed varint");
+            return (int) value;
+        }
+
+        private long varLong() throws IOException {
+            long value = 0;
+            for (int shift = 0 ; shift < 64 ; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) ( b & 0x7f ) << shift;
+                if (( b & 0x80 ) == 0)
+                    return value;
+            }
+            throw new StreamCorruptedException("Malformed varlong");
+        }
+    }
+}
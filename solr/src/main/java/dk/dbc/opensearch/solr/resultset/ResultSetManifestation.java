@@ -42,6 +42,10 @@ public class ResultSetManifestation extends ResultSet {
         super(solrQuery, allObjects, queryDebug);
     }
 
+    public ResultSetManifestation(SolrQueryFields solrQuery, boolean allObjects, boolean queryDebug, WorkDiscovery workDiscovery) {
+        super(solrQuery, allObjects, queryDebug, workDiscovery);
+    }
+
     @Override
     protected String nameOfIdField() {
         return ID;
@@ -39,6 +39,10 @@ public class ResultSetWork extends ResultSet {
         super(solrQuery, allObjects, queryDebug);
     }
 
+    public ResultSetWork(SolrQueryFields solrQuery, boolean allObjects, boolean queryDebug, WorkDiscovery workDiscovery) {
+        super(solrQuery, allObjects, queryDebug, workDiscovery);
+    }
+
     @Override
     protected String nameOfIdField() {
         return ID;
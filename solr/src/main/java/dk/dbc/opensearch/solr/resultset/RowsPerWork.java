@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr.resultset;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Rolling statistics of how many SolR rows it takes to produce a work
+ * <p>
+ * The ratio is learned per key (typically agency/profiles/collection-type),
+ * and used to compute how many rows to ask SolR for, when a number of works
+ * are wanted.
+ * <p>
+ * The ratio is an exponentially weighted moving average, so that it follows
+ * changes in the data/profiles, without storing any history.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class RowsPerWork {
+
+    // Rows fetched when nothing is known about the ratio
+    static final int DEFAULT_ROWS = 1000;
+    static final int MAX_ROWS = 10000;
+    // Weight of a new observation
+    private static final double ALPHA = 0.2;
+
+    private final double safetyMargin;
+    private final ConcurrentHashMap<String, AtomicLong> ratios;
+
+    /**
+     * Create a statistics structure
+     *
+     * @param safetyMarginPercent how many percent more rows than the ratio
+     *                            suggests should be fetched
+     */
+    public RowsPerWork(int safetyMarginPercent) {
+        this.safetyMargin = 1.0 + safetyMarginPercent / 100.0;
+        this.ratios = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get an estimator for a given key
+     *
+     * @param key identifier of the repository/profile combination
+     * @return estimator that learns into this structure
+     */
+    public Estimate estimateFor(String key) {
+        return new Estimate(ratios.computeIfAbsent(key, k -> new AtomicLong(Double.doubleToLongBits(Double.NaN))));
+    }
+
+    /**
+     * Snapshot of the learned ratios
+     *
+     * @return map of key to rows per work
+     */
+    public Map<String, Double> getRatios() {
+        return ratios.entrySet().stream()
+                .filter(e -> !Double.isNaN(Double.longBitsToDouble(e.getValue().get())))
+                .collect(toMap(Map.Entry::getKey, e -> Double.longBitsToDouble(e.getValue().get())));
+    }
+
+    @Override
+    public String toString() {
+        return "RowsPerWork{" + "safetyMargin=" + safetyMargin + ", ratios=" + getRatios() + '}';
+    }
+
+    /**
+     * The part of the statistics used by a single {@link ResultSet}
+     * <p>
+     * This is not serialized with the result set, it is supplied for each
+     * request
+     */
+    public class Estimate {
+
+        private final AtomicLong ratio;
+
+        private Estimate(AtomicLong ratio) {
+            this.ratio = ratio;
+        }
+
+        /**
+         * The learned rows per work ratio
+         *
+         * @return ratio or NaN if nothing has been observed yet
+         */
+        public double getRatio() {
+            return Double.longBitsToDouble(ratio.get());
+        }
+
+        /**
+         * Compute the number of rows needed to get a number of works
+         *
+         * @param wantedWorkCount number of works wanted
+         * @param shortfalls      number of times the fetch for this request
+         *                        has come up short, doubles the number of
+         *                        rows for each shortfall
+         * @return number of rows to request from SolR
+         */
+        public int rowsFor(int wantedWorkCount, int shortfalls) {
+            double current = getRatio();
+            double rows = Double.isNaN(current) ?
+                          DEFAULT_ROWS :
+                          Math.ceil(wantedWorkCount * current * safetyMargin);
+            rows = rows * ( 1L << Integer.min(shortfalls, 16) );
+            return (int) Double.min(MAX_ROWS, Double.max(wantedWorkCount, rows));
+        }
+
+        /**
+         * Learn from a SolR request
+         *
+         * @param rows  number of rows returned by SolR
+         * @param works number of new works these rows gave
+         */
+        public void observed(int rows, int works) {
+            if (rows <= 0 || works <= 0)
+                return;
+            double observed = (double) rows / (double) works;
+            ratio.updateAndGet(bits -> {
+                double current = Double.longBitsToDouble(bits);
+                double next = Double.isNaN(current) ?
+                              observed :
+                              current + ALPHA * ( observed - current );
+                return Double.doubleToLongBits(next);
+            });
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr.resultset;
+
+/**
+ * How a {@link ResultSet} finds more works, when the first SolR request
+ * didn't return enough rows
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public enum WorkDiscovery {
+    /**
+     * Repeat the query with all the seen works excluded
+     * <p>
+     * The query grows with every round trip, and deep paging into a large
+     * result set becomes expensive
+     */
+    FILTER,
+    /**
+     * Page through the query using a SolR cursorMark
+     * <p>
+     * The query is stable (sorted by score, with the document id as
+     * tiebreaker), and the cursor is kept in the result set between requests
+     */
+    CURSOR,
+    /**
+     * Let SolR group the rows by work
+     * <p>
+     * Each request returns exactly the works wanted, with (a limited number
+     * of) their rows, and an exact work count. Only works that had more rows
+     * than the group limit needs to be expanded afterwards.
+     * <p>
+     * In a SolR cloud the number of groups is only exact if all the rows of a
+     * work are located in the same shard
+     */
+    GROUPED;
+}
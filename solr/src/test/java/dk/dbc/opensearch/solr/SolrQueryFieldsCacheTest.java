@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr;
+
+import dk.dbc.opensearch.solr.profile.Profile;
+import dk.dbc.opensearch.solr.profile.Profiles;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static dk.dbc.testutil.JsonTester.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class SolrQueryFieldsCacheTest {
+
+    @Test(timeout = 2_000L)
+    public void testHit() throws Exception {
+        System.out.println("testHit");
+        SolrRules solrRules = solrRules("profiles");
+        Profile profile = readProfiles(solrRules).getProfile(Arrays.asList("a"));
+        SolrQueryFieldsCache cache = new SolrQueryFieldsCache(100);
+
+        SolrQueryFields first = cache.fromCQL(solrRules, "hello AND agency=777777", profile);
+        SolrQueryFields second = cache.fromCQL(solrRules, "  hello   AND\tagency=777777 ", profile);
+        assertThat(second, sameInstance(first));
+        assertThat(first, is(SolrQueryFields.fromCQL(solrRules, "hello AND agency=777777", profile)));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHitRatio(), is(0.5));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testProfileIsPartOfKey() throws Exception {
+        System.out.println("testProfileIsPartOfKey");
+        SolrRules solrRules = solrRules("profiles");
+        Profiles profiles = readProfiles(solrRules);
+        SolrQueryFieldsCache cache = new SolrQueryFieldsCache(100);
+
+        SolrQueryFields a = cache.fromCQL(solrRules, "hello", profiles.getProfile(Arrays.asList("a")));
+        SolrQueryFields b = cache.fromCQL(solrRules, "hello", profiles.getProfile(Arrays.asList("b")));
+        SolrQueryFields none = cache.fromCQL(solrRules, "hello", null);
+        assertThat(a, not(b));
+        assertThat(a, not(none));
+        assertThat(cache.fromCQL(solrRules, "hello", profiles.getProfile(Arrays.asList("a"))), sameInstance(a));
+        assertThat(cache.getSize(), is(3));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testReloadedRules() throws Exception {
+        System.out.println("testReloadedRules");
+        SolrQueryFieldsCache cache = new SolrQueryFieldsCache(100);
+
+        SolrQueryFields before = cache.fromCQL(solrRules("profiles"), "hello", null);
+        SolrQueryFields after = cache.fromCQL(solrRules("profiles"), "hello", null);
+        assertThat(after, not(sameInstance(before)));
+        assertThat(cache.getHits(), is(0L));
+        assertThat(cache.getSize(), is(1));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testBounded() throws Exception {
+        System.out.println("testBounded");
+        SolrRules solrRules = solrRules("profiles");
+        SolrQueryFieldsCache cache = new SolrQueryFieldsCache(10);
+
+        for (int i = 0 ; i < 25 ; i++) {
+            cache.fromCQL(solrRules, "hello" + i, null);
+        }
+        assertThat(cache.getSize(), is(10));
+        assertThat(cache.getEvictions(), is(15L));
+        cache.invalidate();
+        assertThat(cache.getSize(), is(0));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testDisabled() throws Exception {
+        System.out.println("testDisabled");
+        SolrRules solrRules = solrRules("profiles");
+        SolrQueryFieldsCache cache = new SolrQueryFieldsCache(0);
+
+        cache.fromCQL(solrRules, "hello", null);
+        cache.fromCQL(solrRules, "hello", null);
+        assertThat(cache.getSize(), is(0));
+        assertThat(cache.getMisses(), is(2L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testNormalize() throws Exception {
+        System.out.println("testNormalize");
+        assertThat(SolrQueryFieldsCache.normalize(" a  and\n b "), is("a and b"));
+        assertThat(SolrQueryFieldsCache.normalize("a=\"x  y\"  or  b"), is("a=\"x  y\" or b"));
+        assertThat(SolrQueryFieldsCache.normalize("a=\"x \\\"  y\"  or  b"), is("a=\"x \\\"  y\" or b"));
+    }
+
+    public Profiles readProfiles(SolrRules solrRules) throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("profiles/777777.json")) {
+            return Profiles.from(solrRules, is);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr.resultset;
+
+import dk.dbc.opensearch.solr.SolrQueryFields;
+import dk.dbc.opensearch.solr.SolrRules;
+import dk.dbc.opensearch.solr.profile.Profiles;
+import dk.dbc.opensearch.utils.Deadline;
+import dk.dbc.opensearch.utils.StatisticsRecorder;
+import dk.dbc.opensearch.utils.UserMessage;
+import dk.dbc.opensearch.utils.UserMessageException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import static dk.dbc.testutil.JsonTester.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class HitCountTest {
+
+    @Test(timeout = 2_000L)
+    public void testCountHits() throws Exception {
+        System.out.println("testCountHits");
+        AtomicReference<SolrQuery> query = new AtomicReference<>();
+        HitCount hitCount = resultSet().countHits(mockedClient(query, 123, 45), new StatisticsRecorder(), "tracking-id-test");
+        System.out.println("hitCount = " + hitCount);
+        assertThat(hitCount.getSolrHitCount(), is(123L));
+        assertThat(hitCount.getWorkCount(), is(45L));
+        assertThat(query.get().getRows(), is(0));
+        assertThat(query.get().get("json.facet"), containsString("unique(" + ResultSet.WORK_ID + ")"));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testCountNoHits() throws Exception {
+        System.out.println("testCountNoHits");
+        HitCount hitCount = resultSet().countHits(mockedClient(new AtomicReference<>(), 0, null), new StatisticsRecorder(), "tracking-id-test");
+        assertThat(hitCount.getSolrHitCount(), is(0L));
+        assertThat(hitCount.getWorkCount(), is(0L));
+    }
+
+    @Test(timeout = 2_000L, expected = UserMessageException.class)
+    public void testCountNoFacet() throws Exception {
+        System.out.println("testCountNoFacet");
+        resultSet().countHits(mockedClient(new AtomicReference<>(), 10, null), new StatisticsRecorder(), "tracking-id-test");
+    }
+
+    @Test(timeout = 2_000L)
+    public void testCountHitsTimeAllowed() throws Exception {
+        System.out.println("testCountHitsTimeAllowed");
+        AtomicReference<SolrQuery> query = new AtomicReference<>();
+        resultSet().countHits(mockedClient(query, 123, 45), Deadline.in(10_000L), new StatisticsRecorder(), "tracking-id-test");
+        assertThat(query.get().getTimeAllowed(), allOf(greaterThan(0), lessThanOrEqualTo(10_000)));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testCountHitsDeadlinePassed() throws Exception {
+        System.out.println("testCountHitsDeadlinePassed");
+        Deadline deadline = Deadline.in(1L);
+        while (!deadline.hasExpired()) {
+            Thread.sleep(1L);
+        }
+        AtomicReference<SolrQuery> query = new AtomicReference<>();
+        try {
+            resultSet().countHits(mockedClient(query, 123, 45), deadline, new StatisticsRecorder(), "tracking-id-test");
+            fail("Expected timeout");
+        } catch (UserMessageException ex) {
+            assertThat(ex.getUserMessage(), is(UserMessage.TIMEOUT));
+        }
+        assertThat(query.get(), nullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void testCountHitsPartialResults() throws Exception {
+        System.out.println("testCountHitsPartialResults");
+        try {
+            resultSet().countHits(mockedClient(new AtomicReference<>(), 123, 45, true), Deadline.in(10_000L), new StatisticsRecorder(), "tracking-id-test");
+            fail("Expected timeout");
+        } catch (UserMessageException ex) {
+            assertThat(ex.getUserMessage(), is(UserMessage.TIMEOUT));
+        }
+    }
+
+    private static ResultSet resultSet() throws Exception {
+        SolrRules solrRules = solrRules("result-set");
+        Profiles profiles = Profiles.from(solrRules, HitCountTest.class.getClassLoader().getResourceAsStream("result-set/default.profile"));
+        SolrQueryFields queryFields = SolrQueryFields.fromCQL(solrRules, "myQuery", profiles.getProfile(Arrays.asList("test")));
+        return new ResultSetWork(queryFields, false, false);
+    }
+
+    private static SolrClient mockedClient(AtomicReference<SolrQuery> query, long numFound, Integer works) throws Exception {
+        return mockedClient(query, numFound, works, false);
+    }
+
+    private static SolrClient mockedClient(AtomicReference<SolrQuery> query, long numFound, Integer works, boolean partialResults) throws Exception {
+        SolrClient client = mock(SolrClient.class);
+        when(client.query(Matchers.any(SolrParams.class), Matchers.any(SolrRequest.METHOD.class)))
+                .thenAnswer(i -> {
+                    query.set((SolrQuery) i.getArguments()[0]);
+                    SolrDocumentList docs = new SolrDocumentList();
+                    docs.setNumFound(numFound);
+                    NamedList<Object> raw = new NamedList<>();
+                    if (works != null) {
+                        SimpleOrderedMap<Object> facets = new SimpleOrderedMap<>();
+                        facets.add("count", numFound);
+                        facets.add("works", works);
+                        raw.add("facets", facets);
+                    }
+                    NamedList<Object> header = new NamedList<>();
+                    if (partialResults)
+                        header.add("partialResults", true);
+                    QueryResponse resp = mock(QueryResponse.class);
+                    when(resp.getStatus()).thenReturn(0);
+                    when(resp.getResponseHeader()).thenReturn(header);
+                    when(resp.getResults()).thenReturn(docs);
+                    when(resp.getResponse()).thenReturn(raw);
+                    return resp;
+                });
+        return client;
+    }
+}
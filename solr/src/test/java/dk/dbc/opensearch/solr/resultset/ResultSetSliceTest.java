@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr.resultset;
+
+import dk.dbc.opensearch.solr.SolrQueryFields;
+import dk.dbc.opensearch.solr.SolrRules;
+import dk.dbc.opensearch.solr.profile.Profiles;
+import dk.dbc.opensearch.utils.StatisticsRecorder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import static dk.dbc.testutil.JsonTester.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class ResultSetSliceTest {
+
+    private static final Map<String, List<Map<String, Object>>> RECORDS = new HashMap<>();
+    private static final Map<String, String> NEXT_CURSOR_MARK = new HashMap<>();
+
+    static {
+        RECORDS.put("default:myQuery cursorMark:*", Arrays.asList(
+                    row("1", "work:1", "unit:1", "m:1"),
+                    row("2", "work:7", "unit:6", "m:4")));
+        NEXT_CURSOR_MARK.put("default:myQuery cursorMark:*", "A");
+        RECORDS.put("default:myQuery cursorMark:A", Arrays.asList(
+                    row("3", "work:1", "unit:2", "m:7"),
+                    row("4", "work:3", "unit:3", "m:5")));
+        NEXT_CURSOR_MARK.put("default:myQuery cursorMark:A", "B");
+        // work:1 gets another unit, after it has been expanded
+        RECORDS.put("default:myQuery cursorMark:B", Arrays.asList(
+                    row("5", "work:1", "unit:5", "m:6"),
+                    row("6", "work:9", "unit:9", "m:9")));
+        NEXT_CURSOR_MARK.put("default:myQuery cursorMark:B", "C");
+        RECORDS.put("rec.workId:(work\\:1)AND (default:myQuery)", Arrays.asList(
+                    row("1", "work:1", "unit:1", "m:1"),
+                    row("3", "work:1", "unit:2", "m:7")));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSliceContainsPageOnly() throws Exception {
+        System.out.println("testSliceContainsPageOnly");
+        SolrClient client = mockedClient(new AtomicInteger());
+        ResultSet resultSet = resultSet();
+        resultSet.fetchWorks(client, new StatisticsRecorder(), 1, 1, "tracking-id-test");
+
+        ResultSet slice = copy(resultSet.slice(2, 1));
+        assertThat(slice.workAtIndex(1), is("work:1"));
+        assertThat(slice.unitsForWork("work:1"), empty());
+        assertThat(slice.unitsForWork("work:7"), contains("unit:6"));
+        assertThat(slice.manifestationsForUnit("unit:6"), containsInAnyOrder("m:4"));
+        assertThat(slice.getHitCount(), is(resultSet.getHitCount()));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSliceOfFoundPageHasPageOnly() throws Exception {
+        System.out.println("testSliceOfFoundPageHasPageOnly");
+        SolrClient client = mockedClient(new AtomicInteger());
+        ResultSet resultSet = resultSet();
+        resultSet.fetchWorks(client, new StatisticsRecorder(), 1, 1, "tracking-id-test");
+        resultSet.fetchWorks(client, new StatisticsRecorder(), 2, 1, "tracking-id-test");
+        assertThat(resultSet.isComplete(), is(true));
+
+        ResultSet slice = copy(resultSet.slice(2, 1));
+        List<String> works = slice.fetchWorks(client, new StatisticsRecorder(), 2, 1, "tracking-id-test");
+        assertThat(works, contains("work:7"));
+        assertThat(slice.workAtIndex(2), is("work:7"));
+        assertThat(slice.getHitCount(), is(resultSet.getHitCount()));
+        try {
+            slice.workAtIndex(1);
+            fail("Expected work before the page to be outside the slice");
+        } catch (IllegalStateException ex) {
+            System.out.println("ex = " + ex);
+        }
+        assertThat(slice.takeDelta(), nullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void testDeltaApplied() throws Exception {
+        System.out.println("testDeltaApplied");
+        AtomicInteger queries = new AtomicInteger();
+        SolrClient client = mockedClient(queries);
+
+        ResultSet expected = resultSet();
+        expected.fetchWorks(client, new StatisticsRecorder(), 1, 1, "tracking-id-test");
+        expected.fetchWorks(client, new StatisticsRecorder(), 2, 1, "tracking-id-test");
+
+        ResultSet cached = resultSet();
+        cached.fetchWorks(client, new StatisticsRecorder(), 1, 1, "tracking-id-test");
+        ResultSet slice = copy(cached.slice(2, 1));
+        List<String> works = slice.fetchWorks(client, new StatisticsRecorder(), 2, 1, "tracking-id-test");
+        assertThat(works, contains("work:7"));
+        cached.apply(copy(slice.takeDelta()));
+
+        assertThat(cached.isComplete(), is(true));
+        assertThat(cached.getHitCount(), is(expected.getHitCount()));
+        for (int i = 1 ; i <= expected.getHitCount() ; i++) {
+            String work = expected.workAtIndex(i);
+            assertThat(cached.workAtIndex(i), is(work));
+            List<String> units = expected.unitsForWork(work);
+            assertThat(cached.unitsForWork(work), is(units));
+            for (String unit : units) {
+                assertThat(cached.manifestationsForUnit(unit), is(expected.manifestationsForUnit(unit)));
+            }
+        }
+        assertThat(cached.unitsForWork("work:1"), contains("unit:1", "unit:2", "unit:5"));
+
+        // Nothing more to do for the page
+        int queryCount = queries.get();
+        slice = copy(cached.slice(2, 1));
+        slice.fetchWorks(client, new StatisticsRecorder(), 2, 1, "tracking-id-test");
+        assertThat(queries.get(), is(queryCount));
+        assertThat(slice.takeDelta(), nullValue());
+    }
+
+    private static ResultSet resultSet() throws Exception {
+        SolrRules solrRules = solrRules("result-set");
+        Profiles profiles = Profiles.from(solrRules, ResultSetSliceTest.class.getClassLoader().getResourceAsStream("result-set/default.profile"));
+        SolrQueryFields queryFields = SolrQueryFields.fromCQL(solrRules, "myQuery", profiles.getProfile(Arrays.asList("test")));
+        return new ResultSetWork(queryFields, false, false, WorkDiscovery.CURSOR);
+    }
+
+    /**
+     * Emulate the transfer to/from the cache
+     *
+     * @param <T> type of object
+     * @param t   object
+     * @return a serialized/deserialized copy
+     * @throws Exception if serialization fails
+     */
+    private static <T extends Serializable> T copy(T t) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(t);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            return (T) ois.readObject();
+        }
+    }
+
+    private static Map<String, Object> row(String id, String work, String unit, String manifestation) {
+        HashMap<String, Object> row = new HashMap<>();
+        row.put(ResultSet.ID, id);
+        row.put(ResultSet.WORK_ID, work);
+        row.put(ResultSet.UNIT_ID, unit);
+        row.put(ResultSet.MANIFESTATION_ID, manifestation);
+        return row;
+    }
+
+    private static SolrClient mockedClient(AtomicInteger queries) throws Exception {
+        SolrClient client = mock(SolrClient.class);
+        when(client.query(Matchers.any(SolrParams.class), Matchers.any(SolrRequest.METHOD.class)))
+                .thenAnswer(i -> {
+                    queries.incrementAndGet();
+                    SolrQuery q = (SolrQuery) i.getArguments()[0];
+                    String key = q.getQuery();
+                    String cursorMark = q.get(CursorMarkParams.CURSOR_MARK_PARAM);
+                    if (cursorMark != null)
+                        key = key + " cursorMark:" + cursorMark;
+                    List<Map<String, Object>> records = RECORDS.get(key);
+                    if (records == null)
+                        throw new RuntimeException("Query: " + key + " is not defined");
+                    SolrDocumentList docs = new SolrDocumentList();
+                    docs.setNumFound(cursorMark == null ? records.size() : 6);
+                    records.forEach(record -> docs.add(new SolrDocument(record)));
+                    QueryResponse resp = mock(QueryResponse.class);
+                    when(resp.getStatus()).thenReturn(0);
+                    when(resp.getResults()).thenReturn(docs);
+                    when(resp.getExplainMap()).thenReturn(Collections.emptyMap());
+                    when(resp.getNextCursorMark()).thenReturn(NEXT_CURSOR_MARK.get(key));
+                    return resp;
+                });
+        return client;
+    }
+}
@@ -22,8 +22,12 @@ import dk.dbc.opensearch.solr.SolrQueryFields;
 import dk.dbc.opensearch.solr.SolrRules;
 import dk.dbc.opensearch.solr.profile.Profiles;
 import dk.dbc.opensearch.utils.StatisticsRecorder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -36,9 +40,14 @@ import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.Group;
+import org.apache.solr.client.solrj.response.GroupCommand;
+import org.apache.solr.client.solrj.response.GroupResponse;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.GroupParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.junit.Test;
@@ -70,6 +79,7 @@ public class ResultSetTest {
                              map.getOrDefault("allObjects", false),
                              map.getOrDefault("start", 1),
                              map.getOrDefault("step", 10),
+                             WorkDiscovery.valueOf(((String) map.getOrDefault("workDiscovery", "filter")).toUpperCase()),
                              map.get("solr"),
                              map.get("works"),
                              solrRules,
@@ -81,17 +91,19 @@ public class ResultSetTest {
     private final boolean allObjects;
     private final int start;
     private final int step;
+    private final WorkDiscovery workDiscovery;
     private final Map solr;
     private final List<Map> works;
     private final SolrRules solrRules;
     private final Profiles profiles;
 
-    public ResultSetTest(String name, String query, boolean allObjects, int start, int step, Map solr, List works, SolrRules solrRules, Profiles profiles) {
+    public ResultSetTest(String name, String query, boolean allObjects, int start, int step, WorkDiscovery workDiscovery, Map solr, List works, SolrRules solrRules, Profiles profiles) {
         this.name = name;
         this.query = query;
         this.allObjects = allObjects;
         this.start = start;
         this.step = step;
+        this.workDiscovery = workDiscovery;
         this.solr = solr;
         this.works = works;
         this.solrRules = solrRules;
@@ -103,7 +115,7 @@ public class ResultSetTest {
         System.out.println(name);
 
         SolrQueryFields queryFields = SolrQueryFields.fromCQL(solrRules, query, profiles.getProfile(Arrays.asList("test")));
-        ResultSet resultSet = new ResultSetWork(queryFields, allObjects, false);
+        ResultSet resultSet = new ResultSetWork(queryFields, allObjects, false, workDiscovery);
 
         List<String> workList = resultSet.fetchWorks(mockedClient(solr), new StatisticsRecorder(),
                                                      start, step, "tracking-id-test");
@@ -111,6 +123,37 @@ public class ResultSetTest {
         System.out.println("workList = " + workList);
         // Check work order
         assertThat(workList, contains(works.stream().map(w -> w.get("work")).toArray(String[]::new)));
+        assertWorks(resultSet);
+    }
+
+    @Test(timeout = 2_000L)
+    public void testSerialization() throws Exception {
+        System.out.println(name + " (serialized)");
+
+        SolrQueryFields queryFields = SolrQueryFields.fromCQL(solrRules, query, profiles.getProfile(Arrays.asList("test")));
+        ResultSet original = new ResultSetWork(queryFields, allObjects, false, workDiscovery);
+        original.fetchWorks(mockedClient(solr), new StatisticsRecorder(),
+                            start, step, "tracking-id-test");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(original);
+        }
+        ResultSet resultSet;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            resultSet = (ResultSet) ois.readObject();
+        }
+
+        assertThat(resultSet.isComplete(), is(original.isComplete()));
+        assertThat(resultSet.getHitCount(), is(original.getHitCount()));
+        // Same page from the copy, shouldn't need any SolR requests
+        List<String> workList = resultSet.fetchWorks(mock(SolrClient.class), new StatisticsRecorder(),
+                                                     start, step, "tracking-id-test");
+        assertThat(workList, contains(works.stream().map(w -> w.get("work")).toArray(String[]::new)));
+        assertWorks(resultSet);
+    }
+
+    private void assertWorks(ResultSet resultSet) {
         for (Map work : works) {
             Object workId = work.get("work");
             System.out.println("Checking work: " + workId);
@@ -135,25 +178,52 @@ public class ResultSetTest {
         when(client.query(Matchers.any(SolrParams.class), Matchers.any(SolrRequest.METHOD.class)))
                 .thenAnswer(i -> {
                     SolrQuery q = (SolrQuery) i.getArguments()[0];
-                    Map json = responses.get(q.getQuery());
+                    String key = q.getQuery();
+                    String cursorMark = q.get(CursorMarkParams.CURSOR_MARK_PARAM);
+                    if (cursorMark != null)
+                        key = key + " cursorMark:" + cursorMark;
+                    boolean grouped = q.getBool(GroupParams.GROUP, false);
+                    if (grouped)
+                        key = key + " groups:" + q.getStart();
+                    Map json = responses.get(key);
                     if (json == null) {
-                        String msg = "Query: " + q.getQuery() + " is not defined";
+                        String msg = "Query: " + key + " is not defined";
                         System.out.println(msg);
                         throw new RuntimeException(msg);
                     }
                     QueryResponse resp = mock(QueryResponse.class);
                     when(resp.getStatus()).thenReturn(0); // Always OK
-                    SolrDocumentList docs = new SolrDocumentList();
-                    when(resp.getResults()).thenReturn(docs);
-                    List<Map<String, Object>> records = (List<Map<String, Object>>) json.get("records");
-                    docs.setStart((long) (int) json.getOrDefault("start", 1));
-                    docs.setNumFound((long) (int) json.getOrDefault("numFound", records.size()));
-                    records.forEach(record -> docs.add(new SolrDocument(record)));
                     HashMap<String, String> explainMap = new HashMap<>();
-                    records.forEach(record -> explainMap.put((String) record.getOrDefault("id", "what!"), "no explain"));
+                    if (grouped) {
+                        List<Map<String, Object>> groups = (List<Map<String, Object>>) json.get("groups");
+                        GroupCommand command = new GroupCommand(q.get(GroupParams.GROUP_FIELD),
+                                                                (int) json.get("matches"),
+                                                                (int) json.get("ngroups"));
+                        for (Map<String, Object> group : groups) {
+                            List<Map<String, Object>> records = (List<Map<String, Object>>) group.get("records");
+                            command.add(new Group((String) group.get("groupValue"), documentList(group, records, explainMap)));
+                        }
+                        GroupResponse groupResponse = new GroupResponse();
+                        groupResponse.add(command);
+                        when(resp.getGroupResponse()).thenReturn(groupResponse);
+                    } else {
+                        List<Map<String, Object>> records = (List<Map<String, Object>>) json.get("records");
+                        SolrDocumentList docs = documentList(json, records, explainMap);
+                        when(resp.getResults()).thenReturn(docs);
+                    }
                     when(resp.getExplainMap()).thenReturn(explainMap);
+                    when(resp.getNextCursorMark()).thenReturn((String) json.get("nextCursorMark"));
                     return resp;
                 });
         return client;
     }
+
+    private static SolrDocumentList documentList(Map json, List<Map<String, Object>> records, Map<String, String> explainMap) {
+        SolrDocumentList docs = new SolrDocumentList();
+        docs.setStart((long) (int) json.getOrDefault("start", 1));
+        docs.setNumFound((long) (int) json.getOrDefault("numFound", records.size()));
+        records.forEach(record -> docs.add(new SolrDocument(record)));
+        records.forEach(record -> explainMap.put((String) record.getOrDefault("id", "what!"), "no explain"));
+        return docs;
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-solr
+ *
+ * opensearch-solr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-solr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.solr.resultset;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class RowsPerWorkTest {
+
+    @Test(timeout = 2_000L)
+    public void testDefaultWhenUnknown() throws Exception {
+        System.out.println("testDefaultWhenUnknown");
+        RowsPerWork.Estimate estimate = new RowsPerWork(50).estimateFor("a");
+        assertThat(estimate.rowsFor(11, 0), is(RowsPerWork.DEFAULT_ROWS));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testLearnedRatio() throws Exception {
+        System.out.println("testLearnedRatio");
+        RowsPerWork rowsPerWork = new RowsPerWork(50);
+        rowsPerWork.estimateFor("a").observed(40, 10);
+        RowsPerWork.Estimate estimate = rowsPerWork.estimateFor("a");
+        assertThat(estimate.getRatio(), is(4.0));
+        assertThat(estimate.rowsFor(11, 0), is(66)); // 11 * 4 * 1.5
+        assertThat(estimate.rowsFor(11, 1), is(132));
+        assertThat(rowsPerWork.estimateFor("b").rowsFor(11, 0), is(RowsPerWork.DEFAULT_ROWS));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testRollingRatio() throws Exception {
+        System.out.println("testRollingRatio");
+        RowsPerWork rowsPerWork = new RowsPerWork(0);
+        RowsPerWork.Estimate estimate = rowsPerWork.estimateFor("a");
+        estimate.observed(20, 10);
+        estimate.observed(70, 10);
+        assertThat(estimate.getRatio(), closeTo(3.0, 0.0001)); // 2 + 0.2 * (7 - 2)
+        assertThat(rowsPerWork.getRatios(), hasEntry(is("a"), closeTo(3.0, 0.0001)));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testBounds() throws Exception {
+        System.out.println("testBounds");
+        RowsPerWork.Estimate estimate = new RowsPerWork(0).estimateFor("a");
+        estimate.observed(10, 10);
+        assertThat(estimate.rowsFor(5000, 4), is(RowsPerWork.MAX_ROWS));
+        estimate.observed(0, 0); // Ignored
+        assertThat(estimate.rowsFor(20, 0), is(20));
+    }
+}
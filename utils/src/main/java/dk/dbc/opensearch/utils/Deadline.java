@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time, where a request should be done
+ * <p>
+ * This is passed on to the backend calls of a request, so they can limit the
+ * time they use to the remaining time budget of the request
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public final class Deadline {
+
+    /**
+     * The deadline that never expires
+     */
+    public static final Deadline NONE = new Deadline(0L, false);
+
+    private final long expires;
+    private final boolean limited;
+
+    private Deadline(long expires, boolean limited) {
+        this.expires = expires;
+        this.limited = limited;
+    }
+
+    /**
+     * Make a deadline from now
+     *
+     * @param ms number of milliseconds from now (0 or less means no deadline)
+     * @return deadline
+     */
+    public static Deadline in(long ms) {
+        if (ms <= 0)
+            return NONE;
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms), true);
+    }
+
+    /**
+     * The earliest of two deadlines
+     *
+     * @param other another deadline
+     * @return the deadline that expires first
+     */
+    public Deadline earliest(Deadline other) {
+        if (!other.limited)
+            return this;
+        if (!limited)
+            return other;
+        return expires - other.expires <= 0 ? this : other;
+    }
+
+    /**
+     * If this deadline ever expires
+     *
+     * @return false for {@link #NONE}
+     */
+    public boolean isLimited() {
+        return limited;
+    }
+
+    /**
+     * If the deadline has been reached
+     *
+     * @return true if there's no time left
+     */
+    public boolean hasExpired() {
+        return limited && expires - System.nanoTime() <= 0;
+    }
+
+    /**
+     * The time left
+     *
+     * @param unit the unit to express the time in
+     * @return time left (never negative), Long.MAX_VALUE if not limited
+     */
+    public long remaining(TimeUnit unit) {
+        if (!limited)
+            return Long.MAX_VALUE;
+        return unit.convert(Long.max(0L, expires - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The time left, in a form usable for millisecond timeouts
+     *
+     * @return milliseconds left (never negative), Integer.MAX_VALUE if not
+     *         limited
+     */
+    public int remainingMs() {
+        return (int) Long.min(Integer.MAX_VALUE, remaining(TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public String toString() {
+        return limited ? "Deadline{" + remaining(TimeUnit.MILLISECONDS) + "ms}" : "Deadline{NONE}";
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of durations
+ * <p>
+ * The buckets are fixed, from 100µs to 1m, roughly 1-2.5-5 per decade, which
+ * is what Prometheus needs to compute percentiles (histogram_quantile) across
+ * nodes.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class Histogram {
+
+    private static final long[] BOUNDS = new long[] {
+        TimeUnit.MICROSECONDS.toNanos(100),
+        TimeUnit.MICROSECONDS.toNanos(250),
+        TimeUnit.MICROSECONDS.toNanos(500),
+        TimeUnit.MILLISECONDS.toNanos(1),
+        TimeUnit.MICROSECONDS.toNanos(2_500),
+        TimeUnit.MILLISECONDS.toNanos(5),
+        TimeUnit.MILLISECONDS.toNanos(10),
+        TimeUnit.MILLISECONDS.toNanos(25),
+        TimeUnit.MILLISECONDS.toNanos(50),
+        TimeUnit.MILLISECONDS.toNanos(100),
+        TimeUnit.MILLISECONDS.toNanos(250),
+        TimeUnit.MILLISECONDS.toNanos(500),
+        TimeUnit.SECONDS.toNanos(1),
+        TimeUnit.MILLISECONDS.toNanos(2_500),
+        TimeUnit.SECONDS.toNanos(5),
+        TimeUnit.SECONDS.toNanos(10),
+        TimeUnit.SECONDS.toNanos(30),
+        TimeUnit.SECONDS.toNanos(60)
+    };
+
+    // Last bucket is +Inf
+    private final LongAdder[] buckets;
+    private final LongAdder sum;
+
+    public Histogram() {
+        this.buckets = new LongAdder[BOUNDS.length + 1];
+        for (int i = 0 ; i < buckets.length ; i++) {
+            buckets[i] = new LongAdder();
+        }
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * Record a duration
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        int pos = Arrays.binarySearch(BOUNDS, nanos);
+        buckets[pos < 0 ? -1 - pos : pos].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Upper bounds (inclusive) of the buckets, except the last which is
+     * unbounded
+     *
+     * @return bounds in nanoseconds
+     */
+    public static long[] getBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * Cumulative counts per bucket (Prometheus style)
+     * <p>
+     * Last entry is the total count
+     *
+     * @return array of one more than {@link #getBounds()}
+     */
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long count = 0;
+        for (int i = 0 ; i < buckets.length ; i++) {
+            count += buckets[i].sum();
+            counts[i] = count;
+        }
+        return counts;
+    }
+
+    /**
+     * Total of all durations recorded
+     *
+     * @return nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    @Override
+    public String toString() {
+        long[] counts = getCumulativeCounts();
+        return "Histogram{" + "count=" + counts[counts.length - 1] + ", sum=" + sum + '}';
+    }
+}
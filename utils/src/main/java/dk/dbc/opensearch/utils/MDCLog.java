@@ -96,8 +96,12 @@ public class MDCLog implements AutoCloseable {
         return this;
     }
 
-    void timing(Map.Entry<String, Long> e) {
-        setOrRemove(e.getKey(), e.getValue().toString());
+    void timing(Map.Entry<String, String> e) {
+        setOrRemove(e.getKey(), e.getValue());
+    }
+
+    void value(Map.Entry<String, String> e) {
+        setOrRemove(e.getKey(), e.getValue());
     }
 
     private String makeRestoreValue(String k) {
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Node wide aggregation of the timings from {@link StatisticsRecorder}
+ * <p>
+ * Each {@link TimerSlot} gets a {@link Histogram}, which is exposed as the
+ * Prometheus metric opensearch_timing_seconds with the timer name as label.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class MetricsRegistry {
+
+    public static final String TIMING_METRIC = "opensearch_timing_seconds";
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final AtomicReferenceArray<Histogram> timings;
+
+    public MetricsRegistry() {
+        this.timings = new AtomicReferenceArray<>(TimerSlot.MAX_SLOTS);
+    }
+
+    /**
+     * The registry used by all {@link StatisticsRecorder}s, that hasn't been
+     * given one
+     *
+     * @return registry
+     */
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a timing
+     *
+     * @param name  name of the timer
+     * @param nanos duration in nanoseconds
+     */
+    public void timing(String name, long nanos) {
+        timing(TimerSlot.of(name), nanos);
+    }
+
+    /**
+     * Record a timing
+     *
+     * @param slot  the timer slot
+     * @param nanos duration in nanoseconds
+     */
+    public void timing(TimerSlot slot, long nanos) {
+        int index = slot.getIndex();
+        Histogram histogram = timings.get(index);
+        if (histogram == null) {
+            timings.compareAndSet(index, null, new Histogram());
+            histogram = timings.get(index);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Get the histogram of a timer name
+     *
+     * @param name name of the timer
+     * @return histogram or null if nothing has been recorded
+     */
+    public Histogram getTiming(String name) {
+        return timings.get(TimerSlot.of(name).getIndex());
+    }
+
+    /**
+     * Write all histograms
+     *
+     * @param writer where to output the metrics
+     */
+    public void write(PrometheusWriter writer) {
+        writer.family(TIMING_METRIC, "histogram", "Time spent in each phase of the requests");
+        long[] bounds = Histogram.getBounds();
+        TreeMap<String, Histogram> used = new TreeMap<>();
+        for (int i = 0 ; i < TimerSlot.MAX_SLOTS ; i++) {
+            Histogram histogram = timings.get(i);
+            if (histogram != null)
+                used.put(TimerSlot.byIndex(i).getName(), histogram);
+        }
+        for (Map.Entry<String, Histogram> entry : used.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            long[] counts = histogram.getCumulativeCounts();
+            for (int i = 0 ; i < bounds.length ; i++) {
+                writer.sample(TIMING_METRIC + "_bucket", counts[i], "name", name, "le", PrometheusWriter.seconds(bounds[i]));
+            }
+            writer.sample(TIMING_METRIC + "_bucket", counts[bounds.length], "name", name, "le", "+Inf");
+            writer.sample(TIMING_METRIC + "_sum", histogram.getSum() / 1e9, "name", name);
+            writer.sample(TIMING_METRIC + "_count", counts[bounds.length], "name", name);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsRegistry{" + "timings=" + timings + '}';
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.utils;
+
+import java.math.BigDecimal;
+
+/**
+ * Builder of a response in the Prometheus text exposition format (0.0.4)
+ * <p>
+ * All samples of a metric family has to be written right after the
+ * {@link #family(java.lang.String, java.lang.String, java.lang.String)} call.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class PrometheusWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder sb;
+
+    public PrometheusWriter() {
+        this.sb = new StringBuilder();
+    }
+
+    /**
+     * Start a metric family
+     *
+     * @param name name of the metric
+     * @param type counter, gauge or histogram
+     * @param help description
+     * @return self for chaining
+     */
+    public PrometheusWriter family(String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ')
+                .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Add a sample
+     *
+     * @param name   name of the metric (with suffix for histograms)
+     * @param value  the value
+     * @param labels label name, label value pairs
+     * @return self for chaining
+     */
+    public PrometheusWriter sample(String name, long value, String... labels) {
+        labels(name, labels);
+        sb.append(value).append('\n');
+        return this;
+    }
+
+    /**
+     * Add a sample
+     *
+     * @param name   name of the metric (with suffix for histograms)
+     * @param value  the value
+     * @param labels label name, label value pairs
+     * @return self for chaining
+     */
+    public PrometheusWriter sample(String name, double value, String... labels) {
+        labels(name, labels);
+        sb.append(number(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Convert nanoseconds to seconds (the Prometheus base unit) in plain
+     * notation
+     *
+     * @param nanos number of nanoseconds
+     * @return string representation of seconds
+     */
+    public static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    private void labels(String name, String... labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels should be name/value pairs");
+        sb.append(name);
+        if (labels.length > 0) {
+            char sep = '{';
+            for (int i = 0 ; i < labels.length ; i += 2) {
+                sb.append(sep).append(labels[i]).append("=\"")
+                        .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                        .append('"');
+                sep = ',';
+            }
+            sb.append('}');
+        }
+        sb.append(' ');
+    }
+
+    private static String number(double value) {
+        if (Double.isNaN(value))
+            return "NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            return String.valueOf((long) value);
+        return String.valueOf(value);
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
@@ -18,14 +18,23 @@
  */
 package dk.dbc.opensearch.utils;
 
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongBinaryOperator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static dk.dbc.opensearch.utils.MDCLog.mdc;
 
 /**
- * A millisecond timing accumulator
+ * A nanosecond timing accumulator
+ * <p>
+ * Timings are accumulated per {@link TimerSlot} in an array, and logged in
+ * milliseconds with 3 decimals. Every timing is also recorded in a
+ * {@link MetricsRegistry}, for aggregation across requests
  *
  * @author DBC {@literal <dbc.dk>}
  */
@@ -33,22 +42,39 @@ public class StatisticsRecorder {
 
     private static final Logger log = LoggerFactory.getLogger(StatisticsRecorder.class);
 
-    private final ConcurrentHashMap<String, Long> timings;
+    private static final TimerSlot TOTAL = TimerSlot.of("total");
+
+    // Unused slots are negative
+    private static final LongBinaryOperator ADD = (current, nanos) -> current < 0 ? nanos : current + nanos;
+
+    private final MetricsRegistry metrics;
+    private final AtomicLongArray timings;
+    private final ConcurrentHashMap<String, String> values;
     private final long start;
 
     public StatisticsRecorder() {
-        this.timings = new ConcurrentHashMap<>();
+        this(MetricsRegistry.getInstance());
+    }
+
+    public StatisticsRecorder(MetricsRegistry metrics) {
+        this.metrics = metrics;
+        this.timings = new AtomicLongArray(TimerSlot.MAX_SLOTS);
+        for (int i = 0 ; i < TimerSlot.MAX_SLOTS ; i++) {
+            timings.lazySet(i, -1L);
+        }
+        this.values = new ConcurrentHashMap<>();
         this.start = System.nanoTime();
     }
 
     /**
      * This log all the timings accumulated including "total" which is from this
-     * object was created to now.
+     * object was created to now, and all the values recorded.
      */
     public void log() {
-        timings.put("total", ms(start));
+        record(TOTAL, System.nanoTime() - start);
         try (MDCLog mdc = mdc()) {
-            timings.entrySet().forEach(mdc::timing);
+            timings().entrySet().forEach(mdc::timing);
+            values.entrySet().forEach(mdc::value);
             log.info("timings");
         }
     }
@@ -63,22 +89,84 @@ public class StatisticsRecorder {
      * @return AutoClosable context
      */
     public Timing timer(String name) {
-        long timingStart = System.nanoTime();
-        return () -> timings.compute(name, (k, v) -> ms(timingStart) +
-                                                         longNullIs0(v));
+        return timer(TimerSlot.of(name));
     }
 
-    private static long longNullIs0(Long v) {
-        return v == null ? 0 : v;
+    /**
+     * Make a timer
+     * <p>
+     * When it is closed (AutoClosable), accumulate the time spent under this
+     * slot
+     *
+     * @param slot the timing slot
+     * @return AutoClosable context
+     */
+    public Timing timer(TimerSlot slot) {
+        return new SlotTiming(this, slot, System.nanoTime());
     }
 
-    private long ms(long timingStart) {
-        return ( System.nanoTime() - timingStart ) / 1_000_000L;
+    /**
+     * Record a value, that should be logged with the timings
+     * <p>
+     * Last value recorded under a given name wins
+     *
+     * @param name  name of the value
+     * @param value the value
+     */
+    public void value(String name, String value) {
+        values.put(name, value);
+    }
+
+    /**
+     * The time accumulated in a slot
+     *
+     * @param slot the timing slot
+     * @return nanoseconds (0 if nothing has been timed)
+     */
+    public long getNanos(TimerSlot slot) {
+        return Long.max(0L, timings.get(slot.getIndex()));
+    }
+
+    private void record(TimerSlot slot, long nanos) {
+        timings.accumulateAndGet(slot.getIndex(), nanos, ADD);
+        metrics.timing(slot, nanos);
+    }
+
+    /**
+     * The used timings
+     *
+     * @return map of name to milliseconds
+     */
+    private Map<String, String> timings() {
+        TreeMap<String, String> used = new TreeMap<>();
+        for (int i = 0 ; i < TimerSlot.MAX_SLOTS ; i++) {
+            long nanos = timings.get(i);
+            if (nanos >= 0)
+                used.put(TimerSlot.byIndex(i).getName(), BigDecimal.valueOf(nanos / 1_000L, 3).toPlainString());
+        }
+        return used;
     }
 
     @Override
     public String toString() {
-        return "StatisticsRecorder{" + "timings=" + timings + '}';
+        return "StatisticsRecorder{" + "timings=" + timings() + ", values=" + values + '}';
     }
 
+    private static final class SlotTiming implements Timing {
+
+        private final StatisticsRecorder recorder;
+        private final TimerSlot slot;
+        private final long start;
+
+        private SlotTiming(StatisticsRecorder recorder, TimerSlot slot, long start) {
+            this.recorder = recorder;
+            this.slot = slot;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            recorder.record(slot, System.nanoTime() - start);
+        }
+    }
 }
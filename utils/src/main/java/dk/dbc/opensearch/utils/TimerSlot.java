@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A named timing, with a fixed index in the per-request and aggregated
+ * timing arrays
+ * <p>
+ * Slots are registered once per name, and should be kept in static final
+ * fields, so a timing is an array update, instead of a map lookup. The number
+ * of names is limited to {@link #MAX_SLOTS}.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public final class TimerSlot {
+
+    public static final int MAX_SLOTS = 128;
+
+    private static final ConcurrentHashMap<String, TimerSlot> SLOTS = new ConcurrentHashMap<>();
+    private static final AtomicReferenceArray<TimerSlot> BY_INDEX = new AtomicReferenceArray<>(MAX_SLOTS);
+    private static int count = 0;
+
+    private final String name;
+    private final int index;
+
+    private TimerSlot(String name, int index) {
+        this.name = name;
+        this.index = index;
+    }
+
+    /**
+     * Get (or register) the slot of a name
+     *
+     * @param name name of the timing
+     * @return slot
+     * @throws IllegalStateException if there are too many names
+     */
+    public static TimerSlot of(String name) {
+        TimerSlot slot = SLOTS.get(name);
+        if (slot != null)
+            return slot;
+        return register(name);
+    }
+
+    private static synchronized TimerSlot register(String name) {
+        TimerSlot slot = SLOTS.get(name);
+        if (slot == null) {
+            if (count == MAX_SLOTS)
+                throw new IllegalStateException("Too many timer names, cannot register: " + name);
+            slot = new TimerSlot(name, count);
+            BY_INDEX.set(count, slot);
+            SLOTS.put(name, slot);
+            count++;
+        }
+        return slot;
+    }
+
+    /**
+     * Get a slot by index
+     *
+     * @param index the index of the slot
+     * @return slot or null if none is registered at that index
+     */
+    static TimerSlot byIndex(int index) {
+        return BY_INDEX.get(index);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -25,10 +25,12 @@ package dk.dbc.opensearch.utils;
 public enum UserMessage {
     BACKEND_CONTENT_SERVICE,
     BACKEND_SOLR,
+    BACKEND_UNAVAILABLE,
     BAD_PROFILE,
     BAD_RESPONSE,
     INTERNAL_SERVER_ERROR,
     MALFORMED_REQUEST,
+    TIMEOUT,
     UNKNOWN_REPOSITORY,
     UNSUPPORTED_QUERY_LANGUAGE,
 }
@@ -42,6 +42,15 @@ public class UserMessageException extends RuntimeException {
         this.userMessage = userMessage;
     }
 
+    public UserMessageException(UserMessage userMessage, Throwable cause) {
+        super(null, cause);
+        this.userMessage = userMessage;
+    }
+
+    public UserMessage getUserMessage() {
+        return userMessage;
+    }
+
     public String getUserMessage(Map<UserMessage, String> messages) {
         return messages.getOrDefault(userMessage, "Unknown error: " + userMessage);
     }
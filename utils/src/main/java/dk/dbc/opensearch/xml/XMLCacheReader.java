@@ -18,21 +18,17 @@
  */
 package dk.dbc.opensearch.xml;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.XMLEvent;
 import javax.xml.stream.util.EventReaderDelegate;
 
-import static dk.dbc.opensearch.xml.XMLElementFilter.elementReader;
-import static dk.dbc.opensearch.xml.XMLEventFactories.*;
-
 /**
  * A {@link XMLEventReader} implementation for an array or events
  *
@@ -40,7 +36,7 @@ import static dk.dbc.opensearch.xml.XMLEventFactories.*;
  */
 public class XMLCacheReader extends EventReaderDelegate implements Serializable {
 
-    private static final long serialVersionUID = -5468666206156869952L;
+    private static final long serialVersionUID = -5468666206156869953L;
 
     private XMLEvent[] events;
     private int pos;
@@ -79,47 +75,43 @@ public class XMLCacheReader extends EventReaderDelegate implements Serializable
         return null;
     }
 
-    private void writeObject(ObjectOutputStream s) throws IOException {
-        try {
-            s.writeInt(events.length);
-            byte[] xml = toBytes(events);
-            s.writeInt(xml.length);
-            s.write(xml);
-        } catch (XMLStreamException ex) {
-            throw new IOException("Cannot serialize XMLEvents", ex);
-        }
+    /**
+     * A new reader of the same events, positioned at the first event
+     *
+     * @return reader
+     */
+    public XMLCacheReader copy() {
+        return new XMLCacheReader(events);
     }
 
-    private void readObject(ObjectInputStream s) throws IOException {
-        try {
-            events = new XMLEvent[s.readInt()];
-            byte[] xml = new byte[s.readInt()];
-            s.readFully(xml);
-            fromBytes(xml, events);
-            pos = 0;
-        } catch (XMLStreamException ex) {
-            throw new IOException("Cannot serialize XMLEvents", ex);
-        }
+    /**
+     * Write the events in compact binary form
+     *
+     * @param out where to write
+     * @throws IOException if the output fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        XMLEventCodec.write(events, out);
     }
 
-    private static byte[] toBytes(XMLEvent[] events) throws XMLStreamException, IOException {
-        try (ByteArrayOutputStream w = new ByteArrayOutputStream()) {
-            XMLEventWriter wr = O.createXMLEventWriter(w);
-            for (XMLEvent event : events) {
-                wr.add(event);
-            }
-            wr.close();
-            return w.toByteArray();
-        }
+    /**
+     * Construct a reader from events written by {@link #writeTo(java.io.DataOutput)}
+     *
+     * @param in where to read from
+     * @return new reader positioned at the first event
+     * @throws IOException if the input fails or is malformed
+     */
+    public static XMLCacheReader readFrom(DataInput in) throws IOException {
+        return new XMLCacheReader(XMLEventCodec.read(in));
     }
 
-    private static void fromBytes(byte[] xml, XMLEvent[] events) throws XMLStreamException, IOException {
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(xml)) {
-            XMLEventReader r = elementReader(I.createXMLEventReader(bis));
-            for (int i = 0 ; i < events.length ; i++) {
-                events[i] = r.nextEvent();
-            }
-        }
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        writeTo(s);
+    }
+
+    private void readObject(ObjectInputStream s) throws IOException {
+        events = XMLEventCodec.read(s);
+        pos = 0;
     }
 
 }
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.xml;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import static dk.dbc.opensearch.xml.XMLEventFactories.E;
+
+/**
+ * Binary encoding of the events an {@link XMLCacheReader} can hold
+ * <p>
+ * Layout:
+ * <ul>
+ * <li>version byte
+ * <li>varint number of events
+ * <li>per event a tag byte followed by the event data
+ * </ul>
+ * Names, namespace uris, prefixes and attribute values are written through a
+ * string table, that is built while writing: a varint reference to a known
+ * string, or the next free index followed by the length-prefixed UTF-8 bytes
+ * of a new string. Text content is written as length-prefixed UTF-8.
+ * <p>
+ * Only the event types allowed by {@link XMLElementFilter} are supported.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+final class XMLEventCodec {
+
+    private static final int VERSION = 1;
+
+    private static final int START_ELEMENT = 1;
+    private static final int END_ELEMENT = 2;
+    private static final int CHARACTERS = 3;
+    private static final int CDATA = 4;
+
+    private XMLEventCodec() {
+    }
+
+    /**
+     * Write events to a stream
+     *
+     * @param events the events
+     * @param out    where to write them
+     * @throws IOException if the output fails or an unsupported event is
+     *                     encountered
+     */
+    static void write(XMLEvent[] events, DataOutput out) throws IOException {
+        Writer writer = new Writer(out);
+        out.writeByte(VERSION);
+        writer.varInt(events.length);
+        for (XMLEvent event : events) {
+            writer.event(event);
+        }
+    }
+
+    /**
+     * Read events from a stream
+     *
+     * @param in where to read them from
+     * @return the events
+     * @throws IOException if the input fails or is malformed
+     */
+    static XMLEvent[] read(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new StreamCorruptedException("Unknown XMLEvent encoding version: " + version);
+        Reader reader = new Reader(in);
+        XMLEvent[] events = new XMLEvent[reader.varInt()];
+        for (int i = 0 ; i < events.length ; i++) {
+            events[i] = reader.event();
+        }
+        return events;
+    }
+
+    private static final class Writer {
+
+        private final DataOutput out;
+        private final HashMap<String, Integer> strings;
+
+        private Writer(DataOutput out) {
+            this.out = out;
+            this.strings = new HashMap<>();
+        }
+
+        private void event(XMLEvent event) throws IOException {
+            switch (event.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement(event.asStartElement());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    out.writeByte(END_ELEMENT);
+                    name(event.asEndElement().getName());
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    out.writeByte(CHARACTERS);
+                    text(event.asCharacters().getData());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    out.writeByte(CDATA);
+                    text(event.asCharacters().getData());
+                    break;
+                default:
+                    throw new IOException("Cannot encode XMLEvent of type: " + event.getEventType());
+            }
+        }
+
+        private void startElement(StartElement event) throws IOException {
+            out.writeByte(START_ELEMENT);
+            name(event.getName());
+            ArrayList<Namespace> namespaces = list(event.getNamespaces());
+            varInt(namespaces.size());
+            for (Namespace namespace : namespaces) {
+                string(namespace.getPrefix());
+                string(namespace.getNamespaceURI());
+            }
+            ArrayList<Attribute> attributes = list(event.getAttributes());
+            varInt(attributes.size());
+            for (Attribute attribute : attributes) {
+                name(attribute.getName());
+                string(attribute.getValue());
+            }
+        }
+
+        private void name(QName name) throws IOException {
+            string(name.getPrefix());
+            string(name.getNamespaceURI());
+            string(name.getLocalPart());
+        }
+
+        private void string(String s) throws IOException {
+            Integer ref = strings.get(s);
+            if (ref != null) {
+                varInt(ref);
+            } else {
+                int next = strings.size();
+                strings.put(s, next);
+                varInt(next);
+                text(s);
+            }
+        }
+
+        private void text(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void varInt(int value) throws IOException {
+            while (( value & ~0x7f ) != 0) {
+                out.writeByte(( value & 0x7f ) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static <T> ArrayList<T> list(Iterator<T> i) {
+            ArrayList<T> list = new ArrayList<>();
+            while (i.hasNext()) {
+                list.add(i.next());
+            }
+            return list;
+        }
+    }
+
+    private static final class Reader {
+
+        private final DataInput in;
+        private final ArrayList<String> strings;
+
+        private Reader(DataInput in) {
+            this.in = in;
+            this.strings = new ArrayList<>();
+        }
+
+        private XMLEvent event() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case START_ELEMENT:
+                    return startElement();
+                case END_ELEMENT:
+                    return endElement();
+                case CHARACTERS:
+                    return E.createCharacters(text());
+                case CDATA:
+                    return E.createCData(text());
+                default:
+                    throw new StreamCorruptedException("Unknown XMLEvent tag: " + tag);
+            }
+        }
+
+        private XMLEvent endElement() throws IOException {
+            String prefix = string();
+            String uri = string();
+            String localName = string();
+            return E.createEndElement(prefix, uri, localName);
+        }
+
+        private XMLEvent startElement() throws IOException {
+            String prefix = string();
+            String uri = string();
+            String localName = string();
+            int namespaceCount = varInt();
+            Iterator<Namespace> namespaces = Collections.emptyIterator();
+            if (namespaceCount != 0) {
+                ArrayList<Namespace> list = new ArrayList<>(namespaceCount);
+                for (int i = 0 ; i < namespaceCount ; i++) {
+                    String nsPrefix = string();
+                    String nsUri = string();
+                    list.add(nsPrefix.isEmpty() ?
+                             E.createNamespace(nsUri) :
+                             E.createNamespace(nsPrefix, nsUri));
+                }
+                namespaces = list.iterator();
+            }
+            int attributeCount = varInt();
+            Iterator<Attribute> attributes = Collections.emptyIterator();
+            if (attributeCount != 0) {
+                ArrayList<Attribute> list = new ArrayList<>(attributeCount);
+                for (int i = 0 ; i < attributeCount ; i++) {
+                    String attrPrefix = string();
+                    String attrUri = string();
+                    String attrLocalName = string();
+                    list.add(E.createAttribute(attrPrefix, attrUri, attrLocalName, string()));
+                }
+                attributes = list.iterator();
+            }
+            return E.createStartElement(prefix, uri, localName, attributes, namespaces);
+        }
+
+        private String string() throws IOException {
+            int ref = varInt();
+            if (ref < strings.size())
+                return strings.get(ref);
+            if (ref != strings.size())
+                throw new StreamCorruptedException("Invalid string reference: " + ref);
+            String s = text();
+            strings.add(s);
+            return s;
+        }
+
+        private String text() throws IOException {
+            byte[] bytes = new byte[varInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int varInt() throws IOException {
+            int value = 0;
+            for (int shift = 0 ; shift < 32 ; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= ( b & 0x7f ) << shift;
+                if (( b & 0x80 ) == 0)
+                    return value;
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import static dk.dbc.opensearch.xml.XMLElementFilter.elementReader;
+import static dk.dbc.opensearch.xml.XMLEventFactories.*;
+
+/**
+ * An element stored as already serialized output
+ * <p>
+ * The element is kept as UTF-8 XML, and optionally as the UTF-8 BadgerFish
+ * JSON value of the element (only possible when the namespaces used has a
+ * well-known symbolic name).
+ * <p>
+ * {@link #reader()} produces a {@link Start} marker event and the matching
+ * EndElement. Writers that know of the marker, copy the bytes into the output
+ * instead of writing the events, other writers should be given
+ * {@link #events()}, which replays the element event by event.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class XMLPreRendered implements Serializable {
+
+    private static final long serialVersionUID = 2412968358069466716L;
+
+    private final String prefix;
+    private final String namespaceURI;
+    private final String localName;
+    private final byte[] xml;
+    private final byte[] json;
+    private final List<String> jsonNamespaces;
+
+    /**
+     * Render an element
+     *
+     * @param element        the element (is consumed)
+     * @param json           the BadgerFish JSON value of the element, or null
+     *                       if it cannot be pre-rendered
+     * @param jsonNamespaces the namespace uris used in the json
+     * @throws XMLStreamException if the element cannot be written as XML
+     */
+    public XMLPreRendered(XMLCacheReader element, byte[] json, Collection<String> jsonNamespaces) throws XMLStreamException {
+        XMLEvent first = element.peek();
+        if (first == null || !first.isStartElement())
+            throw new XMLStreamException("Pre-rendered content should start with an element");
+        QName name = first.asStartElement().getName();
+        this.prefix = name.getPrefix();
+        this.namespaceURI = name.getNamespaceURI();
+        this.localName = name.getLocalPart();
+        this.xml = toBytes(element);
+        this.json = json;
+        this.jsonNamespaces = json == null ?
+                              Collections.EMPTY_LIST :
+                              Collections.unmodifiableList(new ArrayList<>(jsonNamespaces));
+    }
+
+    /**
+     * UTF-8 XML of the element, with all namespaces declared on the element
+     *
+     * @return bytes (do not modify)
+     */
+    public byte[] getXml() {
+        return xml;
+    }
+
+    /**
+     * If there's a pre-rendered json value
+     *
+     * @return if {@link #getJson()} is usable
+     */
+    public boolean hasJson() {
+        return json != null;
+    }
+
+    /**
+     * UTF-8 BadgerFish JSON value of the element
+     *
+     * @return bytes (do not modify) or null
+     */
+    public byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * The namespace uris, that should be declared in the enclosing BadgerFish
+     * JSON document
+     *
+     * @return list of namespace uris
+     */
+    public List<String> getJsonNamespaces() {
+        return jsonNamespaces;
+    }
+
+    /**
+     * Marker events for a writer, that can copy the pre-rendered content
+     *
+     * @return a reader of a {@link Start} event and the matching end event
+     */
+    public XMLEventReader reader() {
+        return new XMLCacheReader(new XMLEvent[] {
+            new Start(this, E.createStartElement(prefix, namespaceURI, localName)),
+            E.createEndElement(prefix, namespaceURI, localName)
+        });
+    }
+
+    /**
+     * Parse the pre-rendered XML into events
+     *
+     * @return reader of the element
+     * @throws XMLStreamException if the stored XML is invalid
+     */
+    public XMLCacheReader events() throws XMLStreamException {
+        XMLEventReader reader = elementReader(I.createXMLEventReader(new ByteArrayInputStream(xml)));
+        ArrayList<XMLEvent> events = new ArrayList<>();
+        while (reader.hasNext()) {
+            events.add(reader.nextEvent());
+        }
+        return new XMLCacheReader(events.toArray(new XMLEvent[events.size()]));
+    }
+
+    private static byte[] toBytes(XMLEventReader element) throws XMLStreamException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            XMLEventWriter writer = O.createXMLEventWriter(bos, "UTF-8");
+            writer.add(element);
+            writer.close();
+            return bos.toByteArray();
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "XMLPreRendered{" + "name=" + new QName(namespaceURI, localName, prefix) + ", xml=" + xml.length + ", json=" + ( json == null ? "none" : json.length ) + '}';
+    }
+
+    /**
+     * Marker event, telling that the element content is available as bytes
+     * <p>
+     * It behaves as an element without attributes and namespaces for writers
+     * that do not know of it
+     */
+    public static final class Start implements StartElement {
+
+        private final XMLPreRendered content;
+        private final StartElement element;
+
+        private Start(XMLPreRendered content, StartElement element) {
+            this.content = content;
+            this.element = element;
+        }
+
+        public XMLPreRendered getContent() {
+            return content;
+        }
+
+        @Override
+        public QName getName() {
+            return element.getName();
+        }
+
+        @Override
+        public Iterator getAttributes() {
+            return element.getAttributes();
+        }
+
+        @Override
+        public Iterator getNamespaces() {
+            return element.getNamespaces();
+        }
+
+        @Override
+        public Attribute getAttributeByName(QName name) {
+            return element.getAttributeByName(name);
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return element.getNamespaceContext();
+        }
+
+        @Override
+        public String getNamespaceURI(String prefix) {
+            return element.getNamespaceURI(prefix);
+        }
+
+        @Override
+        public int getEventType() {
+            return element.getEventType();
+        }
+
+        @Override
+        public Location getLocation() {
+            return element.getLocation();
+        }
+
+        @Override
+        public boolean isStartElement() {
+            return true;
+        }
+
+        @Override
+        public boolean isAttribute() {
+            return false;
+        }
+
+        @Override
+        public boolean isNamespace() {
+            return false;
+        }
+
+        @Override
+        public boolean isEndElement() {
+            return false;
+        }
+
+        @Override
+        public boolean isEntityReference() {
+            return false;
+        }
+
+        @Override
+        public boolean isProcessingInstruction() {
+            return false;
+        }
+
+        @Override
+        public boolean isCharacters() {
+            return false;
+        }
+
+        @Override
+        public boolean isStartDocument() {
+            return false;
+        }
+
+        @Override
+        public boolean isEndDocument() {
+            return false;
+        }
+
+        @Override
+        public StartElement asStartElement() {
+            return this;
+        }
+
+        @Override
+        public EndElement asEndElement() {
+            throw new ClassCastException("Not an EndElement");
+        }
+
+        @Override
+        public Characters asCharacters() {
+            throw new ClassCastException("Not Characters");
+        }
+
+        @Override
+        public QName getSchemaType() {
+            return element.getSchemaType();
+        }
+
+        @Override
+        public void writeAsEncodedUnicode(Writer writer) throws XMLStreamException {
+            element.writeAsEncodedUnicode(writer);
+        }
+
+        @Override
+        public String toString() {
+            return element.toString();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.XMLEventConsumer;
+
+import static dk.dbc.opensearch.xml.XMLEventFactories.O;
+
+/**
+ * XMLStreamWriter that copies {@link XMLPreRendered} content directly into the
+ * output stream
+ * <p>
+ * This is the cursor API counterpart of {@link XMLPreRenderedWriter}. Events
+ * (copied content) are given through {@link #add(XMLEvent)}, when a
+ * {@link XMLPreRendered.Start} marker is seen, the open start tag is closed,
+ * the writer is flushed and the serialized XML is written. The matching end
+ * element is swallowed. Other events are written through the cursor API.
+ * <p>
+ * Only an explicit {@link #flush()} is propagated to the output stream.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class XMLPreRenderedStreamWriter implements XMLStreamWriter, XMLEventConsumer {
+
+    private final OutputStream out;
+    private final OutputStream os;
+    private final XMLStreamWriter w;
+    private boolean skipEndElement;
+
+    public XMLPreRenderedStreamWriter(OutputStream os) throws XMLStreamException {
+        this.out = os;
+        this.os = new XMLPreRenderedWriter.NonFlushingOutputStream(os);
+        this.w = O.createXMLStreamWriter(this.os, "UTF-8");
+        this.skipEndElement = false;
+    }
+
+    @Override
+    public void add(XMLEvent event) throws XMLStreamException {
+        if (skipEndElement) {
+            skipEndElement = false;
+            if (event.isEndElement())
+                return;
+        }
+        if (event instanceof XMLPreRendered.Start) {
+            w.writeCharacters("");
+            w.flush();
+            try {
+                os.write(( (XMLPreRendered.Start) event ).getContent().getXml());
+            } catch (IOException ex) {
+                throw new XMLStreamException("Cannot write pre-rendered content", ex);
+            }
+            skipEndElement = true;
+        } else {
+            write(event);
+        }
+    }
+
+    private void write(XMLEvent event) throws XMLStreamException {
+        switch (event.getEventType()) {
+            case XMLEvent.START_ELEMENT:
+                StartElement start = event.asStartElement();
+                QName name = start.getName();
+                w.writeStartElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+                for (Iterator<Namespace> i = start.getNamespaces() ; i.hasNext() ;) {
+                    Namespace namespace = i.next();
+                    if (namespace.isDefaultNamespaceDeclaration())
+                        w.writeDefaultNamespace(namespace.getNamespaceURI());
+                    else
+                        w.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+                }
+                for (Iterator<Attribute> i = start.getAttributes() ; i.hasNext() ;) {
+                    Attribute attribute = i.next();
+                    QName attributeName = attribute.getName();
+                    if (attributeName.getPrefix().isEmpty())
+                        w.writeAttribute(attributeName.getLocalPart(), attribute.getValue());
+                    else
+                        w.writeAttribute(attributeName.getPrefix(), attributeName.getNamespaceURI(), attributeName.getLocalPart(), attribute.getValue());
+                }
+                break;
+            case XMLEvent.END_ELEMENT:
+                w.writeEndElement();
+                break;
+            case XMLEvent.CHARACTERS:
+            case XMLEvent.CDATA:
+            case XMLEvent.SPACE:
+                Characters characters = event.asCharacters();
+                if (characters.isCData())
+                    w.writeCData(characters.getData());
+                else
+                    w.writeCharacters(characters.getData());
+                break;
+            case XMLEvent.COMMENT:
+                w.writeComment(( (Comment) event ).getText());
+                break;
+            case XMLEvent.START_DOCUMENT:
+            case XMLEvent.END_DOCUMENT:
+                break;
+            default:
+                throw new XMLStreamException("Cannot write event: " + event);
+        }
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        w.flush();
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            throw new XMLStreamException("Cannot flush output", ex);
+        }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        w.close();
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        w.writeStartElement(localName);
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        w.writeStartElement(namespaceURI, localName);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        w.writeStartElement(prefix, localName, namespaceURI);
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        w.writeEmptyElement(namespaceURI, localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        w.writeEmptyElement(prefix, localName, namespaceURI);
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        w.writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        w.writeEndElement();
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        w.writeEndDocument();
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        w.writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+        w.writeAttribute(prefix, namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        w.writeAttribute(namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        w.writeNamespace(prefix, namespaceURI);
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        w.writeDefaultNamespace(namespaceURI);
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        w.writeComment(data);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        w.writeProcessingInstruction(target);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        w.writeProcessingInstruction(target, data);
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        w.writeCData(data);
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        w.writeDTD(dtd);
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        w.writeEntityRef(name);
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        w.writeStartDocument();
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        w.writeStartDocument(version);
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        w.writeStartDocument(encoding, version);
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        w.writeCharacters(text);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        w.writeCharacters(text, start, len);
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return w.getPrefix(uri);
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        w.setPrefix(prefix, uri);
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+        w.setDefaultNamespace(uri);
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        w.setNamespaceContext(context);
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return w.getNamespaceContext();
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        return w.getProperty(name);
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.xml;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import static dk.dbc.opensearch.xml.XMLEventFactories.*;
+
+/**
+ * XMLEventWriter that copies {@link XMLPreRendered} content directly into the
+ * output stream
+ * <p>
+ * When a {@link XMLPreRendered.Start} marker is seen, the open start tag is
+ * closed, the writer is flushed and the serialized XML is written. The
+ * matching end element is swallowed.
+ * <p>
+ * Only an explicit {@link #flush()} is propagated to the output stream.
+ *
+ * @author Morten Bøgeskov (mb@dbc.dk)
+ */
+public class XMLPreRenderedWriter implements XMLEventWriter {
+
+    private static final XMLEvent CLOSE_START_TAG = E.createCharacters("");
+
+    private final OutputStream out;
+    private final OutputStream os;
+    private final XMLEventWriter w;
+    private boolean skipEndElement;
+
+    public XMLPreRenderedWriter(OutputStream os) throws XMLStreamException {
+        this.out = os;
+        this.os = new NonFlushingOutputStream(os);
+        this.w = O.createXMLEventWriter(this.os, "UTF-8");
+        this.skipEndElement = false;
+    }
+
+    @Override
+    public void add(XMLEvent event) throws XMLStreamException {
+        if (skipEndElement) {
+            skipEndElement = false;
+            if (event.isEndElement())
+                return;
+        }
+        if (event instanceof XMLPreRendered.Start) {
+            w.add(CLOSE_START_TAG);
+            w.flush();
+            try {
+                os.write(( (XMLPreRendered.Start) event ).getContent().getXml());
+            } catch (IOException ex) {
+                throw new XMLStreamException("Cannot write pre-rendered content", ex);
+            }
+            skipEndElement = true;
+        } else {
+            w.add(event);
+        }
+    }
+
+    @Override
+    public void add(XMLEventReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            add(reader.nextEvent());
+        }
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        w.flush();
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            throw new XMLStreamException("Cannot flush output", ex);
+        }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        w.close();
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return w.getPrefix(uri);
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        w.setPrefix(prefix, uri);
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+        w.setDefaultNamespace(uri);
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        w.setNamespaceContext(context);
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return w.getNamespaceContext();
+    }
+
+    /**
+     * Don't propagate flush to the (servlet) stream for every record
+     */
+    static class NonFlushingOutputStream extends FilterOutputStream {
+
+        NonFlushingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.utils;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class MetricsRegistryTest {
+
+    @Test(timeout = 2_000L)
+    public void testHistogramBuckets() throws Exception {
+        System.out.println("testHistogramBuckets");
+        Histogram histogram = new Histogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(50)); // <= 100µs
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(100)); // <= 100µs (inclusive)
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3)); // <= 5ms
+        histogram.record(TimeUnit.MINUTES.toNanos(5)); // +Inf
+        long[] counts = histogram.getCumulativeCounts();
+        assertThat(counts.length, is(Histogram.getBounds().length + 1));
+        assertThat(counts[0], is(2L));
+        assertThat(counts[4], is(2L)); // <= 2.5ms
+        assertThat(counts[5], is(3L)); // <= 5ms
+        assertThat(counts[counts.length - 2], is(3L)); // <= 60s
+        assertThat(counts[counts.length - 1], is(4L));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testStatisticsRecorderFeedsRegistry() throws Exception {
+        System.out.println("testStatisticsRecorderFeedsRegistry");
+        MetricsRegistry metrics = new MetricsRegistry();
+        StatisticsRecorder recorder = new StatisticsRecorder(metrics);
+        try (Timing timer = recorder.timer("output")) {
+            Thread.sleep(2);
+        }
+        try (Timing timer = recorder.timer("output")) {
+        }
+        recorder.log();
+        long[] counts = metrics.getTiming("output").getCumulativeCounts();
+        assertThat(counts[counts.length - 1], is(2L));
+        assertThat(metrics.getTiming("output").getSum(), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(2)));
+        assertThat(metrics.getTiming("total"), notNullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void testPrometheusFormat() throws Exception {
+        System.out.println("testPrometheusFormat");
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.timing("corepo-content-service", TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.timing("corepo-content-service", TimeUnit.MILLISECONDS.toNanos(1_500));
+        PrometheusWriter writer = new PrometheusWriter();
+        metrics.write(writer);
+        writer.family("test_gauge", "gauge", "A \"quoted\" label")
+                .sample("test_gauge", 1.5, "label", "a\"b");
+        String text = writer.toString();
+        assertThat(text, containsString("# TYPE opensearch_timing_seconds histogram\n"));
+        assertThat(text, containsString("opensearch_timing_seconds_bucket{name=\"corepo-content-service\",le=\"0.01\"} 0\n"));
+        assertThat(text, containsString("opensearch_timing_seconds_bucket{name=\"corepo-content-service\",le=\"0.025\"} 1\n"));
+        assertThat(text, containsString("opensearch_timing_seconds_bucket{name=\"corepo-content-service\",le=\"2.5\"} 2\n"));
+        assertThat(text, containsString("opensearch_timing_seconds_bucket{name=\"corepo-content-service\",le=\"+Inf\"} 2\n"));
+        assertThat(text, containsString("opensearch_timing_seconds_sum{name=\"corepo-content-service\"} 1.52\n"));
+        assertThat(text, containsString("opensearch_timing_seconds_count{name=\"corepo-content-service\"} 2\n"));
+        assertThat(text, containsString("test_gauge{label=\"a\\\"b\"} 1.5\n"));
+    }
+}
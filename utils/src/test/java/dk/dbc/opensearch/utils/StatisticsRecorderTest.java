@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.utils;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class StatisticsRecorderTest {
+
+    private static final TimerSlot PARSE = TimerSlot.of("test-parse");
+
+    @Test(timeout = 2_000L)
+    public void testSubMillisecondTimings() throws Exception {
+        System.out.println("testSubMillisecondTimings");
+        StatisticsRecorder recorder = new StatisticsRecorder(new MetricsRegistry());
+        for (int i = 0 ; i < 3 ; i++) {
+            try (Timing timer = recorder.timer(PARSE)) {
+                Math.sqrt(i);
+            }
+        }
+        long nanos = recorder.getNanos(PARSE);
+        assertThat(nanos, greaterThan(0L));
+        assertThat(nanos, lessThan(TimeUnit.MILLISECONDS.toNanos(100)));
+        assertThat(recorder.getNanos(TimerSlot.of("test-unused")), is(0L));
+        assertThat(recorder.toString(), not(containsString("test-unused")));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testNameAndSlotShareTiming() throws Exception {
+        System.out.println("testNameAndSlotShareTiming");
+        MetricsRegistry metrics = new MetricsRegistry();
+        StatisticsRecorder recorder = new StatisticsRecorder(metrics);
+        try (Timing timer = recorder.timer("test-parse")) {
+            Thread.sleep(1);
+        }
+        try (Timing timer = recorder.timer(PARSE)) {
+            Thread.sleep(1);
+        }
+        assertThat(TimerSlot.of("test-parse"), sameInstance(PARSE));
+        assertThat(recorder.getNanos(PARSE), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(2)));
+        long[] counts = metrics.getTiming("test-parse").getCumulativeCounts();
+        assertThat(counts[counts.length - 1], is(2L));
+    }
+}
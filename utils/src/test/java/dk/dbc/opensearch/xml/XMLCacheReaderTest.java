@@ -20,6 +20,8 @@ package dk.dbc.opensearch.xml;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Reader;
@@ -102,6 +104,42 @@ public class XMLCacheReaderTest {
         assertThat(after, is(before));
     }
 
+    @Test(timeout = 2_000L)
+    public void testBinaryRoundTrip() throws Exception {
+        System.out.println("testBinaryRoundTrip");
+
+        DefaultPrefix defaultPrefix = new DefaultPrefix(map()
+                .with("foo", "info:v1")
+                .with("bar", "info:v2")
+                .build());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<xml><b:f1 xmlns=\"info:v1\" xmlns:b=\"info:v2\" b:at=\"x\">");
+        for (int i = 0 ; i < 200 ; i++) {
+            sb.append("<f2 code=\"").append(i % 3).append("\" n=\"").append(i).append("\">æøå &amp; ").append(i).append("</f2>");
+        }
+        sb.append("<f3><![CDATA[<cdata>]]></f3></b:f1></xml>");
+
+        String before = xmlToString(cached(sb.toString(), defaultPrefix));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(bos)) {
+            cached(sb.toString(), defaultPrefix).writeTo(dos);
+        }
+        byte[] bytes = bos.toByteArray();
+        System.out.println("bytes.length = " + bytes.length + " xml.length = " + before.length());
+        assertThat(bytes.length, lessThan(before.length()));
+
+        XMLCacheReader reader = XMLCacheReader.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+        String after = xmlToString(reader);
+        assertThat(after, is(before));
+    }
+
+    private XMLCacheReader cached(String xml, DefaultPrefix defaultPrefix) throws XMLStreamException {
+        XMLEventReader xr = I.createXMLEventReader(new StringReader(xml));
+        return XMLCacheElement.of((StartElement) xr.nextTag(), xr, defaultPrefix).toReader();
+    }
+
     private String xmlToString(XMLCacheReader reader) throws XMLStreamException {
         StringWriter w = new StringWriter();
         XMLEventWriter ow = O.createXMLEventWriter(w);
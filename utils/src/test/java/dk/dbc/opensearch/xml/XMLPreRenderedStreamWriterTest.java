@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-utils
+ *
+ * opensearch-utils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import org.junit.Test;
+
+import static dk.dbc.opensearch.xml.XMLEventFactories.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class XMLPreRenderedStreamWriterTest {
+
+    private static final String RECORD = "<xml><b:f1 xmlns=\"info:v1\" xmlns:b=\"info:v2\" b:at=\"x\"><f2 code=\"a\">æøå &amp; &lt;</f2><f3/></b:f1></xml>";
+
+    @Test(timeout = 2_000L)
+    public void testWriterCopiesBytes() throws Exception {
+        System.out.println("testWriterCopiesBytes");
+
+        XMLPreRendered preRendered = new XMLPreRendered(cached(RECORD), null, Collections.emptyList());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        envelope(O.createXMLEventWriter(expected, "UTF-8"), cached(RECORD));
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        envelope(new XMLPreRenderedStreamWriter(actual), preRendered.reader());
+
+        String before = new String(expected.toByteArray(), StandardCharsets.UTF_8);
+        String after = new String(actual.toByteArray(), StandardCharsets.UTF_8);
+        System.out.println("before = " + before);
+        System.out.println("after = " + after);
+        assertThat(after, is(before));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testEventsAreWritten() throws Exception {
+        System.out.println("testEventsAreWritten");
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        envelope(O.createXMLEventWriter(expected, "UTF-8"), cached(RECORD));
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        envelope(new XMLPreRenderedStreamWriter(actual), cached(RECORD));
+
+        assertThat(new String(actual.toByteArray(), StandardCharsets.UTF_8),
+                   is(new String(expected.toByteArray(), StandardCharsets.UTF_8)));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testOnlyExplicitFlushIsPropagated() throws Exception {
+        System.out.println("testOnlyExplicitFlushIsPropagated");
+
+        XMLPreRendered preRendered = new XMLPreRendered(cached(RECORD), null, Collections.emptyList());
+        AtomicInteger flushes = new AtomicInteger();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+        XMLPreRenderedStreamWriter w = new XMLPreRenderedStreamWriter(actual);
+        w.writeStartDocument();
+        w.writeStartElement("root");
+        add(w, preRendered.reader());
+        assertThat(flushes.get(), is(0));
+        w.flush();
+        assertThat(flushes.get(), is(1));
+        assertThat(new String(actual.toByteArray(), StandardCharsets.UTF_8), containsString("</bar:f1>"));
+    }
+
+    private void envelope(XMLEventWriter w, XMLEventReader content) throws XMLStreamException {
+        w.add(E.createStartElement("o", "info:out", "out"));
+        w.add(E.createNamespace("o", "info:out"));
+        w.add(E.createStartElement("o", "info:out", "record"));
+        w.add(content);
+        w.add(E.createEndElement("o", "info:out", "record"));
+        w.add(E.createStartElement("o", "info:out", "empty"));
+        w.add(E.createEndElement("o", "info:out", "empty"));
+        w.add(E.createEndElement("o", "info:out", "out"));
+        w.close();
+    }
+
+    private void envelope(XMLPreRenderedStreamWriter w, XMLEventReader content) throws XMLStreamException {
+        w.writeStartElement("o", "out", "info:out");
+        w.writeNamespace("o", "info:out");
+        w.writeStartElement("o", "record", "info:out");
+        add(w, content);
+        w.writeEndElement();
+        w.writeStartElement("o", "empty", "info:out");
+        w.writeEndElement();
+        w.writeEndElement();
+        w.close();
+    }
+
+    private void add(XMLPreRenderedStreamWriter w, XMLEventReader content) throws XMLStreamException {
+        while (content.hasNext()) {
+            w.add(content.nextEvent());
+        }
+    }
+
+    private XMLCacheReader cached(String xml) throws XMLStreamException {
+        HashMap<String, String> prefixes = new HashMap<>();
+        prefixes.put("foo", "info:v1");
+        prefixes.put("bar", "info:v2");
+        XMLEventReader xr = I.createXMLEventReader(new StringReader(xml));
+        return XMLCacheElement.of((StartElement) xr.nextTag(), xr, new DefaultPrefix(prefixes)).toReader();
+    }
+}
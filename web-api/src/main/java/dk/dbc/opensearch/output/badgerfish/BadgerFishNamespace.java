@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import javax.xml.namespace.QName;
 
@@ -71,7 +72,18 @@ class BadgerFishNamespace {
      * @throws IOException If JSON couldn't be produced
      */
     void outputNamespace(QName name) throws IOException {
-        String uri = name.getNamespaceURI();
+        outputNamespace(name.getNamespaceURI());
+    }
+
+    /**
+     * Output a given namespace as namespace annotation
+     * <p>
+     * If the namespace isn't known make a symbolic name for it
+     *
+     * @param uri the namespace uri (empty for no namespace)
+     * @throws IOException If JSON couldn't be produced
+     */
+    void outputNamespace(String uri) throws IOException {
         if (uri.isEmpty())
             return;
         String mapping = mappings.computeIfAbsent(uri, s -> {
@@ -80,7 +92,42 @@ class BadgerFishNamespace {
                                                   ret = "ns" + unresolvedNamespaceNumber++;
                                               return ret;
                                           });
-        generator.writeStringField("@", mapping);
+        generator.writeFieldName(BadgerFishRules.NAMESPACE_FIELD);
+        generator.writeString(mapping);
+    }
+
+    /**
+     * Register a namespace as used, without outputting anything
+     * <p>
+     * Used when JSON has been rendered elsewhere (with the default mapping)
+     *
+     * @param uri the namespace uri
+     * @throws IOException If the namespace has no default symbolic name
+     */
+    void declare(String uri) throws IOException {
+        String mapping = defaults.get(uri);
+        if (mapping == null)
+            throw new IOException("Namespace: " + uri + " has no default symbolic name");
+        mappings.computeIfAbsent(uri, s -> mapping);
+    }
+
+    /**
+     * Has symbolic names been made up for namespaces, that has no default
+     * symbolic name
+     *
+     * @return if any namespace is named nsX
+     */
+    boolean hasGeneratedNames() {
+        return unresolvedNamespaceNumber != 1;
+    }
+
+    /**
+     * The namespace uris, that has been used
+     *
+     * @return set of uris
+     */
+    Set<String> usedNamespaces() {
+        return mappings.keySet();
     }
 
     /**
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-web-api
+ *
+ * opensearch-web-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-web-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.output.badgerfish;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import dk.dbc.opensearch.output.Root;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * BadgerFish JSON target for the generated output classes
+ * <p>
+ * The tags of the schema are written by the generated classes, with the
+ * single entry rules, that they were generated with. The tags from any content
+ * (records) are converted as {@link BadgerFishWriter} does, so the output is
+ * the same, without the XML events of the schema tags.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BadgerFishOutput implements Root.JsonOutput {
+
+    private final Redirect out;
+    private final Context cxt;
+    private final ArrayDeque<Buffer> buffers;
+
+    /**
+     * Build an output
+     *
+     * @param os    output stream
+     * @param rules which tags in any content are ensured to be non repeated
+     * @throws IOException if initialization of jackson fails
+     */
+    public BadgerFishOutput(OutputStream os, BadgerFishRules rules) throws IOException {
+        this.out = new Redirect(BadgerFishWriter.JSON_FACTORY.createGenerator(os));
+        this.cxt = new Context(out, new BadgerFishStack(), rules, BadgerFishNamespace.DEFAULT_NAMESPACE_MAP);
+        this.buffers = new ArrayDeque<>();
+    }
+
+    @Override
+    public JsonGenerator generator() {
+        return out;
+    }
+
+    @Override
+    public void namespace(String uri) throws IOException {
+        cxt.ns.outputNamespace(uri);
+    }
+
+    @Override
+    public void element(StartElement start, XMLEventReader content) throws XMLStreamException, IOException {
+        cxt.stack.addConsumer(new Open(cxt, start));
+        for (int level = 1 ; level > 0 ;) {
+            XMLEvent event = content.nextEvent();
+            if (event.isStartElement())
+                level++;
+            else if (event.isEndElement())
+                level--;
+            if (BadgerFishWriter.isWanted(event.getEventType()))
+                cxt.stack.consume(event);
+        }
+    }
+
+    @Override
+    public void startBuffer() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        buffers.push(new Buffer(out.redirect(BadgerFishWriter.JSON_FACTORY.createGenerator(bos)), bos));
+    }
+
+    @Override
+    public byte[] endBuffer() throws IOException {
+        Buffer buffer = buffers.pop();
+        out.redirect(buffer.previous).close();
+        return buffer.bos.toByteArray();
+    }
+
+    @Override
+    public void writeBuffer(byte[] json) throws IOException {
+        out.writeRawValue(new RawJson(json));
+    }
+
+    @Override
+    public void namespaces() throws IOException {
+        cxt.ns.outputNamespaceMapping();
+    }
+
+    /**
+     * A generator, that can be pointed at another generator
+     */
+    private static class Redirect extends JsonGeneratorDelegate {
+
+        private Redirect(JsonGenerator delegate) {
+            super(delegate);
+        }
+
+        /**
+         * Write to another generator
+         *
+         * @param generator the new target
+         * @return the previous target
+         */
+        private JsonGenerator redirect(JsonGenerator generator) {
+            JsonGenerator previous = delegate;
+            delegate = generator;
+            return previous;
+        }
+
+        @Override
+        public void writeRawValue(SerializableString raw) throws IOException {
+            delegate.writeRawValue(raw);
+        }
+    }
+
+    private static class Buffer {
+
+        private final JsonGenerator previous;
+        private final ByteArrayOutputStream bos;
+
+        private Buffer(JsonGenerator previous, ByteArrayOutputStream bos) {
+            this.previous = previous;
+            this.bos = bos;
+        }
+    }
+
+}
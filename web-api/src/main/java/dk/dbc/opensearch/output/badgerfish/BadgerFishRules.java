@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-web-api
+ *
+ * opensearch-web-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-web-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.output.badgerfish;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import static dk.dbc.opensearch.xml.XMLEventFactories.I;
+import static java.util.Collections.*;
+
+/**
+ * BadgerFish rules for {@link BadgerFishWriter}
+ * <p>
+ * Either just the single tag rules ({@link #of(BadgerFishSingle)}), or
+ * compiled with XML Schemas ({@link #compile(BadgerFishSingle, InputStream...)})
+ * into per element state tables.
+ * <p>
+ * When a tag has a state table the JSON field names are pre-encoded, and the
+ * schema tells if a nested tag name can occur again, when another tag name has
+ * been seen. Then the nested tags are output as they arrive, instead of being
+ * postponed until the enclosing tag is completed. Tags from an any or without
+ * a schema, are processed as they would be without compiling.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BadgerFishRules {
+
+    static final SerializedString TEXT_FIELD = new SerializedString("$");
+    static final SerializedString NAMESPACE_FIELD = new SerializedString("@");
+
+    private static final String XS = "http://www.w3.org/2001/XMLSchema";
+
+    private final BadgerFishSingle single;
+    private final HashMap<String, HashMap<String, ElementRules>> elements;
+
+    private BadgerFishRules(BadgerFishSingle single) {
+        this.single = single;
+        this.elements = new HashMap<>();
+    }
+
+    /**
+     * Rules without state tables
+     *
+     * @param single which tags are ensured to be non repeated
+     * @return rules
+     */
+    public static BadgerFishRules of(BadgerFishSingle single) {
+        return new BadgerFishRules(single);
+    }
+
+    /**
+     * Compile single tag rules and XML Schemas into state tables
+     * <p>
+     * All tags mentioned in the single tag rules gets a state table too.
+     *
+     * @param single  which tags are ensured to be non repeated
+     * @param schemas XML Schemas (xs:element declarations with anonymous
+     *                types, as opensearch.xsd)
+     * @return rules
+     * @throws IOException If a schema cannot be read
+     */
+    public static BadgerFishRules compile(BadgerFishSingle single, InputStream... schemas) throws IOException {
+        BadgerFishRules rules = new BadgerFishRules(single);
+        BadgerFishSingle.Mapping mapping = single.getMapping();
+        Set<String> all = mapping.all == null ? EMPTY_SET : mapping.all;
+        ArrayList<Particle> refs = new ArrayList<>();
+        try {
+            for (InputStream schema : schemas) {
+                rules.readSchema(I.createXMLEventReader(schema), all, refs);
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Cannot read schema: " + ex.getMessage(), ex);
+        }
+        for (Particle ref : refs) {
+            ref.child.element = rules.element(ref.ref.getNamespaceURI(), ref.ref.getLocalPart());
+        }
+        if (mapping.ns != null) {
+            mapping.ns.forEach((uri, tags) -> tags.forEach((name, singles) -> {
+                ElementRules element = rules.elements
+                        .computeIfAbsent(uri, u -> new HashMap<>())
+                        .computeIfAbsent(name, n -> new ElementRules(uri, n, all));
+                for (String nested : singles) {
+                    ElementRules.Child child = element.addChild(nested);
+                    child.single = true;
+                    child.grouped = true;
+                    if (child.element == null)
+                        child.element = rules.element(uri, nested);
+                }
+            }));
+        }
+        for (Map<String, ElementRules> tags : rules.elements.values()) {
+            for (ElementRules element : tags.values()) {
+                for (String name : all) {
+                    ElementRules.Child child = element.child(name);
+                    if (child != null) {
+                        child.single = true;
+                        child.grouped = true;
+                    }
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Has state tables been compiled
+     *
+     * @return if any tag has a state table
+     */
+    public boolean isCompiled() {
+        return !elements.isEmpty();
+    }
+
+    BadgerFishSingle single() {
+        return single;
+    }
+
+    /**
+     * Find the state table for a (root) tag
+     *
+     * @param name name of the tag
+     * @return state table or null if the tag has none
+     */
+    ElementRules element(QName name) {
+        return element(name.getNamespaceURI(), name.getLocalPart());
+    }
+
+    private ElementRules element(String namespaceUri, String name) {
+        HashMap<String, ElementRules> tags = elements.get(namespaceUri);
+        if (tags == null)
+            return null;
+        return tags.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return "BadgerFishRules{" + "single=" + single + ", elements=" + elements + '}';
+    }
+
+    private void readSchema(XMLEventReader reader, Set<String> all, ArrayList<Particle> refs) throws XMLStreamException {
+        StartElement schema = nextStart(reader);
+        if (schema == null || !isXs(schema, "schema"))
+            throw new XMLStreamException("Expected xs:schema");
+        String targetNamespace = attribute(schema, "targetNamespace", "");
+        boolean qualified = "qualified".equals(attribute(schema, "elementFormDefault", "unqualified"));
+        HashMap<String, ElementRules> tags = elements.computeIfAbsent(targetNamespace, u -> new HashMap<>());
+        for (StartElement start = nextStart(reader) ; start != null ; start = nextStart(reader)) {
+            if (isXs(start, "element")) {
+                String name = attribute(start, "name", null);
+                ElementRules element = tags.computeIfAbsent(name, n -> new ElementRules(targetNamespace, n, all));
+                readElement(reader, element, qualified, all, refs);
+            } else {
+                skip(reader);
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * Read the content of a xs:element, and compile the nested tags into the
+     * state table
+     *
+     * @param reader    schema positioned after the xs:element start
+     * @param element   state table
+     * @param qualified if local element declarations has the target namespace
+     * @param all       tags that are single in all contexts
+     * @param refs      where to register references to global elements
+     * @throws XMLStreamException If the schema is invalid
+     */
+    private void readElement(XMLEventReader reader, ElementRules element, boolean qualified, Set<String> all, ArrayList<Particle> refs) throws XMLStreamException {
+        Particle content = null;
+        for (StartElement start = nextStart(reader) ; start != null ; start = nextStart(reader)) {
+            if (isXs(start, "complexType")) {
+                for (StartElement type = nextStart(reader) ; type != null ; type = nextStart(reader)) {
+                    if (isXs(type, "sequence") || isXs(type, "choice") || isXs(type, "all")) {
+                        content = readParticles(reader, type, element, qualified, all, refs);
+                    } else if (isXs(type, "attribute")) {
+                        element.addAttribute(attribute(type, "name", attribute(type, "ref", "")).replaceFirst("^.*:", ""));
+                        skip(reader);
+                    } else {
+                        skip(reader);
+                    }
+                }
+            } else {
+                skip(reader);
+            }
+        }
+        if (content != null)
+            compileChildren(element, content);
+    }
+
+    private Particle readParticles(XMLEventReader reader, StartElement compositor, ElementRules element, boolean qualified, Set<String> all, ArrayList<Particle> refs) throws XMLStreamException {
+        Particle particle = new Particle(compositor, false);
+        for (StartElement start = nextStart(reader) ; start != null ; start = nextStart(reader)) {
+            if (isXs(start, "sequence") || isXs(start, "choice") || isXs(start, "all")) {
+                particle.nested.add(readParticles(reader, start, element, qualified, all, refs));
+            } else if (isXs(start, "element")) {
+                Particle nested = new Particle(start, false);
+                String ref = attribute(start, "ref", null);
+                if (ref != null) {
+                    int colon = ref.indexOf(':');
+                    String prefix = colon < 0 ? "" : ref.substring(0, colon);
+                    String uri = start.getNamespaceContext().getNamespaceURI(prefix);
+                    nested.ref = new QName(uri == null ? "" : uri, ref.substring(colon + 1));
+                    nested.name = nested.ref.getLocalPart();
+                    refs.add(nested);
+                    skip(reader);
+                } else {
+                    nested.name = attribute(start, "name", null);
+                    nested.local = new ElementRules(qualified ? element.namespaceUri : "", nested.name, all);
+                    readElement(reader, nested.local, qualified, all, refs);
+                }
+                particle.nested.add(nested);
+            } else if (isXs(start, "annotation")) {
+                skip(reader);
+            } else { // xs:any, xs:group ...: unknown tag names
+                particle.nested.add(new Particle(start, true));
+                skip(reader);
+            }
+        }
+        return particle;
+    }
+
+    /**
+     * Make the nested tags of the content model, and decide if they're grouped
+     * <p>
+     * A tag name is grouped if it occurs once in the content model, and no
+     * repeated sequence/choice, that contains anything else, encloses it.
+     * <p>
+     * If the content model is a sequence, tags after the sequence entry, that
+     * contains the last any, comes after the unknown tags.
+     *
+     * @param element state table
+     * @param content content model
+     */
+    private static void compileChildren(ElementRules element, Particle content) {
+        HashMap<String, Integer> counts = new HashMap<>();
+        content.countNames(counts);
+        int lastAny = -1;
+        if (!content.repeated && isXs(content.declaration, "sequence")) {
+            for (int i = 0 ; i < content.nested.size() ; i++) {
+                if (content.nested.get(i).hasAny())
+                    lastAny = i;
+            }
+        }
+        for (int i = 0 ; i < content.nested.size() ; i++) {
+            content.nested.get(i).compile(element, counts, content.isMixedRepeat(), lastAny >= 0 && i > lastAny);
+        }
+    }
+
+    private static StartElement nextStart(XMLEventReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement())
+                return event.asStartElement();
+            if (event.isEndElement())
+                return null;
+        }
+        return null;
+    }
+
+    private static void skip(XMLEventReader reader) throws XMLStreamException {
+        int level = 1;
+        while (level > 0) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement())
+                level++;
+            else if (event.isEndElement())
+                level--;
+        }
+    }
+
+    private static boolean isXs(StartElement start, String name) {
+        return XS.equals(start.getName().getNamespaceURI()) &&
+               name.equals(start.getName().getLocalPart());
+    }
+
+    private static String attribute(StartElement start, String name, String defaultValue) {
+        Attribute attribute = start.getAttributeByName(new QName(name));
+        return attribute == null ? defaultValue : attribute.getValue();
+    }
+
+    /**
+     * Content model node: sequence/choice/all, element or any
+     */
+    private static final class Particle {
+
+        private final StartElement declaration;
+        private final boolean any;
+        private final boolean repeated;
+        private final ArrayList<Particle> nested;
+        private String name;
+        private QName ref;
+        private ElementRules local;
+        private ElementRules.Child child;
+
+        private Particle(StartElement declaration, boolean any) {
+            this.declaration = declaration;
+            this.any = any;
+            String maxOccurs = attribute(declaration, "maxOccurs", "1");
+            this.repeated = !"1".equals(maxOccurs) && !"0".equals(maxOccurs);
+            this.nested = new ArrayList<>();
+        }
+
+        private void countNames(HashMap<String, Integer> counts) {
+            if (name != null)
+                counts.merge(name, 1, Integer::sum);
+            for (Particle particle : nested) {
+                particle.countNames(counts);
+            }
+        }
+
+        private boolean hasAny() {
+            return any || nested.stream().anyMatch(Particle::hasAny);
+        }
+
+        /**
+         * Is this repeated and can it contain more than one tag name
+         *
+         * @return if tag names can alternate
+         */
+        private boolean isMixedRepeat() {
+            if (!repeated || name != null)
+                return false;
+            HashSet<String> names = new HashSet<>();
+            collectNames(names);
+            return names.size() > 1;
+        }
+
+        private void collectNames(HashSet<String> names) {
+            if (any)
+                names.add(null);
+            if (name != null)
+                names.add(name);
+            for (Particle particle : nested) {
+                particle.collectNames(names);
+            }
+        }
+
+        private void compile(ElementRules element, Map<String, Integer> counts, boolean mixedRepeat, boolean afterAny) {
+            if (name != null) {
+                child = element.addChild(name);
+                child.grouped = !mixedRepeat && counts.get(name) == 1;
+                child.afterAny = afterAny;
+                if (local != null)
+                    child.element = local;
+            }
+            boolean nestedMixedRepeat = mixedRepeat || isMixedRepeat();
+            for (Particle particle : nested) {
+                particle.compile(element, counts, nestedMixedRepeat, afterAny);
+            }
+        }
+    }
+}
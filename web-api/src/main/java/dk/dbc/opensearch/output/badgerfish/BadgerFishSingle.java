@@ -84,6 +84,15 @@ public class BadgerFishSingle {
                 .contains(tag);
     }
 
+    /**
+     * The rules this has been built from
+     *
+     * @return the YAML content
+     */
+    Mapping getMapping() {
+        return mapping;
+    }
+
     /**
      * Produce a BadgerFishSingle instance from an YAML input stream
      *
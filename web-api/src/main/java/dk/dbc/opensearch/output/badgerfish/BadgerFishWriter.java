@@ -20,8 +20,11 @@ package dk.dbc.opensearch.output.badgerfish;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import dk.dbc.opensearch.xml.XMLPreRendered;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Map;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.stream.XMLEventReader;
@@ -38,7 +41,7 @@ import static javax.xml.stream.XMLStreamConstants.*;
  */
 public class BadgerFishWriter implements XMLEventWriter {
 
-    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
 
     private static final int UNWANTED_EVENTS =
             maskOf(PROCESSING_INSTRUCTION) | maskOf(COMMENT) | maskOf(SPACE) |
@@ -63,7 +66,7 @@ public class BadgerFishWriter implements XMLEventWriter {
      * @param bitNo this bit to test
      * @return if the bit is set
      */
-    private static boolean isWanted(int bitNo) {
+    static boolean isWanted(int bitNo) {
         return ( UNWANTED_EVENTS & maskOf(bitNo) ) == 0;
     }
 
@@ -96,6 +99,60 @@ public class BadgerFishWriter implements XMLEventWriter {
         cxt.stack.addConsumer(root);
     }
 
+    /**
+     * Build and initialize root object
+     * <p>
+     * Tags with compiled rules are output in a single pass, see
+     * {@link BadgerFishRules}
+     *
+     * @param os    output stream
+     * @param rules which tags are ensured to be non repeated, and how tags are
+     *              grouped
+     * @throws IOException if initialization of jackson fails
+     */
+    public BadgerFishWriter(OutputStream os, BadgerFishRules rules) throws IOException {
+        JsonGenerator out = JSON_FACTORY.createGenerator(os);
+        cxt = new Context(out, new BadgerFishStack(), rules, BadgerFishNamespace.DEFAULT_NAMESPACE_MAP);
+        Root root = new Root(cxt);
+        cxt.stack.addConsumer(root);
+    }
+
+    /**
+     * Render the JSON value of an element, for use in {@link XMLPreRendered}
+     * <p>
+     * Symbolic namespace names are decided by the document the value ends up
+     * in, so this is only possible if all namespaces used have a default
+     * symbolic name.
+     *
+     * @param element    reader positioned at the StartElement of the element
+     *                   (is consumed)
+     * @param single     which tags are ensured to be non repeated
+     * @param namespaces collection the namespace uris used are added to
+     * @return UTF-8 JSON or null if the element cannot be pre-rendered
+     * @throws XMLStreamException If the element isn't balanced
+     * @throws IOException        If there's a problem producing JSON
+     */
+    public static byte[] renderValue(XMLEventReader element, BadgerFishSingle single, Collection<String> namespaces) throws XMLStreamException, IOException {
+        XMLEvent first = element.nextEvent();
+        if (!first.isStartElement())
+            throw new XMLStreamException("Expected an element", first.getLocation());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Context cxt;
+        try (JsonGenerator out = JSON_FACTORY.createGenerator(bos)) {
+            cxt = new Context(out, new BadgerFishStack(), single, BadgerFishNamespace.DEFAULT_NAMESPACE_MAP);
+            cxt.stack.addConsumer(new Open(cxt, first.asStartElement()));
+            while (element.hasNext()) {
+                XMLEvent event = element.nextEvent();
+                if (isWanted(event.getEventType()))
+                    cxt.stack.consume(event);
+            }
+        }
+        if (cxt.ns.hasGeneratedNames())
+            return null;
+        namespaces.addAll(cxt.ns.usedNamespaces());
+        return bos.toByteArray();
+    }
+
     @Override
     public void flush() throws XMLStreamException {
         try {
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-web-api
+ *
+ * opensearch-web-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-web-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.output.badgerfish;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * XML tag with nested tags to JSON, using compiled rules
+ * <p>
+ * As {@link Element}, but when the rules say that the currently output nested
+ * tag name cannot occur again, the next tag name is output right away, instead
+ * of being postponed. Only when an unknown tag name (from an any) could
+ * reoccur, the following tags are postponed, as {@link Element} does.
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+class CompiledElement extends EventConsumer {
+
+    private final StartElement enclosing;
+    private final ElementRules rules;
+
+    // The nested tag name being output
+    private String current;
+    private ElementRules.Child currentChild;
+    private boolean currentSingle;
+    private boolean currentGrouped;
+    // Nested tag names that are completed (by Child.index)
+    private long completedNames;
+    // Unknown tag names are completed by a tag, that comes after the any
+    private boolean anyCompleted;
+    // Unknown single entry tag names, that are completed
+    private HashSet<String> completedUnknown;
+    // The postponed tags are being replayed
+    private boolean replaying;
+    // Only allocated when nested tags cannot be output right away
+    private LinkedHashMap<String, ArrayList<PostponedTag>> postponed;
+
+    CompiledElement(Context context, StartElement enclosing, ElementRules rules) throws IOException {
+        super(context);
+        this.enclosing = enclosing;
+        this.rules = rules;
+        out().writeStartObject();
+        outputAttributes(enclosing);
+    }
+
+    @Override
+    boolean consume(XMLEvent event) throws XMLStreamException, IOException {
+        if (event.isEndElement()) {
+            endCurrent();
+            rerunPostponedTags();
+            ns().outputNamespace(enclosing.getName());
+            out().writeEndObject();
+            completed = true;
+            return true;
+        }
+        if (event.isStartElement()) {
+            processNestedTag(event.asStartElement());
+            return false;
+        }
+        if (event.isCharacters()) {
+            skipWhiteSpace(event.asCharacters());
+            return false;
+        }
+        return super.consume(event);
+    }
+
+    /**
+     * Handle a StartElement event
+     * <p>
+     * Output it if it is of the current name, or if the current name is
+     * completed by it. Otherwise postpone it.
+     *
+     * @param tag The tag that starts here
+     * @throws XMLStreamException If there's syntax/semantic errors within the
+     *                            XML
+     * @throws IOException        If there's a problem producing JSON
+     */
+    private void processNestedTag(StartElement tag) throws XMLStreamException, IOException {
+        String name = tag.getName().getLocalPart();
+        ElementRules.Child child = rules.child(name);
+        if (replaying) {
+            openNested(tag, child);
+        } else if (name.equals(current)) {
+            if (currentSingle)
+                throw new IOException("tag: " + name + " in context " + enclosing + " is declared as single entry but tag is repeated");
+            openNested(tag, child);
+        } else if (postponed != null || !completeCurrent(child)) {
+            postpone(tag, name);
+        } else {
+            if (isCompleted(name, child))
+                throw new IOException("tag: " + name + " in context " + enclosing + " is repeated, but not grouped as the schema declares");
+            current = name;
+            currentChild = child;
+            currentSingle = child == null ? rules.isSingle(name) : child.single;
+            currentGrouped = child == null ? currentSingle : child.grouped;
+            writeFieldName(child, name);
+            if (!currentSingle)
+                out().writeStartArray();
+            openNested(tag, child);
+        }
+    }
+
+    /**
+     * End the output of the current nested tag name, if it cannot occur again
+     *
+     * @param next the rules of the next tag name (null if it is unknown)
+     * @return if the current tag name is completed
+     * @throws IOException If there's a problem producing JSON
+     */
+    private boolean completeCurrent(ElementRules.Child next) throws IOException {
+        if (current == null)
+            return true;
+        boolean anyEnds = currentChild == null && next != null && next.afterAny;
+        if (!currentGrouped && !anyEnds)
+            return false;
+        if (currentChild != null) {
+            completedNames |= mask(currentChild);
+        } else if (anyEnds) {
+            anyCompleted = true;
+        } else {
+            if (completedUnknown == null)
+                completedUnknown = new HashSet<>();
+            completedUnknown.add(current);
+        }
+        endCurrent();
+        return true;
+    }
+
+    private void endCurrent() throws IOException {
+        if (current != null) {
+            if (!currentSingle)
+                out().writeEndArray();
+            current = null;
+            currentChild = null;
+        }
+    }
+
+    private boolean isCompleted(String name, ElementRules.Child child) {
+        if (child != null)
+            return ( completedNames & mask(child) ) != 0;
+        return anyCompleted || completedUnknown != null && completedUnknown.contains(name);
+    }
+
+    /**
+     * Output the postponed tags, in the order their names were first seen
+     *
+     * @throws XMLStreamException If there's syntax/semantic errors within the
+     *                            XML
+     * @throws IOException        If there's a problem producing JSON
+     */
+    private void rerunPostponedTags() throws XMLStreamException, IOException {
+        if (postponed == null)
+            return;
+        replaying = true;
+        for (Map.Entry<String, ArrayList<PostponedTag>> entry : postponed.entrySet()) {
+            String name = entry.getKey();
+            ArrayList<PostponedTag> tags = entry.getValue();
+            ElementRules.Child child = rules.child(name);
+            boolean isSingle = child == null ? rules.isSingle(name) : child.single;
+            if (isSingle && tags.size() > 1)
+                throw new IOException("tag: " + name + " in context " + enclosing + " is declared as single entry but tag is repeated");
+            if (isCompleted(name, child))
+                throw new IOException("tag: " + name + " in context " + enclosing + " is repeated, but not grouped as the schema declares");
+            writeFieldName(child, name);
+            if (!isSingle)
+                out().writeStartArray();
+            for (PostponedTag tag : tags) {
+                tag.replayTag();
+            }
+            if (!isSingle)
+                out().writeEndArray();
+        }
+        postponed = null;
+        replaying = false;
+    }
+
+    private void writeFieldName(ElementRules.Child child, String name) throws IOException {
+        if (child == null)
+            out().writeFieldName(name);
+        else
+            out().writeFieldName(child.fieldName);
+    }
+
+    private void openNested(StartElement tag, ElementRules.Child child) {
+        stack().addConsumer(new Open(context, tag, child == null ? null : child.element));
+    }
+
+    private void postpone(StartElement tag, String name) throws XMLStreamException, IOException {
+        if (postponed == null)
+            postponed = new LinkedHashMap<>();
+        PostponedTag tagConsumer = new PostponedTag(context);
+        tagConsumer.consume(tag);
+        stack().addConsumer(tagConsumer);
+        postponed.computeIfAbsent(name, n -> new ArrayList<>())
+                .add(tagConsumer);
+    }
+
+    /**
+     * Ensure that the text node contains only whitespace
+     *
+     * @param c the characters event
+     * @throws XMLStreamException If there's content in the text
+     */
+    private void skipWhiteSpace(Characters c) throws XMLStreamException {
+        if (c.getData().trim().isEmpty())
+            return;
+        throw new XMLStreamException("Unexpected text in tag", c.getLocation());
+    }
+
+    /**
+     * Output the attributes of the tag as JSON
+     *
+     * @param open the StartElement with optional attributes
+     * @throws IOException If there's a problem producing JSON
+     */
+    private void outputAttributes(StartElement open) throws IOException {
+        for (Iterator<Attribute> i = open.getAttributes() ; i.hasNext() ;) {
+            Attribute attr = i.next();
+            out().writeFieldName(rules.attributeName(attr.getName().getLocalPart()));
+            out().writeStartObject();
+            out().writeFieldName(BadgerFishRules.TEXT_FIELD);
+            out().writeString(attr.getValue());
+            ns().outputNamespace(attr.getName());
+            out().writeEndObject();
+        }
+    }
+
+    private static long mask(ElementRules.Child child) {
+        return child.index < 64 ? 1L << child.index : 0L;
+    }
+}
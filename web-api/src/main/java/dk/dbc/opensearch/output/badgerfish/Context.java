@@ -33,12 +33,18 @@ class Context {
     final BadgerFishStack stack;
     final BadgerFishSingle single;
     final BadgerFishNamespace ns;
+    final BadgerFishRules rules;
 
     Context(JsonGenerator out, BadgerFishStack stack, BadgerFishSingle single, Map<String, String> defaultNsMapping) {
+        this(out, stack, BadgerFishRules.of(single), defaultNsMapping);
+    }
+
+    Context(JsonGenerator out, BadgerFishStack stack, BadgerFishRules rules, Map<String, String> defaultNsMapping) {
         this.out = out;
         this.stack = stack;
-        this.single = single;
+        this.single = rules.single();
         this.ns = new BadgerFishNamespace(out, defaultNsMapping);
+        this.rules = rules;
     }
 
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-web-api
+ *
+ * opensearch-web-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-web-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.output.badgerfish;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Compiled state table for an element, see {@link BadgerFishRules}
+ * <p>
+ * Knows the JSON field names and how the nested tags are grouped, so the
+ * nested tags can be output as they arrive
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+class ElementRules {
+
+    final String namespaceUri;
+    final String name;
+    final SerializedString fieldName;
+    private final HashMap<String, Child> children;
+    private final HashMap<String, SerializedString> attributes;
+    private final Set<String> allSingle;
+
+    ElementRules(String namespaceUri, String name, Set<String> allSingle) {
+        this.namespaceUri = namespaceUri;
+        this.name = name;
+        this.fieldName = new SerializedString(name);
+        this.children = new HashMap<>();
+        this.attributes = new HashMap<>();
+        this.allSingle = allSingle;
+    }
+
+    /**
+     * The rules for a nested tag
+     *
+     * @param name local name of the nested tag
+     * @return rules or null if the tag isn't known (from an any or not in the
+     *         schema)
+     */
+    Child child(String name) {
+        return children.get(name);
+    }
+
+    /**
+     * Is a nested tag, that isn't known, declared as single for all tags
+     *
+     * @param name local name of the nested tag
+     * @return if it is single
+     */
+    boolean isSingle(String name) {
+        return allSingle.contains(name);
+    }
+
+    /**
+     * The JSON field name of an attribute
+     *
+     * @param name local name of the attribute
+     * @return field name (@name)
+     */
+    SerializedString attributeName(String name) {
+        SerializedString fieldName = attributes.get(name);
+        if (fieldName == null)
+            fieldName = new SerializedString("@" + name);
+        return fieldName;
+    }
+
+    Child addChild(String name) {
+        return children.computeIfAbsent(name, n -> new Child(n, children.size()));
+    }
+
+    void addAttribute(String name) {
+        attributes.computeIfAbsent(name, n -> new SerializedString("@" + n));
+    }
+
+    @Override
+    public String toString() {
+        return "ElementRules{" + "namespaceUri=" + namespaceUri + ", name=" + name + ", children=" + children.values() + '}';
+    }
+
+    /**
+     * A nested tag in the context of this element
+     */
+    static class Child {
+
+        final String name;
+        final SerializedString fieldName;
+        /**
+         * Position, used for marking the tag as completed
+         */
+        final int index;
+        /**
+         * The tag is declared as single entry
+         */
+        boolean single;
+        /**
+         * The tags of this name come together, when another tag name follows,
+         * no more of this can occur
+         */
+        boolean grouped;
+        /**
+         * This tag comes after all tags of the any (unknown tag names)
+         */
+        boolean afterAny;
+        /**
+         * The rules for the nested tag itself (null if it has no rules)
+         */
+        ElementRules element;
+
+        private Child(String name, int index) {
+            this.name = name;
+            this.fieldName = new SerializedString(name);
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return name + ( single ? "(single)" : "" ) + ( grouped ? "(grouped)" : "" ) + ( afterAny ? "(after-any)" : "" );
+        }
+    }
+}
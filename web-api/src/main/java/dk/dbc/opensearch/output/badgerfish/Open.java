@@ -18,6 +18,7 @@
  */
 package dk.dbc.opensearch.output.badgerfish;
 
+import dk.dbc.opensearch.xml.XMLPreRendered;
 import java.io.IOException;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.Characters;
@@ -35,18 +36,34 @@ import javax.xml.stream.events.XMLEvent;
 class Open extends EventConsumer {
 
     private final StartElement encloseing;
+    private final ElementRules rules;
     private String characters;
 
     Open(Context context, StartElement enclosing) {
+        this(context, enclosing, null);
+    }
+
+    /**
+     * Handler for a tag
+     *
+     * @param context   the output context
+     * @param enclosing the tag
+     * @param rules     compiled rules for the tag, null if it has none
+     */
+    Open(Context context, StartElement enclosing, ElementRules rules) {
         super(context);
         this.encloseing = enclosing;
+        this.rules = rules;
         this.characters = "";
     }
 
     @Override
     public boolean consume(XMLEvent event) throws XMLStreamException, IOException {
         if (event.isEndElement()) {
-            writeText();
+            if (encloseing instanceof XMLPreRendered.Start)
+                writePreRendered(( (XMLPreRendered.Start) encloseing ).getContent());
+            else
+                writeText();
             return true;
         }
         if (event.isCharacters()) {
@@ -64,14 +81,34 @@ class Open extends EventConsumer {
     private void deletateToElement(XMLEvent event) throws XMLStreamException, IOException {
         if (!characters.trim().isEmpty())
             throw new XMLStreamException("Didn't expect text before tag", event.getLocation());
-        stack().addConsumer(new Element(context, encloseing));
+        if (rules != null)
+            stack().addConsumer(new CompiledElement(context, encloseing, rules));
+        else
+            stack().addConsumer(new Element(context, encloseing));
         stack().consume(event);
         completed = true;
     }
 
+    /**
+     * Copy the pre-rendered JSON into the output
+     *
+     * @param content the pre-rendered element
+     * @throws XMLStreamException If there's no JSON rendering of the element
+     * @throws IOException        If there's a problem producing JSON
+     */
+    private void writePreRendered(XMLPreRendered content) throws XMLStreamException, IOException {
+        if (!characters.isEmpty() || !content.hasJson())
+            throw new XMLStreamException("Cannot output pre-rendered content as JSON: " + content);
+        out().writeRawValue(new RawJson(content.getJson()));
+        for (String uri : content.getJsonNamespaces()) {
+            ns().declare(uri);
+        }
+    }
+
     private void writeText() throws IOException {
         out().writeStartObject();
-        out().writeStringField("$", characters);
+        out().writeFieldName(BadgerFishRules.TEXT_FIELD);
+        out().writeString(characters);
         ns().outputNamespace(encloseing.getName());
         out().writeEndObject();
     }
@@ -53,8 +53,12 @@ class Root extends EventConsumer {
     private void delegateToOpen(XMLEvent event) throws IOException {
         out().writeStartObject();
         StartElement element = event.asStartElement();
-        out().writeFieldName(element.getName().getLocalPart());
-        stack().addConsumer(new Open(context, element));
+        ElementRules rules = context.rules.element(element.getName());
+        if (rules != null)
+            out().writeFieldName(rules.fieldName);
+        else
+            out().writeFieldName(element.getName().getLocalPart());
+        stack().addConsumer(new Open(context, element, rules));
         complete = true;
     }
 
@@ -50,7 +50,7 @@ public class ResponseTest {
 
         String string = new String(os.toByteArray(), StandardCharsets.UTF_8);
         System.out.println("string = " + string);
-        assertThat(string, containsString("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Body><"));
+        assertThat(string, startsWith("<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"yes\"?><SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Body><"));
         assertThat(string, containsString("more>false</"));
         assertThat(string, containsString("object><myrecord></myrecord><"));
         assertThat(string, containsString("identifier>foo-bar:bug</"));
@@ -65,6 +65,7 @@ public class ResponseTest {
 
         String string = new String(os.toByteArray(), StandardCharsets.UTF_8);
         System.out.println("string = " + string);
+        assertThat(string, startsWith("<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"yes\"?><"));
         assertThat(string, not(containsString("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\"><SOAP-ENV:Body><")));
         assertThat(string, containsString("more>false</"));
         assertThat(string, containsString("object><myrecord></myrecord><"));
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-web-api
+ *
+ * opensearch-web-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-web-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.output.badgerfish;
+
+import dk.dbc.opensearch.output.Root;
+import dk.dbc.opensearch.xml.DefaultPrefix;
+import dk.dbc.opensearch.xml.XMLCacheElement;
+import dk.dbc.opensearch.xml.XMLCacheReader;
+import dk.dbc.opensearch.xml.XMLPreRendered;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BadgerFishOutputTest {
+
+    private static final XMLInputFactory I = XMLInputFactory.newInstance();
+
+    private static final String RECORD = "<dkabm:record xmlns:dkabm='http://biblstandard.dk/abm/namespace/dkabm/' xmlns:dc='http://purl.org/dc/elements/1.1/'>" +
+                                         "<dc:title>Title &amp; &lt;more&gt;</dc:title><dc:creator a='b'>Creator</dc:creator><dc:title>Other</dc:title>" +
+                                         "</dkabm:record>";
+    private static final String ARTICLE = "<docbook:article xmlns:docbook='http://docbook.org/ns/docbook'><docbook:title>Article</docbook:title></docbook:article>";
+    private static final String UNKNOWN = "<x:record xmlns:x='urn:unknown'><x:a>1</x:a><x:b/><x:a>2</x:a></x:record>";
+    private static final String NOTE_1 = "<docbook:article xmlns:docbook='http://docbook.org/ns/docbook'><z:note xmlns:z='urn:z1'>1</z:note></docbook:article>";
+    private static final String NOTE_2 = "<docbook:article xmlns:docbook='http://docbook.org/ns/docbook'><z:note xmlns:z='urn:z2'>2</z:note></docbook:article>";
+    private static final String OTHER = "<w:other xmlns:w='urn:w'>3</w:other>";
+
+    @Test(timeout = 2_000L)
+    public void testRecords() throws Exception {
+        System.out.println("testRecords");
+        assertSameAsGolden("records", e -> e.searchResponse(searchResponse -> searchResponse
+                .result(result -> result
+                        .hitCount(10)
+                        .collectionCount(2)
+                        .more(true)
+                        .searchResult(searchResult -> searchResult
+                                .collection(collection -> collection
+                                        .resultPosition(1)
+                                        .numberOfObjects(1)
+                                        .object(object -> object
+                                                ._any(record(RECORD))
+                                                .identifier("foo-bar:1")
+                                                .creationDate("2020-01-01"))))
+                        .searchResult(searchResult -> searchResult
+                                .collection(collection -> collection
+                                        .resultPosition(2)
+                                        .numberOfObjects(1)
+                                        .object(object -> object
+                                                ._any(record(UNKNOWN))
+                                                .identifier("foo-bar:2"))))
+                        .statInfo(statInfo -> statInfo
+                                .fedoraRecordsCached(1)
+                                .fedoraRecordsRead(1)
+                                .time(0.125)
+                                .trackingId("track")))));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testNonContiguousAnyContent() throws Exception {
+        System.out.println("testNonContiguousAnyContent");
+        String json = assertSameAsGolden("non-contiguous-any", e -> e.searchResponse(searchResponse -> searchResponse
+                .result(result -> result
+                        .hitCount(1)
+                        .collectionCount(1)
+                        .more(false)
+                        .searchResult(searchResult -> searchResult
+                                .collection(collection -> collection
+                                        .resultPosition(1)
+                                        .numberOfObjects(1)
+                                        .object(object -> object
+                                                ._any(record(RECORD))
+                                                ._any(record(ARTICLE))
+                                                ._any(record(UNKNOWN))
+                                                ._any(record(ARTICLE))
+                                                .identifier("foo-bar:1")
+                                                .primaryObjectIdentifier("foo-bar:0")))))));
+        assertThat(json, containsString("\"article\":[{"));
+        assertThat(json.indexOf("\"article\""), is(json.lastIndexOf("\"article\"")));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testPostponedUnknownNamespaces() throws Exception {
+        System.out.println("testPostponedUnknownNamespaces");
+        String json = assertSameAsGolden("postponed-namespace", e -> e.searchResponse(searchResponse -> searchResponse
+                .result(result -> result
+                        .hitCount(1)
+                        .collectionCount(1)
+                        .more(false)
+                        .searchResult(searchResult -> searchResult
+                                .collection(collection -> collection
+                                        .resultPosition(1)
+                                        .numberOfObjects(1)
+                                        .object(object -> object
+                                                ._any(record(NOTE_1))
+                                                ._any(record(UNKNOWN))
+                                                ._any(record(NOTE_2))
+                                                ._any(record(OTHER))
+                                                .identifier("foo-bar:1")))))));
+        // Numbered in the order the event based writer outputs them
+        assertThat(json, containsString("\"ns1\":\"urn:z1\",\"ns2\":\"urn:z2\""));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testFormattedCollection() throws Exception {
+        System.out.println("testFormattedCollection");
+        assertSameAsGolden("formatted-collection", e -> e.searchResponse(searchResponse -> searchResponse
+                .result(result -> result
+                        .hitCount(2)
+                        .collectionCount(2)
+                        .more(false)
+                        .searchResult(searchResult -> searchResult
+                                .formattedCollection(record(ARTICLE)))
+                        .searchResult(searchResult -> searchResult
+                                .formattedCollection(record("<x:briefDisplay xmlns:x='urn:unknown'><x:manifestation><x:a>1</x:a></x:manifestation>" +
+                                                            "<x:b/><x:manifestation><x:a>2</x:a></x:manifestation></x:briefDisplay>"))))));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testPreRendered() throws Exception {
+        System.out.println("testPreRendered");
+        HashSet<String> namespaces = new HashSet<>();
+        byte[] json = BadgerFishWriter.renderValue(record(RECORD), new BadgerFishSingle(), namespaces);
+        XMLPreRendered preRendered = new XMLPreRendered(record(RECORD), json, namespaces);
+        assertSameAsGolden("pre-rendered", e -> e.searchResponse(searchResponse -> searchResponse
+                .result(result -> result
+                        .hitCount(1)
+                        .collectionCount(1)
+                        .more(false)
+                        .searchResult(searchResult -> searchResult
+                                .collection(collection -> collection
+                                        .resultPosition(1)
+                                        .numberOfObjects(1)
+                                        .object(object -> object
+                                                ._any(preRendered.reader())
+                                                ._any(record(ARTICLE))
+                                                .identifier("foo-bar:1")))))));
+    }
+
+    @Test(timeout = 2_000L)
+    public void testError() throws Exception {
+        System.out.println("testError");
+        String json = assertSameAsGolden("error", e -> e.searchResponse(searchResponse -> searchResponse
+                .error("Internal Server Error")));
+        assertThat(json, containsString("\"error\":{\"$\":\"Internal Server Error\""));
+    }
+
+    @Test(timeout = 2_000L, expected = XMLStreamException.class)
+    public void testNoSoapEnvelope() throws Exception {
+        System.out.println("testNoSoapEnvelope");
+        new Root(new BadgerFishOutput(new ByteArrayOutputStream(), rules(false)))
+                .soapEnvelope(e -> e.searchResponse(searchResponse -> searchResponse
+                        .error("Internal Server Error")));
+    }
+
+    /**
+     * Render the response both through the event based writer and as native
+     * JSON, using uncompiled and compiled rules, and compare to the output of
+     * the event based classes from before the JSON classes were generated
+     *
+     * @param golden name of the expected output in badgerfish-output/
+     * @param scope  response builder
+     * @return the rendered JSON
+     * @throws Exception if rendering fails
+     */
+    private static String assertSameAsGolden(String golden, Root.Scope<Root.EntryPoint> scope) throws Exception {
+        byte[] expected;
+        try (InputStream is = resource("badgerfish-output/" + golden + ".json")) {
+            expected = readAll(is);
+        }
+        String json = null;
+        for (boolean compiled : new boolean[] {false, true}) {
+            BadgerFishRules rules = rules(compiled);
+
+            ByteArrayOutputStream writer = new ByteArrayOutputStream();
+            new Root(new BadgerFishWriter(writer, rules)).noEnvelope(scope);
+            assertThat(writer.toByteArray(), is(expected));
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            new Root(new BadgerFishOutput(output, rules)).noEnvelope(scope);
+            json = new String(output.toByteArray(), UTF_8);
+            System.out.println("json = " + json);
+            assertThat(output.toByteArray(), is(expected));
+        }
+        return json;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int len = is.read(buffer) ; len > 0 ; len = is.read(buffer)) {
+            bos.write(buffer, 0, len);
+        }
+        return bos.toByteArray();
+    }
+
+    private static BadgerFishRules rules(boolean compiled) throws IOException {
+        try (InputStream yaml = resource("opensearch-badgerfish-rules.yaml") ;
+             InputStream xsd = resource("docroot/opensearch.xsd")) {
+            BadgerFishSingle single = BadgerFishSingle.from(yaml);
+            return compiled ? BadgerFishRules.compile(single, xsd) : BadgerFishRules.of(single);
+        }
+    }
+
+    private static XMLCacheReader record(String xml) throws XMLStreamException {
+        XMLEventReader reader = I.createXMLEventReader(new StringReader(xml));
+        HashMap<String, String> prefixes = new HashMap<>();
+        prefixes.put("dkabm", "http://biblstandard.dk/abm/namespace/dkabm/");
+        prefixes.put("dc", "http://purl.org/dc/elements/1.1/");
+        prefixes.put("docbook", "http://docbook.org/ns/docbook");
+        return XMLCacheElement.of((StartElement) reader.nextTag(), reader, new DefaultPrefix(prefixes)).toReader();
+    }
+
+    private static InputStream resource(String name) {
+        return BadgerFishOutputTest.class.getClassLoader().getResourceAsStream(name);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-web-api
+ *
+ * opensearch-web-api is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-web-api is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.opensearch.output.badgerfish;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BadgerFishRulesTest {
+
+    private static final String OS = "http://oss.dbc.dk/ns/opensearch";
+
+    @Test(timeout = 2_000L)
+    public void testOpenSearchSchema() throws Exception {
+        System.out.println("testOpenSearchSchema");
+        BadgerFishRules rules;
+        try (InputStream yaml = resource("opensearch-badgerfish-rules.yaml") ;
+             InputStream xsd = resource("docroot/opensearch.xsd")) {
+            rules = BadgerFishRules.compile(BadgerFishSingle.from(yaml), xsd);
+        }
+        assertThat(rules.isCompiled(), is(true));
+
+        ElementRules object = rules.element(new QName(OS, "object"));
+        assertThat(object.child("error").single, is(true));
+        assertThat(object.child("identifier").single, is(true));
+        assertThat(object.child("identifier").afterAny, is(true));
+        assertThat(object.child("identifier").element, sameInstance(rules.element(new QName(OS, "identifier"))));
+
+        ElementRules collection = rules.element(new QName(OS, "collection"));
+        assertThat(collection.child("object").single, is(false));
+        assertThat(collection.child("object").grouped, is(true));
+        assertThat(collection.child("object").element, sameInstance(object));
+
+        assertThat(rules.element(new QName(OS, "searchResult")).child("collection").grouped, is(true));
+        assertThat(rules.element(new QName("info:other", "object")), nullValue());
+    }
+
+    @Test(timeout = 2_000L)
+    public void testUncompiled() throws Exception {
+        System.out.println("testUncompiled");
+        BadgerFishRules rules = BadgerFishRules.of(new BadgerFishSingle());
+        assertThat(rules.isCompiled(), is(false));
+        assertThat(render(rules, "<doc xmlns='info:test'><a>1</a><b>2</b><a>3</a></doc>"),
+                   is("{\"doc\":{\"a\":[{\"$\":\"1\",\"@\":\"ns1\"},{\"$\":\"3\",\"@\":\"ns1\"}]," +
+                      "\"b\":[{\"$\":\"2\",\"@\":\"ns1\"}],\"@\":\"ns1\"},\"@namespaces\":{\"ns1\":\"info:test\"}}"));
+    }
+
+    @Test(timeout = 2_000L, expected = XMLStreamException.class)
+    public void testNotGroupedAsDeclared() throws Exception {
+        System.out.println("testNotGroupedAsDeclared");
+        BadgerFishRules rules;
+        try (InputStream xsd = resource("badgerfish/compiled-schema.xsd")) {
+            rules = BadgerFishRules.compile(new BadgerFishSingle(), xsd);
+        }
+        render(rules, "<doc xmlns='info:test'><title>T</title><author>A</author><note>N</note><author>B</author></doc>");
+    }
+
+    private static String render(BadgerFishRules rules, String xml) throws IOException, XMLStreamException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BadgerFishWriter writer = new BadgerFishWriter(bos, rules);
+        writer.add(XMLInputFactory.newInstance().createXMLEventReader(new ByteArrayInputStream(xml.getBytes(UTF_8))));
+        writer.close();
+        return new String(bos.toByteArray(), UTF_8);
+    }
+
+    private static InputStream resource(String name) {
+        return BadgerFishRulesTest.class.getClassLoader().getResourceAsStream(name);
+    }
+}
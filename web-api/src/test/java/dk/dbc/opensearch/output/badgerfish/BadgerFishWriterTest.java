@@ -25,6 +25,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.Arrays;
@@ -96,36 +97,63 @@ public class BadgerFishWriterTest {
     public void testCase() throws Exception {
         System.out.println(name);
         System.out.println(path);
-        File json = path.resolve(name + ".json").toFile();
-        File xml = path.resolve(name + ".xml").toFile();
-        File yaml = path.resolve(name + ".yaml").toFile();
+        BadgerFishSingle repeated = readRepeated();
+        assertThat(render(bos -> new BadgerFishWriter(bos, repeated)), is(expected()));
+    }
 
-        BadgerFishSingle repeated = new BadgerFishSingle();
-        if (yaml.exists()) {
-            try (FileInputStream fisYaml = new FileInputStream(yaml)) {
-                repeated = BadgerFishSingle.from(fisYaml);
+    @Test(timeout = 2_000L)
+    public void testCaseCompiled() throws Exception {
+        System.out.println(name + " (compiled)");
+        System.out.println(path);
+        File xsd = path.resolve(name + ".xsd").toFile();
+        BadgerFishRules rules;
+        if (xsd.exists()) {
+            try (FileInputStream fisXsd = new FileInputStream(xsd)) {
+                rules = BadgerFishRules.compile(readRepeated(), fisXsd);
             }
+        } else {
+            rules = BadgerFishRules.compile(readRepeated());
+        }
+        assertThat(render(bos -> new BadgerFishWriter(bos, rules)), is(expected()));
+    }
+
+    private BadgerFishSingle readRepeated() throws IOException {
+        File yaml = path.resolve(name + ".yaml").toFile();
+        if (!yaml.exists())
+            return new BadgerFishSingle();
+        try (FileInputStream fisYaml = new FileInputStream(yaml)) {
+            return BadgerFishSingle.from(fisYaml);
         }
+    }
 
-        try (FileInputStream fisXml = new FileInputStream(xml) ;
-             FileInputStream fisJson = new FileInputStream(json)) {
-            String expected = O.writeValueAsString(O.readTree(fisJson));
-            String actual;
+    private String expected() throws IOException {
+        File json = path.resolve(name + ".json").toFile();
+        try (FileInputStream fisJson = new FileInputStream(json)) {
+            return O.writeValueAsString(O.readTree(fisJson));
+        }
+    }
 
+    private String render(WriterFactory factory) throws Exception {
+        File xml = path.resolve(name + ".xml").toFile();
+        try (FileInputStream fisXml = new FileInputStream(xml)) {
             XMLEventReader reader = I.createXMLEventReader(fisXml);
             try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-                BadgerFishWriter writer = new BadgerFishWriter(bos, repeated);
+                BadgerFishWriter writer = factory.create(bos);
                 writer.add(reader);
                 writer.close();
                 System.out.println(bos);
                 ByteArrayInputStream bis = new ByteArrayInputStream(bos.toByteArray());
-                actual = O.writeValueAsString(O.readTree(bis));
+                return O.writeValueAsString(O.readTree(bis));
             } catch (IOException | XMLStreamException ex) {
                 System.out.println(ex);
-                actual = O.writeValueAsString(O.createObjectNode().put("exception", ex.getMessage()));
                 throw ex;
             }
-            assertThat(actual, is(expected));
         }
     }
+
+    @FunctionalInterface
+    private interface WriterFactory {
+
+        BadgerFishWriter create(OutputStream os) throws IOException;
+    }
 }
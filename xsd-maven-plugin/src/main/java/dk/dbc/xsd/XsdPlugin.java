@@ -18,7 +18,9 @@
  */
 package dk.dbc.xsd;
 
+import dk.dbc.xsd.codegenerator.BadgerFishSingles;
 import dk.dbc.xsd.codegenerator.Generator;
+import dk.dbc.xsd.codegenerator.WriterType;
 import java.io.File;
 import java.util.List;
 import org.apache.maven.plugin.AbstractMojo;
@@ -57,6 +59,20 @@ public class XsdPlugin extends AbstractMojo {
     @Parameter(alias = "skipNamespaces")
     protected List<String> skipNamespaces;
 
+    /**
+     * Which API the generated classes write through: "event"
+     * (XMLEventWriter), "stream" (XMLStreamWriter) or "stream-json"
+     * (XMLStreamWriter or BadgerFish JSON)
+     */
+    @Parameter(defaultValue = "event", property = "xsd.writer")
+    protected String writer;
+
+    /**
+     * The BadgerFish single entry rules (YAML), for the "stream-json" writer
+     */
+    @Parameter(property = "xsd.badgerfish.rules")
+    protected File badgerfishRules;
+
     @Parameter(defaultValue = "${project}", readonly = true)
     private MavenProject project;
 
@@ -69,11 +85,13 @@ public class XsdPlugin extends AbstractMojo {
         log.debug("rootClass: " + rootClass);
         log.debug("elements: " + elements);
         log.debug("skipNamespaces: " + skipNamespaces);
+        log.debug("writer: " + writer);
+        log.debug("badgerfishRules: " + badgerfishRules);
 
         try {
             if(skipNamespaces == null)
                 skipNamespaces = EMPTY_LIST;
-            Generator generator = new Generator(log, sourceFile, packageName, elements, targetFolder, rootClass, skipNamespaces);
+            Generator generator = new Generator(log, sourceFile, packageName, elements, targetFolder, rootClass, skipNamespaces, WriterType.from(writer), BadgerFishSingles.from(badgerfishRules));
             generator.run();
             project.addCompileSourceRoot(targetFolder.getAbsolutePath());
         } catch (Exception ex) {
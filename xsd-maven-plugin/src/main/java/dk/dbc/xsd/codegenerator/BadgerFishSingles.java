@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-xsd-maven-plugin
+ *
+ * opensearch-xsd-maven-plugin is free software: you can redistribute it with/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-xsd-maven-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.xsd.codegenerator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.util.Collections.*;
+
+/**
+ * The BadgerFish single entry rules, in the YAML format the service reads them
+ * in
+ * <p>
+ * Used for deciding at generation time, if a nested tag is output as an
+ * object or an array in JSON
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public class BadgerFishSingles {
+
+    private static final ObjectMapper O = new YAMLMapper();
+    private static final Set<String> EMPTY_TAG_SET = EMPTY_SET;
+    private static final Map<String, Set<String>> EMPTY_NS_MAP = EMPTY_MAP;
+
+    private final Set<String> all;
+    private final Map<String, Map<String, Set<String>>> ns;
+
+    private BadgerFishSingles(Set<String> all, Map<String, Map<String, Set<String>>> ns) {
+        this.all = all == null ? EMPTY_SET : all;
+        this.ns = ns == null ? EMPTY_MAP : ns;
+    }
+
+    /**
+     * No tags are single entry
+     *
+     * @return rules
+     */
+    public static BadgerFishSingles none() {
+        return new BadgerFishSingles(null, null);
+    }
+
+    /**
+     * Read rules from a YAML file
+     *
+     * @param file the rules (null for none)
+     * @return rules
+     * @throws IOException If the file cannot be read
+     */
+    public static BadgerFishSingles from(File file) throws IOException {
+        if (file == null)
+            return none();
+        Mapping mapping = O.readValue(file, Mapping.class);
+        return new BadgerFishSingles(mapping.all, mapping.ns);
+    }
+
+    /**
+     * Is a nested tag single entry
+     *
+     * @param enclosing the tag containing the nested tag
+     * @param name      local name of the nested tag
+     * @return if it is output as an object instead of an array
+     */
+    public boolean isSingle(QName enclosing, String name) {
+        return singles(enclosing).contains(name);
+    }
+
+    /**
+     * All the nested tag names, that are single entry in a tag
+     *
+     * @param enclosing the tag containing the nested tags
+     * @return sorted set of names
+     */
+    public Set<String> singles(QName enclosing) {
+        TreeSet<String> singles = new TreeSet<>(all);
+        singles.addAll(ns.getOrDefault(enclosing.getNamespace(), EMPTY_NS_MAP)
+                .getOrDefault(enclosing.getName(), EMPTY_TAG_SET));
+        return singles;
+    }
+
+    public static class Mapping {
+
+        public Set<String> all;
+        public Map<String, Map<String, Set<String>>> ns;
+
+    }
+}
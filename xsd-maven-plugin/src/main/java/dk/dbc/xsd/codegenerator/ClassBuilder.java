@@ -21,6 +21,8 @@ package dk.dbc.xsd.codegenerator;
 import dk.dbc.xsd.mapping.Element;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -28,8 +30,10 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static java.util.Collections.EMPTY_SET;
+import static java.util.Collections.singletonList;
 
 /**
  *
@@ -37,24 +41,35 @@ import static java.util.Collections.EMPTY_SET;
  */
 public class ClassBuilder {
 
-    private static final Ini CLASS_INI = new Ini("class.ini");
+    private final Ini classIni;
     private final Context cxt;
 
     private final Element element;
+    private final QName enclosing;
 
     protected final String className;
     protected final Replace replace;
     private final Set<QName> referredNames;
     private final Set<QName> optionalMethods;
+    // For JSON grouping: how often a nested tag occurs in the content model
+    private final Map<QName, Integer> occurrences;
+    private final Set<QName> afterAny;
+    // Tags that has any content, which needs their single entry names
+    private final Set<QName> anyContent;
 
     public ClassBuilder(Context cxt, Element element) {
         this.element = element;
         this.cxt = cxt;
-        this.className = cxt.camelcase(cxt.name(element.name));
+        this.classIni = cxt.getWriterType().classIni();
+        this.enclosing = cxt.name(element.name);
+        this.className = cxt.camelcase(enclosing);
         this.replace = cxt.replacer()
                 .with("class", className);
         this.referredNames = new HashSet<>();
         this.optionalMethods = new HashSet<>();
+        this.occurrences = new HashMap<>();
+        this.afterAny = new HashSet<>();
+        this.anyContent = new LinkedHashSet<>();
     }
 
     public Set<QName> build() throws IOException {
@@ -67,6 +82,7 @@ public class ClassBuilder {
         stages.add(className);
         methodsInStage.put(className, new LinkedHashSet<>());
         Set<QName> terminalFunctions = buildTree(e, className, returnValue, methodsInStage, stages, tags);
+        analyzeContent(e);
 
         cxt.debug("returnValue = ");
         returnValue.entrySet().forEach(d -> cxt.debug(d.toString()));
@@ -189,6 +205,41 @@ public class ClassBuilder {
         return terminalFunctions;
     }
 
+    /**
+     * Count the nested tags in the content model, and find the tags that comes
+     * after the last any in a sequence
+     * <p>
+     * Used for deciding when a JSON array of nested tags can be closed
+     *
+     * @param complex the content model
+     */
+    private void analyzeContent(E complex) {
+        List<E> particles;
+        if (complex.isSequence())
+            particles = complex.asSequence();
+        else if (complex.isChoice())
+            particles = singletonList(complex);
+        else
+            return;
+        int lastAny = -1;
+        for (int i = 0 ; i < particles.size() ; i++) {
+            E e = particles.get(i);
+            if (e.isAny() || e.isChoice() && e.asChoice().stream().anyMatch(E::isAny))
+                lastAny = i;
+        }
+        for (int i = 0 ; i < particles.size() ; i++) {
+            E e = particles.get(i);
+            for (E particle : e.isChoice() ? e.asChoice() : singletonList(e)) {
+                if (particle.isElement()) {
+                    QName name = cxt.name(particle.asElement().ref);
+                    occurrences.merge(name, 1, Integer::sum);
+                    if (complex.isSequence() && lastAny >= 0 && i > lastAny)
+                        afterAny.add(name);
+                }
+            }
+        }
+    }
+
     private QName nameOfE(E e, Set<QName> tags) throws IllegalStateException {
         if (e.isElement()) {
             QName ref = cxt.name(e.asElement().ref);
@@ -202,19 +253,19 @@ public class ClassBuilder {
     }
 
     private void output(OutputStream os, Map<QName, String> returnValue, Map<String, Set<QName>> methodsInStage, Set<QName> tags, Set<QName> terminalFunctions) throws IOException {
-        CLASS_INI.segment(os, "TOP", replace);
+        classIni.segment(os, "TOP", replace);
         outputRootClass(os, returnValue, methodsInStage, terminalFunctions);
-        CLASS_INI.segment(os, "ROOT_CLASS_END", replace);
+        classIni.segment(os, "ROOT_CLASS_END", replace);
         if (methodsInStage.get(className).size() > 1 ||
             !terminalFunctions.contains(methodsInStage.get(className).iterator().next()))
-            CLASS_INI.segment(os, "ROOT_CLASS_END_NOT_VOID", replace);
+            classIni.segment(os, "ROOT_CLASS_END_NOT_VOID", replace);
         if (methodsInStage.size() > 1) {
-            CLASS_INI.segment(os, "SCOPE_CLASSES_START", replace);
+            classIni.segment(os, "SCOPE_CLASSES_START", replace);
             outputStageClass(os, returnValue, methodsInStage, terminalFunctions);
-            CLASS_INI.segment(os, "SCOPE_CLASSES_END", replace);
+            classIni.segment(os, "SCOPE_CLASSES_END", replace);
         }
         outputTags(os, tags);
-        CLASS_INI.segment(os, "BOTTOM", replace);
+        classIni.segment(os, "BOTTOM", replace);
     }
 
     private void outputRootClass(OutputStream os, Map<QName, String> returnValue, Map<String, Set<QName>> methodsInStage, Set<QName> terminalFunctions) throws IOException {
@@ -230,18 +281,18 @@ public class ClassBuilder {
             if (stage.equals(className))
                 continue;
             replace.with("scope", stage.substring(stage.indexOf('.') + 1));
-            CLASS_INI.segment(os, "SCOPE_CLASS_START", replace);
+            classIni.segment(os, "SCOPE_CLASS_START", replace);
             for (QName method : methodsInStage.get(stage)) {
                 outputMethod(os, stage, method, returnValue.get(method),
                              terminalFunctions.contains(method) || stage.endsWith("_repeated"));
             }
             if (!stage.endsWith("_repeated")) {
-                CLASS_INI.segment(os, "SCOPE_CLASS_DELEGATE", replace);
+                classIni.segment(os, "SCOPE_CLASS_DELEGATE", replace);
                 if (methodsInStage.get(stage).size() > 1 ||
                     !terminalFunctions.contains(methodsInStage.get(stage).iterator().next()))
-                    CLASS_INI.segment(os, "SCOPE_CLASS_DELEGATE_NOT_VOID", replace);
+                    classIni.segment(os, "SCOPE_CLASS_DELEGATE_NOT_VOID", replace);
             }
-            CLASS_INI.segment(os, "SCOPE_CLASS_END", replace);
+            classIni.segment(os, "SCOPE_CLASS_END", replace);
         }
     }
 
@@ -254,7 +305,9 @@ public class ClassBuilder {
         replace.with("return", returnScope)
                 .with("method", method.getName())
                 .with("method_camelcase", cxt.camelcase(method))
-                .with("method_upper", cxt.constName(method));
+                .with("method_upper", cxt.constName(method))
+                .with("method_prefix", cxt.prefix(method))
+                .with("json_flags", jsonFlags(method));
         String documentation = cxt.getDoc(method);
 
         boolean isRepeated = method.getName().endsWith("_repeated");
@@ -262,6 +315,8 @@ public class ClassBuilder {
         String type = cxt.getType(method);
         if (type == null) {
             if (method.getName().equals("_any")) {
+                anyContent.add(enclosing);
+                replace.with("singles", singlesName(enclosing));
                 outputMethod(os, "METHOD_COMMENT_ANY", documentation, isVoid, isTerminal, "METHOD_ANY_NO_SCOPE");
             } else if (isRepeated) {
                 replace.with("type", method.getName());
@@ -274,6 +329,8 @@ public class ClassBuilder {
         } else if (type.equals("String")) {
             outputMethod(os, "METHOD_COMMENT", documentation, isVoid, isTerminal, "METHOD_STRING");
         } else if (type.equals("ANY")) {
+            anyContent.add(method);
+            replace.with("singles", singlesName(method));
             outputMethod(os, "METHOD_COMMENT_ANY", documentation, isVoid, isTerminal, "METHOD_ANY");
         } else if (type.startsWith("special:")) {
             String special = type.substring(8);
@@ -288,33 +345,62 @@ public class ClassBuilder {
         }
         if (!isVoid) {
             if (returnScope.equals(scope)) {
-                CLASS_INI.segment(os, "METHOD_RETURN_THIS", replace);
+                classIni.segment(os, "METHOD_RETURN_THIS", replace);
             } else {
-                CLASS_INI.segment(os, "METHOD_RETURN", replace);
+                classIni.segment(os, "METHOD_RETURN", replace);
             }
         }
-        CLASS_INI.segment(os, "METHOD_END", replace);
+        classIni.segment(os, "METHOD_END", replace);
         if (isSkip)
-            CLASS_INI.segment(os, "METHOD_SKIP", replace);
+            classIni.segment(os, "METHOD_SKIP", replace);
+    }
+
+    /**
+     * How a nested tag is grouped in JSON
+     *
+     * @param method the nested tag
+     * @return Java expression of the flags
+     */
+    private String jsonFlags(QName method) {
+        String json = cxt.getRootClass() + ".Json.";
+        ArrayList<String> flags = new ArrayList<>();
+        if (cxt.getSingles().isSingle(enclosing, method.getName()))
+            flags.add(json + "SINGLE");
+        if (occurrences.getOrDefault(method, 0) == 1)
+            flags.add(json + "GROUPED");
+        if (afterAny.contains(method))
+            flags.add(json + "AFTER_ANY");
+        return flags.isEmpty() ? "0" : String.join(" | ", flags);
+    }
+
+    private String singlesName(QName tag) {
+        return "SINGLE_IN_" + cxt.constName(tag);
     }
 
     private void outputMethod(OutputStream os, String docSegment, String doc, boolean isVoid, boolean isTerminal, String methodSegment) throws IOException {
         replace.with("doc", doc == null || doc.isEmpty() ? "No doc, please update xsd" : doc);
-        CLASS_INI.segment(os, docSegment + ( isVoid ? "_NORETURN" : "" ), replace);
+        classIni.segment(os, docSegment + ( isVoid ? "_NORETURN" : "" ), replace);
         if (!isTerminal)
-            CLASS_INI.segment(os, "METHOD_CHECK_RESULT", replace);
-        CLASS_INI.segment(os, methodSegment, replace);
+            classIni.segment(os, "METHOD_CHECK_RESULT", replace);
+        classIni.segment(os, methodSegment, replace);
     }
 
     public void outputTags(OutputStream os, Set<QName> tags) throws IOException {
-        CLASS_INI.segment(os, "TAGS_START", replace);
+        classIni.segment(os, "TAGS_START", replace);
         for (QName tag : tags) {
             replace.with("tagname", tag.getName())
                     .with("tagname_upper", cxt.constName(tag))
                     .with("prefix", cxt.prefix(tag));
-            CLASS_INI.segment(os, "TAG", replace);
+            classIni.segment(os, "TAG", replace);
+        }
+        for (QName tag : anyContent) {
+            replace.with("singles", singlesName(tag))
+                    .with("single_names", cxt.getSingles().singles(tag).stream()
+                          .map(s -> "\"" + s + "\"")
+                          .collect(Collectors.joining(", ")));
+            classIni.segment(os, "TAG_SINGLES", replace);
         }
-        CLASS_INI.segment(os, "TAGS_END", replace);
+        classIni.segment(os, "TAGS_END", replace);
     }
 
 }
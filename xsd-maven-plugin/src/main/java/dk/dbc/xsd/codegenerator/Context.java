@@ -41,6 +41,8 @@ public class Context {
     private final String packageName;
     private final String rootClass;
     private final List<String> skipNamespaces;
+    private final WriterType writerType;
+    private final BadgerFishSingles singles;
 
     private final HashMap<QName, Element> elements;
     private final HashMap<QName, SimpleType> simpleTypes;
@@ -50,12 +52,14 @@ public class Context {
     private Map<QName, String> doc;
     private QNameBuilder nameBuilder;
 
-    public Context(Log log, File targetFolder, String packageName, String rootClass, List<String> skipNamespaces) {
+    public Context(Log log, File targetFolder, String packageName, String rootClass, List<String> skipNamespaces, WriterType writerType, BadgerFishSingles singles) {
         this.log = log;
         this.targetFolder = targetFolder;
         this.packageName = packageName;
         this.rootClass = rootClass;
         this.skipNamespaces = skipNamespaces;
+        this.writerType = writerType;
+        this.singles = singles;
         elements = new HashMap<>();
         simpleTypes = new HashMap<>();
         types = new HashMap<>();
@@ -76,6 +80,14 @@ public class Context {
         return rootClass;
     }
 
+    public WriterType getWriterType() {
+        return writerType;
+    }
+
+    public BadgerFishSingles getSingles() {
+        return singles;
+    }
+
     public void addElement(Element element) {
         QName name = name(element.name);
         elements.put(name, element);
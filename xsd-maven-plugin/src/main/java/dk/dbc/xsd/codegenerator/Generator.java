@@ -53,10 +53,10 @@ public class Generator {
     private Schema schema;
     private final Context cxt;
 
-    public Generator(Log log, File sourceFile, String packageName, List<String> bases, File targetFolder, String rootClass, List<String> skipNamespaces) {
+    public Generator(Log log, File sourceFile, String packageName, List<String> bases, File targetFolder, String rootClass, List<String> skipNamespaces, WriterType writerType, BadgerFishSingles singles) {
         this.sourceFile = sourceFile;
         this.bases = bases;
-        this.cxt = new Context(log, targetFolder, packageName, rootClass, skipNamespaces);
+        this.cxt = new Context(log, targetFolder, packageName, rootClass, skipNamespaces, writerType, singles);
     }
 
     public void run() throws Exception {
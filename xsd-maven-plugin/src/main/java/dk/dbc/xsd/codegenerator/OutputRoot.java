@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 /**
@@ -33,8 +34,7 @@ import java.util.stream.Collectors;
  */
 public class OutputRoot {
 
-    private static final Ini ROOT_INI = new Ini("root.ini");
-
+    private final Ini rootIni;
     private final Context cxt;
     private final List<String> bases;
     protected final Replace replace;
@@ -43,6 +43,7 @@ public class OutputRoot {
 
     OutputRoot(Context cxt, List<String> bases) {
         this.cxt = cxt;
+        this.rootIni = cxt.getWriterType().rootIni();
         this.bases = bases;
         this.replace = cxt.replacer()
                 .with("class", cxt.getRootClass());
@@ -51,11 +52,12 @@ public class OutputRoot {
 
     public void build() throws IOException {
         try (JavaFileOutputStream os = new JavaFileOutputStream(cxt, cxt.getRootClass())) {
-            ROOT_INI.segment(os, "TOP", replace);
+            rootIni.segment(os, "TOP", replace);
             outputEntryPoints(os);
             outputNamespaces(os);
+            outputNamespaceDeclarations(os);
             outputTags(os, tags);
-            ROOT_INI.segment(os, "BOTTOM", replace);
+            rootIni.segment(os, "BOTTOM", replace);
         }
     }
 
@@ -67,31 +69,41 @@ public class OutputRoot {
                         replace.with("uri", entry.getKey())
                                 .with("name", entry.getValue())
                                 .with("prefix", entry.getValue().toLowerCase(Locale.ROOT));
-                        ROOT_INI.segment(os, "NAMESPACE", replace);
+                        rootIni.segment(os, "NAMESPACE", replace);
                     } catch (IOException ex) {
                         throw new RuntimeException(ex);
                     }
                 });
     }
 
+    private void outputNamespaceDeclarations(JavaFileOutputStream os) throws IOException {
+        rootIni.segment(os, "NAMESPACE_DECLARATIONS_START", replace);
+        for (String name : new TreeSet<>(cxt.getInverseNamespaces().values())) {
+            replace.with("name", name);
+            rootIni.segment(os, "NAMESPACE_DECLARATION", replace);
+        }
+        rootIni.segment(os, "NAMESPACE_DECLARATIONS_END", replace);
+    }
+
     private void outputEntryPoints(JavaFileOutputStream os) throws IOException {
-        ROOT_INI.segment(os, "ENTRYPOINTS_START", replace);
+        rootIni.segment(os, "ENTRYPOINTS_START", replace);
         for (String base : bases) {
             QName name = cxt.name(base);
             tags.add(name);
 
             replace.with("method", name.getName())
                     .with("type", cxt.camelcase(name))
-                    .with("method_upper", cxt.constName(name));
+                    .with("method_upper", cxt.constName(name))
+                    .with("prefix", cxt.prefix(name));
             String documentation = cxt.getDoc(name);
 
             if (documentation != null) {
                 replace.with("doc", documentation);
-                ROOT_INI.segment(os, "ENTRYPOINT_COMMENT", replace);
+                rootIni.segment(os, "ENTRYPOINT_COMMENT", replace);
             }
-            ROOT_INI.segment(os, "ENTRYPOINT", replace);
+            rootIni.segment(os, "ENTRYPOINT", replace);
         }
-        ROOT_INI.segment(os, "ENTRYPOINTS_END", replace);
+        rootIni.segment(os, "ENTRYPOINTS_END", replace);
     }
 
     public void outputTags(OutputStream os, Set<QName> tags) throws IOException {
@@ -99,15 +111,15 @@ public class OutputRoot {
                 .sorted()
                 .map(s -> "NS_" + s.toUpperCase(Locale.ROOT))
                 .collect(Collectors.joining(", "));
-        ROOT_INI.segment(os, "TAGS_START", replace);
+        rootIni.segment(os, "TAGS_START", replace);
         for (QName tag : tags) {
             replace.with("tagname", tag.getName())
                     .with("tagname_upper", cxt.constName(tag))
                     .with("prefix", cxt.prefix(tag))
                     .with("extra_ns", allNamespaces);
-            ROOT_INI.segment(os, "TAG", replace);
+            rootIni.segment(os, "TAG", replace);
         }
-        ROOT_INI.segment(os, "TAGS_END", replace);
+        rootIni.segment(os, "TAGS_END", replace);
     }
 
 }
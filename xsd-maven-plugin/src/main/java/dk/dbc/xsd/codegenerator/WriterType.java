@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 DBC A/S (http://dbc.dk/)
+ *
+ * This is part of opensearch-xsd-maven-plugin
+ *
+ * opensearch-xsd-maven-plugin is free software: you can redistribute it with/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * opensearch-xsd-maven-plugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dbc.xsd.codegenerator;
+
+import java.util.Locale;
+
+/**
+ * The API the generated classes write through
+ *
+ * @author DBC {@literal <dbc.dk>}
+ */
+public enum WriterType {
+
+    /**
+     * Pre-built events added to an {@link javax.xml.stream.XMLEventWriter}
+     */
+    EVENT("root.ini", "class.ini"),
+    /**
+     * Cursor calls on an {@link javax.xml.stream.XMLStreamWriter}, no events
+     * are created for the tags
+     */
+    STREAM("root-stream.ini", "class-stream.ini"),
+    /**
+     * As {@link #STREAM}, but the classes can also write BadgerFish JSON
+     * directly to a {@link com.fasterxml.jackson.core.JsonGenerator}, with the
+     * single entry rules resolved when the classes are generated
+     */
+    STREAM_JSON("root-stream-json.ini", "class-stream-json.ini");
+
+    private final String rootTemplate;
+    private final String classTemplate;
+    private Ini rootIni;
+    private Ini classIni;
+
+    WriterType(String rootTemplate, String classTemplate) {
+        this.rootTemplate = rootTemplate;
+        this.classTemplate = classTemplate;
+    }
+
+    public static WriterType from(String value) {
+        if (value == null || value.isEmpty())
+            return EVENT;
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Unknown writer: " + value);
+        }
+    }
+
+    public synchronized Ini rootIni() {
+        if (rootIni == null)
+            rootIni = new Ini(rootTemplate);
+        return rootIni;
+    }
+
+    public synchronized Ini classIni() {
+        if (classIni == null)
+            classIni = new Ini(classTemplate);
+        return classIni;
+    }
+
+}